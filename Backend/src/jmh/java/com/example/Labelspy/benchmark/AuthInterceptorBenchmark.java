@@ -0,0 +1,95 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.interceptor.FirebaseAuthInterceptor;
+import com.example.Labelspy.service.FirebaseAuthService;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * FirebaseAuthInterceptor.preHandle for an authenticated request, with and without the verified
+ * token cache. FirebaseAuth is mocked, but each verification checks a real RS256 signature so a
+ * miss costs what the Admin SDK pays once its public keys are loaded. Requests are spread over a
+ * pool of live sessions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class AuthInterceptorBenchmark {
+
+    @Param({"false", "true"})
+    public boolean cacheEnabled;
+
+    @Param({"1000"})
+    public int sessions;
+
+    private FirebaseAuthInterceptor interceptor;
+    private String[] tokens;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair keys = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        tokens = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            String payload = Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(("{\"sub\":\"user-" + i + "\"}").getBytes(StandardCharsets.UTF_8));
+            Signature signer = Signature.getInstance("SHA256withRSA");
+            signer.initSign(keys.getPrivate());
+            signer.update(payload.getBytes(StandardCharsets.US_ASCII));
+            tokens[i] = payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signer.sign());
+        }
+
+        // stub-only mocks skip invocation recording, which would otherwise grow without bound here
+        FirebaseToken decoded = mock(FirebaseToken.class, withSettings().stubOnly());
+        when(decoded.getUid()).thenReturn("user");
+        when(decoded.getEmail()).thenReturn("user@example.com");
+        when(decoded.getClaims()).thenReturn(Map.of("exp", Instant.now().plusSeconds(3600).getEpochSecond()));
+
+        FirebaseAuth firebaseAuth = mock(FirebaseAuth.class, withSettings().stubOnly());
+        when(firebaseAuth.verifyIdToken(anyString())).thenAnswer(invocation -> {
+            String[] parts = invocation.<String>getArgument(0).split("\\.");
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(keys.getPublic());
+            verifier.update(parts[0].getBytes(StandardCharsets.US_ASCII));
+            if (!verifier.verify(Base64.getUrlDecoder().decode(parts[1]))) {
+                throw new IllegalStateException("bad signature");
+            }
+            return decoded;
+        });
+
+        FirebaseAuthService authService =
+                new FirebaseAuthService(firebaseAuth, new SimpleMeterRegistry(), cacheEnabled, 10_000);
+        interceptor = new FirebaseAuthInterceptor(authService, ObservationRegistry.NOOP);
+    }
+
+    @Benchmark
+    public Object preHandle() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/user/profile");
+        request.addHeader("Authorization", "Bearer " + tokens[ThreadLocalRandom.current().nextInt(sessions)]);
+        interceptor.preHandle(request, new MockHttpServletResponse(), null);
+        return request.getAttribute("userId");
+    }
+}
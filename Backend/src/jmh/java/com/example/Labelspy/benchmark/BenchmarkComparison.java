@@ -0,0 +1,94 @@
+package com.example.Labelspy.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Prints the change between two JMH JSON result files, per benchmark and parameter set: the
+ * primary score and the bytes allocated per operation from the GC profiler. Run by the benchmark
+ * profile after the benchmarks when -Djmh.baseline points at an earlier result:
+ * <pre>
+ * git checkout main     &amp;&amp; mvn -Pbenchmark verify &amp;&amp; cp target/jmh-result.json /tmp/main.json
+ * git checkout my-change &amp;&amp; mvn -Pbenchmark verify -Djmh.baseline=/tmp/main.json
+ * </pre>
+ * Without a baseline it does nothing.
+ */
+public final class BenchmarkComparison {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private BenchmarkComparison() {
+    }
+
+    /**
+     * @param args the current result file, then the baseline result file (blank or absent to skip)
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args[1].isBlank()) {
+            return;
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = byKey(objectMapper.readTree(new File(args[1])));
+        Map<String, JsonNode> current = byKey(objectMapper.readTree(new File(args[0])));
+
+        System.out.printf("%n%-70s %14s %14s %8s %12s %12s %8s%n",
+                "Benchmark", "baseline", "current", "change", "B/op before", "B/op after", "change");
+        current.forEach((key, result) -> {
+            JsonNode before = baseline.get(key);
+            double score = result.path("primaryMetric").path("score").asDouble();
+            double allocated = allocation(result);
+            if (before == null) {
+                System.out.printf("%-70s %14s %14.3f %8s %12s %12.0f %8s  (%s)%n",
+                        key, "-", score, "new", "-", allocated, "new", unit(result));
+                return;
+            }
+            double scoreBefore = before.path("primaryMetric").path("score").asDouble();
+            double allocatedBefore = allocation(before);
+            System.out.printf("%-70s %14.3f %14.3f %8s %12.0f %12.0f %8s  (%s)%n",
+                    key, scoreBefore, score, change(scoreBefore, score),
+                    allocatedBefore, allocated, change(allocatedBefore, allocated), unit(result));
+        });
+        baseline.keySet().stream()
+                .filter(key -> !current.containsKey(key))
+                .forEach(key -> System.out.printf("%-70s (not run)%n", key));
+    }
+
+    // benchmark method plus its parameters, e.g. UserProfileBenchmark.profile:countSize=5000
+    private static Map<String, JsonNode> byKey(JsonNode results) {
+        Map<String, JsonNode> byKey = new LinkedHashMap<>();
+        for (JsonNode result : results) {
+            String benchmark = result.path("benchmark").asText();
+            StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+            result.path("params").fields().forEachRemaining(param ->
+                    key.append(':').append(param.getKey()).append('=').append(param.getValue().asText()));
+            byKey.put(key.toString(), result);
+        }
+        return byKey;
+    }
+
+    // older JMH versions prefix secondary metric names with a middle dot
+    private static double allocation(JsonNode result) {
+        Iterator<Map.Entry<String, JsonNode>> metrics = result.path("secondaryMetrics").fields();
+        while (metrics.hasNext()) {
+            Map.Entry<String, JsonNode> metric = metrics.next();
+            if (metric.getKey().endsWith(ALLOCATION)) {
+                return metric.getValue().path("score").asDouble();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static String unit(JsonNode result) {
+        return result.path("primaryMetric").path("scoreUnit").asText();
+    }
+
+    private static String change(double before, double after) {
+        if (Double.isNaN(before) || Double.isNaN(after) || before == 0) {
+            return "-";
+        }
+        return String.format("%+.1f%%", (after - before) * 100 / before);
+    }
+}
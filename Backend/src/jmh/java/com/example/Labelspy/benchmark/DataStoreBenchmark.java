@@ -0,0 +1,135 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.dto.UserDto;
+import com.example.Labelspy.service.DataStore;
+import com.example.Labelspy.service.EmbeddedDataStore;
+import com.example.Labelspy.service.FirestoreService;
+import com.example.Labelspy.service.IngredientDictionary;
+import com.example.Labelspy.service.UserProfileCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.FirestoreOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-request cost of the storage operations behind a scan and the profile screen, for each
+ * DataStore backend. embedded is an on-disk H2 database in a temporary directory; firestore needs
+ * the emulator (FIRESTORE_EMULATOR_HOST) and is selected with -p backend=embedded,firestore.
+ * The profile cache is off so every read reaches the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataStoreBenchmark {
+
+    private static final List<String> INGREDIENTS = List.of("Sugar", "Salt", "Citric acid", "Soy lecithin", "E330",
+            "Water", "Palm oil", "Wheat flour", "Yeast", "Milk powder");
+
+    @Param({"embedded"})
+    public String backend;
+
+    @Param({"1000"})
+    public int historySize;
+
+    @Param({"20"})
+    public int pageSize;
+
+    private DataStore store;
+    private Path directory;
+    private final String userId = "bench-" + UUID.randomUUID();
+    private final AtomicLong scans = new AtomicLong();
+
+    @Setup
+    public void setUp() throws Exception {
+        IngredientDictionary dictionary = new IngredientDictionary();
+        if ("firestore".equals(backend)) {
+            String host = System.getenv("FIRESTORE_EMULATOR_HOST");
+            if (host == null) {
+                throw new IllegalStateException("the firestore backend needs FIRESTORE_EMULATOR_HOST");
+            }
+            FirestoreOptions options = FirestoreOptions.newBuilder()
+                    .setProjectId("labelspy-bench")
+                    .setEmulatorHost(host)
+                    .build();
+            store = new FirestoreService(options.getService(),
+                    new UserProfileCache(new SimpleMeterRegistry(), false, 0, 0), dictionary);
+        } else {
+            directory = Files.createTempDirectory("labelspy-bench");
+            store = new EmbeddedDataStore(dictionary, new ObjectMapper(), directory.toString(), 16, 50);
+        }
+
+        store.createOrUpdateUser(UserDto.builder().uid(userId).email("bench@example.com").displayName("bench").build());
+        for (int i = 0; i < historySize; i += 50) {
+            List<AnalysisResult> batch = new ArrayList<>();
+            for (int j = i; j < Math.min(i + 50, historySize); j++) {
+                batch.add(scan(j));
+            }
+            store.recordScans(userId, batch);
+            store.incrementIngredientCounts(userId, counts(batch));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        store.deleteUser(userId);
+        if (store instanceof EmbeddedDataStore embedded) {
+            embedded.close();
+            try (var files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public Object getUser() {
+        return store.getUserById(userId);
+    }
+
+    @Benchmark
+    public Object historyPage() {
+        return store.getScanHistory(userId, pageSize, null, null, null);
+    }
+
+    @Benchmark
+    public Object topIngredients() {
+        return store.getTopIngredients(userId, 10, 7);
+    }
+
+    /** what a completed scan writes: the history entry and its ingredient counts */
+    @Benchmark
+    public void recordScan() {
+        List<AnalysisResult> batch = List.of(scan((int) scans.incrementAndGet()));
+        store.recordScans(userId, batch);
+        store.incrementIngredientCounts(userId, counts(batch));
+    }
+
+    private static AnalysisResult scan(int n) {
+        AnalysisResult result = new AnalysisResult();
+        result.setScanId(UUID.randomUUID().toString());
+        List<IngredientInfo> ingredients = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            IngredientInfo ingredient = new IngredientInfo();
+            ingredient.setName(INGREDIENTS.get((n + i * 3) % INGREDIENTS.size()));
+            ingredients.add(ingredient);
+        }
+        result.setIngredients(ingredients);
+        return result;
+    }
+
+    private static Map<String, Integer> counts(List<AnalysisResult> batch) {
+        Map<String, Integer> counts = new HashMap<>();
+        batch.forEach(result -> result.getIngredients().forEach(ingredient -> counts.merge(ingredient.getName(), 1, Integer::sum)));
+        return counts;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.service.*;
+import com.example.Labelspy.service.preprocess.ImagePreprocessor;
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+/**
+ * Server-side work of one scan once Gemini has answered: building the request, parsing the
+ * generateContent response into an AnalysisResult, and the observations around both. The
+ * response carries ingredientCount fully described ingredients. GeminiClient is a stub-only mock
+ * answering at once, and caching, dedup, pre-processing and the knowledge base are off, so
+ * every call reaches the parser. metrics=prometheus records through a Prometheus registry with
+ * the percentile histograms production uses; metrics=off uses a no-op observation registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeminiResponseBenchmark {
+
+    private static final String[] CATEGORIES = {"Preservative", "Color", "Emulsifier", "Sweetener", "Thickener"};
+
+    @Param({"20", "200"})
+    public int ingredientCount;
+
+    @Param({"off", "prometheus"})
+    public String metrics;
+
+    private GeminiService geminiService;
+    private byte[] image;
+
+    @Setup
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ObservationRegistry observations = ObservationRegistry.NOOP;
+        if ("prometheus".equals(metrics)) {
+            registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+            registry.config().meterFilter(new MeterFilter() {
+                @Override
+                public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                    if (!id.getName().equals("gemini.call") && !id.getName().equals("gemini.http")) {
+                        return config;
+                    }
+                    return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(true)
+                            .minimumExpectedValue((double) Duration.ofMillis(10).toNanos())
+                            .maximumExpectedValue((double) Duration.ofSeconds(60).toNanos())
+                            .build()
+                            .merge(config);
+                }
+            });
+            observations = ObservationRegistry.create();
+            observations.observationConfig().observationHandler(new DefaultMeterObservationHandler(registry));
+        }
+
+        GeminiMetrics geminiMetrics = new GeminiMetrics(registry, observations);
+        GeminiClient client = mock(GeminiClient.class, withSettings().stubOnly());
+        when(client.generate(anyMap(), any())).thenReturn(CompletableFuture.completedFuture(response(objectMapper)));
+        GeminiCallGuard guard = new GeminiCallGuard(new AimdLimiter(1000, 1, 1000, 0.75, Long.MAX_VALUE),
+                new CircuitBreaker(100, 100, 0.5, 1000, 1), registry, 1, 0, 0);
+        geminiService = new GeminiService(client, guard, objectMapper, new ScanResultCache(objectMapper, registry),
+                new NearDuplicateIndex(objectMapper, registry), new ImagePreprocessor(List.of(), registry, false, 0.85f, 50_000_000),
+                new InFlightScans(objectMapper, registry),
+                new IngredientKnowledgeBase(new IngredientDictionary(), objectMapper, registry, false, "", ""),
+                geminiMetrics);
+
+        // a small image keeps hashing and base64 from hiding the parser
+        image = new byte[4096];
+        new Random(42).nextBytes(image);
+    }
+
+    @Benchmark
+    public Object analyze() throws Exception {
+        return geminiService.analyzeImageAsync(image, "image/jpeg").get();
+    }
+
+    /** generateContent body whose text is the analysis JSON, escaped into a string as Gemini sends it */
+    private String response(ObjectMapper objectMapper) throws Exception {
+        List<Map<String, Object>> ingredients = new ArrayList<>();
+        for (int i = 0; i < ingredientCount; i++) {
+            ingredients.add(Map.of(
+                    "name", "Ingredient " + i,
+                    "eNumber", "E" + (100 + i),
+                    "category", CATEGORIES[i % CATEGORIES.length],
+                    "purpose", "Keeps the product stable and consistent during storage",
+                    "description", "A common food additive produced by fermentation and purified before use",
+                    "alternativeNames", List.of("Additive " + i, "Food ingredient " + i),
+                    "origin", i % 2 == 0 ? "Natural" : "Synthetic",
+                    "safetyNote", "Generally recognised as safe at the levels used in food"));
+        }
+        String text = objectMapper.writeValueAsString(Map.of(
+                "scanId", UUID.randomUUID().toString(), "ingredients", ingredients, "summary", "A typical snack label"));
+        return objectMapper.writeValueAsString(Map.of(
+                "candidates", List.of(Map.of(
+                        "content", Map.of("parts", List.of(Map.of("text", text)), "role", "model"),
+                        "finishReason", "STOP")),
+                "usageMetadata", Map.of("promptTokenCount", 1290, "candidatesTokenCount", 40 * ingredientCount,
+                        "totalTokenCount", 1290 + 40 * ingredientCount)));
+    }
+}
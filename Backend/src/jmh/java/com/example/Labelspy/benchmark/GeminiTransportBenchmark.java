@@ -0,0 +1,148 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.config.GeminiConfig;
+import com.example.Labelspy.service.GeminiClient;
+import com.example.Labelspy.service.GeminiMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Concurrent scan-sized calls against a local mock of generateContent, comparing the previous
+ * default RestTemplate (HttpURLConnection, key in the URL, uncompressed) with GeminiClient. The mock
+ * answers after a fixed model latency with a ~10KB analysis body, gzip-compressed when asked.
+ * Run in sample-time mode so the output includes p99 latency alongside throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(32)
+@Fork(1)
+public class GeminiTransportBenchmark {
+
+    @Param({"20"})
+    public int modelLatencyMs;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String url;
+    private Map<String, Object> requestBody;
+    private RestTemplate restTemplate;
+    private GeminiClient geminiClient;
+    private HttpClient httpClient;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] response = cannedResponse();
+        byte[] gzipped = gzip(response);
+        serverExecutor = Executors.newFixedThreadPool(128);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(modelLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            boolean gzip = Optional.ofNullable(exchange.getRequestHeaders().getFirst("Accept-Encoding"))
+                    .map(value -> value.contains("gzip")).orElse(false);
+            byte[] body = gzip ? gzipped : response;
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            if (gzip) {
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/mock:generateContent";
+
+        byte[] image = new byte[150_000];
+        new Random(1).nextBytes(image);
+        requestBody = Map.of("contents", List.of(Map.of("parts", List.of(
+                Map.of("inline_data", Map.of("mime_type", "image/jpeg",
+                        "data", Base64.getEncoder().encodeToString(image))),
+                Map.of("text", "Analyze the ingredient list")))));
+
+        restTemplate = new RestTemplate();
+
+        GeminiConfig config = new GeminiConfig();
+        config.setApiKey("benchmark");
+        config.setApiUrl(url);
+        config.setRequestTimeoutMs(30_000);
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        geminiClient = new GeminiClient(httpClient, config, new ObjectMapper(),
+                new GeminiMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        httpClient.close();
+    }
+
+    @Benchmark
+    public String restTemplate() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return restTemplate.exchange(url + "?key=benchmark", HttpMethod.POST,
+                new HttpEntity<>(requestBody, headers), String.class).getBody();
+    }
+
+    @Benchmark
+    public String geminiClient() {
+        return geminiClient.generate(requestBody).join();
+    }
+
+    private static byte[] cannedResponse() throws Exception {
+        List<Map<String, Object>> ingredients = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ingredients.add(Map.of("name", "Ingredient " + i, "category", "Emulsifier",
+                    "purpose", "Keeps oil and water mixed in the product",
+                    "description", "A commonly used food additive derived from plant sources",
+                    "origin", "Natural", "safetyNote", "Generally recognised as safe"));
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        String text = mapper.writeValueAsString(Map.of("scanId", "x", "ingredients", ingredients, "summary", "ok"));
+        return mapper.writeValueAsString(Map.of("candidates", List.of(Map.of(
+                "content", Map.of("parts", List.of(Map.of("text", text))),
+                "finishReason", "STOP")))).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
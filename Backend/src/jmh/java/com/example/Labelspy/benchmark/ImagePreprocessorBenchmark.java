@@ -0,0 +1,67 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.service.preprocess.*;
+import com.example.Labelspy.support.SyntheticLabels;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost and payload size of the pre-processing pipeline on a 12MP phone-style photo of a label
+ * with a table border around it. Each trial prints the resulting payload size next to the original,
+ * which together with extraction spot-checks is what max-edge and jpeg-quality are chosen from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ImagePreprocessorBenchmark {
+
+    @Param({"1024", "1600", "2048"})
+    public int maxEdge;
+
+    @Param({"0.6", "0.85"})
+    public float quality;
+
+    @Param({"true", "false"})
+    public boolean grayscale;
+
+    private ImagePreprocessor preprocessor;
+    private byte[] upload;
+
+    @Setup
+    public void setUp() {
+        BufferedImage label = SyntheticLabels.label(3, 2400, 3200);
+        BufferedImage photo = new BufferedImage(3000, 4000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = photo.createGraphics();
+        g.setColor(new Color(90, 70, 50));
+        g.fillRect(0, 0, photo.getWidth(), photo.getHeight());
+        g.drawImage(label, 300, 400, null);
+        g.dispose();
+        upload = SyntheticLabels.jpeg(photo, 0.92f);
+
+        List<ImageStage> stages = List.of(
+                new ResizeStage(maxEdge),
+                new AutoCropStage(true, 24),
+                new GrayscaleStage(grayscale));
+        preprocessor = new ImagePreprocessor(stages, new SimpleMeterRegistry(), true, quality, 50_000_000);
+    }
+
+    @TearDown
+    public void reportPayload() {
+        int payload = preprocessor.process(upload, "image/jpeg").bytes().length;
+        System.out.printf("%n[payload] maxEdge=%d quality=%.2f grayscale=%s: %d -> %d bytes (%.1f%%)%n",
+                maxEdge, quality, grayscale, upload.length, payload, 100.0 * payload / upload.length);
+    }
+
+    @Benchmark
+    public PreprocessedImage process() {
+        return preprocessor.process(upload, "image/jpeg");
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.service.IngredientDictionary;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keying counts by ingredient ID instead of the raw name Gemini returned. rawKey is what
+ * counting did before (trim the name), canonicalId resolves the same name through
+ * IngredientDictionary. The corpus mixes dictionary ingredients written the ways labels and the
+ * model write them (case, spacing, E-number forms, parenthesised qualifiers) with names the
+ * dictionary has never seen. Setup prints how many distinct map keys each approach produces for
+ * the corpus, which is what ingredientCounts, topIngredients and every ranking carry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngredientDictionaryBenchmark {
+
+    private static final String[][] VARIANTS = {
+            {"Soy Lecithin", "soy lecithin", "Soya Lecithin", "Lecithin (E322)", "Emulsifier (E 322)", "E322"},
+            {"Sugar", "sugar", "SUGAR", "Sugar (cane)", "Cane Sugar", "Sucrose"},
+            {"Salt", "salt", "Sea Salt", "Sodium Chloride", "Salt (iodised)"},
+            {"Citric Acid", "citric acid", "Acidity Regulator: Citric Acid (E330)", "E330", "E-330"},
+            {"Xanthan Gum", "xanthan gum", "Thickener (Xanthan Gum)", "E415"},
+            {"Natural Flavouring", "natural flavoring", "Natural Flavors", "natural flavour"},
+            {"Monosodium Glutamate", "MSG", "Flavour Enhancer (E621)", "monosodium glutamate"},
+            {"Wheat Flour", "wheat flour", "Enriched Wheat Flour", "WHEAT FLOUR"},
+    };
+
+    private String[] corpus;
+    private IngredientDictionary dictionary;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        dictionary = new IngredientDictionary();
+        Random random = new Random(42);
+        corpus = new String[4096];
+        for (int i = 0; i < corpus.length; i++) {
+            if (i % 4 == 3) {
+                // a long tail of names the dictionary has not seen
+                corpus[i] = "Ingredient " + random.nextInt(50);
+            } else {
+                String[] variants = VARIANTS[random.nextInt(VARIANTS.length)];
+                // new instances, the way each deserialized response carries its own strings
+                corpus[i] = new String(variants[random.nextInt(variants.length)]);
+            }
+        }
+
+        Set<String> rawKeys = new HashSet<>();
+        Set<String> ids = new HashSet<>();
+        for (String name : corpus) {
+            rawKeys.add(name.trim());
+            ids.add(dictionary.canonicalId(name));
+        }
+        System.out.printf("%n%d names: %d distinct raw keys, %d distinct IDs (%d bytes vs %d bytes of key chars)%n",
+                corpus.length, rawKeys.size(), ids.size(),
+                rawKeys.stream().mapToInt(String::length).sum(), ids.stream().mapToInt(String::length).sum());
+    }
+
+    @Benchmark
+    public String rawKey() {
+        return corpus[next++ & (corpus.length - 1)].trim();
+    }
+
+    @Benchmark
+    public String canonicalId() {
+        return dictionary.canonicalId(corpus[next++ & (corpus.length - 1)]);
+    }
+}
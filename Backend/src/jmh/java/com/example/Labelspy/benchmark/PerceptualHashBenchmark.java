@@ -0,0 +1,116 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.support.SyntheticLabels;
+import com.example.Labelspy.util.BkTree;
+import com.example.Labelspy.util.PerceptualHash;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Near-duplicate lookup over a synthetic corpus: a set of generated labels padded with random
+ * hashes up to corpusSize, queried with perturbed re-photographs (should match) and unseen labels
+ * (should not). The aux counters report match rate and how many matches resolved to the right label.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerceptualHashBenchmark {
+
+    private static final int LABELS = 100;
+    private static final long MAX_PIXELS = 50_000_000;
+
+    @Param({"1000", "10000"})
+    public int corpusSize;
+
+    @Param({"64"})
+    public int maxDistance;
+
+    private BkTree<long[], Integer> tree;
+    private long[][] corpus;
+    private long[][] queries;
+    private int[] expected;
+    private byte[] photo;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        tree = new BkTree<>(PerceptualHash::distance);
+        corpus = new long[corpusSize][];
+        BufferedImage[] labels = new BufferedImage[LABELS];
+        for (int i = 0; i < corpusSize; i++) {
+            if (i < LABELS) {
+                labels[i] = SyntheticLabels.label(i, 480, 640);
+                corpus[i] = PerceptualHash.of(labels[i]);
+            } else {
+                corpus[i] = random.longs(PerceptualHash.BITS / Long.SIZE).toArray();
+            }
+            tree.add(corpus[i], i);
+        }
+
+        queries = new long[LABELS * 2][];
+        expected = new int[queries.length];
+        for (int i = 0; i < LABELS; i++) {
+            BufferedImage copy = SyntheticLabels.perturb(labels[i], 5000 + i);
+            queries[i] = PerceptualHash.of(SyntheticLabels.jpeg(copy, 0.6f), MAX_PIXELS);
+            expected[i] = i;
+        }
+        for (int i = LABELS; i < queries.length; i++) {
+            queries[i] = PerceptualHash.of(SyntheticLabels.label(100_000 + i, 480, 640));
+            expected[i] = -1;
+        }
+        photo = SyntheticLabels.jpeg(SyntheticLabels.label(7, 1200, 1600), 0.85f);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class MatchCounters {
+        public long matched;
+        public long correct;
+        public long falseMatches;
+        public long queries;
+        int next;
+    }
+
+    @Benchmark
+    public BkTree.Match<long[], Integer> bkTreeLookup(MatchCounters counters) {
+        int q = counters.next++ % queries.length;
+        BkTree.Match<long[], Integer> match = tree.nearest(queries[q], maxDistance);
+        counters.queries++;
+        if (match != null) {
+            counters.matched++;
+            if (match.value() == expected[q]) {
+                counters.correct++;
+            } else {
+                counters.falseMatches++;
+            }
+        }
+        return match;
+    }
+
+    @Benchmark
+    public int linearScan(MatchCounters counters) {
+        int q = counters.next++ % queries.length;
+        int best = -1;
+        int bestDistance = maxDistance + 1;
+        for (int i = 0; i < corpus.length; i++) {
+            int distance = PerceptualHash.distance(queries[q], corpus[i]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long[] hashUpload() throws Exception {
+        return PerceptualHash.of(photo, MAX_PIXELS);
+    }
+}
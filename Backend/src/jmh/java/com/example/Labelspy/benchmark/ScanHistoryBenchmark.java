@@ -0,0 +1,114 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.dto.ScanSummary;
+import com.example.Labelspy.dto.UserDto;
+import com.example.Labelspy.service.FirestoreService;
+import com.example.Labelspy.service.IngredientDictionary;
+import com.example.Labelspy.service.ScanHistoryPage;
+import com.example.Labelspy.service.UserProfileCache;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Server-side cost of serving a profile plus the first page of history as a user's history grows.
+ * legacyEmbedded decodes an embedded scanHistory array of historySize entries the way the user
+ * document used to be read on every profile, history and top-ingredients request; subcollection
+ * reads the profile and a page of pageSize scan documents through FirestoreService. Firestore is a
+ * stub-only mock, so the numbers exclude network time and the transfer of the embedded array,
+ * which also grows with history in the legacy layout.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanHistoryBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int historySize;
+
+    @Param({"20"})
+    public int pageSize;
+
+    private List<Map<String, Object>> embeddedHistory;
+    private FirestoreService firestoreService;
+
+    @Setup
+    public void setUp() throws Exception {
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 9, 0);
+        embeddedHistory = new ArrayList<>();
+        for (int i = 0; i < historySize; i++) {
+            embeddedHistory.add(Map.of(
+                    "scanId", UUID.randomUUID().toString(),
+                    "timestamp", start.plusMinutes(i * 37L).toString(),
+                    "ingredientNames", List.of("Sugar", "Salt", "Citric acid", "Soy lecithin", "E330")));
+        }
+
+        Firestore firestore = mock(Firestore.class, withSettings().stubOnly());
+        CollectionReference users = mock(CollectionReference.class, withSettings().stubOnly());
+        DocumentReference userRef = mock(DocumentReference.class, withSettings().stubOnly());
+        CollectionReference scans = mock(CollectionReference.class, withSettings().stubOnly());
+        Query query = mock(Query.class, withSettings().stubOnly().defaultAnswer(RETURNS_SELF));
+        when(firestore.collection("users")).thenReturn(users);
+        when(users.document(anyString())).thenReturn(userRef);
+        when(userRef.collection("scans")).thenReturn(scans);
+        when(scans.orderBy(anyString(), any(Query.Direction.class))).thenReturn(query);
+
+        // profile after migration: counters only, history lives in the subcollection
+        DocumentSnapshot profile = mock(DocumentSnapshot.class, withSettings().stubOnly());
+        when(profile.exists()).thenReturn(true);
+        when(profile.getData()).thenReturn(Map.of("email", "user@example.com", "displayName", "user",
+                "scanCount", (long) historySize, "ingredientCounts", Map.of("Sugar", historySize)));
+        when(userRef.get()).thenReturn(ApiFutures.immediateFuture(profile));
+        when(firestore.runTransaction(any())).thenReturn(ApiFutures.immediateFuture(true));
+
+        List<QueryDocumentSnapshot> page = new ArrayList<>();
+        for (int i = 0; i <= pageSize; i++) {
+            Map<String, Object> entry = embeddedHistory.get(historySize - 1 - i);
+            QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class, withSettings().stubOnly());
+            when(document.getId()).thenReturn((String) entry.get("scanId"));
+            when(document.getTimestamp("timestamp")).thenReturn(Timestamp.now());
+            when(document.get("ingredientNames")).thenReturn(entry.get("ingredientNames"));
+            page.add(document);
+        }
+        QuerySnapshot snapshot = mock(QuerySnapshot.class, withSettings().stubOnly());
+        when(snapshot.getDocuments()).thenReturn(page);
+        when(query.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+
+        // profile cache off so every iteration pays the document read, as before the cache existed
+        firestoreService = new FirestoreService(firestore, new UserProfileCache(new SimpleMeterRegistry(), false, 0, 0),
+                new IngredientDictionary());
+    }
+
+    @Benchmark
+    public Object subcollection() {
+        UserDto user = firestoreService.getUserById("uid");
+        ScanHistoryPage history = firestoreService.getScanHistory("uid", pageSize, null, null, null);
+        return history.scans().size() + user.getScanCount();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Object legacyEmbedded() {
+        List<ScanSummary> history = new ArrayList<>(embeddedHistory.size());
+        for (Map<String, Object> item : embeddedHistory) {
+            ScanSummary summary = new ScanSummary();
+            summary.setScanId((String) item.get("scanId"));
+            summary.setTimestamp(LocalDateTime.parse((String) item.get("timestamp")));
+            summary.setIngredientNames((List<String>) item.get("ingredientNames"));
+            history.add(summary);
+        }
+        return history;
+    }
+}
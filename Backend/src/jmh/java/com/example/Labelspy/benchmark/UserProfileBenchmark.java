@@ -0,0 +1,118 @@
+package com.example.Labelspy.benchmark;
+
+import com.example.Labelspy.service.FirestoreService;
+import com.example.Labelspy.service.IngredientDictionary;
+import com.example.Labelspy.service.UserProfileCache;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Server-side cost of the profile and top-ingredients reads for a user with countSize distinct
+ * ingredients. profile decodes the user document (convertMapToUser); topRanked reads the stored
+ * topIngredients ranking; topUnranked falls back to ranking the whole ingredientCounts map, as
+ * for users not ranked since the field was introduced; topWindow merges 30 daily buckets of a
+ * tenth of the ingredients each. Firestore is a stub-only mock and the profile cache is off, so
+ * every call decodes the documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserProfileBenchmark {
+
+    private static final int WINDOW_DAYS = 30;
+    private static final int LIMIT = 10;
+
+    @Param({"100", "5000"})
+    public int countSize;
+
+    private FirestoreService firestoreService;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        Map<String, Object> counts = new HashMap<>();
+        for (int i = 0; i < countSize; i++) {
+            counts.put("ingredient " + i, (long) (1 + random.nextInt(500)));
+        }
+        Map<String, Object> profileData = Map.of("email", "user@example.com", "displayName", "user",
+                "scanCount", 1000L, "ingredientCounts", counts);
+
+        Firestore firestore = mock(Firestore.class, withSettings().stubOnly());
+        CollectionReference users = mock(CollectionReference.class, withSettings().stubOnly());
+        when(firestore.collection("users")).thenReturn(users);
+
+        // stored ranking, as written by incrementIngredientCounts
+        List<Map<String, Object>> ranking = counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Object>comparingByValue(Comparator.comparingLong(count -> -(long) count)))
+                .limit(50)
+                .map(entry -> Map.<String, Object>of("name", entry.getKey(), "count", entry.getValue()))
+                .toList();
+        stubUser(users, "ranked", profileData, ranking);
+        stubUser(users, "unranked", profileData, null);
+
+        List<DocumentSnapshot> buckets = new ArrayList<>();
+        for (int day = 0; day < WINDOW_DAYS; day++) {
+            Map<String, Object> dayCounts = new HashMap<>();
+            for (int i = 0; i < Math.max(1, countSize / 10); i++) {
+                dayCounts.put("ingredient " + random.nextInt(countSize), (long) (1 + random.nextInt(5)));
+            }
+            DocumentSnapshot bucket = mock(DocumentSnapshot.class, withSettings().stubOnly());
+            when(bucket.get("counts")).thenReturn(dayCounts);
+            buckets.add(bucket);
+        }
+        when(firestore.getAll(any(DocumentReference[].class))).thenReturn(ApiFutures.immediateFuture(buckets));
+
+        firestoreService = new FirestoreService(firestore, new UserProfileCache(new SimpleMeterRegistry(), false, 0, 0),
+                new IngredientDictionary());
+    }
+
+    @Benchmark
+    public Object profile() {
+        return firestoreService.getUserById("ranked");
+    }
+
+    @Benchmark
+    public Object topRanked() {
+        return firestoreService.getTopIngredients("ranked", LIMIT, null);
+    }
+
+    @Benchmark
+    public Object topUnranked() {
+        return firestoreService.getTopIngredients("unranked", LIMIT, null);
+    }
+
+    @Benchmark
+    public Object topWindow() {
+        return firestoreService.getTopIngredients("ranked", LIMIT, WINDOW_DAYS);
+    }
+
+    private static void stubUser(CollectionReference users, String userId, Map<String, Object> profileData,
+                                 List<Map<String, Object>> ranking) {
+        DocumentReference userRef = mock(DocumentReference.class, withSettings().stubOnly());
+        when(users.document(userId)).thenReturn(userRef);
+
+        DocumentSnapshot profile = mock(DocumentSnapshot.class, withSettings().stubOnly());
+        when(profile.exists()).thenReturn(true);
+        when(profile.getData()).thenReturn(profileData);
+        when(userRef.get()).thenReturn(ApiFutures.immediateFuture(profile));
+
+        DocumentSnapshot ranked = mock(DocumentSnapshot.class, withSettings().stubOnly());
+        when(ranked.get("topIngredients")).thenReturn(ranking);
+        when(userRef.get(any(FieldMask.class))).thenReturn(ApiFutures.immediateFuture(ranked));
+
+        CollectionReference daily = mock(CollectionReference.class, withSettings().stubOnly());
+        when(userRef.collection("dailyCounts")).thenReturn(daily);
+        when(daily.document(anyString())).thenReturn(mock(DocumentReference.class, withSettings().stubOnly()));
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.Labelspy.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The one Firebase Auth emulator endpoint the service calls. With FIREBASE_AUTH_EMULATOR_HOST
+ * set, the Admin SDK accepts unsigned ID tokens but checks each against accounts:lookup as it
+ * would for revocation; every looked-up user exists, is enabled and has never had tokens revoked.
+ */
+class AuthEmulatorStub implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final LongAdder lookups = new LongAdder();
+
+    AuthEmulatorStub(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** Value for FIREBASE_AUTH_EMULATOR_HOST */
+    String host() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    long lookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestURI().getPath().endsWith("/accounts:lookup")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            lookups.increment();
+            JsonNode request;
+            try (InputStream body = exchange.getRequestBody()) {
+                request = objectMapper.readTree(body);
+            }
+            List<Map<String, Object>> users = new ArrayList<>();
+            for (JsonNode uid : request.path("localId")) {
+                users.add(Map.of("localId", uid.asText(), "email", uid.asText() + "@loadtest.example.com",
+                        "emailVerified", true, "disabled", false, "validSince", "0"));
+            }
+            byte[] response = objectMapper.writeValueAsBytes(Map.of("kind", "identitytoolkit#GetAccountInfoResponse", "users", users));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        }
+    }
+}
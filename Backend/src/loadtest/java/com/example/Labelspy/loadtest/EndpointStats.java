@@ -0,0 +1,59 @@
+package com.example.Labelspy.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Outcomes of one endpoint during one load step. Latency runs from when the request was due to
+ * be sent, not when it was, so a server that falls behind is charged for the queueing it causes
+ * instead of hiding it (coordinated omission).
+ */
+final class EndpointStats {
+
+    private final Histogram latencyMicros = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(10), 3);
+    private final LongAdder succeeded = new LongAdder();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    void success(long latencyNanos) {
+        latencyMicros.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), latencyMicros.getHighestTrackableValue()));
+        succeeded.increment();
+    }
+
+    /**
+     * @param reason an HTTP status or exception name
+     */
+    void failure(String reason, long latencyNanos) {
+        latencyMicros.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), latencyMicros.getHighestTrackableValue()));
+        failures.computeIfAbsent(reason, key -> new LongAdder()).increment();
+    }
+
+    long succeeded() {
+        return succeeded.sum();
+    }
+
+    long total() {
+        return latencyMicros.getTotalCount();
+    }
+
+    /** Latency at a percentile, in milliseconds, failures included */
+    double percentileMillis(double percentile) {
+        return latencyMicros.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    double maxMillis() {
+        return latencyMicros.getMaxValue() / 1000.0;
+    }
+
+    String failures() {
+        return new TreeMap<>(failures).entrySet().stream()
+                .map(failure -> failure.getKey() + " x" + failure.getValue().sum())
+                .collect(Collectors.joining(", "));
+    }
+}
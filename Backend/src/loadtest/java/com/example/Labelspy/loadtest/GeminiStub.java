@@ -0,0 +1,231 @@
+package com.example.Labelspy.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Gemini generateContent and streamGenerateContent endpoints. It answers
+ * the scan, batch and describe prompts GeminiService sends with well-formed results after a
+ * log-normal delay, and fails a configurable share of calls with 503 or 429 the way the real API
+ * does when overloaded. Each request runs on its own virtual thread, so the stub never becomes
+ * the bottleneck it is standing in for.
+ */
+public class GeminiStub implements AutoCloseable {
+
+    private static final String[] KNOWN_INGREDIENTS = {
+            "Sugar", "Salt", "Water", "Wheat flour", "Palm oil", "Sunflower oil", "Skimmed milk powder",
+            "Cocoa butter", "Citric acid", "Soy lecithin", "Glucose syrup", "Corn starch", "Yeast",
+            "Sodium bicarbonate", "Ascorbic acid", "Potassium sorbate", "Xanthan gum", "Natural flavouring",
+            "Whey powder", "Dextrose", "Maltodextrin", "Pectin", "Tartrazine", "Carmine"};
+    private static final String[] CATEGORIES = {"Preservative", "Color", "Emulsifier", "Sweetener", "Thickener", "Base"};
+    private static final Pattern BATCH = Pattern.compile("You are given (\\d+) product images");
+    private static final Pattern DESCRIBE_ENTRY = Pattern.compile("(?m)^(\\d+)\\. (.+?)(?: \\((E\\w+)\\))?$");
+    // z-score of the 99th percentile of a standard normal
+    private static final double Z_99 = 2.3263;
+
+    /**
+     * @param latencyMedianMs median time to a complete response
+     * @param latencyP99Ms 99th percentile of that time; sets the spread of the log-normal distribution
+     * @param errorRate share of calls answered 503
+     * @param throttleRate share of calls answered 429
+     * @param minIngredients fewest ingredients read from a label
+     * @param maxIngredients most ingredients read from a label
+     * @param unknownRate share of ingredients the knowledge base will not know, which makes the service describe them
+     */
+    public record Settings(long latencyMedianMs, long latencyP99Ms, double errorRate, double throttleRate,
+                           int minIngredients, int maxIngredients, double unknownRate) {
+    }
+
+    private final Settings settings;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final double sigma;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger unknownNames = new AtomicInteger();
+
+    public GeminiStub(int port, Settings settings) throws IOException {
+        this.settings = settings;
+        this.sigma = Math.log(Math.max(settings.latencyP99Ms(), settings.latencyMedianMs()) / (double) Math.max(1, settings.latencyMedianMs())) / Z_99;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** URL of the generateContent endpoint, for gemini.api.url */
+    public String generateUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/stub:generateContent";
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    /** Most calls open at once since the last call to this method */
+    public int takePeakInFlight() {
+        return peakInFlight.getAndSet(inFlight.get());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int open = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(open, Math::max);
+        calls.increment();
+        try (exchange) {
+            JsonNode request;
+            try (InputStream body = exchange.getRequestBody()) {
+                request = objectMapper.readTree(body);
+            }
+            long latencyMs = sampleLatencyMs();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double failure = random.nextDouble();
+            if (failure < settings.errorRate() + settings.throttleRate()) {
+                failures.increment();
+                // overloaded backends tend to fail fast
+                Thread.sleep(latencyMs / 10);
+                int status = failure < settings.errorRate() ? 503 : 429;
+                send(exchange, status, "application/json",
+                        "{\"error\":{\"code\":" + status + ",\"message\":\"stubbed failure\",\"status\":\""
+                                + (status == 503 ? "UNAVAILABLE" : "RESOURCE_EXHAUSTED") + "\"}}");
+                return;
+            }
+
+            String text = objectMapper.writeValueAsString(answer(promptOf(request)));
+            if (exchange.getRequestURI().getPath().endsWith(":streamGenerateContent")) {
+                stream(exchange, text, latencyMs);
+            } else {
+                Thread.sleep(latencyMs);
+                send(exchange, 200, "application/json", objectMapper.writeValueAsString(chunk(text, "STOP")));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /** Sends the answer as server-sent events, the first after about a third of the latency */
+    private void stream(HttpExchange exchange, String text, long latencyMs) throws IOException, InterruptedException {
+        int chunks = Math.max(1, Math.min(8, text.length() / 256));
+        Thread.sleep(latencyMs / 3);
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int size = (text.length() + chunks - 1) / chunks;
+        for (int i = 0; i < chunks; i++) {
+            if (i > 0) {
+                Thread.sleep(latencyMs * 2 / 3 / chunks);
+            }
+            String part = text.substring(i * size, Math.min(text.length(), (i + 1) * size));
+            Map<String, Object> event = chunk(part, i == chunks - 1 ? "STOP" : "");
+            out.write(("data: " + objectMapper.writeValueAsString(event) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private Map<String, Object> answer(String prompt) {
+        Matcher batch = BATCH.matcher(prompt);
+        if (batch.find()) {
+            int images = Integer.parseInt(batch.group(1));
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (int i = 0; i < images; i++) {
+                Map<String, Object> result = new LinkedHashMap<>(analysis());
+                result.put("imageIndex", i);
+                results.add(result);
+            }
+            return Map.of("results", results);
+        }
+        if (prompt.startsWith("Describe each of these food ingredients")) {
+            List<Map<String, Object>> described = new ArrayList<>();
+            Matcher entry = DESCRIBE_ENTRY.matcher(prompt);
+            while (entry.find()) {
+                Map<String, Object> ingredient = described(entry.group(2), entry.group(3));
+                ingredient.put("index", Integer.parseInt(entry.group(1)));
+                described.add(ingredient);
+            }
+            return Map.of("ingredients", described);
+        }
+        return analysis();
+    }
+
+    private Map<String, Object> analysis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int count = random.nextInt(settings.minIngredients(), settings.maxIngredients() + 1);
+        List<Map<String, Object>> ingredients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = random.nextDouble() < settings.unknownRate()
+                    ? "Stub additive " + unknownNames.incrementAndGet()
+                    : KNOWN_INGREDIENTS[random.nextInt(KNOWN_INGREDIENTS.length)];
+            ingredients.add(described(name, null));
+        }
+        return Map.of("scanId", UUID.randomUUID().toString(), "ingredients", ingredients,
+                "summary", "A packaged food with " + count + " listed ingredients");
+    }
+
+    private static Map<String, Object> described(String name, String eNumber) {
+        int hash = Math.abs(name.hashCode());
+        Map<String, Object> ingredient = new LinkedHashMap<>();
+        ingredient.put("name", name);
+        ingredient.put("eNumber", eNumber);
+        ingredient.put("category", CATEGORIES[hash % CATEGORIES.length]);
+        ingredient.put("purpose", "Gives the product its texture and keeps it stable during storage");
+        ingredient.put("description", name + " is a common food ingredient used in packaged products");
+        ingredient.put("alternativeNames", List.of(name.toLowerCase(Locale.ROOT)));
+        ingredient.put("origin", hash % 2 == 0 ? "Natural" : "Synthetic");
+        ingredient.put("safetyNote", "Generally recognised as safe at the levels used in food");
+        return ingredient;
+    }
+
+    private static Map<String, Object> chunk(String text, String finishReason) {
+        Map<String, Object> candidate = new LinkedHashMap<>();
+        candidate.put("content", Map.of("parts", List.of(Map.of("text", text)), "role", "model"));
+        if (!finishReason.isEmpty()) {
+            candidate.put("finishReason", finishReason);
+        }
+        return Map.of("candidates", List.of(candidate),
+                "usageMetadata", Map.of("promptTokenCount", 1290, "candidatesTokenCount", text.length() / 4,
+                        "totalTokenCount", 1290 + text.length() / 4));
+    }
+
+    private static String promptOf(JsonNode request) {
+        JsonNode parts = request.path("contents").path(0).path("parts");
+        return parts.path(parts.size() - 1).path("text").asText("").strip();
+    }
+
+    private long sampleLatencyMs() {
+        return Math.round(settings.latencyMedianMs() * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
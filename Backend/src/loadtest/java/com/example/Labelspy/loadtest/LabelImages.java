@@ -0,0 +1,100 @@
+package com.example.Labelspy.loadtest;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Renders photo-like JPEG label images: dark text on an unevenly lit background with sensor
+ * noise, so they compress like phone photos and pre-processing does the same work it does on
+ * real uploads. Every image differs, so hashes and perceptual hashes differ too.
+ */
+final class LabelImages {
+
+    private static final String[] LINES = {
+            "INGREDIENTS: Wheat flour, Sugar, Palm oil,", "Cocoa butter, Skimmed milk powder, Salt,",
+            "Emulsifier: Soy lecithin (E322), Raising", "agent: Sodium bicarbonate, Citric acid,",
+            "Natural flavouring. May contain nuts.", "Store in a cool dry place. Best before:"};
+
+    private LabelImages() {
+    }
+
+    /**
+     * @param count images per size
+     * @param sizes width x height of each image set, e.g. 3024x4032 for a 12 MP phone photo
+     * @param seed makes runs comparable
+     */
+    static List<byte[]> render(int count, List<Dimension> sizes, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<byte[]> images = new ArrayList<>();
+        for (Dimension size : sizes) {
+            for (int i = 0; i < count; i++) {
+                images.add(jpeg(render(size.width, size.height, random), 0.85f));
+            }
+        }
+        return images;
+    }
+
+    private static BufferedImage render(int width, int height, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        // lit from one corner, as a label photographed under a lamp
+        int tint = random.nextInt(30);
+        graphics.setPaint(new GradientPaint(0, 0, new Color(250 - tint, 245 - tint, 230),
+                width, height, new Color(170 - tint, 165 - tint, 150)));
+        graphics.fillRect(0, 0, width, height);
+
+        int fontSize = Math.max(12, width / 28);
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, fontSize));
+        graphics.setColor(new Color(30, 30, 35));
+        int x = width / 12 + random.nextInt(width / 20);
+        int y = height / 5 + random.nextInt(height / 10);
+        for (int line = 0; line < LINES.length * 2 && y < height - fontSize; line++) {
+            graphics.drawString(LINES[(line + random.nextInt(LINES.length)) % LINES.length], x, y);
+            y += fontSize * 3 / 2;
+        }
+        graphics.dispose();
+
+        int[] row = new int[width];
+        for (int py = 0; py < height; py++) {
+            image.getRGB(0, py, width, 1, row, 0, width);
+            for (int px = 0; px < width; px++) {
+                int noise = random.nextInt(13) - 6;
+                int rgb = row[px];
+                row[px] = clamp((rgb >> 16 & 0xff) + noise) << 16 | clamp((rgb >> 8 & 0xff) + noise) << 8
+                        | clamp((rgb & 0xff) + noise);
+            }
+            image.setRGB(0, py, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static byte[] jpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.Labelspy.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Offline load test. Starts the Gemini and Auth emulator stubs, launches the packaged service
+ * with the loadtest profile (in-memory storage, emulator auth, Gemini pointed at the stub), then drives /api/scan,
+ * /api/user/profile, /api/user/scan-history and /api/user/top-ingredients at each target rate in
+ * turn. Requests are sent open-loop on a fixed schedule, so a slow server builds a backlog the
+ * way real clients would. Each step reports throughput, latency percentiles, failures and the
+ * server gauges sampled meanwhile; the closing table shows where the service stops keeping up.
+ * <p>
+ * Run with {@code mvn -Ploadtest verify -Dloadtest.args="--rps=5,10,20,40 --step-seconds=60"}.
+ * Options, all {@code --name=value}:
+ * <ul>
+ *   <li>rps: comma-separated target rates, one step each (default 5,10,20)</li>
+ *   <li>step-seconds, warmup-seconds: length of each step, and of the unmeasured warm-up before the first (60, 15)</li>
+ *   <li>mix: relative weights of scan, profile, history and top (scan=1,profile=3,history=3,top=1)</li>
+ *   <li>users: distinct signed-in users (500)</li>
+ *   <li>images, image-sizes: label images rendered per size, and their sizes (16, 1200x1600,3024x4032)</li>
+ *   <li>gemini-latency-ms, gemini-p99-ms: median and 99th percentile of stub latency (2500, 8000)</li>
+ *   <li>gemini-error-rate, gemini-throttle-rate: share of stub calls failing with 503 and 429 (0.01, 0)</li>
+ *   <li>gemini-ingredients: min-max ingredients per label (8-30)</li>
+ *   <li>gemini-unknown-rate: share of ingredients the knowledge base does not know (0.1)</li>
+ *   <li>target: base URL of an already running service; skips launching one (its Gemini and Auth emulator must be these stubs)</li>
+ *   <li>app-jar, app-port, app-management-port, app-jvm-args, app-args: how the service is launched
+ *       (the packaged jar, 18080, 18082, -Xmx1g, none)</li>
+ *   <li>metrics-target: base URL of the service's management port, scraped for server gauges
+ *       (the launched service's, or target when given)</li>
+ *   <li>stub-port, auth-port: Gemini stub and Auth emulator stub ports (18081, 9099)</li>
+ *   <li>project-id: Firebase project the emulator tokens are issued for (labelspy-loadtest)</li>
+ *   <li>timeout-seconds, max-outstanding: per-request timeout, and the backlog beyond which requests are dropped (120, 20000)</li>
+ * </ul>
+ * Storage is in-memory H2 unless the service is launched with STORAGE_BACKEND=firestore and
+ * FIRESTORE_EMULATOR_HOST set, which it inherits.
+ */
+public final class LoadGenerator {
+
+    private static final List<String> ENDPOINTS = List.of("scan", "profile", "history", "top");
+    private static final String BOUNDARY = "loadtest-boundary-7d3f";
+
+    private final Map<String, String> options;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient httpClient;
+    private final ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final String projectId;
+    private final List<String> tokens = new ArrayList<>();
+    private List<byte[]> scanBodies;
+    private String target;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.projectId = option("project-id", "labelspy-loadtest");
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        GeminiStub.Settings stubSettings = new GeminiStub.Settings(
+                Long.parseLong(option("gemini-latency-ms", "2500")),
+                Long.parseLong(option("gemini-p99-ms", "8000")),
+                Double.parseDouble(option("gemini-error-rate", "0.01")),
+                Double.parseDouble(option("gemini-throttle-rate", "0")),
+                Integer.parseInt(option("gemini-ingredients", "8-30").split("-")[0]),
+                Integer.parseInt(option("gemini-ingredients", "8-30").split("-")[1]),
+                Double.parseDouble(option("gemini-unknown-rate", "0.1")));
+        try (GeminiStub stub = new GeminiStub(Integer.parseInt(option("stub-port", "18081")), stubSettings);
+             AuthEmulatorStub auth = new AuthEmulatorStub(Integer.parseInt(option("auth-port", "9099")))) {
+            System.out.printf("Gemini stub at %s: %s%nAuth emulator stub at %s%n", stub.generateUrl(), stubSettings, auth.host());
+
+            Process app = null;
+            target = options.get("target");
+            String metricsTarget = options.getOrDefault("metrics-target", target);
+            if (target == null) {
+                int port = Integer.parseInt(option("app-port", "18080"));
+                int managementPort = Integer.parseInt(option("app-management-port", "18082"));
+                target = "http://127.0.0.1:" + port;
+                metricsTarget = options.getOrDefault("metrics-target", "http://127.0.0.1:" + managementPort);
+                app = launch(port, managementPort, stub.generateUrl(), auth.host());
+            }
+            Process launched = app;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (launched != null) {
+                    launched.destroy();
+                }
+            }));
+            try {
+                awaitHealthy(app);
+                prepare();
+                try (ServerSampler sampler = new ServerSampler(httpClient, metricsTarget)) {
+                    drive(stub, sampler);
+                }
+            } finally {
+                if (app != null) {
+                    app.destroy();
+                    app.waitFor(30, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    private Process launch(int port, int managementPort, String geminiUrl, String authEmulatorHost) throws IOException {
+        File jar = options.containsKey("app-jar") ? new File(options.get("app-jar")) : packagedJar();
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(split(option("app-jvm-args", "-Xmx1g")));
+        command.addAll(List.of("-jar", jar.getPath(), "--spring.profiles.active=loadtest", "--server.port=" + port,
+                "--management.server.port=" + managementPort));
+        command.addAll(split(option("app-args", "")));
+        File log = new File(jar.getParentFile(), "loadtest-app.log");
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log);
+        // the Admin SDK accepts unsigned tokens when pointed at the Auth emulator
+        builder.environment().put("FIREBASE_AUTH_EMULATOR_HOST", authEmulatorHost);
+        builder.environment().put("FIREBASE_PROJECT_ID", projectId);
+        builder.environment().put("LOADTEST_GEMINI_URL", geminiUrl);
+        System.out.printf("Launching %s (log: %s)%n", String.join(" ", command), log);
+        return builder.start();
+    }
+
+    private static File packagedJar() {
+        File[] jars = new File("target").listFiles((dir, name) -> name.endsWith(".jar") && !name.endsWith("-plain.jar"));
+        if (jars == null || jars.length == 0) {
+            throw new IllegalStateException("No jar in target/; run through mvn -Ploadtest verify or pass --app-jar");
+        }
+        return jars[0];
+    }
+
+    private void awaitHealthy(Process app) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        while (System.nanoTime() < deadline) {
+            if (app != null && !app.isAlive()) {
+                throw new IllegalStateException("Service exited with status " + app.exitValue() + "; see loadtest-app.log");
+            }
+            try {
+                HttpResponse<Void> response = httpClient.send(HttpRequest.newBuilder(URI.create(target + "/api/health"))
+                        .timeout(Duration.ofSeconds(2)).build(), HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    System.out.printf("Service healthy at %s%n", target);
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Service at " + target + " did not become healthy");
+    }
+
+    private void prepare() throws Exception {
+        int users = Integer.parseInt(option("users", "500"));
+        for (int i = 0; i < users; i++) {
+            tokens.add(emulatorToken("loadtest-user-" + i));
+        }
+
+        List<Dimension> sizes = new ArrayList<>();
+        for (String size : option("image-sizes", "1200x1600,3024x4032").split(",")) {
+            String[] wh = size.trim().split("x");
+            sizes.add(new Dimension(Integer.parseInt(wh[0]), Integer.parseInt(wh[1])));
+        }
+        List<byte[]> images = LabelImages.render(Integer.parseInt(option("images", "16")), sizes, 42);
+        scanBodies = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            scanBodies.add(multipart("label-" + i + ".jpg", images.get(i)));
+        }
+        LongSummaryStatistics imageBytes = images.stream().mapToLong(image -> image.length).summaryStatistics();
+        System.out.printf("%d users, %d label images of %s (%.0f KB to %.0f KB, mean %.0f KB)%n", users, images.size(),
+                sizes.stream().map(size -> size.width + "x" + size.height).toList(),
+                imageBytes.getMin() / 1024.0, imageBytes.getMax() / 1024.0, imageBytes.getAverage() / 1024.0);
+    }
+
+    private void drive(GeminiStub stub, ServerSampler sampler) throws InterruptedException {
+        double[] weights = weights();
+        int warmupSeconds = Integer.parseInt(option("warmup-seconds", "15"));
+        int stepSeconds = Integer.parseInt(option("step-seconds", "60"));
+        List<Double> rates = Arrays.stream(option("rps", "5,10,20").split(",")).map(Double::parseDouble).toList();
+
+        if (warmupSeconds > 0) {
+            System.out.printf("%nWarming up at %.1f req/s for %d s%n", rates.get(0), warmupSeconds);
+            step(rates.get(0), warmupSeconds, weights, stub, sampler);
+        }
+        List<String> summary = new ArrayList<>();
+        for (double rate : rates) {
+            System.out.printf("%nStep: %.1f req/s for %d s%n", rate, stepSeconds);
+            long stubCalls = stub.calls();
+            long stubFailures = stub.failures();
+            long startNanos = System.nanoTime();
+            Step step = step(rate, stepSeconds, weights, stub, sampler);
+            List<ServerSampler.Sample> samples = sampler.between(startNanos, System.nanoTime());
+            summary.add(report(rate, stepSeconds, step, samples,
+                    stub.calls() - stubCalls, stub.failures() - stubFailures, sampler.lastError()));
+        }
+
+        System.out.printf("%nCapacity summary%n%10s %10s %12s %12s %10s %10s %12s%n",
+                "target/s", "ok/s", "scan p99 ms", "read p99 ms", "failed %", "dropped", "peak busy");
+        summary.forEach(System.out::println);
+    }
+
+    private record Step(Map<String, EndpointStats> stats, long dropped) {
+    }
+
+    /** Sends requests at a fixed rate for a duration, then waits for the stragglers */
+    private Step step(double rate, int seconds, double[] weights, GeminiStub stub, ServerSampler sampler)
+            throws InterruptedException {
+        Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        ENDPOINTS.forEach(endpoint -> stats.put(endpoint, new EndpointStats()));
+        LongAdder dropped = new LongAdder();
+        int maxOutstanding = Integer.parseInt(option("max-outstanding", "20000"));
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long nextProgress = start + TimeUnit.SECONDS.toNanos(5);
+
+        for (long i = 0; ; i++) {
+            long due = start + i * intervalNanos;
+            if (due >= end) {
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (System.nanoTime() >= nextProgress) {
+                progress(stats, (System.nanoTime() - start) / 1_000_000_000, stub, sampler);
+                nextProgress += TimeUnit.SECONDS.toNanos(5);
+            }
+            if (outstanding.get() >= maxOutstanding) {
+                dropped.increment();
+                continue;
+            }
+            String endpoint = pick(weights);
+            outstanding.incrementAndGet();
+            requests.execute(() -> {
+                try {
+                    send(endpoint, due, stats.get(endpoint));
+                } finally {
+                    outstanding.decrementAndGet();
+                }
+            });
+        }
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Long.parseLong(option("timeout-seconds", "120")));
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        return new Step(stats, dropped.sum());
+    }
+
+    private void send(String endpoint, long dueNanos, EndpointStats stats) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String token = tokens.get(random.nextInt(tokens.size()));
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .timeout(Duration.ofSeconds(Long.parseLong(option("timeout-seconds", "120"))))
+                .header("Authorization", "Bearer " + token);
+        switch (endpoint) {
+            case "scan" -> request.uri(URI.create(target + "/api/scan"))
+                    .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(scanBodies.get(random.nextInt(scanBodies.size()))));
+            case "profile" -> request.uri(URI.create(target + "/api/user/profile")).GET();
+            case "history" -> request.uri(URI.create(target + "/api/user/scan-history?limit=20")).GET();
+            default -> request.uri(URI.create(target + "/api/user/top-ingredients")).GET();
+        }
+        try {
+            HttpResponse<Void> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.discarding());
+            long latency = System.nanoTime() - dueNanos;
+            if (response.statusCode() / 100 == 2) {
+                stats.success(latency);
+            } else {
+                stats.failure(String.valueOf(response.statusCode()), latency);
+            }
+        } catch (HttpTimeoutException e) {
+            stats.failure("timeout", System.nanoTime() - dueNanos);
+        } catch (ConnectException e) {
+            stats.failure("refused", System.nanoTime() - dueNanos);
+        } catch (IOException e) {
+            stats.failure(e.getClass().getSimpleName(), System.nanoTime() - dueNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void progress(Map<String, EndpointStats> stats, long elapsedSeconds, GeminiStub stub, ServerSampler sampler) {
+        long completed = stats.values().stream().mapToLong(EndpointStats::total).sum();
+        ServerSampler.Sample latest = sampler.latest();
+        Map<String, Double> server = latest == null ? Map.of() : latest.values();
+        System.out.printf("  %3d s  completed %6d  outstanding %5d  tomcat busy %s/%s  jobs %s+%s queued  "
+                        + "gemini %s/%s (stub peak %d)  heap %s MB%n",
+                elapsedSeconds, completed, outstanding.get(),
+                format(server.get(ServerSampler.TOMCAT_BUSY)), format(server.get(ServerSampler.TOMCAT_MAX)),
+                format(server.get(ServerSampler.JOBS_RUNNING)), format(server.get(ServerSampler.JOBS_WAITING)),
+                format(server.get(ServerSampler.GEMINI_IN_FLIGHT)), format(server.get(ServerSampler.GEMINI_LIMIT)),
+                stub.takePeakInFlight(), format(megabytes(server.get(ServerSampler.HEAP_USED))));
+    }
+
+    private String report(double rate, int seconds, Step step, List<ServerSampler.Sample> samples,
+                          long stubCalls, long stubFailures, String samplerError) {
+        System.out.printf("%n%-8s %8s %8s %9s %9s %9s %9s %9s  %s%n",
+                "endpoint", "requests", "ok/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "failures");
+        long ok = 0;
+        long total = 0;
+        double readP99 = 0;
+        for (Map.Entry<String, EndpointStats> entry : step.stats().entrySet()) {
+            EndpointStats stats = entry.getValue();
+            ok += stats.succeeded();
+            total += stats.total();
+            if (!entry.getKey().equals("scan")) {
+                readP99 = Math.max(readP99, stats.percentileMillis(99));
+            }
+            System.out.printf("%-8s %8d %8.1f %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n",
+                    entry.getKey(), stats.total(), stats.succeeded() / (double) seconds,
+                    stats.percentileMillis(50), stats.percentileMillis(90), stats.percentileMillis(99),
+                    stats.percentileMillis(99.9), stats.maxMillis(), stats.failures());
+        }
+        if (step.dropped() > 0) {
+            System.out.printf("dropped %d requests: more than max-outstanding were already waiting%n", step.dropped());
+        }
+
+        if (samples.isEmpty()) {
+            System.out.printf("server metrics unavailable: %s%n", samplerError);
+        } else {
+            System.out.printf("server: tomcat busy threads peak %s of %s, mean %s; scan jobs running peak %s, queued peak %s,"
+                            + " shed %s, queue delay peak %s ms%n",
+                    format(ServerSampler.peak(samples, ServerSampler.TOMCAT_BUSY)),
+                    format(ServerSampler.peak(samples, ServerSampler.TOMCAT_MAX)),
+                    format(ServerSampler.mean(samples, ServerSampler.TOMCAT_BUSY)),
+                    format(ServerSampler.peak(samples, ServerSampler.JOBS_RUNNING)),
+                    format(ServerSampler.peak(samples, ServerSampler.JOBS_WAITING)),
+                    format(ServerSampler.increase(samples, ServerSampler.JOBS_SHED)),
+                    format(ServerSampler.peak(samples, ServerSampler.QUEUE_DELAY_MAX) * 1000));
+            System.out.printf("        gemini in flight peak %s, limit %s to %s; heap peak %s of %s MB; live threads peak %s;"
+                            + " cpu mean %s%%; gc pauses %s ms%n",
+                    format(ServerSampler.peak(samples, ServerSampler.GEMINI_IN_FLIGHT)),
+                    format(ServerSampler.low(samples, ServerSampler.GEMINI_LIMIT)),
+                    format(ServerSampler.peak(samples, ServerSampler.GEMINI_LIMIT)),
+                    format(megabytes(ServerSampler.peak(samples, ServerSampler.HEAP_USED))),
+                    format(megabytes(ServerSampler.peak(samples, ServerSampler.HEAP_MAX))),
+                    format(ServerSampler.peak(samples, ServerSampler.LIVE_THREADS)),
+                    format(ServerSampler.mean(samples, ServerSampler.CPU) * 100),
+                    format(ServerSampler.increase(samples, ServerSampler.GC_PAUSE) * 1000));
+        }
+        System.out.printf("gemini stub: %d calls, %d failed on purpose%n", stubCalls, stubFailures);
+
+        EndpointStats scan = step.stats().get("scan");
+        return String.format("%10.1f %10.1f %12.1f %12.1f %10.2f %10d %12s",
+                rate, ok / (double) seconds, scan.percentileMillis(99), readP99,
+                total == 0 ? 0 : (total - ok) * 100.0 / total, step.dropped(),
+                samples.isEmpty() ? "-" : format(ServerSampler.peak(samples, ServerSampler.TOMCAT_BUSY)));
+    }
+
+    /**
+     * Unsigned ID token in the shape the Auth emulator issues. The Admin SDK checks its claims but
+     * not its signature while FIREBASE_AUTH_EMULATOR_HOST is set.
+     */
+    private String emulatorToken(String uid) throws IOException {
+        long now = Instant.now().getEpochSecond();
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("iss", "https://securetoken.google.com/" + projectId);
+        claims.put("aud", projectId);
+        claims.put("auth_time", now);
+        claims.put("user_id", uid);
+        claims.put("sub", uid);
+        claims.put("iat", now);
+        // outlives any run, so tokens never expire mid-test
+        claims.put("exp", now + TimeUnit.DAYS.toSeconds(1));
+        claims.put("email", uid + "@loadtest.example.com");
+        claims.put("firebase", Map.of("identities", Map.of(), "sign_in_provider", "password"));
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(objectMapper.writeValueAsBytes(Map.of("alg", "none", "typ", "JWT")))
+                + "." + encoder.encodeToString(objectMapper.writeValueAsBytes(claims)) + ".";
+    }
+
+    private static byte[] multipart(String filename, byte[] image) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 256);
+        body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + filename
+                + "\"\r\nContent-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(image);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private double[] weights() {
+        Map<String, Double> mix = new HashMap<>();
+        for (String weight : option("mix", "scan=1,profile=3,history=3,top=1").split(",")) {
+            String[] pair = weight.trim().split("=");
+            if (!ENDPOINTS.contains(pair[0])) {
+                throw new IllegalArgumentException("Unknown endpoint in mix: " + pair[0] + "; expected one of " + ENDPOINTS);
+            }
+            mix.put(pair[0], Double.parseDouble(pair[1]));
+        }
+        double[] cumulative = new double[ENDPOINTS.size()];
+        double sum = 0;
+        for (int i = 0; i < ENDPOINTS.size(); i++) {
+            sum += mix.getOrDefault(ENDPOINTS.get(i), 0.0);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < cumulative.length; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static String pick(double[] cumulative) {
+        double draw = ThreadLocalRandom.current().nextDouble();
+        for (int i = 0; i < cumulative.length; i++) {
+            if (draw < cumulative[i]) {
+                return ENDPOINTS.get(i);
+            }
+        }
+        return ENDPOINTS.get(ENDPOINTS.size() - 1);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static List<String> split(String args) {
+        return args.isBlank() ? List.of() : List.of(args.trim().split("\\s+"));
+    }
+
+    private static Double megabytes(Double bytes) {
+        return bytes == null ? null : bytes / (1024 * 1024);
+    }
+
+    private static String format(Double value) {
+        return value == null || value.isNaN() ? "-" : String.format("%.0f", value);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.Labelspy.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Scrapes /actuator/prometheus on the service's management port once a second for the gauges that
+ * show where it saturates: busy Tomcat threads against the pool size, scan jobs running, queued and
+ * shed, Gemini calls in flight against the adaptive limit, heap, live threads, CPU and GC pause time.
+ * Series of one metric are summed, so heap is the total over all heap pools.
+ */
+final class ServerSampler implements AutoCloseable {
+
+    static final String TOMCAT_BUSY = "tomcat_threads_busy_threads";
+    static final String TOMCAT_MAX = "tomcat_threads_config_max_threads";
+    static final String JOBS_RUNNING = "scan_jobs_running";
+    static final String JOBS_WAITING = "scan_jobs_waiting";
+    static final String JOBS_SHED = "scan_shed_total";
+    static final String QUEUE_DELAY_MAX = "scan_queue_delay_seconds_max";
+    static final String GEMINI_IN_FLIGHT = "gemini_limiter_in_flight";
+    static final String GEMINI_LIMIT = "gemini_limiter_limit";
+    // name|label keeps only the series carrying that label
+    static final String HEAP_USED = "jvm_memory_used_bytes|area=\"heap\"";
+    static final String HEAP_MAX = "jvm_memory_max_bytes|area=\"heap\"";
+    static final String LIVE_THREADS = "jvm_threads_live_threads";
+    static final String CPU = "process_cpu_usage";
+    static final String GC_PAUSE = "jvm_gc_pause_seconds_sum";
+
+    private static final List<String> METRICS = List.of(TOMCAT_BUSY, TOMCAT_MAX, JOBS_RUNNING, JOBS_WAITING,
+            JOBS_SHED, QUEUE_DELAY_MAX, GEMINI_IN_FLIGHT, GEMINI_LIMIT, HEAP_USED, HEAP_MAX, LIVE_THREADS, CPU, GC_PAUSE);
+
+    record Sample(long nanos, Map<String, Double> values) {
+    }
+
+    private final HttpClient httpClient;
+    private final URI uri;
+    private final List<Sample> samples = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile String lastError;
+
+    ServerSampler(HttpClient httpClient, String target) {
+        this.httpClient = httpClient;
+        this.uri = URI.create(target + "/actuator/prometheus");
+        this.thread = Thread.ofVirtual().name("server-sampler").start(this::run);
+    }
+
+    /** Most recent sample, or null if none has succeeded */
+    Sample latest() {
+        return samples.isEmpty() ? null : samples.get(samples.size() - 1);
+    }
+
+    List<Sample> between(long fromNanos, long toNanos) {
+        return samples.stream().filter(sample -> sample.nanos() >= fromNanos && sample.nanos() <= toNanos).toList();
+    }
+
+    String lastError() {
+        return lastError;
+    }
+
+    static double peak(List<Sample> samples, String metric) {
+        return samples.stream().mapToDouble(sample -> sample.values().getOrDefault(metric, Double.NaN))
+                .filter(value -> !Double.isNaN(value)).max().orElse(Double.NaN);
+    }
+
+    static double low(List<Sample> samples, String metric) {
+        return samples.stream().mapToDouble(sample -> sample.values().getOrDefault(metric, Double.NaN))
+                .filter(value -> !Double.isNaN(value)).min().orElse(Double.NaN);
+    }
+
+    static double mean(List<Sample> samples, String metric) {
+        return samples.stream().mapToDouble(sample -> sample.values().getOrDefault(metric, Double.NaN))
+                .filter(value -> !Double.isNaN(value)).average().orElse(Double.NaN);
+    }
+
+    /** Growth of a counter over the samples */
+    static double increase(List<Sample> samples, String metric) {
+        if (samples.size() < 2) {
+            return Double.NaN;
+        }
+        return samples.get(samples.size() - 1).values().getOrDefault(metric, Double.NaN)
+                - samples.get(0).values().getOrDefault(metric, Double.NaN);
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                HttpResponse<String> response = httpClient.send(
+                        HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(5)).GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    samples.add(new Sample(System.nanoTime(), parse(response.body())));
+                } else {
+                    lastError = "HTTP " + response.statusCode();
+                }
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                lastError = e.toString();
+            }
+        }
+    }
+
+    private static Map<String, Double> parse(String exposition) {
+        Map<String, Double> values = new HashMap<>();
+        for (String line : exposition.split("\n")) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            int labelsStart = line.indexOf('{');
+            int valueStart = line.lastIndexOf(' ');
+            if (valueStart < 0) {
+                continue;
+            }
+            String name = line.substring(0, labelsStart >= 0 ? labelsStart : valueStart);
+            String labels = labelsStart >= 0 ? line.substring(labelsStart, valueStart) : "";
+            for (String metric : METRICS) {
+                int filter = metric.indexOf('|');
+                if (filter < 0 ? name.equals(metric)
+                        : name.equals(metric.substring(0, filter)) && labels.contains(metric.substring(filter + 1))) {
+                    double value = Double.parseDouble(line.substring(valueStart + 1));
+                    // unbounded pools report a max of -1
+                    if (value >= 0) {
+                        values.merge(metric, value, Double::sum);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.Labelspy.config;
 
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
@@ -35,6 +36,10 @@ public class FirebaseConfig {
                     credentials = GoogleCredentials.fromStream(serviceAccount);
                     log.info("Firebase initialized with credentials file: {}", credentialsPath);
                 }
+            } else if (System.getenv("FIREBASE_AUTH_EMULATOR_HOST") != null) {
+                // against the emulator the SDK skips token signatures and never calls Google, so no real account is needed
+                credentials = GoogleCredentials.create(new AccessToken("owner", null));
+                log.info("Firebase initialized for the Auth emulator at {}", System.getenv("FIREBASE_AUTH_EMULATOR_HOST"));
             } else {
                 // loading from classpath or environment variable
                 InputStream serviceAccount = getClass().getClassLoader()
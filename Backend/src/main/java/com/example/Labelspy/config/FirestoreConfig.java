@@ -4,6 +4,7 @@ import com.google.cloud.firestore.Firestore;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.cloud.FirestoreClient;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
@@ -14,6 +15,7 @@ public class FirestoreConfig {
 
     @Bean
     @DependsOn("firebaseApp")
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "firestore", matchIfMissing = true)
     public Firestore firestore(FirebaseApp firebaseApp) {
         Firestore firestore = FirestoreClient.getFirestore();
         log.info("Firestore initialized successfully");
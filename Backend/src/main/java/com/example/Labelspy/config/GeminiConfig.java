@@ -2,11 +2,21 @@ package com.example.Labelspy.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 @Data
 @Configuration
@@ -15,12 +25,93 @@ public class GeminiConfig {
     @Value("${gemini.api.key}")
     private String apiKey;
 
-    private String apiUrl = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent";
+    @Value("${gemini.api.url:https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent}")
+    private String apiUrl;
+
+    @Value("${gemini.http.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${gemini.http.request-timeout-ms:60000}")
+    private long requestTimeoutMs;
+
+    /** longest gap between events of a streamed response; the whole stream gets request-timeout-ms */
+    @Value("${gemini.http.stream-idle-timeout-ms:15000}")
+    private long streamIdleTimeoutMs;
+
+    @Value("${gemini.limit.initial:16}")
+    private int limitInitial;
+
+    @Value("${gemini.limit.min:2}")
+    private int limitMin;
+
+    @Value("${gemini.limit.max:64}")
+    private int limitMax;
+
+    @Value("${gemini.limit.latency-threshold-ms:30000}")
+    private long limitLatencyThresholdMs;
+
+    @Value("${gemini.circuit.window-size:20}")
+    private int circuitWindowSize;
+
+    @Value("${gemini.circuit.minimum-calls:10}")
+    private int circuitMinimumCalls;
+
+    @Value("${gemini.circuit.failure-rate:0.5}")
+    private double circuitFailureRate;
+
+    @Value("${gemini.circuit.open-ms:30000}")
+    private long circuitOpenMs;
+
+    @Value("${gemini.circuit.half-open-calls:3}")
+    private int circuitHalfOpenCalls;
+
+    /** runs the client's async completions; not a bean, so Boot still configures its own task executor */
+    @Getter(AccessLevel.NONE)
+    private final ExecutorService httpExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public String getStreamApiUrl() {
+        return apiUrl.replace(":generateContent", ":streamGenerateContent");
+    }
+
+    /**
+     * Shared client for Gemini calls: keeps connections alive and pooled across requests, negotiates
+     * HTTP/2 over TLS, and runs async completions on virtual threads. The client is closed before
+     * this configuration, so its executor is shut down only once in-flight exchanges have ended.
+     */
+    @Bean(destroyMethod = "close")
+    public HttpClient geminiHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(httpExecutor)
+                .build();
+    }
+
+    /** Lets callbacks of exchanges that ended during shutdown run, for up to one request timeout */
+    @PreDestroy
+    void closeHttpExecutor() {
+        httpExecutor.shutdown();
+        try {
+            if (!httpExecutor.awaitTermination(requestTimeoutMs, TimeUnit.MILLISECONDS)) {
+                httpExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            httpExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Bean
+    public AimdLimiter geminiLimiter() {
+        return new AimdLimiter(limitInitial, limitMin, limitMax, 0.75, limitLatencyThresholdMs * 1_000_000);
+    }
 
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public CircuitBreaker geminiCircuitBreaker() {
+        return new CircuitBreaker(circuitWindowSize, circuitMinimumCalls, circuitFailureRate,
+                circuitOpenMs, circuitHalfOpenCalls);
     }
+
     @Bean
     public ObjectMapper objectMapper() {
         ObjectMapper mapper = new ObjectMapper();
@@ -0,0 +1,61 @@
+package com.example.Labelspy.config;
+
+import com.example.Labelspy.service.DataStore;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+/**
+ * Observability wiring that cannot live in the services themselves. Every {@link DataStore}
+ * method runs as a datastore.operation observation tagged with the backend and method, giving a
+ * timer per method and a span under whatever request or scan made the call.
+ */
+@Configuration
+public class ObservabilityConfig {
+
+    @Bean
+    static BeanPostProcessor dataStoreObservations(ObjectProvider<ObservationRegistry> observationRegistry,
+                                                   @Value("${storage.backend:firestore}") String backend) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataStore dataStore
+                        ? observed(dataStore, backend, observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP))
+                        : bean;
+            }
+        };
+    }
+
+    /**
+     * Wraps a data store so each call is observed; calls from one method to another inside the
+     * store are not observed again
+     */
+    static DataStore observed(DataStore dataStore, String backend, ObservationRegistry observationRegistry) {
+        return (DataStore) Proxy.newProxyInstance(DataStore.class.getClassLoader(), new Class<?>[]{DataStore.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(dataStore, args);
+                    }
+                    Observation observation = Observation.createNotStarted("datastore.operation", observationRegistry)
+                            .contextualName("datastore " + method.getName())
+                            .lowCardinalityKeyValue("backend", backend)
+                            .lowCardinalityKeyValue("method", method.getName())
+                            .start();
+                    try (Observation.Scope ignored = observation.openScope()) {
+                        return method.invoke(dataStore, args);
+                    } catch (InvocationTargetException e) {
+                        observation.error(e.getCause());
+                        throw e.getCause();
+                    } finally {
+                        observation.stop();
+                    }
+                });
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.Labelspy.config;
 
 import com.example.Labelspy.interceptor.FirebaseAuthInterceptor;
+import com.example.Labelspy.interceptor.RateLimitInterceptor;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
@@ -12,12 +13,17 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 public class WebConfig implements WebMvcConfigurer {
 
     private final FirebaseAuthInterceptor firebaseAuthInterceptor;
+    private final RateLimitInterceptor rateLimitInterceptor;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(firebaseAuthInterceptor)
                 .addPathPatterns("/api/**")
                 .excludePathPatterns("/api/health","/api/public/**");
+        // after auth, so signed-in callers are limited by user ID rather than address
+        registry.addInterceptor(rateLimitInterceptor)
+                .addPathPatterns("/api/**")
+                .excludePathPatterns("/api/health");
     }
 
     @Override
@@ -26,7 +32,7 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOrigins("*")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
-                .exposedHeaders("Authorization")
+                .exposedHeaders("Authorization", "X-Next-Cursor", "Retry-After")
                 .maxAge(3600);
     }
 }
@@ -1,20 +1,54 @@
 package com.example.Labelspy.controller;
 
 import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.BatchScanItem;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.dto.ScanJobStatus;
 import com.example.Labelspy.dto.TopIngredientDto;
 import com.example.Labelspy.dto.UserDto;
-import com.example.Labelspy.service.FirestoreService;
-import com.example.Labelspy.service.GeminiService;
+import com.example.Labelspy.service.DataStore;
+import com.example.Labelspy.service.GeminiUnavailableException;
+import com.example.Labelspy.service.ScanHistoryPage;
+import com.example.Labelspy.service.ScanJob;
+import com.example.Labelspy.service.ScanJobListener;
+import com.example.Labelspy.service.ScanJobService;
+import com.example.Labelspy.service.ScanExportService;
+import com.example.Labelspy.service.ScanService;
+import com.example.Labelspy.service.ScanShedException;
+import com.example.Labelspy.service.ScanTiming;
+import com.example.Labelspy.service.ScanUpload;
+import com.example.Labelspy.service.TrendingIngredients;
+import com.example.Labelspy.util.ImageTooLargeException;
 import com.example.Labelspy.util.RequestUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/api")
@@ -22,45 +56,270 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 @Slf4j
 public class UserController {
-    private final GeminiService geminiService;
-    private final FirestoreService firestoreService;
+    /**
+     * When a proxy received the request: t= or bare epoch milliseconds or microseconds, or seconds with
+     * a fraction. Only read with scan.shed.trust-request-start, as a client could otherwise backdate
+     * its own request.
+     */
+    static final String REQUEST_START_HEADER = "X-Request-Start";
+    /** Milliseconds the client will wait for a scan, counted from when the request was received */
+    static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout-Ms";
 
+    private final ScanJobService scanJobService;
+    private final ScanService scanService;
+    private final DataStore dataStore;
+    private final TrendingIngredients trendingIngredients;
+    private final ScanExportService scanExportService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${scan.jobs.sse-timeout-ms:120000}")
+    private long sseTimeoutMs;
+
+    @Value("${scan.shed.trust-request-start:false}")
+    private boolean trustRequestStart;
+
+    @Value("${scan.batch.max-files:8}")
+    private int maxBatchFiles;
+
+    @Value("${scan.history.default-page-size:100}")
+    private int defaultHistoryPageSize;
+
+    @Value("${scan.history.max-page-size:500}")
+    private int maxHistoryPageSize;
+
+    @Value("${user.top-ingredients.default-k:10}")
+    private int defaultTopIngredients;
+
+    /**
+     * Scans inline, answering once the job finishes. The request runs asynchronously so that the
+     * job is abandoned when the caller's deadline passes or its connection fails while it waits.
+     */
     @PostMapping("/scan")
-    public ResponseEntity<?> scanIngredients(
+    public DeferredResult<ResponseEntity<?>> scanIngredients(
             @RequestParam("file") MultipartFile image,
             HttpServletRequest request) {
+        DeferredResult<ResponseEntity<?>> response;
         try {
-            if (image == null || image.isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "Please upload an image"));
+            ResponseEntity<?> invalid = validateImage(image);
+            if (invalid != null) {
+                return answered(invalid);
             }
 
-            if (!isValidImage(image)) {
-                return ResponseEntity.badRequest().body(Map.of("error", "Only JPEG and PNG images are allowed"));
+            ScanTiming timing = scanTiming(request, trustRequestStart);
+            ScanJob job = scanJobService.submitInline(
+                    readUpload(image), image.getContentType(), RequestUtils.getUserId(request), timing);
+            // without a deadline the wait is bounded by spring.mvc.async.request-timeout
+            Long timeoutMs = timing.hasDeadline()
+                    ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(timing.remainingNanos(System.nanoTime())))
+                    : null;
+            response = new DeferredResult<>(timeoutMs, () -> ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body(Map.of("error", "Scan did not finish before the request deadline")));
+            response.onTimeout(job::abandon);
+            response.onError(e -> job.abandon());
+            DeferredResult<ResponseEntity<?>> pending = response;
+            job.getFuture().whenComplete((result, error) ->
+                    pending.setResult(error == null ? ResponseEntity.ok(result) : scanFailure(error)));
+            return response;
+
+        } catch (RejectedExecutionException e) {
+            return answered(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many scans in progress, please retry shortly")));
+        } catch (Exception e) {
+            return answered(scanFailure(e));
+        }
+    }
+
+    private static DeferredResult<ResponseEntity<?>> answered(ResponseEntity<?> entity) {
+        DeferredResult<ResponseEntity<?>> response = new DeferredResult<>();
+        response.setResult(entity);
+        return response;
+    }
+
+    private ResponseEntity<?> scanFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof ScanShedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfterMillis() / 1000)))
+                    .body(Map.of("error", e.getMessage()));
+        }
+        if (cause instanceof ImageTooLargeException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of("error", e.getMessage()));
+        }
+        if (cause instanceof GeminiUnavailableException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfterMillis() / 1000)))
+                    .body(Map.of("error", "Analysis is temporarily unavailable, please retry shortly"));
+        }
+        log.error("Scan failed: {}", cause.getMessage(), cause);
+        return ResponseEntity.internalServerError()
+                .body(Map.of("error", "Analysis failed: " + cause.getMessage()));
+    }
+
+    @PostMapping("/scan/async")
+    public ResponseEntity<?> submitScan(
+            @RequestParam("file") MultipartFile image,
+            HttpServletRequest request) {
+        try {
+            ResponseEntity<?> invalid = validateImage(image);
+            if (invalid != null) {
+                return invalid;
             }
 
-            AnalysisResult result = geminiService.analyzeImage(image);
+            ScanJob job = scanJobService.submit(
+                    readUpload(image), image.getContentType(), RequestUtils.getUserId(request), true,
+                    scanTiming(request, trustRequestStart));
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/scan/" + job.getId()))
+                    .body(job.status());
 
-            String userId = RequestUtils.getUserId(request);
-            if (userId != null) {
-                try {
-                    firestoreService.incrementIngredientCounts(userId, result);
-                    log.info("Ingredient counts updated for user: {}", userId);
-                    firestoreService.addScanHistory(userId, result);
-                    log.info("Scan History Updated {}", userId);
-                } catch (Exception e) {
-                    log.warn("Failed to update ingredient counts: {}", e.getMessage());
-                }
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many scans in progress, please retry shortly"));
+        } catch (Exception e) {
+            log.error("Scan submission failed: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Analysis failed: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/scan/{jobId}")
+    public ResponseEntity<?> getScanJob(@PathVariable String jobId, HttpServletRequest request) {
+        ScanJob job = findJob(jobId, request);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Scan job not found"));
+        }
+        return ResponseEntity.ok(job.status());
+    }
+
+    @GetMapping("/scan/{jobId}/events")
+    public ResponseEntity<?> streamScanJob(@PathVariable String jobId, HttpServletRequest request) {
+        ScanJob job = findJob(jobId, request);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Scan job not found"));
+        }
+
+        return ResponseEntity.ok(subscribe(job, false));
+    }
+
+    @PostMapping("/scan/stream")
+    public ResponseEntity<?> streamScan(
+            @RequestParam("file") MultipartFile image,
+            HttpServletRequest request) {
+        try {
+            ResponseEntity<?> invalid = validateImage(image);
+            if (invalid != null) {
+                return invalid;
             }
 
-            return ResponseEntity.ok(result);
+            ScanJob job = scanJobService.submit(
+                    readUpload(image), image.getContentType(), RequestUtils.getUserId(request), true,
+                    scanTiming(request, trustRequestStart));
+            return ResponseEntity.ok(subscribe(job, true));
 
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many scans in progress, please retry shortly"));
         } catch (Exception e) {
-            log.error("Scan failed: {}", e.getMessage(), e);
+            log.error("Streaming scan failed: {}", e.getMessage(), e);
             return ResponseEntity.internalServerError()
                     .body(Map.of("error", "Analysis failed: " + e.getMessage()));
         }
     }
 
+    /**
+     * Scans several images, answering once every one has a result or an error. The request runs
+     * asynchronously like /scan; at the caller's deadline the items still in flight are reported as
+     * unfinished and their Gemini requests cancelled.
+     */
+    @PostMapping("/scan/batch")
+    public DeferredResult<ResponseEntity<?>> scanBatch(
+            @RequestParam("files") List<MultipartFile> images,
+            HttpServletRequest request) {
+        try {
+            if (images == null || images.isEmpty()) {
+                return answered(ResponseEntity.badRequest().body(Map.of("error", "Please upload at least one image")));
+            }
+            if (images.size() > maxBatchFiles) {
+                return answered(ResponseEntity.badRequest()
+                        .body(Map.of("error", "At most " + maxBatchFiles + " images can be scanned at once")));
+            }
+
+            BatchScanItem[] rejected = new BatchScanItem[images.size()];
+            List<ScanUpload> uploads = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            for (int i = 0; i < images.size(); i++) {
+                MultipartFile image = images.get(i);
+                if (image.isEmpty() || !isValidImage(image)) {
+                    rejected[i] = BatchScanItem.builder().index(i).fileName(image.getOriginalFilename())
+                            .error("Only JPEG and PNG images are allowed").build();
+                    continue;
+                }
+                uploads.add(new ScanUpload(readUpload(image), image.getContentType()));
+                positions.add(i);
+            }
+
+            ScanTiming timing = scanTiming(request, trustRequestStart);
+            List<CompletableFuture<AnalysisResult>> results =
+                    scanService.scanBatch(uploads, RequestUtils.getUserId(request));
+            // without a deadline the wait is bounded by spring.mvc.async.request-timeout
+            Long timeoutMs = timing.hasDeadline()
+                    ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(timing.remainingNanos(System.nanoTime())))
+                    : null;
+            DeferredResult<ResponseEntity<?>> response = new DeferredResult<>(timeoutMs);
+            response.onTimeout(() -> {
+                response.setResult(ResponseEntity.ok(batchItems(images, rejected, positions, results)));
+                results.forEach(result -> result.cancel(true));
+            });
+            response.onError(e -> results.forEach(result -> result.cancel(true)));
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).whenComplete((ignored, error) -> {
+                if (!response.isSetOrExpired()) {
+                    response.setResult(ResponseEntity.ok(batchItems(images, rejected, positions, results)));
+                }
+            });
+            return response;
+
+        } catch (Exception e) {
+            log.error("Batch scan failed: {}", e.getMessage(), e);
+            return answered(ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Analysis failed: " + e.getMessage())));
+        }
+    }
+
+    /**
+     * One item per uploaded file: the rejected ones as they are, the rest from their scan, or as
+     * unfinished when the scan is still running
+     */
+    private static List<BatchScanItem> batchItems(List<MultipartFile> images, BatchScanItem[] rejected,
+                                                  List<Integer> positions, List<CompletableFuture<AnalysisResult>> results) {
+        BatchScanItem[] items = rejected.clone();
+        for (int i = 0; i < results.size(); i++) {
+            int index = positions.get(i);
+            CompletableFuture<AnalysisResult> result = results.get(i);
+            BatchScanItem.BatchScanItemBuilder item = BatchScanItem.builder()
+                    .index(index)
+                    .fileName(images.get(index).getOriginalFilename());
+            if (!result.isDone()) {
+                item.error("Analysis did not finish before the request deadline");
+            } else if (!result.isCompletedExceptionally()) {
+                item.result(result.join());
+            } else {
+                Throwable cause = result.handle((value, error) -> error).join();
+                if (cause instanceof CompletionException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                log.warn("Batch scan of image {} failed: {}", index, cause.getMessage());
+                if (cause instanceof ImageTooLargeException) {
+                    item.error(cause.getMessage());
+                } else if (cause instanceof GeminiUnavailableException) {
+                    item.error("Analysis is temporarily unavailable, please retry shortly");
+                } else {
+                    item.error("Analysis failed: " + cause.getMessage());
+                }
+            }
+            items[index] = item.build();
+        }
+        return Arrays.asList(items);
+    }
 
     @GetMapping("/user/profile")
     public ResponseEntity<?> getUserProfile(HttpServletRequest request) {
@@ -70,7 +329,7 @@ public class UserController {
                 return ResponseEntity.status(401).body(Map.of("error", "Unauthorized"));
             }
 
-            UserDto user = firestoreService.getUserById(userId);
+            UserDto user = dataStore.getUserById(userId);
             if (user == null) {
                 // Create user profile if doesn't exist
                 String email = RequestUtils.getUserEmail(request);
@@ -80,7 +339,7 @@ public class UserController {
                         .displayName(email.split("@")[0])
                         .ingredientCounts(Map.of())
                         .build();
-                user = firestoreService.createOrUpdateUser(user);
+                user = dataStore.createOrUpdateUser(user);
             }
 
             return ResponseEntity.ok(user);
@@ -117,7 +376,7 @@ public class UserController {
                 userToSave.setDisplayName(email.split("@")[0]);
             }
 
-            UserDto saved = firestoreService.createOrUpdateUser(userToSave);
+            UserDto saved = dataStore.createOrUpdateUser(userToSave);
             return ResponseEntity.ok(saved);
 
         } catch (Exception e) {
@@ -136,7 +395,7 @@ public class UserController {
                 return ResponseEntity.status(401).body(Map.of("error", "Unauthorized"));
             }
 
-            firestoreService.deleteUser(userId);
+            dataStore.deleteUser(userId);
             return ResponseEntity.ok(Map.of("message", "User account deleted successfully"));
         } catch (Exception e) {
             log.error("Error deleting user: {}", e.getMessage(), e);
@@ -145,42 +404,272 @@ public class UserController {
         }
     }
 
+    /**
+     * Returns the user's most frequent ingredients, all time or over the last days (UTC)
+     */
     @GetMapping("/user/top-ingredients")
-    public ResponseEntity<?> getTopIngredients(HttpServletRequest request) {
+    public ResponseEntity<?> getTopIngredients(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Integer days,
+            HttpServletRequest request) {
         try {
             String userId = RequestUtils.getUserId(request);
             if (userId == null) {
                 return ResponseEntity.status(401).body(Map.of("error", "Unauthorized"));
             }
 
-            List<TopIngredientDto> topIngredients = firestoreService.getTopIngredients(userId, 10);
+            int k = limit == null ? defaultTopIngredients
+                    : Math.max(1, Math.min(limit, dataStore.getMaxTopIngredients()));
+            List<TopIngredientDto> topIngredients = dataStore.getTopIngredients(userId, k, days);
             return ResponseEntity.ok(topIngredients);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             log.error("Error getting top ingredients: {}", e.getMessage(), e);
             return ResponseEntity.internalServerError()
                     .body(Map.of("error", "Failed to get top ingredients: " + e.getMessage()));
         }
     }
+
+    /**
+     * Returns the most frequent ingredients across all users' scans, over the last hours or days
+     * (UTC, including the current one; today when neither is given). Counts are estimates.
+     */
+    @GetMapping("/public/trending")
+    public ResponseEntity<?> getTrending(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Integer hours,
+            @RequestParam(required = false) Integer days) {
+        try {
+            if (hours != null && days != null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Pass either hours or days, not both"));
+            }
+            int k = limit == null ? defaultTopIngredients
+                    : Math.max(1, Math.min(limit, trendingIngredients.getHeavyHitters()));
+            List<TopIngredientDto> trending = hours != null
+                    ? trendingIngredients.top(TrendingIngredients.Granularity.HOUR, hours, k)
+                    : trendingIngredients.top(TrendingIngredients.Granularity.DAY, days == null ? 1 : days, k);
+            return ResponseEntity.ok(trending);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error getting trending ingredients: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "Failed to get trending ingredients"));
+        }
+    }
+
+    /**
+     * Returns one page of the user's scans, newest first. The cursor for the next page, if any, is
+     * sent in the X-Next-Cursor header and passed back as startAfter.
+     */
     @GetMapping("/user/scan-history")
-    public ResponseEntity<?> getScanHistory(HttpServletRequest request) {
+    public ResponseEntity<?> getScanHistory(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String startAfter,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            HttpServletRequest request) {
         try {
             String userId = RequestUtils.getUserId(request);
             if (userId == null) {
                 return ResponseEntity.status(401).body(Map.of("error", "Unauthorized"));
             }
-            UserDto user = firestoreService.getUserById(userId);
-            return ResponseEntity.ok(user.getScanHistory());
+            int pageSize = limit == null ? defaultHistoryPageSize : Math.max(1, Math.min(limit, maxHistoryPageSize));
+            ScanHistoryPage page = dataStore.getScanHistory(userId, pageSize, startAfter, from, to);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                response.header("X-Next-Cursor", page.nextCursor());
+            }
+            return response.body(page.scans());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             log.error("Error getting scan history: {}", e.getMessage(), e);
             return ResponseEntity.internalServerError().body(Map.of("error", "Failed to get scan history"));
         }
     }
 
+    /**
+     * Streams all of the user's scans, oldest first, as NDJSON (default) or CSV, gzipped when the
+     * client accepts it. Each row carries a cursor; passing the last one as since returns only newer scans.
+     */
+    @GetMapping("/user/scan-history/export")
+    public ResponseEntity<?> exportScanHistory(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String since,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletRequest request) {
+        try {
+            String userId = RequestUtils.getUserId(request);
+            if (userId == null) {
+                return ResponseEntity.status(401).body(Map.of("error", "Unauthorized"));
+            }
+            ScanExportService.Format exportFormat;
+            try {
+                exportFormat = ScanExportService.Format.valueOf(format.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "format must be ndjson or csv"));
+            }
+            boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+            StreamingResponseBody body = scanExportService.export(userId, exportFormat, since, gzip);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_TYPE, exportFormat.getContentType() + ";charset=UTF-8")
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=\"scans." + exportFormat.getExtension() + "\"")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (gzip) {
+                response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+            return response.body(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error exporting scan history: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().body(Map.of("error", "Failed to export scan history"));
+        }
+    }
+
     @GetMapping("/health")
     public ResponseEntity<String> health() {
         return ResponseEntity.ok("LabelSpy is running");
     }
 
+    /**
+     * Reads an uploaded image, recording its size and the read time. Multipart parsing happens
+     * before the handler runs and shows up only in http.server.requests.
+     */
+    private byte[] readUpload(MultipartFile image) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        byte[] bytes = image.getBytes();
+        sample.stop(meterRegistry.timer("scan.upload.read"));
+        DistributionSummary.builder("scan.upload.bytes").baseUnit("bytes").register(meterRegistry).record(bytes.length);
+        return bytes;
+    }
+
+    private ResponseEntity<?> validateImage(MultipartFile image) {
+        if (image == null || image.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Please upload an image"));
+        }
+        if (!isValidImage(image)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Only JPEG and PNG images are allowed"));
+        }
+        return null;
+    }
+
+    /**
+     * Queue start and deadline of a scan request. The proxy's receive time, when it is trusted to
+     * report one, makes time spent in Tomcat's accept queue and worker pool count as queue delay;
+     * values more than a minute off are ignored as clock skew. Otherwise the queue starts now.
+     * @param trustRequestStart whether {@link #REQUEST_START_HEADER} comes from a proxy rather than the client
+     */
+    static ScanTiming scanTiming(HttpServletRequest request, boolean trustRequestStart) {
+        long now = System.nanoTime();
+        long queuedSince = now;
+        String start = trustRequestStart ? request.getHeader(REQUEST_START_HEADER) : null;
+        if (start != null) {
+            try {
+                String value = start.startsWith("t=") ? start.substring(2) : start;
+                long startMicros;
+                if (value.contains(".")) {
+                    startMicros = (long) (Double.parseDouble(value) * 1_000_000);
+                } else {
+                    // epoch milliseconds have 13 digits today and microseconds 16
+                    long raw = Long.parseLong(value);
+                    startMicros = raw > 100_000_000_000_000L ? raw : raw * 1000;
+                }
+                long waitedMicros = System.currentTimeMillis() * 1000 - startMicros;
+                if (waitedMicros > 0 && waitedMicros < 60_000_000) {
+                    queuedSince = now - TimeUnit.MICROSECONDS.toNanos(waitedMicros);
+                }
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring malformed {} header: {}", REQUEST_START_HEADER, start);
+            }
+        }
+        long budget = ScanTiming.NO_DEADLINE;
+        String timeout = request.getHeader(REQUEST_TIMEOUT_HEADER);
+        if (timeout != null) {
+            try {
+                budget = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Long.parseLong(timeout.trim())));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring malformed {} header: {}", REQUEST_TIMEOUT_HEADER, timeout);
+            }
+        }
+        return new ScanTiming(queuedSince, budget);
+    }
+
+    /**
+     * Relays a job to the client as server-sent events: "ingredient" for each streamed ingredient
+     * and "status" for every state change, closing the stream once the job has finished.
+     * @param owner whether the client submitted the job with this stream, so that losing the
+     *              stream before the job starts means nobody wants the result
+     */
+    private SseEmitter subscribe(ScanJob job, boolean owner) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        AtomicBoolean closed = new AtomicBoolean();
+        ScanJobListener listener = new ScanJobListener() {
+            @Override
+            public void onStatus(ScanJobStatus status) {
+                boolean finished = status.getStatus() == ScanJobStatus.State.COMPLETED
+                        || status.getStatus() == ScanJobStatus.State.FAILED;
+                send(SseEmitter.event().name("status").data(status), finished);
+            }
+
+            @Override
+            public void onIngredient(IngredientInfo ingredient) {
+                send(SseEmitter.event().name("ingredient").data(ingredient), false);
+            }
+
+            private void send(SseEmitter.SseEventBuilder event, boolean last) {
+                if (closed.get()) {
+                    return;
+                }
+                try {
+                    emitter.send(event);
+                    if (last) {
+                        closed.set(true);
+                        emitter.complete();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    closed.set(true);
+                    emitter.completeWithError(e);
+                }
+            }
+        };
+        emitter.onCompletion(() -> job.removeListener(listener));
+        emitter.onTimeout(() -> {
+            job.removeListener(listener);
+            if (owner) {
+                job.abandon();
+            }
+        });
+        emitter.onError(e -> {
+            job.removeListener(listener);
+            if (owner) {
+                job.abandon();
+            }
+        });
+
+        if (!job.isFinished()) {
+            listener.onStatus(job.status());
+        }
+        job.addListener(listener);
+        return emitter;
+    }
+
+    private ScanJob findJob(String jobId, HttpServletRequest request) {
+        ScanJob job = scanJobService.getJob(jobId);
+        if (job == null) {
+            return null;
+        }
+        // jobs submitted by a signed-in user are only visible to that user
+        if (job.getUserId() != null && !job.getUserId().equals(RequestUtils.getUserId(request))) {
+            return null;
+        }
+        return job;
+    }
+
     private boolean isValidImage(MultipartFile image) {
         String contentType = image.getContentType();
         return contentType != null &&
@@ -0,0 +1,19 @@
+package com.example.Labelspy.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchScanItem {
+    private int index;
+    private String fileName;
+    private AnalysisResult result;
+    private String error;
+}
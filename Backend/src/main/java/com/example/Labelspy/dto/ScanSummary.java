@@ -10,4 +10,5 @@ public class ScanSummary {
     //@JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss")
     private LocalDateTime timestamp;
     private List<String> ingredientNames; // Simplified: just names for dashboard
+    private List<String> ingredientIds;
 }
@@ -10,6 +10,7 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class TopIngredientDto {
+    private String ingredientId;
     private String ingredientName;
     private Integer count;
 }
@@ -6,7 +6,6 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import java.util.List;
 import java.util.Map;
 
 @Data
@@ -19,5 +18,5 @@ public class UserDto {
     private String email;
     private String displayName;
     private Map<String, Integer> ingredientCounts;
-    private List<ScanSummary> scanHistory;
+    private Long scanCount;
 }
@@ -1,7 +1,10 @@
 package com.example.Labelspy.interceptor;
 
+import com.example.Labelspy.service.AuthenticatedUser;
 import com.example.Labelspy.service.FirebaseAuthService;
 import com.google.firebase.auth.FirebaseAuthException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
@@ -17,6 +20,7 @@ import java.io.IOException;
 public class FirebaseAuthInterceptor implements HandlerInterceptor {
 
     private final FirebaseAuthService firebaseAuthService;
+    private final ObservationRegistry observationRegistry;
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
@@ -30,7 +34,7 @@ public class FirebaseAuthInterceptor implements HandlerInterceptor {
         }
 
         String authHeader = request.getHeader("Authorization");
-        boolean isScanPath = path.equals("/api/scan");
+        boolean isScanPath = path.equals("/api/scan") || path.startsWith("/api/scan/");
 
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
             if (isScanPath) {
@@ -46,9 +50,13 @@ public class FirebaseAuthInterceptor implements HandlerInterceptor {
 
         String idToken = authHeader.substring(7);
 
+        Observation verification = Observation.createNotStarted("auth.verify", observationRegistry)
+                .lowCardinalityKeyValue("outcome", "valid")
+                .start();
         try {
-            String userId = firebaseAuthService.getUserId(idToken);
-            String email = firebaseAuthService.getUserEmail(idToken);
+            AuthenticatedUser user = firebaseAuthService.authenticate(idToken);
+            String userId = user.uid();
+            String email = user.email();
 
             request.setAttribute("userId", userId);
             request.setAttribute("userEmail", email);
@@ -57,6 +65,7 @@ public class FirebaseAuthInterceptor implements HandlerInterceptor {
             log.debug("Authenticated user: {} ({})", userId, email);
             return true;
         } catch (FirebaseAuthException e) {
+            verification.lowCardinalityKeyValue("outcome", "invalid");
             log.warn("Firebase authentication failed: {}", e.getMessage());
             if (isScanPath) {
                 log.debug("Invalid token for scan; proceeding unauthenticated");
@@ -66,6 +75,12 @@ public class FirebaseAuthInterceptor implements HandlerInterceptor {
                         "Invalid or expired token: " + e.getMessage());
                 return false;
             }
+        } catch (RuntimeException e) {
+            verification.lowCardinalityKeyValue("outcome", "error");
+            verification.error(e);
+            throw e;
+        } finally {
+            verification.stop();
         }
     }
 
@@ -0,0 +1,161 @@
+package com.example.Labelspy.interceptor;
+
+import com.example.Labelspy.service.LocalRateLimitStore;
+import com.example.Labelspy.service.RateLimitStore;
+import com.example.Labelspy.service.SharedRateLimitStore;
+import com.example.Labelspy.util.RequestUtils;
+import com.example.Labelspy.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token-bucket limits per caller, applied after authentication. Signed-in callers are limited by
+ * user ID and anonymous ones by client address, each tier with its own bucket for scans, which
+ * cost one token per uploaded image, and for every other call. Scan buckets live in the
+ * {@link SharedRateLimitStore} when one is configured, so the limit holds across nodes; the rest
+ * are per node. Over-limit calls get 429 with Retry-After.
+ */
+@Component
+@Slf4j
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final LocalRateLimitStore localStore;
+    private final RateLimitStore scanStore;
+    private final boolean enabled;
+    private final TokenBucket userScans;
+    private final TokenBucket userCalls;
+    private final TokenBucket anonymousScans;
+    private final TokenBucket anonymousCalls;
+    private final Map<String, Counter> allowed = new HashMap<>();
+    private final Map<String, Counter> limited = new HashMap<>();
+    private final Counter storeFailures;
+
+    public RateLimitInterceptor(LocalRateLimitStore localStore,
+                                ObjectProvider<SharedRateLimitStore> sharedStore,
+                                MeterRegistry meterRegistry,
+                                @Value("${ratelimit.enabled:true}") boolean enabled,
+                                @Value("${ratelimit.user.scan.capacity:10}") int userScanCapacity,
+                                @Value("${ratelimit.user.scan.refill-per-minute:30}") double userScanRefill,
+                                @Value("${ratelimit.user.api.capacity:120}") int userApiCapacity,
+                                @Value("${ratelimit.user.api.refill-per-minute:600}") double userApiRefill,
+                                @Value("${ratelimit.anonymous.scan.capacity:3}") int anonymousScanCapacity,
+                                @Value("${ratelimit.anonymous.scan.refill-per-minute:6}") double anonymousScanRefill,
+                                @Value("${ratelimit.anonymous.api.capacity:30}") int anonymousApiCapacity,
+                                @Value("${ratelimit.anonymous.api.refill-per-minute:120}") double anonymousApiRefill) {
+        this.localStore = localStore;
+        SharedRateLimitStore shared = sharedStore.getIfAvailable();
+        this.scanStore = shared != null ? shared : localStore;
+        this.enabled = enabled;
+        this.userScans = new TokenBucket("scan.user", userScanCapacity, userScanRefill);
+        this.userCalls = new TokenBucket("api.user", userApiCapacity, userApiRefill);
+        this.anonymousScans = new TokenBucket("scan.anonymous", anonymousScanCapacity, anonymousScanRefill);
+        this.anonymousCalls = new TokenBucket("api.anonymous", anonymousApiCapacity, anonymousApiRefill);
+        for (TokenBucket bucket : List.of(userScans, userCalls, anonymousScans, anonymousCalls)) {
+            allowed.put(bucket.name(), meterRegistry.counter("ratelimit.requests", "limit", bucket.name(), "outcome", "allowed"));
+            limited.put(bucket.name(), meterRegistry.counter("ratelimit.requests", "limit", bucket.name(), "outcome", "limited"));
+        }
+        this.storeFailures = meterRegistry.counter("ratelimit.store.failures");
+        if (scanStore != localStore) {
+            log.info("Scan rate limits shared through {}", scanStore.getClass().getSimpleName());
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!enabled || "OPTIONS".equalsIgnoreCase(request.getMethod())) {
+            return true;
+        }
+        String userId = RequestUtils.getUserId(request);
+        String key = userId != null ? "user:" + userId : "ip:" + clientAddress(request);
+        boolean scan = "POST".equalsIgnoreCase(request.getMethod())
+                && (request.getRequestURI().equals("/api/scan") || request.getRequestURI().startsWith("/api/scan/"));
+        TokenBucket bucket = scan
+                ? (userId != null ? userScans : anonymousScans)
+                : (userId != null ? userCalls : anonymousCalls);
+
+        long waitMs;
+        if (scan) {
+            // a batch larger than the bucket could never fit, so it takes the whole bucket instead
+            int tokens = Math.min(bucket.capacity(), Math.max(1, uploadCount(request)));
+            waitMs = takeScanTokens(key, bucket, tokens);
+        } else {
+            waitMs = localStore.tryTake(key, bucket, 1);
+        }
+        if (waitMs == 0) {
+            allowed.get(bucket.name()).increment();
+            return true;
+        }
+
+        limited.get(bucket.name()).increment();
+        long retryAfterSeconds = Math.max(1, (waitMs + 999) / 1000);
+        log.debug("Rate limited {} on {}; retry in {} s", key, bucket.name(), retryAfterSeconds);
+        response.setStatus(429);
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write("{\"error\": \"Too many requests, please retry in " + retryAfterSeconds + " s\"}");
+        return false;
+    }
+
+    private long takeScanTokens(String key, TokenBucket bucket, int tokens) {
+        try {
+            return scanStore.tryTake(key, bucket, tokens);
+        } catch (RuntimeException e) {
+            if (scanStore == localStore) {
+                throw e;
+            }
+            // an unreachable shared store degrades to per-node limits rather than refusing or waving through every scan
+            storeFailures.increment();
+            log.warn("Shared rate limit store failed, limiting {} on this node only: {}", key, e.getMessage());
+            return localStore.tryTake(key, bucket, tokens);
+        }
+    }
+
+    private static int uploadCount(HttpServletRequest request) {
+        if (request instanceof MultipartHttpServletRequest multipart) {
+            return multipart.getMultiFileMap().values().stream().mapToInt(List::size).sum();
+        }
+        return 1;
+    }
+
+    /**
+     * Remote address of the caller; IPv6 clients are keyed by their /64, which one client
+     * usually holds whole. Behind a proxy set server.forward-headers-strategy so this is the
+     * client's address rather than the proxy's.
+     */
+    static String clientAddress(HttpServletRequest request) {
+        String address = request.getRemoteAddr();
+        if (address == null || address.indexOf(':') < 0) {
+            return address;
+        }
+        try {
+            byte[] bytes = InetAddress.getByName(address).getAddress();
+            if (bytes.length != 16) {
+                return address;
+            }
+            StringBuilder prefix = new StringBuilder();
+            for (int i = 0; i < 8; i += 2) {
+                prefix.append(Integer.toHexString((bytes[i] & 0xff) << 8 | bytes[i + 1] & 0xff)).append(':');
+            }
+            return prefix.append(":/64").toString();
+        } catch (UnknownHostException e) {
+            // getRemoteAddr is always a literal, so this lookup never touches DNS
+            return address;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.Labelspy.service;
+
+import java.time.Instant;
+
+/**
+ * Claims kept from a verified Firebase ID token.
+ * @param expiresAt the token's exp claim
+ */
+public record AuthenticatedUser(String uid, String email, Instant expiresAt) {
+}
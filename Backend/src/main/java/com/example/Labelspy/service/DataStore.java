@@ -0,0 +1,111 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.TopIngredientDto;
+import com.example.Labelspy.dto.UserDto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistence for user profiles, ingredient counts, scan history and trending snapshots. The
+ * backend is chosen with storage.backend: firestore ({@link FirestoreService}, the default) or
+ * embedded ({@link EmbeddedDataStore}, an on-disk H2 database for running offline and load tests).
+ * Ingredient counts are keyed by {@link IngredientDictionary} IDs; implementations re-key raw names
+ * they are given.
+ */
+public interface DataStore {
+
+    /** daily count windows can cover at most this many days */
+    int MAX_WINDOW_DAYS = 30;
+
+    /**
+     * Creates the user or updates their email and display name, keeping counts and history
+     * @param userDto profile to store; ingredientCounts, when present, are set entry by entry
+     * @return the stored profile
+     */
+    UserDto createOrUpdateUser(UserDto userDto);
+
+    /**
+     * @return the user's profile, or null when the user does not exist
+     */
+    UserDto getUserById(String userId);
+
+    /**
+     * Deletes the user with their history and counts
+     */
+    void deleteUser(String userId);
+
+    /**
+     * Adds scans to a user's history and scanCount, creating the user if needed. Ingredient counts
+     * are applied separately with {@link #incrementIngredientCounts(Map)}.
+     * @param userId user to update
+     * @param results completed scans
+     */
+    void recordScans(String userId, List<AnalysisResult> results);
+
+    /**
+     * Reads one page of a user's scans, newest first
+     * @param userId user to read
+     * @param limit page size
+     * @param startAfter cursor returned with the previous page, or null for the first page
+     * @param from only scans at or after this time, or null
+     * @param to only scans before this time, or null
+     * @return the page and the cursor for the next one
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    ScanHistoryPage getScanHistory(String userId, int limit, String startAfter, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Reads a user's scans oldest first, the order exports and incremental syncs page in
+     * @param userId user to read
+     * @param since cursor of the last scan already seen, or null to start from the first scan
+     * @param limit page size
+     * @return up to limit scans after since, each with its own cursor
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    List<ExportedScan> getScansSince(String userId, String since, int limit);
+
+    /**
+     * Adds to a user's ingredient counts
+     * @param userId user to update
+     * @param deltas amount to add per ingredient
+     */
+    default void incrementIngredientCounts(String userId, Map<String, Integer> deltas) {
+        incrementIngredientCounts(Map.of(userId, deltas));
+    }
+
+    /**
+     * Adds to several users' all-time ingredient counts and today's (UTC) daily counts
+     * @param deltasByUser amount to add per ingredient, per user
+     * @throws PartialCountUpdateException when some users were updated and others were not; any
+     *         other exception means no user was updated
+     */
+    void incrementIngredientCounts(Map<String, Map<String, Integer>> deltasByUser);
+
+    /**
+     * Returns a user's most frequent ingredients
+     * @param userId user to read
+     * @param limit number of ingredients, at most {@link #getMaxTopIngredients()} for the all-time ranking
+     * @param days size of the window in days ending today (UTC), at most MAX_WINDOW_DAYS, or null for all time
+     * @return ingredients, most frequent first
+     * @throws IllegalArgumentException if days is out of range
+     */
+    List<TopIngredientDto> getTopIngredients(String userId, int limit, Integer days);
+
+    int getMaxTopIngredients();
+
+    /**
+     * Replaces one node's trending summary for one time bucket
+     */
+    void saveTrendingSnapshot(TrendingSnapshot snapshot);
+
+    /**
+     * Reads the trending summaries of every node for a range of bucket keys
+     * @param fromBucket first bucket key, inclusive
+     * @param toBucket last bucket key, inclusive
+     * @return the stored snapshots
+     */
+    List<TrendingSnapshot> getTrendingSnapshots(String fromBucket, String toBucket);
+}
@@ -0,0 +1,505 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.ScanSummary;
+import com.example.Labelspy.dto.TopIngredientDto;
+import com.example.Labelspy.dto.UserDto;
+import com.example.Labelspy.util.SpaceSaving;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * {@link DataStore} on an embedded H2 database, for running without a Google project and for load
+ * tests. Each access pattern has its own table and index: profiles by uid, counts by (uid,
+ * ingredient) with a (uid, count) index that serves the ranking directly, daily counts by (uid,
+ * day), and scans by (uid, scan) with (uid, time, scan) indexes in both directions, one for
+ * history pages and one for exports. Scan times are epoch nanoseconds, so cursors are the same
+ * {@link ScanCursor} values Firestore hands out. Every write is one local transaction. A blank
+ * path keeps the database in memory.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "embedded")
+@Slf4j
+public class EmbeddedDataStore implements DataStore {
+
+    private static final TypeReference<List<SpaceSaving.Entry>> HEAVY_HITTERS = new TypeReference<>() {};
+    private static final String ID_SEPARATOR = ",";
+
+    private static final String[] SCHEMA = {
+            """
+            CREATE TABLE IF NOT EXISTS users (
+                uid VARCHAR(128) PRIMARY KEY,
+                email VARCHAR(320),
+                display_name VARCHAR(256),
+                scan_count BIGINT DEFAULT 0 NOT NULL)""",
+            """
+            CREATE TABLE IF NOT EXISTS ingredient_counts (
+                uid VARCHAR(128) NOT NULL,
+                ingredient_id VARCHAR(256) NOT NULL,
+                occurrences INT NOT NULL,
+                PRIMARY KEY (uid, ingredient_id))""",
+            "CREATE INDEX IF NOT EXISTS ingredient_ranking ON ingredient_counts (uid, occurrences DESC, ingredient_id)",
+            """
+            CREATE TABLE IF NOT EXISTS daily_counts (
+                uid VARCHAR(128) NOT NULL,
+                scan_day DATE NOT NULL,
+                ingredient_id VARCHAR(256) NOT NULL,
+                occurrences INT NOT NULL,
+                PRIMARY KEY (uid, scan_day, ingredient_id))""",
+            """
+            CREATE TABLE IF NOT EXISTS scans (
+                uid VARCHAR(128) NOT NULL,
+                scan_id VARCHAR(128) NOT NULL,
+                scanned_at BIGINT NOT NULL,
+                ingredient_ids VARCHAR NOT NULL,
+                PRIMARY KEY (uid, scan_id))""",
+            "CREATE INDEX IF NOT EXISTS scans_by_time ON scans (uid, scanned_at, scan_id)",
+            // H2 reads scans_by_time backwards but cannot seek to a cursor that way, so history pages get their own
+            "CREATE INDEX IF NOT EXISTS scans_newest_first ON scans (uid, scanned_at DESC, scan_id DESC)",
+            """
+            CREATE TABLE IF NOT EXISTS trending_snapshots (
+                bucket VARCHAR(64) NOT NULL,
+                node VARCHAR(128) NOT NULL,
+                width INT NOT NULL,
+                depth INT NOT NULL,
+                total BIGINT NOT NULL,
+                sketch VARBINARY NOT NULL,
+                heavy VARCHAR NOT NULL,
+                expire_at BIGINT NOT NULL,
+                PRIMARY KEY (bucket, node))""",
+    };
+
+    private static final String ADD_COUNT = """
+            MERGE INTO ingredient_counts t
+            USING (VALUES (CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS INT))) s (uid, ingredient_id, delta)
+            ON t.uid = s.uid AND t.ingredient_id = s.ingredient_id
+            WHEN MATCHED THEN UPDATE SET occurrences = t.occurrences + s.delta
+            WHEN NOT MATCHED THEN INSERT (uid, ingredient_id, occurrences) VALUES (s.uid, s.ingredient_id, s.delta)""";
+
+    private static final String ADD_DAILY_COUNT = """
+            MERGE INTO daily_counts t
+            USING (VALUES (CAST(? AS VARCHAR), CAST(? AS DATE), CAST(? AS VARCHAR), CAST(? AS INT)))
+                s (uid, scan_day, ingredient_id, delta)
+            ON t.uid = s.uid AND t.scan_day = s.scan_day AND t.ingredient_id = s.ingredient_id
+            WHEN MATCHED THEN UPDATE SET occurrences = t.occurrences + s.delta
+            WHEN NOT MATCHED THEN INSERT (uid, scan_day, ingredient_id, occurrences)
+                VALUES (s.uid, s.scan_day, s.ingredient_id, s.delta)""";
+
+    private final IngredientDictionary ingredientDictionary;
+    private final ObjectMapper objectMapper;
+    private final int maxTopIngredients;
+    private final JdbcConnectionPool pool;
+
+    public EmbeddedDataStore(IngredientDictionary ingredientDictionary,
+                             ObjectMapper objectMapper,
+                             @Value("${storage.embedded.path:}") String path,
+                             @Value("${storage.embedded.max-connections:16}") int maxConnections,
+                             @Value("${user.top-ingredients.max-k:50}") int maxTopIngredients) {
+        this.ingredientDictionary = ingredientDictionary;
+        this.objectMapper = objectMapper;
+        this.maxTopIngredients = maxTopIngredients;
+        this.pool = JdbcConnectionPool.create(url(path), "sa", "");
+        this.pool.setMaxConnections(maxConnections);
+        inTransaction("create schema", connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            return null;
+        });
+        log.info("Embedded data store initialized at {}", path == null || path.isBlank() ? "memory" : path);
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.dispose();
+    }
+
+    @Override
+    public UserDto createOrUpdateUser(UserDto userDto) {
+        inTransaction("create/update user", connection -> {
+            try (PreparedStatement merge = connection.prepareStatement(
+                    "MERGE INTO users (uid, email, display_name) KEY (uid) VALUES (?, ?, ?)")) {
+                merge.setString(1, userDto.getUid());
+                merge.setString(2, userDto.getEmail());
+                merge.setString(3, userDto.getDisplayName());
+                merge.executeUpdate();
+            }
+            if (userDto.getIngredientCounts() != null && !userDto.getIngredientCounts().isEmpty()) {
+                try (PreparedStatement set = connection.prepareStatement(
+                        "MERGE INTO ingredient_counts (uid, ingredient_id, occurrences) KEY (uid, ingredient_id) VALUES (?, ?, ?)")) {
+                    for (Map.Entry<String, Integer> entry : ingredientDictionary.canonicalCounts(userDto.getIngredientCounts()).entrySet()) {
+                        set.setString(1, userDto.getUid());
+                        set.setString(2, entry.getKey());
+                        set.setInt(3, entry.getValue());
+                        set.addBatch();
+                    }
+                    set.executeBatch();
+                }
+            }
+            return null;
+        });
+        log.info("User created/updated: {}", userDto.getUid());
+        return getUserById(userDto.getUid());
+    }
+
+    @Override
+    public UserDto getUserById(String userId) {
+        return inTransaction("get user", connection -> {
+            UserDto.UserDtoBuilder user;
+            try (PreparedStatement query = connection.prepareStatement(
+                    "SELECT email, display_name, scan_count FROM users WHERE uid = ?")) {
+                query.setString(1, userId);
+                try (ResultSet row = query.executeQuery()) {
+                    if (!row.next()) {
+                        return null;
+                    }
+                    user = UserDto.builder()
+                            .uid(userId)
+                            .email(row.getString(1))
+                            .displayName(row.getString(2))
+                            .scanCount(row.getLong(3));
+                }
+            }
+            Map<String, Integer> counts = new HashMap<>();
+            try (PreparedStatement query = connection.prepareStatement(
+                    "SELECT ingredient_id, occurrences FROM ingredient_counts WHERE uid = ?")) {
+                query.setString(1, userId);
+                try (ResultSet rows = query.executeQuery()) {
+                    while (rows.next()) {
+                        counts.put(rows.getString(1), rows.getInt(2));
+                    }
+                }
+            }
+            return user.ingredientCounts(counts).build();
+        });
+    }
+
+    @Override
+    public void deleteUser(String userId) {
+        inTransaction("delete user", connection -> {
+            for (String table : List.of("scans", "daily_counts", "ingredient_counts", "users")) {
+                try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE uid = ?")) {
+                    delete.setString(1, userId);
+                    delete.executeUpdate();
+                }
+            }
+            return null;
+        });
+        log.info("User deleted: {}", userId);
+    }
+
+    @Override
+    public void recordScans(String userId, List<AnalysisResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        long now = epochNanos(Instant.now());
+        inTransaction("record scans", connection -> {
+            ensureUser(connection, userId);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "MERGE INTO scans (uid, scan_id, scanned_at, ingredient_ids) KEY (uid, scan_id) VALUES (?, ?, ?, ?)")) {
+                for (AnalysisResult result : results) {
+                    insert.setString(1, userId);
+                    insert.setString(2, Optional.ofNullable(result.getScanId()).orElseGet(() -> UUID.randomUUID().toString()));
+                    insert.setLong(3, now);
+                    insert.setString(4, String.join(ID_SEPARATOR,
+                            ingredientDictionary.canonicalIds(Optional.ofNullable(result.getIngredients()).orElse(List.of()))));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement count = connection.prepareStatement(
+                    "UPDATE users SET scan_count = scan_count + ? WHERE uid = ?")) {
+                count.setLong(1, results.size());
+                count.setString(2, userId);
+                count.executeUpdate();
+            }
+            return null;
+        });
+        log.info("Recorded {} scans for user: {}", results.size(), userId);
+    }
+
+    @Override
+    public ScanHistoryPage getScanHistory(String userId, int limit, String startAfter,
+                                          LocalDateTime from, LocalDateTime to) {
+        ScanCursor cursor = startAfter == null || startAfter.isBlank() ? null : ScanCursor.decode(startAfter);
+        StringBuilder sql = new StringBuilder(
+                "SELECT scan_id, scanned_at, ingredient_ids FROM scans USE INDEX (scans_newest_first) WHERE uid = ?");
+        List<Object> parameters = new ArrayList<>(List.of(userId));
+        if (from != null) {
+            sql.append(" AND scanned_at >= ?");
+            parameters.add(epochNanos(from.atZone(ZoneId.systemDefault()).toInstant()));
+        }
+        if (to != null) {
+            sql.append(" AND scanned_at < ?");
+            parameters.add(epochNanos(to.atZone(ZoneId.systemDefault()).toInstant()));
+        }
+        if (cursor != null) {
+            // the plain bound lets H2 seek to the cursor instead of scanning up to it
+            sql.append(" AND scanned_at <= ? AND (scanned_at < ? OR scan_id < ?)");
+            long position = epochNanos(cursor.timestamp());
+            parameters.addAll(List.of(position, position, cursor.scanId()));
+        }
+        // H2 only reads rows in index order, rather than sorting them all, when the ORDER BY names uid too
+        sql.append(" ORDER BY uid, scanned_at DESC, scan_id DESC LIMIT ?");
+        parameters.add(limit + 1);
+
+        List<ExportedScan> scans = queryScans("get scan history", sql.toString(), parameters);
+        String nextCursor = scans.size() > limit ? scans.get(limit - 1).cursor() : null;
+        return new ScanHistoryPage(scans.stream().limit(limit).map(ExportedScan::scan).toList(), nextCursor);
+    }
+
+    @Override
+    public List<ExportedScan> getScansSince(String userId, String since, int limit) {
+        ScanCursor cursor = since == null || since.isBlank() ? null : ScanCursor.decode(since);
+        StringBuilder sql = new StringBuilder(
+                "SELECT scan_id, scanned_at, ingredient_ids FROM scans USE INDEX (scans_by_time) WHERE uid = ?");
+        List<Object> parameters = new ArrayList<>(List.of(userId));
+        if (cursor != null) {
+            sql.append(" AND scanned_at >= ? AND (scanned_at > ? OR scan_id > ?)");
+            long position = epochNanos(cursor.timestamp());
+            parameters.addAll(List.of(position, position, cursor.scanId()));
+        }
+        sql.append(" ORDER BY uid, scanned_at, scan_id LIMIT ?");
+        parameters.add(limit);
+        return queryScans("export scans", sql.toString(), parameters);
+    }
+
+    @Override
+    public void incrementIngredientCounts(Map<String, Map<String, Integer>> deltasByUser) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        java.sql.Date day = java.sql.Date.valueOf(today);
+        java.sql.Date oldestKept = java.sql.Date.valueOf(today.minusDays(MAX_WINDOW_DAYS));
+        inTransaction("update ingredient counts", connection -> {
+            try (PreparedStatement counts = connection.prepareStatement(ADD_COUNT);
+                 PreparedStatement daily = connection.prepareStatement(ADD_DAILY_COUNT);
+                 PreparedStatement prune = connection.prepareStatement(
+                         "DELETE FROM daily_counts WHERE uid = ? AND scan_day < ?")) {
+                for (Map.Entry<String, Map<String, Integer>> user : deltasByUser.entrySet()) {
+                    // deltas journaled before IDs were introduced may still carry raw names
+                    Map<String, Integer> deltas = ingredientDictionary.canonicalCounts(user.getValue());
+                    if (deltas.isEmpty()) {
+                        continue;
+                    }
+                    ensureUser(connection, user.getKey());
+                    for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                        counts.setString(1, user.getKey());
+                        counts.setString(2, delta.getKey());
+                        counts.setInt(3, delta.getValue());
+                        counts.addBatch();
+                        daily.setString(1, user.getKey());
+                        daily.setDate(2, day);
+                        daily.setString(3, delta.getKey());
+                        daily.setInt(4, delta.getValue());
+                        daily.addBatch();
+                    }
+                    prune.setString(1, user.getKey());
+                    prune.setDate(2, oldestKept);
+                    prune.addBatch();
+                }
+                counts.executeBatch();
+                daily.executeBatch();
+                prune.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<TopIngredientDto> getTopIngredients(String userId, int limit, Integer days) {
+        if (days != null && (days < 1 || days > MAX_WINDOW_DAYS)) {
+            throw new IllegalArgumentException("days must be between 1 and " + MAX_WINDOW_DAYS);
+        }
+        return inTransaction("get top ingredients", connection -> {
+            PreparedStatement query;
+            if (days == null) {
+                query = connection.prepareStatement("""
+                        SELECT ingredient_id, occurrences FROM ingredient_counts WHERE uid = ?
+                        ORDER BY uid, occurrences DESC, ingredient_id LIMIT ?""");
+                query.setString(1, userId);
+                query.setInt(2, Math.min(limit, maxTopIngredients));
+            } else {
+                query = connection.prepareStatement("""
+                        SELECT ingredient_id, SUM(occurrences) AS n FROM daily_counts
+                        WHERE uid = ? AND scan_day >= ?
+                        GROUP BY ingredient_id ORDER BY n DESC, ingredient_id LIMIT ?""");
+                query.setString(1, userId);
+                query.setDate(2, java.sql.Date.valueOf(LocalDate.now(ZoneOffset.UTC).minusDays(days - 1)));
+                query.setInt(3, limit);
+            }
+            List<TopIngredientDto> top = new ArrayList<>();
+            try (query; ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    top.add(TopIngredientDto.builder()
+                            .ingredientId(rows.getString(1))
+                            .ingredientName(ingredientDictionary.displayName(rows.getString(1)))
+                            .count(rows.getInt(2))
+                            .build());
+                }
+            }
+            return top;
+        });
+    }
+
+    @Override
+    public int getMaxTopIngredients() {
+        return maxTopIngredients;
+    }
+
+    @Override
+    public void saveTrendingSnapshot(TrendingSnapshot snapshot) {
+        String heavy;
+        try {
+            heavy = objectMapper.writeValueAsString(snapshot.heavy());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize trending snapshot", e);
+        }
+        inTransaction("save trending snapshot", connection -> {
+            try (PreparedStatement merge = connection.prepareStatement("""
+                    MERGE INTO trending_snapshots (bucket, node, width, depth, total, sketch, heavy, expire_at)
+                    KEY (bucket, node) VALUES (?, ?, ?, ?, ?, ?, ?, ?)""");
+                 PreparedStatement expire = connection.prepareStatement(
+                         "DELETE FROM trending_snapshots WHERE expire_at < ?")) {
+                merge.setString(1, snapshot.bucket());
+                merge.setString(2, snapshot.node());
+                merge.setInt(3, snapshot.width());
+                merge.setInt(4, snapshot.depth());
+                merge.setLong(5, snapshot.total());
+                merge.setBytes(6, snapshot.sketch());
+                merge.setString(7, heavy);
+                merge.setLong(8, snapshot.expireAt().getEpochSecond());
+                merge.executeUpdate();
+                expire.setLong(1, Instant.now().getEpochSecond());
+                expire.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<TrendingSnapshot> getTrendingSnapshots(String fromBucket, String toBucket) {
+        return inTransaction("get trending snapshots", connection -> {
+            List<TrendingSnapshot> snapshots = new ArrayList<>();
+            try (PreparedStatement query = connection.prepareStatement("""
+                    SELECT bucket, node, width, depth, total, sketch, heavy, expire_at FROM trending_snapshots
+                    WHERE bucket BETWEEN ? AND ?""")) {
+                query.setString(1, fromBucket);
+                query.setString(2, toBucket);
+                try (ResultSet rows = query.executeQuery()) {
+                    while (rows.next()) {
+                        snapshots.add(new TrendingSnapshot(rows.getString(1), rows.getString(2), rows.getInt(3),
+                                rows.getInt(4), rows.getLong(5), rows.getBytes(6),
+                                objectMapper.readValue(rows.getString(7), HEAVY_HITTERS),
+                                Instant.ofEpochSecond(rows.getLong(8))));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unreadable trending snapshot", e);
+            }
+            return snapshots;
+        });
+    }
+
+    private List<ExportedScan> queryScans(String action, String sql, List<Object> parameters) {
+        return inTransaction(action, connection -> {
+            List<ExportedScan> scans = new ArrayList<>();
+            try (PreparedStatement query = connection.prepareStatement(sql)) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    query.setObject(i + 1, parameters.get(i));
+                }
+                try (ResultSet rows = query.executeQuery()) {
+                    while (rows.next()) {
+                        scans.add(toExportedScan(rows.getString(1), rows.getLong(2), rows.getString(3)));
+                    }
+                }
+            }
+            return scans;
+        });
+    }
+
+    private ExportedScan toExportedScan(String scanId, long scannedAt, String ingredientIds) {
+        Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(
+                Math.floorDiv(scannedAt, 1_000_000_000L), (int) Math.floorMod(scannedAt, 1_000_000_000L));
+        ScanSummary summary = new ScanSummary();
+        summary.setScanId(scanId);
+        summary.setTimestamp(LocalDateTime.ofInstant(timestamp.toDate().toInstant(), ZoneId.systemDefault()));
+        summary.setIngredientIds(ingredientIds.isEmpty() ? List.of() : List.of(ingredientIds.split(ID_SEPARATOR)));
+        summary.setIngredientNames(summary.getIngredientIds().stream().map(ingredientDictionary::displayName).toList());
+        return new ExportedScan(summary, new ScanCursor(timestamp, scanId).encode());
+    }
+
+    private static void ensureUser(Connection connection, String userId) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO users (uid) SELECT ? WHERE NOT EXISTS (SELECT 1 FROM users WHERE uid = ?)")) {
+            insert.setString(1, userId);
+            insert.setString(2, userId);
+            insert.executeUpdate();
+        }
+    }
+
+    private <T> T inTransaction(String action, SqlWork<T> work) {
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            log.error("Failed to {}: {}", action, e.getMessage(), e);
+            throw new RuntimeException("Failed to " + action, e);
+        }
+    }
+
+    private static long epochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static long epochNanos(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000_000L + timestamp.getNanos();
+    }
+
+    private static String url(String path) {
+        if (path == null || path.isBlank()) {
+            return "jdbc:h2:mem:labelspy-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        }
+        try {
+            return "jdbc:h2:file:" + Files.createDirectories(Paths.get(path)).toAbsolutePath().resolve("labelspy");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create embedded data store directory " + path, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+}
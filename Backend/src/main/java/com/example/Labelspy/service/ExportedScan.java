@@ -0,0 +1,10 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.ScanSummary;
+
+/**
+ * A scan as written by an export.
+ * @param cursor position just after this scan, to pass back as since to resume or sync from here
+ */
+public record ExportedScan(ScanSummary scan, String cursor) {
+}
@@ -3,16 +3,55 @@ package com.example.Labelspy.service;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verifies Firebase ID tokens. Verified tokens are cached by SHA-256 of the token until shortly
+ * before their exp claim, so repeat requests from a session skip signature verification. The cache
+ * is a bounded LRU; raw tokens are never kept in memory.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class FirebaseAuthService {
 
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
     private final FirebaseAuth firebaseAuth;
+    private final boolean cacheEnabled;
+    private final Map<String, AuthenticatedUser> verified;
+    private final Counter hits;
+    private final Counter misses;
+
+    public FirebaseAuthService(FirebaseAuth firebaseAuth,
+                               MeterRegistry meterRegistry,
+                               @Value("${auth.token-cache.enabled:true}") boolean cacheEnabled,
+                               @Value("${auth.token-cache.max-entries:10000}") int maxEntries) {
+        this.firebaseAuth = firebaseAuth;
+        this.cacheEnabled = cacheEnabled;
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AuthenticatedUser> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = meterRegistry.counter("auth.token.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("auth.token.cache.requests", "result", "miss");
+        Gauge.builder("auth.token.cache.size", this, FirebaseAuthService::cacheSize).register(meterRegistry);
+    }
 
     /**
      * Validates Firebase ID token and returns decoded token
@@ -29,6 +68,39 @@ public class FirebaseAuthService {
         }
     }
 
+    /**
+     * Verifies a token once and returns its user, served from the cache while the token is valid
+     * @param idToken Firebase ID token from client
+     * @return uid and email of the token's user
+     * @throws FirebaseAuthException if token is invalid
+     */
+    public AuthenticatedUser authenticate(String idToken) throws FirebaseAuthException {
+        if (!cacheEnabled) {
+            return toUser(verifyToken(idToken));
+        }
+        String key = hash(idToken);
+        Instant now = Instant.now();
+        synchronized (verified) {
+            AuthenticatedUser cached = verified.get(key);
+            if (cached != null) {
+                if (now.isBefore(cached.expiresAt().minus(EXPIRY_MARGIN))) {
+                    hits.increment();
+                    return cached;
+                }
+                verified.remove(key);
+            }
+        }
+
+        misses.increment();
+        AuthenticatedUser user = toUser(verifyToken(idToken));
+        if (now.isBefore(user.expiresAt().minus(EXPIRY_MARGIN))) {
+            synchronized (verified) {
+                verified.put(key, user);
+            }
+        }
+        return user;
+    }
+
     /**
      * Gets user ID from Firebase token
      * @param idToken Firebase ID token
@@ -36,8 +108,7 @@ public class FirebaseAuthService {
      * @throws FirebaseAuthException if token is invalid
      */
     public String getUserId(String idToken) throws FirebaseAuthException {
-        FirebaseToken decodedToken = verifyToken(idToken);
-        return decodedToken.getUid();
+        return authenticate(idToken).uid();
     }
 
     /**
@@ -47,8 +118,28 @@ public class FirebaseAuthService {
      * @throws FirebaseAuthException if token is invalid
      */
     public String getUserEmail(String idToken) throws FirebaseAuthException {
-        FirebaseToken decodedToken = verifyToken(idToken);
-        return decodedToken.getEmail();
+        return authenticate(idToken).email();
+    }
+
+    private int cacheSize() {
+        synchronized (verified) {
+            return verified.size();
+        }
     }
-}
 
+    private static AuthenticatedUser toUser(FirebaseToken token) {
+        Object exp = token.getClaims().get("exp");
+        // verifyIdToken rejects tokens without exp, so the fallback only guards odd claim types
+        Instant expiresAt = exp instanceof Number seconds ? Instant.ofEpochSecond(seconds.longValue()) : Instant.EPOCH;
+        return new AuthenticatedUser(token.getUid(), token.getEmail(), expiresAt);
+    }
+
+    private static String hash(String idToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(idToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
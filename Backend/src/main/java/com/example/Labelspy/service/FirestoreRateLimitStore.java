@@ -0,0 +1,61 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.util.TokenBucket;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets in the rateLimits collection, one document per bucket and key, each updated in a
+ * transaction so every node draws from the same bucket. Times are wall-clock epoch nanoseconds,
+ * so node clock skew shifts refills by the same amount. expireAt is when the bucket is full
+ * again; a TTL policy on it deletes idle buckets, and a missing document is a full bucket.
+ */
+@Service
+@ConditionalOnProperty(name = "ratelimit.shared-store", havingValue = "firestore")
+@RequiredArgsConstructor
+@Slf4j
+public class FirestoreRateLimitStore implements SharedRateLimitStore {
+
+    private static final String RATE_LIMITS_COLLECTION = "rateLimits";
+
+    private final Firestore firestore;
+
+    @Override
+    public long tryTake(String key, TokenBucket bucket, int tokens) {
+        DocumentReference bucketRef = firestore.collection(RATE_LIMITS_COLLECTION)
+                .document((bucket.name() + "|" + key).replace('/', '_'));
+        try {
+            return firestore.runTransaction(transaction -> {
+                DocumentSnapshot current = transaction.get(bucketRef).get();
+                long now = epochNanos(Instant.now());
+                long fullAt = current.get("fullAt") instanceof Number stored ? stored.longValue() : now;
+                long next = bucket.take(fullAt, now, tokens);
+                long wait = bucket.waitNanos(next, now);
+                if (wait > 0) {
+                    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+                }
+                transaction.set(bucketRef, Map.of("fullAt", next,
+                        "expireAt", Timestamp.ofTimeSecondsAndNanos(Math.floorDiv(next, 1_000_000_000L) + 1, 0)));
+                return 0L;
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error updating rate limit bucket {}: {}", bucketRef.getId(), e.getMessage(), e);
+            throw new RuntimeException("Failed to update rate limit bucket", e);
+        }
+    }
+
+    private static long epochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+}
@@ -1,39 +1,82 @@
 package com.example.Labelspy.service;
 
 import com.example.Labelspy.dto.*;
+import com.example.Labelspy.util.SpaceSaving;
+import com.example.Labelspy.util.TopK;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 @Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "firestore", matchIfMissing = true)
 @RequiredArgsConstructor
 @Slf4j
-public class FirestoreService {
+public class FirestoreService implements DataStore {
 
     private final Firestore firestore;
+    private final UserProfileCache userProfileCache;
+    private final IngredientDictionary ingredientDictionary;
 
     private static final String USERS_COLLECTION = "users";
-
-
+    private static final String SCANS_COLLECTION = "scans";
+    private static final String DAILY_COUNTS_COLLECTION = "dailyCounts";
+    private static final String TRENDING_COLLECTION = "trending";
+    private static final String TOP_INGREDIENTS = "topIngredients";
+    private static final String COUNTS_VERSION = "countsVersion";
+    // 2: ingredientCounts keys are IngredientDictionary IDs rather than raw names
+    private static final int CURRENT_COUNTS_VERSION = 2;
+    // stays under Firestore's 500 writes per commit, leaving room for the user document update
+    private static final int MAX_WRITES_PER_COMMIT = 400;
+
+    // users whose embedded scanHistory array is known to be migrated, so the check runs once per user
+    private final Set<String> migratedUsers = ConcurrentHashMap.newKeySet();
+
+    @Value("${user.top-ingredients.max-k:50}")
+    private int maxTopIngredients = 50;
+
+    @Override
     public UserDto createOrUpdateUser(UserDto userDto) {
         try {
             Map<String, Object> userData = convertUserToMap(userDto);
-            firestore.collection(USERS_COLLECTION).document(userDto.getUid()).set(userData);
+            // merge so profile edits never reset counters maintained by scan writes
+            firestore.collection(USERS_COLLECTION).document(userDto.getUid()).set(userData, SetOptions.merge()).get();
             log.info("User created/updated: {}", userDto.getUid());
-            return getUserById(userDto.getUid());
+            UserDto updated = userProfileCache.update(userDto.getUid(), cached -> {
+                cached.setEmail(userDto.getEmail());
+                cached.setDisplayName(userDto.getDisplayName());
+                if (userDto.getIngredientCounts() != null) {
+                    cached.getIngredientCounts().putAll(userDto.getIngredientCounts());
+                }
+            });
+            return updated != null ? updated : getUserById(userDto.getUid());
         } catch (Exception e) {
             log.error("Error creating/updating user: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to create/update user", e);
         }
     }
 
+    @Override
     public UserDto getUserById(String userId) {
+        return userProfileCache.get(userId, () -> readUser(userId));
+    }
+
+    private UserDto readUser(String userId) {
         try {
             DocumentSnapshot document = firestore.collection(USERS_COLLECTION)
                     .document(userId)
@@ -51,108 +94,413 @@ public class FirestoreService {
         }
     }
 
-
+    @Override
     public void deleteUser(String userId) {
         try {
-            firestore.collection(USERS_COLLECTION).document(userId).delete();
+            DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
+            deleteCollection(userRef.collection(SCANS_COLLECTION));
+            deleteCollection(userRef.collection(DAILY_COUNTS_COLLECTION));
+            firestore.collection(USERS_COLLECTION).document(userId).delete().get();
+            migratedUsers.remove(userId);
+            userProfileCache.invalidate(userId);
             log.info("User deleted: {}", userId);
         } catch (Exception e) {
             log.error("Error deleting user: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to delete user", e);
         }
     }
-    public void incrementIngredientCounts(String userId, AnalysisResult analysisResult) {
+
+    /**
+     * Adds several scans to a user's history in one blind, atomic commit. Each scan becomes its own
+     * document under users/{uid}/scans and scanCount is a server-side increment, so nothing is read
+     * first and concurrent scans by the same user never contend on a transaction. Ingredient counts
+     * are applied separately with {@link #incrementIngredientCounts}.
+     * @param userId user to update
+     * @param results completed scans
+     */
+    @Override
+    public void recordScans(String userId, List<AnalysisResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
+        WriteBatch batch = firestore.batch();
+        Timestamp now = Timestamp.now();
+        for (AnalysisResult result : results) {
+            List<String> ingredientIds =
+                    ingredientDictionary.canonicalIds(Optional.ofNullable(result.getIngredients()).orElse(List.of()));
+            String scanId = Optional.ofNullable(result.getScanId()).orElseGet(() -> UUID.randomUUID().toString());
+            batch.set(userRef.collection(SCANS_COLLECTION).document(scanId), scanDocument(scanId, now, ingredientIds));
+        }
+
+        batch.set(userRef, Map.of("scanCount", FieldValue.increment(results.size())), SetOptions.merge());
         try {
-            firestore.runTransaction((Transaction.Function<Void>) transaction -> {
-                DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
-                DocumentSnapshot userDoc = transaction.get(userRef).get();
+            batch.commit().get();
+            log.info("Recorded {} scans for user: {}", results.size(), userId);
+        } catch (Exception e) {
+            userProfileCache.invalidate(userId);
+            log.error("Error recording scans: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to record scans", e);
+        }
+        userProfileCache.update(userId, cached ->
+                cached.setScanCount(Optional.ofNullable(cached.getScanCount()).orElse(0L) + results.size()));
+    }
 
-                Map<String, Integer> currentCounts = new HashMap<>();
-                if (userDoc.exists() && userDoc.get("ingredientCounts") instanceof Map) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> countsMap = (Map<String, Object>) userDoc.get("ingredientCounts");
-                    for (Map.Entry<String, Object> entry : countsMap.entrySet()) {
-                        if (entry.getValue() instanceof Number) {
-                            currentCounts.put(entry.getKey(), ((Number) entry.getValue()).intValue());
-                        }
-                    }
-                }
+    @Override
+    public ScanHistoryPage getScanHistory(String userId, int limit, String startAfter,
+                                          LocalDateTime from, LocalDateTime to) {
+        ScanCursor cursor = startAfter == null || startAfter.isBlank() ? null : ScanCursor.decode(startAfter);
+        try {
+            migrateEmbeddedHistory(userId);
 
-                if (analysisResult.getIngredients() != null) {
-                    for (var ingredient : analysisResult.getIngredients()) {
-                        String ingredientName = ingredient.getName();
-                        if (ingredientName != null && !ingredientName.trim().isEmpty()) {
-                            currentCounts.put(ingredientName, currentCounts.getOrDefault(ingredientName, 0) + 1);
-                        }
-                    }
-                }
+            Query query = firestore.collection(USERS_COLLECTION).document(userId).collection(SCANS_COLLECTION)
+                    .orderBy("timestamp", Query.Direction.DESCENDING)
+                    .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+            if (from != null) {
+                query = query.whereGreaterThanOrEqualTo("timestamp", toTimestamp(from));
+            }
+            if (to != null) {
+                query = query.whereLessThan("timestamp", toTimestamp(to));
+            }
+            if (cursor != null) {
+                query = query.startAfter(cursor.timestamp(), cursor.scanId());
+            }
+            List<QueryDocumentSnapshot> documents = query.limit(limit + 1).get().get().getDocuments();
 
+            List<ScanSummary> scans = documents.stream()
+                    .limit(limit)
+                    .map(this::convertDocumentToScanSummary)
+                    .collect(Collectors.toList());
+            String nextCursor = null;
+            if (documents.size() > limit) {
+                QueryDocumentSnapshot last = documents.get(limit - 1);
+                nextCursor = new ScanCursor(last.getTimestamp("timestamp"), last.getId()).encode();
+            }
+            return new ScanHistoryPage(scans, nextCursor);
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error getting scan history: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to get scan history", e);
+        }
+    }
 
-                transaction.update(userRef, "ingredientCounts", currentCounts);
-                return null;
-            }).get();
-            log.info("Ingredient counts updated for user: {}", userId);
-        } catch (Exception e) {
-            log.error("Error incrementing ingredient counts: {}", e.getMessage(), e);
-            throw new RuntimeException("Failed to update ingredient counts", e);
+    @Override
+    public List<ExportedScan> getScansSince(String userId, String since, int limit) {
+        ScanCursor cursor = since == null || since.isBlank() ? null : ScanCursor.decode(since);
+        try {
+            migrateEmbeddedHistory(userId);
+
+            Query query = firestore.collection(USERS_COLLECTION).document(userId).collection(SCANS_COLLECTION)
+                    .select("timestamp", "ingredientIds", "ingredientNames")
+                    .orderBy("timestamp", Query.Direction.ASCENDING)
+                    .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING);
+            if (cursor != null) {
+                query = query.startAfter(cursor.timestamp(), cursor.scanId());
+            }
+            return query.limit(limit).get().get().getDocuments().stream()
+                    .map(document -> new ExportedScan(convertDocumentToScanSummary(document),
+                            new ScanCursor(document.getTimestamp("timestamp"), document.getId()).encode()))
+                    .toList();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error exporting scans: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to export scans", e);
         }
     }
 
+    /**
+     * Adds to several users' ingredient counts, today's daily bucket and ranked topIngredients.
+     * Each user is one small transaction that reads only topIngredients and the counts being
+     * changed through a field mask. Counts only ever grow, so the new top entries are always among
+     * the previous top entries and the changed ones, and the ranking stays exact without reading
+     * the whole map. Transactions for different users run concurrently, MAX_WRITES_PER_COMMIT at a time.
+     * @param deltasByUser amount to add per ingredient name, per user
+     * @throws PartialCountUpdateException naming the users whose transaction failed; all others committed
+     */
+    @Override
+    public void incrementIngredientCounts(Map<String, Map<String, Integer>> deltasByUser) {
+        String day = LocalDate.now(ZoneOffset.UTC).toString();
+        List<String> userIds = deltasByUser.entrySet().stream()
+                .filter(entry -> !entry.getValue().isEmpty())
+                .map(Map.Entry::getKey)
+                .toList();
+        Set<String> failed = new HashSet<>();
+        Exception firstError = null;
+        for (int from = 0; from < userIds.size(); from += MAX_WRITES_PER_COMMIT) {
+            List<String> wave = userIds.subList(from, Math.min(userIds.size(), from + MAX_WRITES_PER_COMMIT));
+            List<ApiFuture<Void>> commits = new ArrayList<>(wave.size());
+            for (String userId : wave) {
+                commits.add(applyIngredientCounts(userId, deltasByUser.get(userId), day));
+            }
+            // every user's transaction is awaited so the caller learns exactly which ones committed
+            for (int i = 0; i < wave.size(); i++) {
+                try {
+                    commits.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failed.add(wave.get(i));
+                    firstError = firstError == null ? e : firstError;
+                } catch (ExecutionException e) {
+                    failed.add(wave.get(i));
+                    firstError = firstError == null ? e : firstError;
+                }
+            }
+        }
+        for (String userId : userIds) {
+            if (failed.contains(userId)) {
+                // the transaction may still have committed after a client-side error
+                userProfileCache.invalidate(userId);
+            } else {
+                userProfileCache.update(userId, cached -> canonicalCounts(deltasByUser.get(userId))
+                        .forEach((id, delta) -> cached.getIngredientCounts().merge(id, delta, Integer::sum)));
+            }
+        }
+        if (!failed.isEmpty()) {
+            log.error("Error incrementing ingredient counts for {} of {} users: {}",
+                    failed.size(), userIds.size(), firstError.getMessage(), firstError);
+            throw new PartialCountUpdateException("Failed to update ingredient counts", failed, firstError);
+        }
+        log.debug("Ingredient counts updated for {} users", userIds.size());
+    }
 
-    public List<TopIngredientDto> getTopIngredients(String userId, int limit) {
+    @Override
+    public List<TopIngredientDto> getTopIngredients(String userId, int limit, Integer days) {
+        if (days != null && (days < 1 || days > MAX_WINDOW_DAYS)) {
+            throw new IllegalArgumentException("days must be between 1 and " + MAX_WINDOW_DAYS);
+        }
         try {
-            UserDto user = getUserById(userId);
-            if (user == null || user.getIngredientCounts() == null || user.getIngredientCounts().isEmpty()) {
-                return new ArrayList<>();
+            DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
+            if (days == null) {
+                DocumentSnapshot ranked = userRef.get(FieldMask.of(TOP_INGREDIENTS)).get();
+                List<Map.Entry<String, Integer>> top = readRanking(ranked);
+                if (top == null) {
+                    // not ranked since the field was introduced
+                    UserDto user = getUserById(userId);
+                    top = user == null ? List.of() : TopK.of(canonicalCounts(user.getIngredientCounts()), limit);
+                }
+                return toTopIngredients(top, limit);
             }
 
-            return user.getIngredientCounts().entrySet().stream()
-                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
-                    .limit(limit)
-                    .map(entry -> TopIngredientDto.builder()
-                            .ingredientName(entry.getKey())
-                            .count(entry.getValue())
-                            .build())
-                    .collect(Collectors.toList());
-        } catch (Exception e) {
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            DocumentReference[] buckets = new DocumentReference[days];
+            for (int i = 0; i < days; i++) {
+                buckets[i] = userRef.collection(DAILY_COUNTS_COLLECTION).document(today.minusDays(i).toString());
+            }
+            Map<String, Integer> windowCounts = new HashMap<>();
+            for (DocumentSnapshot bucket : firestore.getAll(buckets).get()) {
+                canonicalCounts(countsOf(bucket.get("counts")))
+                        .forEach((id, count) -> windowCounts.merge(id, count, Integer::sum));
+            }
+            return toTopIngredients(TopK.of(windowCounts, limit), limit);
+        } catch (InterruptedException | ExecutionException e) {
             log.error("Error getting top ingredients: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to get top ingredients", e);
         }
     }
 
-    public void addScanHistory(String userId, AnalysisResult result) {
+    @Override
+    public int getMaxTopIngredients() {
+        return maxTopIngredients;
+    }
+
+    @Override
+    public void saveTrendingSnapshot(TrendingSnapshot snapshot) {
+        Map<String, Object> document = new HashMap<>();
+        document.put("bucket", snapshot.bucket());
+        document.put("node", snapshot.node());
+        document.put("width", snapshot.width());
+        document.put("depth", snapshot.depth());
+        document.put("total", snapshot.total());
+        document.put("sketch", Blob.fromBytes(snapshot.sketch()));
+        document.put("heavy", snapshot.heavy().stream()
+                .map(entry -> Map.<String, Object>of("id", entry.key(), "count", entry.count(), "error", entry.error()))
+                .toList());
+        document.put("expireAt", Timestamp.ofTimeSecondsAndNanos(snapshot.expireAt().getEpochSecond(), 0));
         try {
-            firestore.runTransaction((Transaction.Function<Void>) transaction -> {
-                DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
-                DocumentSnapshot userDoc = transaction.get(userRef).get();
+            firestore.collection(TRENDING_COLLECTION).document(snapshot.bucket() + "@" + snapshot.node())
+                    .set(document).get();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error saving trending snapshot {}: {}", snapshot.bucket(), e.getMessage(), e);
+            throw new RuntimeException("Failed to save trending snapshot", e);
+        }
+    }
 
-                List<Map<String, Object>> currentHistory = new ArrayList<>();
-                if (userDoc.exists() && userDoc.get("scanHistory") instanceof List) {
-                    @SuppressWarnings("unchecked")
-                    List<Map<String, Object>> historyList = (List<Map<String, Object>>) userDoc.get("scanHistory");
-                    currentHistory.addAll(historyList);
+    @Override
+    public List<TrendingSnapshot> getTrendingSnapshots(String fromBucket, String toBucket) {
+        try {
+            return firestore.collection(TRENDING_COLLECTION)
+                    .whereGreaterThanOrEqualTo("bucket", fromBucket)
+                    .whereLessThanOrEqualTo("bucket", toBucket)
+                    .get().get().getDocuments().stream()
+                    .map(FirestoreService::toTrendingSnapshot)
+                    .toList();
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error reading trending snapshots: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to read trending snapshots", e);
+        }
+    }
+
+    private static TrendingSnapshot toTrendingSnapshot(DocumentSnapshot document) {
+        List<SpaceSaving.Entry> heavy = new ArrayList<>();
+        if (document.get("heavy") instanceof List<?> entries) {
+            for (Object item : entries) {
+                if (item instanceof Map<?, ?> entry && entry.get("id") instanceof String id
+                        && entry.get("count") instanceof Number count && entry.get("error") instanceof Number error) {
+                    heavy.add(new SpaceSaving.Entry(id, count.longValue(), error.longValue()));
                 }
+            }
+        }
+        Blob sketch = document.getBlob("sketch");
+        Timestamp expireAt = document.getTimestamp("expireAt");
+        return new TrendingSnapshot(document.getString("bucket"), document.getString("node"),
+                Optional.ofNullable(document.getLong("width")).orElse(0L).intValue(),
+                Optional.ofNullable(document.getLong("depth")).orElse(0L).intValue(),
+                Optional.ofNullable(document.getLong("total")).orElse(0L),
+                sketch != null ? sketch.toBytes() : new byte[0], heavy,
+                expireAt != null ? Instant.ofEpochSecond(expireAt.getSeconds()) : null);
+    }
+
+    private ApiFuture<Void> applyIngredientCounts(String userId, Map<String, Integer> rawDeltas, String day) {
+        // deltas journaled before IDs were introduced may still carry raw names
+        Map<String, Integer> deltas = canonicalCounts(rawDeltas);
+        DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
+        DocumentReference bucketRef = userRef.collection(DAILY_COUNTS_COLLECTION).document(day);
+        List<FieldPath> fields = new ArrayList<>();
+        fields.add(FieldPath.of(TOP_INGREDIENTS));
+        fields.add(FieldPath.of(COUNTS_VERSION));
+        deltas.keySet().forEach(id -> fields.add(FieldPath.of("ingredientCounts", id)));
+        FieldMask mask = FieldMask.of(fields.toArray(FieldPath[]::new));
+
+        return firestore.runTransaction(transaction -> {
+            DocumentSnapshot current = transaction.getAll(new DocumentReference[]{userRef}, mask).get().get(0);
+            List<Map.Entry<String, Integer>> ranked = readRanking(current);
+            Object version = current.get(COUNTS_VERSION);
+            if (ranked == null || !(version instanceof Number number) || number.intValue() < CURRENT_COUNTS_VERSION) {
+                // never ranked, or keyed by raw names: rebuild the whole map once, keyed by ID
+                Map<String, Integer> counts = canonicalCounts(countsOf(transaction.get(userRef).get().get("ingredientCounts")));
+                deltas.forEach((id, delta) -> counts.merge(id, delta, Integer::sum));
+                transaction.set(userRef, Map.of("ingredientCounts", counts, TOP_INGREDIENTS, rankingOf(counts),
+                                COUNTS_VERSION, CURRENT_COUNTS_VERSION),
+                        SetOptions.mergeFields("ingredientCounts", TOP_INGREDIENTS, COUNTS_VERSION));
+            } else {
+                Map<String, Integer> candidates = new HashMap<>();
+                ranked.forEach(entry -> candidates.put(entry.getKey(), entry.getValue()));
+                deltas.forEach((id, delta) -> {
+                    Object stored = current.get(FieldPath.of("ingredientCounts", id));
+                    candidates.put(id, (stored instanceof Number count ? count.intValue() : 0) + delta);
+                });
+                transaction.set(userRef, Map.of("ingredientCounts", incrementsFor(deltas), TOP_INGREDIENTS, rankingOf(candidates)),
+                        SetOptions.merge());
+            }
+            transaction.set(bucketRef, Map.of("day", day, "counts", incrementsFor(deltas),
+                    "expireAt", Timestamp.ofTimeSecondsAndNanos(
+                            LocalDate.parse(day).plusDays(MAX_WINDOW_DAYS + 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond(), 0)),
+                    SetOptions.merge());
+            return null;
+        });
+    }
 
-                ScanSummary summary = new ScanSummary();
-                summary.setScanId(result.getScanId());
-                summary.setTimestamp(LocalDateTime.now());
-                summary.setIngredientNames(result.getIngredients().stream()
-                        .map(IngredientInfo::getName)
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList()));
+    private List<Map<String, Object>> rankingOf(Map<String, Integer> counts) {
+        return TopK.of(counts, maxTopIngredients).stream()
+                .map(entry -> Map.<String, Object>of("name", entry.getKey(), "count", entry.getValue()))
+                .toList();
+    }
 
-                currentHistory.add(convertScanSummaryToMap(summary));
+    private Map<String, Integer> canonicalCounts(Map<String, Integer> counts) {
+        return ingredientDictionary.canonicalCounts(counts);
+    }
 
-                transaction.update(userRef, "scanHistory", currentHistory);
-                return null;
+    /** @return the stored ranking, highest first, or null when the user has never been ranked */
+    private static List<Map.Entry<String, Integer>> readRanking(DocumentSnapshot snapshot) {
+        if (!(snapshot.get(TOP_INGREDIENTS) instanceof List<?> stored)) {
+            return null;
+        }
+        List<Map.Entry<String, Integer>> ranking = new ArrayList<>(stored.size());
+        for (Object item : stored) {
+            if (item instanceof Map<?, ?> entry && entry.get("name") instanceof String name
+                    && entry.get("count") instanceof Number count) {
+                ranking.add(Map.entry(name, count.intValue()));
+            }
+        }
+        return ranking;
+    }
+
+    private static Map<String, Integer> countsOf(Object field) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (field instanceof Map<?, ?> map) {
+            map.forEach((name, count) -> {
+                if (name instanceof String key && count instanceof Number number) {
+                    counts.put(key, number.intValue());
+                }
+            });
+        }
+        return counts;
+    }
+
+    private List<TopIngredientDto> toTopIngredients(List<Map.Entry<String, Integer>> ranking, int limit) {
+        return ranking.stream()
+                .limit(limit)
+                .map(entry -> TopIngredientDto.builder()
+                        .ingredientId(entry.getKey())
+                        .ingredientName(ingredientDictionary.displayName(entry.getKey()))
+                        .count(entry.getValue())
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Moves a legacy scanHistory array from the user document into the scans subcollection. Each
+     * transaction moves up to MAX_WRITES_PER_COMMIT entries and removes them from the array, so the
+     * migration is atomic per step, safe to run concurrently and resumes where it stopped.
+     */
+    @SuppressWarnings("unchecked")
+    private void migrateEmbeddedHistory(String userId) throws InterruptedException, ExecutionException {
+        if (migratedUsers.contains(userId)) {
+            return;
+        }
+        DocumentReference userRef = firestore.collection(USERS_COLLECTION).document(userId);
+        boolean done = false;
+        while (!done) {
+            done = firestore.runTransaction((Transaction.Function<Boolean>) transaction -> {
+                DocumentSnapshot userDoc = transaction.get(userRef).get();
+                if (!(userDoc.get("scanHistory") instanceof List<?> history)) {
+                    return true;
+                }
+                List<Map<String, Object>> entries = (List<Map<String, Object>>) history;
+                int moved = Math.min(entries.size(), MAX_WRITES_PER_COMMIT);
+                for (Map<String, Object> entry : entries.subList(0, moved)) {
+                    String scanId = Optional.ofNullable((String) entry.get("scanId"))
+                            .orElseGet(() -> UUID.randomUUID().toString());
+                    Timestamp timestamp = toTimestamp(LocalDateTime.parse((String) entry.get("timestamp")));
+                    List<String> ingredientNames = (List<String>) entry.get("ingredientNames");
+                    List<String> ingredientIds = Optional.ofNullable(ingredientNames).orElse(List.of()).stream()
+                            .map(ingredientDictionary::canonicalId)
+                            .filter(Objects::nonNull)
+                            .distinct()
+                            .toList();
+                    transaction.set(userRef.collection(SCANS_COLLECTION).document(scanId),
+                            scanDocument(scanId, timestamp, ingredientIds));
+                }
+                List<Map<String, Object>> remaining = new ArrayList<>(entries.subList(moved, entries.size()));
+                transaction.update(userRef,
+                        "scanHistory", remaining.isEmpty() ? FieldValue.delete() : remaining,
+                        "scanCount", FieldValue.increment(moved));
+                return remaining.isEmpty();
             }).get();
-            log.info("Scan history added for user: {}", userId);
-        } catch (Exception e) {
-            log.error("Error adding scan history: {}", e.getMessage(), e);
-            throw new RuntimeException("Failed to add scan history", e);
         }
+        migratedUsers.add(userId);
+        log.debug("Scan history migrated for user: {}", userId);
     }
 
+    private void deleteCollection(CollectionReference collection) throws InterruptedException, ExecutionException {
+        while (true) {
+            List<QueryDocumentSnapshot> documents = collection.limit(MAX_WRITES_PER_COMMIT).get().get().getDocuments();
+            if (documents.isEmpty()) {
+                return;
+            }
+            WriteBatch batch = firestore.batch();
+            documents.forEach(document -> batch.delete(document.getReference()));
+            batch.commit().get();
+        }
+    }
 
     private Map<String, Object> convertUserToMap(UserDto userDto) {
         Map<String, Object> map = new HashMap<>();
@@ -160,14 +508,6 @@ public class FirestoreService {
         map.put("email", userDto.getEmail());
         map.put("displayName", userDto.getDisplayName());
         map.put("ingredientCounts", userDto.getIngredientCounts() != null ? userDto.getIngredientCounts() : new HashMap<>());
-
-        List<Map<String, Object>> historyMaps = Optional.ofNullable(userDto.getScanHistory())
-                .orElse(new ArrayList<>())
-                .stream()
-                .map(this::convertScanSummaryToMap)
-                .collect(Collectors.toList());
-        map.put("scanHistory", historyMaps);
-
         return map;
     }
 
@@ -193,29 +533,51 @@ public class FirestoreService {
         }
 
 
-        if (data.get("scanHistory") instanceof List) {
-            List<Map<String, Object>> historyList = (List<Map<String, Object>>) data.get("scanHistory");
-            List<ScanSummary> scanHistory = historyList.stream().map(item -> {
-                ScanSummary summary = new ScanSummary();
-                summary.setScanId((String) item.get("scanId"));
-                summary.setTimestamp(LocalDateTime.parse((String) item.get("timestamp"))); // Assume ISO format
-                @SuppressWarnings("unchecked")
-                List<String> ingredientNames = (List<String>) item.get("ingredientNames");
-                summary.setIngredientNames(ingredientNames);
-                return summary;
-            }).collect(Collectors.toList());
-            builder.scanHistory(scanHistory);
-        } else {
-            builder.scanHistory(new ArrayList<>());
+        // history lives in the scans subcollection; legacy arrays are only counted, not parsed
+        long scanCount = data.get("scanCount") instanceof Number count ? count.longValue() : 0;
+        if (data.get("scanHistory") instanceof List<?> legacyHistory) {
+            scanCount += legacyHistory.size();
         }
+        builder.scanCount(scanCount);
         return builder.build();
     }
 
-    private Map<String, Object> convertScanSummaryToMap(ScanSummary summary) {
+    // nested maps in a merge write address ingredientCounts.<name> without field-path escaping
+    private static Map<String, Object> incrementsFor(Map<String, Integer> deltas) {
+        Map<String, Object> increments = new HashMap<>();
+        deltas.forEach((name, delta) -> increments.put(name, FieldValue.increment(delta)));
+        return increments;
+    }
+
+    private static Map<String, Object> scanDocument(String scanId, Timestamp timestamp, List<String> ingredientIds) {
         Map<String, Object> map = new HashMap<>();
-        map.put("scanId", summary.getScanId());
-        map.put("timestamp", summary.getTimestamp().toString()); // Store as ISO string
-        map.put("ingredientNames", summary.getIngredientNames() != null ? summary.getIngredientNames() : new ArrayList<>());
+        map.put("scanId", scanId);
+        map.put("timestamp", timestamp);
+        map.put("ingredientIds", ingredientIds);
         return map;
     }
+
+    @SuppressWarnings("unchecked")
+    private ScanSummary convertDocumentToScanSummary(DocumentSnapshot document) {
+        ScanSummary summary = new ScanSummary();
+        summary.setScanId(document.getId());
+        summary.setTimestamp(LocalDateTime.ofInstant(
+                document.getTimestamp("timestamp").toDate().toInstant(), ZoneId.systemDefault()));
+        if (document.get("ingredientIds") instanceof List<?> ids) {
+            summary.setIngredientIds((List<String>) ids);
+            summary.setIngredientNames(summary.getIngredientIds().stream()
+                    .map(ingredientDictionary::displayName)
+                    .collect(Collectors.toList()));
+        } else {
+            // written before ingredient IDs
+            summary.setIngredientNames((List<String>) document.get("ingredientNames"));
+        }
+        return summary;
+    }
+
+    // legacy history stored LocalDateTime.now() strings in the server's zone
+    private static Timestamp toTimestamp(LocalDateTime time) {
+        Instant instant = time.atZone(ZoneId.systemDefault()).toInstant();
+        return Timestamp.ofTimeSecondsAndNanos(instant.getEpochSecond(), instant.getNano());
+    }
 }
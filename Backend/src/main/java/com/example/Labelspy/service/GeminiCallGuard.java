@@ -0,0 +1,239 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import com.example.Labelspy.util.Futures;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Wraps outbound Gemini calls in a circuit breaker, an adaptive concurrency limit and retries with
+ * exponential backoff and full jitter. Timeouts, connection errors, 429 and 5xx responses count as
+ * upstream failures and are retried; other errors pass straight through. When the circuit is open
+ * or the limit is reached, calls fail at once with {@link GeminiUnavailableException}. A call whose
+ * answer is read after its future completes, such as an event stream, runs through
+ * {@link #executeHeld} so that reading the answer counts towards the limit and the circuit too.
+ */
+@Component
+@Slf4j
+public class GeminiCallGuard {
+
+    private final AimdLimiter limiter;
+    private final CircuitBreaker circuitBreaker;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Counter retries;
+    private final Counter rejectedByLimit;
+    private final Counter rejectedByCircuit;
+
+    public GeminiCallGuard(AimdLimiter geminiLimiter,
+                           CircuitBreaker geminiCircuitBreaker,
+                           MeterRegistry meterRegistry,
+                           @Value("${gemini.retry.max-attempts:3}") int maxAttempts,
+                           @Value("${gemini.retry.base-delay-ms:200}") long baseDelayMs,
+                           @Value("${gemini.retry.max-delay-ms:2000}") long maxDelayMs) {
+        this.limiter = geminiLimiter;
+        this.circuitBreaker = geminiCircuitBreaker;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.retries = meterRegistry.counter("gemini.calls.retries");
+        this.rejectedByLimit = meterRegistry.counter("gemini.calls.rejected", "reason", "limit");
+        this.rejectedByCircuit = meterRegistry.counter("gemini.calls.rejected", "reason", "circuit_open");
+        Gauge.builder("gemini.limiter.limit", geminiLimiter, AimdLimiter::getLimit).register(meterRegistry);
+        Gauge.builder("gemini.limiter.in_flight", geminiLimiter, AimdLimiter::getInFlight).register(meterRegistry);
+        Gauge.builder("gemini.circuit.state", geminiCircuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("0 = closed, 1 = half-open, 2 = open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a Gemini call under the guard
+     * @param call starts one attempt; invoked again for each retry
+     * @return future of the first successful attempt, or of the last failure
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(call, 1, result, null);
+        return result;
+    }
+
+    /**
+     * Runs a Gemini call whose answer is still to be read when its future completes. Attempts are
+     * retried as by {@link #execute} until one answers, never after; that attempt keeps its limiter
+     * slot, and the circuit waits for its outcome, until {@link HeldCall#finish} reports how reading
+     * the answer ended.
+     * @param call starts one attempt; invoked again for each retry
+     * @return future of the answering attempt, which the caller must finish
+     */
+    public <T> CompletableFuture<HeldCall<T>> executeHeld(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> answer = new CompletableFuture<>();
+        AtomicLong answeredAt = new AtomicLong();
+        attempt(call, 1, answer, answeredAt);
+        CompletableFuture<HeldCall<T>> held = answer.thenApply(value -> new HeldCall<>(value, answeredAt.get()));
+        held.whenComplete((handedOver, error) -> {
+            // cancelled between the answer and its hand-over, so nobody will finish it
+            if (held.isCancelled() && answer.isDone() && !answer.isCompletedExceptionally()) {
+                T value = answer.join();
+                if (value instanceof AutoCloseable closeable) {
+                    try {
+                        closeable.close();
+                    } catch (Exception e) {
+                        log.debug("Could not close abandoned Gemini answer: {}", e.getMessage());
+                    }
+                }
+                new HeldCall<>(value, answeredAt.get()).finish(new CancellationException());
+            }
+        });
+        return Futures.cancelling(held, answer);
+    }
+
+    /**
+     * An answered call whose limiter slot is still held
+     */
+    public final class HeldCall<T> {
+
+        private final T value;
+        private final long start;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private HeldCall(T value, long start) {
+            this.value = value;
+            this.start = start;
+        }
+
+        public T value() {
+            return value;
+        }
+
+        /**
+         * Releases the slot, recording the call as it would have been had it failed with error
+         * @param error why reading the answer failed, or null once it was read in full
+         */
+        public void finish(Throwable error) {
+            if (finished.compareAndSet(false, true)) {
+                record(unwrap(error), start);
+            }
+        }
+    }
+
+    private <T> void attempt(Supplier<CompletableFuture<T>> call, int attempt, CompletableFuture<T> result,
+                             AtomicLong held) {
+        if (result.isDone()) {
+            return;
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            rejectedByCircuit.increment();
+            result.completeExceptionally(new GeminiUnavailableException(
+                    "Gemini is unavailable, circuit open", Math.max(1000, circuitBreaker.getRemainingOpenMillis())));
+            return;
+        }
+        if (!limiter.tryAcquire()) {
+            circuitBreaker.release();
+            rejectedByLimit.increment();
+            result.completeExceptionally(new GeminiUnavailableException(
+                    "Too many concurrent Gemini calls (limit " + limiter.getLimit() + ")", 1000));
+            return;
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> inFlight = future;
+        result.whenComplete((value, error) -> {
+            if (error instanceof CancellationException) {
+                inFlight.cancel(true);
+            }
+        });
+
+        inFlight.whenComplete((value, error) -> {
+            Throwable cause = unwrap(error);
+            if (cause == null && held != null) {
+                // the answer is still to be read; its HeldCall records how that ends
+                held.set(start);
+                result.complete(value);
+                return;
+            }
+            if (!record(cause, start)) {
+                if (cause == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(cause);
+                }
+                return;
+            }
+            if (attempt >= maxAttempts || result.isDone()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            long delay = backoff(attempt);
+            log.warn("Gemini attempt {} failed ({}), retrying in {} ms", attempt, cause.getMessage(), delay);
+            retries.increment();
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(call, attempt + 1, result, held));
+        });
+    }
+
+    /**
+     * Feeds the outcome of an attempt to the limiter and the circuit
+     * @return whether it was an upstream failure, worth retrying
+     */
+    private boolean record(Throwable cause, long start) {
+        if (cause == null) {
+            limiter.onSuccess(System.nanoTime() - start);
+            circuitBreaker.onSuccess();
+            return false;
+        }
+        if (cause instanceof CancellationException) {
+            // the call was abandoned, not answered, so it counts towards neither the limit nor the circuit
+            limiter.onIgnore();
+            circuitBreaker.release();
+            return false;
+        }
+        if (!isUpstreamFailure(cause)) {
+            limiter.onIgnore();
+            circuitBreaker.onSuccess();
+            return false;
+        }
+        limiter.onDropped();
+        circuitBreaker.onFailure();
+        return true;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static boolean isUpstreamFailure(Throwable error) {
+        if (error instanceof GeminiHttpException httpError) {
+            return httpError.isRetryable();
+        }
+        // HttpTimeoutException and ConnectException are IOExceptions
+        return error instanceof IOException || error instanceof UncheckedIOException;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.config.GeminiConfig;
+import com.example.Labelspy.util.DeadlineInputStream;
+import com.example.Labelspy.util.Futures;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Non-blocking transport for the Gemini REST API. The API key travels in the x-goog-api-key
+ * header rather than the URL, and responses are requested gzip-compressed. Each request is a
+ * gemini.http observation tagged with its status, recording the request and response sizes.
+ * Cancelling a returned future aborts the HTTP exchange.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class GeminiClient {
+
+    private final HttpClient geminiHttpClient;
+    private final GeminiConfig geminiConfig;
+    private final ObjectMapper objectMapper;
+    private final GeminiMetrics geminiMetrics;
+
+    public CompletableFuture<String> generate(Map<String, Object> requestBody) {
+        return generate(requestBody, null);
+    }
+
+    /**
+     * Calls generateContent
+     * @param requestBody request payload
+     * @param call the gemini.call this request belongs to, or null
+     * @return future of the response body; fails with {@link GeminiHttpException} on a non-2xx status
+     */
+    public CompletableFuture<String> generate(Map<String, Object> requestBody, Observation call) {
+        Observation http = geminiMetrics.startHttp(call);
+        CompletableFuture<HttpResponse<InputStream>> exchange;
+        CompletableFuture<String> response;
+        try {
+            HttpRequest request = buildRequest(geminiConfig.getApiUrl(), requestBody, call);
+            exchange = geminiHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+            response = exchange.thenApply(received -> {
+                        http.lowCardinalityKeyValue("status", String.valueOf(received.statusCode()));
+                        try (InputStream body = decode(received, received.body())) {
+                            byte[] bytes = body.readAllBytes();
+                            geminiMetrics.recordPayload(call, "response", bytes.length);
+                            String text = new String(bytes, StandardCharsets.UTF_8);
+                            if (received.statusCode() / 100 != 2) {
+                                throw new GeminiHttpException(received.statusCode(), text);
+                            }
+                            return text;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            exchange = null;
+            response = CompletableFuture.failedFuture(e);
+        }
+        return stopWhenDone(http, exchange, response);
+    }
+
+    public CompletableFuture<InputStream> stream(Map<String, Object> requestBody) {
+        return stream(requestBody, null);
+    }
+
+    /**
+     * Calls streamGenerateContent with server-sent events. The gemini.http observation ends with the
+     * response headers; reading the events is up to the caller. The request timeout only covers the
+     * wait for headers, so the stream itself fails with {@link java.net.http.HttpTimeoutException} once
+     * no event has arrived for stream-idle-timeout-ms, or once reading it has taken request-timeout-ms.
+     * @param requestBody request payload
+     * @param call the gemini.call this request belongs to, or null
+     * @return future of the open event stream, completed once response headers arrive; the caller closes it
+     */
+    public CompletableFuture<InputStream> stream(Map<String, Object> requestBody, Observation call) {
+        Observation http = geminiMetrics.startHttp(call);
+        CompletableFuture<HttpResponse<InputStream>> exchange;
+        CompletableFuture<InputStream> response;
+        try {
+            HttpRequest request = buildRequest(geminiConfig.getStreamApiUrl() + "?alt=sse", requestBody, call);
+            exchange = geminiHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+            response = exchange.thenApply(received -> {
+                        http.lowCardinalityKeyValue("status", String.valueOf(received.statusCode()));
+                        try {
+                            InputStream body = decode(received, new DeadlineInputStream(received.body(),
+                                    Duration.ofMillis(geminiConfig.getStreamIdleTimeoutMs()),
+                                    Duration.ofMillis(geminiConfig.getRequestTimeoutMs())));
+                            if (received.statusCode() / 100 != 2) {
+                                try (body) {
+                                    throw new GeminiHttpException(received.statusCode(),
+                                            new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                                }
+                            }
+                            return body;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            exchange = null;
+            response = CompletableFuture.failedFuture(e);
+        }
+        return stopWhenDone(http, exchange, response);
+    }
+
+    private HttpRequest buildRequest(String url, Map<String, Object> requestBody, Observation call) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(requestBody);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize Gemini request", e);
+        }
+        geminiMetrics.recordPayload(call, "request", body.length);
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(geminiConfig.getRequestTimeoutMs()))
+                .header("Content-Type", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .header("x-goog-api-key", geminiConfig.getApiKey())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private static <T> CompletableFuture<T> stopWhenDone(Observation http, CompletableFuture<?> exchange,
+                                                         CompletableFuture<T> response) {
+        CompletableFuture<T> done = response.whenComplete((value, error) -> {
+            if (error != null) {
+                http.error(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+            http.stop();
+        });
+        return exchange == null ? done : Futures.cancelling(done, exchange);
+    }
+
+    private InputStream decode(HttpResponse<InputStream> response, InputStream body) throws IOException {
+        boolean gzip = response.headers().firstValue("Content-Encoding")
+                .map(encoding -> encoding.equalsIgnoreCase("gzip"))
+                .orElse(false);
+        return gzip ? new GZIPInputStream(body) : body;
+    }
+}
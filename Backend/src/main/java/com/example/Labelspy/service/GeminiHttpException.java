@@ -0,0 +1,21 @@
+package com.example.Labelspy.service;
+
+import lombok.Getter;
+
+/**
+ * Non-2xx response from the Gemini API.
+ */
+@Getter
+public class GeminiHttpException extends RuntimeException {
+
+    private final int statusCode;
+
+    public GeminiHttpException(int statusCode, String body) {
+        super("Gemini returned HTTP " + statusCode + ": " + body);
+        this.statusCode = statusCode;
+    }
+
+    public boolean isRetryable() {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
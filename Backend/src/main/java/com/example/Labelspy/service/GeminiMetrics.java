@@ -0,0 +1,188 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.util.Futures;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.common.KeyValue;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Observations and meters for Gemini calls. Each operation (scan, scan_stream, batch, describe)
+ * is a gemini.call observation whose stages, gemini.request.build, gemini.http (one per attempt),
+ * gemini.response.parse and gemini.stream.read, are its children, so a trace shows where one
+ * scan's time went and each stage also gets a timer tagged with the operation. Token usage from
+ * usageMetadata goes to the gemini.tokens counter and payload sizes to gemini.payload.
+ */
+@Component
+public class GeminiMetrics {
+
+    private static final Map<String, String> TOKEN_FIELDS = Map.of(
+            "promptTokenCount", "prompt",
+            "candidatesTokenCount", "output",
+            "thoughtsTokenCount", "thoughts",
+            "cachedContentTokenCount", "cached");
+
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+
+    public GeminiMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+    }
+
+    /**
+     * Runs a blocking Gemini operation as a gemini.call observation
+     * @param operation operation tag
+     * @param parent observation to nest under, or null for the one current on this thread
+     * @param work receives the call observation to parent its stages
+     */
+    public <T> T observe(String operation, Observation parent, ObservedWork<T> work) throws Exception {
+        Observation call = call(operation, parent);
+        try (Observation.Scope ignored = call.openScope()) {
+            return work.run(call);
+        } catch (Exception e) {
+            call.error(e);
+            throw e;
+        } finally {
+            call.stop();
+        }
+    }
+
+    /**
+     * Runs a non-blocking Gemini operation as a gemini.call observation that stops when the returned future
+     * completes. Cancelling the returned future cancels the one work returned.
+     * @param operation operation tag
+     * @param parent observation to nest under, or null for the one current on this thread
+     * @param work receives the call observation to parent its stages, including those run on other threads
+     */
+    public <T> CompletableFuture<T> observeAsync(String operation, Observation parent,
+                                                 Function<Observation, CompletableFuture<T>> work) {
+        Observation call = call(operation, parent);
+        CompletableFuture<T> future;
+        try (Observation.Scope ignored = call.openScope()) {
+            future = work.apply(call);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return Futures.cancelling(future.whenComplete((value, error) -> {
+            if (error != null) {
+                call.error(unwrap(error));
+            }
+            call.stop();
+        }), future);
+    }
+
+    /**
+     * Times one synchronous stage of a call as a child observation
+     * @param stage observation name, e.g. gemini.response.parse
+     * @param call the enclosing gemini.call, or null outside one
+     */
+    public <T> T stage(String stage, Observation call, Callable<T> work) throws Exception {
+        Observation observation = child(stage, call).start();
+        try (Observation.Scope ignored = observation.openScope()) {
+            return work.call();
+        } catch (Exception e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * Same as {@link #stage}, for stages running inside a future's callbacks: failures are rethrown as
+     * {@link CompletionException}
+     */
+    public <T> T stageAsync(String stage, Observation call, Callable<T> work) {
+        try {
+            return stage(stage, call, work);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Starts the gemini.http observation for one HTTP attempt; the caller stops it
+     * @param call the enclosing gemini.call, or null outside one
+     */
+    public Observation startHttp(Observation call) {
+        // replaced once a response arrives; meters of one name must always carry the same tag keys
+        return child("gemini.http", call).lowCardinalityKeyValue("status", "none").start();
+    }
+
+    /**
+     * Records a request or response body size
+     * @param direction request or response
+     */
+    public void recordPayload(Observation call, String direction, long bytes) {
+        DistributionSummary.builder("gemini.payload")
+                .baseUnit("bytes")
+                .tag("operation", operationOf(call))
+                .tag("direction", direction)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * Adds the token counts of a response's usageMetadata to gemini.tokens
+     * @param usage the usageMetadata node; missing nodes and fields are ignored
+     */
+    public void recordUsage(Observation call, JsonNode usage) {
+        if (usage == null || !usage.isObject()) {
+            return;
+        }
+        String operation = operationOf(call);
+        TOKEN_FIELDS.forEach((field, type) -> {
+            long tokens = usage.path(field).asLong(0);
+            if (tokens > 0) {
+                meterRegistry.counter("gemini.tokens", "operation", operation, "type", type).increment(tokens);
+            }
+        });
+    }
+
+    private Observation call(String operation, Observation parent) {
+        Observation call = Observation.createNotStarted("gemini.call", observationRegistry)
+                .lowCardinalityKeyValue("operation", operation);
+        if (parent != null) {
+            call.parentObservation(parent);
+        }
+        return call.start();
+    }
+
+    private Observation child(String name, Observation call) {
+        Observation observation = Observation.createNotStarted(name, observationRegistry)
+                .lowCardinalityKeyValue("operation", operationOf(call));
+        if (call != null) {
+            observation.parentObservation(call);
+        }
+        return observation;
+    }
+
+    private static String operationOf(Observation call) {
+        if (call == null) {
+            return "none";
+        }
+        KeyValue operation = call.getContextView().getLowCardinalityKeyValue("operation");
+        return operation != null ? operation.getValue() : "none";
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    @FunctionalInterface
+    public interface ObservedWork<T> {
+        T run(Observation call) throws Exception;
+    }
+}
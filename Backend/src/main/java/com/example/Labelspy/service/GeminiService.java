@@ -1,57 +1,477 @@
 package com.example.Labelspy.service;
 
-import com.example.Labelspy.config.GeminiConfig;
 import com.example.Labelspy.dto.AnalysisResult;
 import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.service.preprocess.ImagePreprocessor;
+import com.example.Labelspy.service.preprocess.PreprocessedImage;
+import com.example.Labelspy.util.Futures;
+import com.example.Labelspy.util.PerceptualHash;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.observation.Observation;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.time.LocalDateTime;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class GeminiService {
 
-    private final RestTemplate restTemplate;
-    private final GeminiConfig geminiConfig;
+    private final GeminiClient geminiClient;
+    private final GeminiCallGuard geminiCallGuard;
     private final ObjectMapper objectMapper;
+    private final ScanResultCache scanResultCache;
+    private final NearDuplicateIndex nearDuplicateIndex;
+    private final ImagePreprocessor imagePreprocessor;
+    private final InFlightScans inFlightScans;
+    private final IngredientKnowledgeBase ingredientKnowledgeBase;
+    private final GeminiMetrics geminiMetrics;
+    /** carries the caller's observation and logging context onto stream threads */
+    private final ContextSnapshotFactory contextSnapshots = ContextSnapshotFactory.builder().build();
+
+    private static final String MODEL = "gemini-2.5-flash";
+    private static final int MAX_OUTPUT_TOKENS = 10000;
+    private static final int MAX_EXTRACTION_OUTPUT_TOKENS = 4096;
+    private static final int MAX_BATCH_OUTPUT_TOKENS = 65536;
+
+    @Value("${scan.batch.images-per-request:4}")
+    private int imagesPerRequest = 4;
 
     public AnalysisResult analyzeImage(MultipartFile image) throws Exception {
+        return analyzeImage(image.getBytes(), image.getContentType());
+    }
+
+    public AnalysisResult analyzeImage(byte[] imageBytes, String mimeType) throws Exception {
+        return analyzeImage(imageBytes, mimeType, null);
+    }
+
+    /**
+     * Analyzes an image, optionally streaming ingredients as the model produces them. Concurrent
+     * streaming calls for the same image share one Gemini stream: the first caller receives its
+     * ingredients as they arrive, later ones all at once when it ends. A caller leaves when its
+     * thread is interrupted, and the stream is cancelled once every caller has left.
+     * @param imageBytes uploaded image
+     * @param mimeType content type of the upload
+     * @param onIngredient receives each ingredient as soon as it is complete; null for a single blocking call
+     * @return the full analysis result
+     */
+    public AnalysisResult analyzeImage(byte[] imageBytes, String mimeType,
+                                       Consumer<IngredientInfo> onIngredient) throws Exception {
+        if (onIngredient == null) {
+            return await(analyzeImageAsync(imageBytes, mimeType));
+        }
+        String cacheKey = scanResultCache.keyFor(imageBytes, cacheVariant());
+        AnalysisResult cached = scanResultCache.get(cacheKey);
+        if (cached != null) {
+            log.debug("Scan cache hit for {}", cacheKey);
+            return emitAll(cached, onIngredient);
+        }
+
+        // the stream belongs to the flight rather than to the first caller, so that caller can leave too
+        AtomicBoolean leader = new AtomicBoolean();
+        AtomicBoolean listening = new AtomicBoolean(true);
+        CompletableFuture<AnalysisResult> shared = inFlightScans.execute(cacheKey, () -> {
+            leader.set(true);
+            return streamFlight(cacheKey, imageBytes, mimeType, ingredient -> {
+                if (listening.get()) {
+                    onIngredient.accept(ingredient);
+                }
+            });
+        });
+        if (!leader.get()) {
+            return emitAll(await(shared), onIngredient);
+        }
+        try {
+            return await(shared);
+        } finally {
+            listening.set(false);
+        }
+    }
+
+    /**
+     * Runs a streaming scan on its own virtual thread
+     * @return completes with the scan; cancelling it interrupts the thread, which cancels the Gemini call
+     */
+    private CompletableFuture<AnalysisResult> streamFlight(String cacheKey, byte[] imageBytes, String mimeType,
+                                                           Consumer<IngredientInfo> onIngredient) {
+        CompletableFuture<AnalysisResult> flight = new CompletableFuture<>();
+        Thread worker = Thread.ofVirtual().name("gemini-stream").start(contextSnapshots.captureAll().wrap(() -> {
+            try {
+                Lookup lookup = lookup(cacheKey, imageBytes, mimeType);
+                if (lookup.hit() != null) {
+                    flight.complete(emitAll(lookup.hit(), onIngredient));
+                } else {
+                    PreprocessedImage prepared = lookup.prepared();
+                    flight.complete(remember(lookup, streamGemini(prepared.bytes(), prepared.mimeType(), onIngredient)));
+                }
+            } catch (Throwable e) {
+                flight.completeExceptionally(e);
+            }
+        }));
+        flight.whenComplete((result, error) -> {
+            if (flight.isCancelled()) {
+                worker.interrupt();
+            }
+        });
+        return flight;
+    }
+
+    /**
+     * Non-blocking variant of {@link #analyzeImage(byte[], String)}. Cache lookup and pre-processing
+     * run on the calling thread; the Gemini call completes the returned future. Concurrent calls for
+     * the same image share one Gemini call, and cancelling the returned future detaches this caller.
+     */
+    public CompletableFuture<AnalysisResult> analyzeImageAsync(byte[] imageBytes, String mimeType) {
+        String cacheKey = scanResultCache.keyFor(imageBytes, cacheVariant());
+        AnalysisResult cached = scanResultCache.get(cacheKey);
+        if (cached != null) {
+            log.debug("Scan cache hit for {}", cacheKey);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return inFlightScans.execute(cacheKey, () -> {
+            Lookup lookup = lookup(cacheKey, imageBytes, mimeType);
+            if (lookup.hit() != null) {
+                return CompletableFuture.completedFuture(lookup.hit());
+            }
+            PreprocessedImage prepared = lookup.prepared();
+            CompletableFuture<AnalysisResult> call = callGemini(prepared.bytes(), prepared.mimeType());
+            return Futures.cancelling(call.thenApply(result -> remember(lookup, result)), call);
+        });
+    }
+
+    /**
+     * Analyzes several images, packing cache misses into multi-image Gemini requests of at most
+     * scan.batch.images-per-request images each so the prompt is paid once per request. Requests run
+     * in parallel, bounded by the call guard.
+     * @param uploads images in upload order
+     * @return one future per upload, in the same order; an upload that cannot be pre-processed fails
+     * only its own future, and a failed request fails every image it carried. A request is cancelled
+     * once every image it carries has had its future cancelled.
+     */
+    public List<CompletableFuture<AnalysisResult>> analyzeBatchAsync(List<ScanUpload> uploads) {
+        List<CompletableFuture<AnalysisResult>> results = new ArrayList<>(uploads.size());
+        List<Lookup> misses = new ArrayList<>();
+        List<CompletableFuture<AnalysisResult>> pending = new ArrayList<>();
+        for (ScanUpload upload : uploads) {
+            String cacheKey = scanResultCache.keyFor(upload.bytes(), cacheVariant());
+            AnalysisResult cached = scanResultCache.get(cacheKey);
+            Lookup lookup;
+            try {
+                lookup = cached == null ? lookup(cacheKey, upload.bytes(), upload.mimeType()) : null;
+            } catch (RuntimeException e) {
+                results.add(CompletableFuture.failedFuture(e));
+                continue;
+            }
+            if (cached != null || lookup.hit() != null) {
+                results.add(CompletableFuture.completedFuture(cached != null ? cached : lookup.hit()));
+                continue;
+            }
+            CompletableFuture<AnalysisResult> result = new CompletableFuture<>();
+            results.add(result);
+            misses.add(lookup);
+            pending.add(result);
+        }
+
+        int chunkSize = Math.max(1, imagesPerRequest);
+        for (int from = 0; from < misses.size(); from += chunkSize) {
+            int to = Math.min(misses.size(), from + chunkSize);
+            List<Lookup> chunk = misses.subList(from, to);
+            List<CompletableFuture<AnalysisResult>> targets = pending.subList(from, to);
+            CompletableFuture<List<AnalysisResult>> call = callGeminiBatch(chunk.stream().map(Lookup::prepared).toList());
+            AtomicInteger waiting = new AtomicInteger(targets.size());
+            targets.forEach(target -> target.whenComplete((result, error) -> {
+                if (target.isCancelled() && waiting.decrementAndGet() == 0) {
+                    call.cancel(true);
+                }
+            }));
+            call.whenComplete((parsed, error) -> {
+                for (int i = 0; i < targets.size(); i++) {
+                    if (error != null) {
+                        targets.get(i).completeExceptionally(error);
+                    } else if (parsed.get(i) == null) {
+                        targets.get(i).completeExceptionally(
+                                new RuntimeException("No result for image " + i + " in Gemini batch response"));
+                    } else {
+                        targets.get(i).complete(remember(chunk.get(i), parsed.get(i)));
+                    }
+                }
+            });
+        }
+        return results;
+    }
+
+    private Lookup lookup(String cacheKey, byte[] imageBytes, String mimeType) {
+        PreprocessedImage prepared = imagePreprocessor.process(imageBytes, mimeType);
+
+        long[] perceptualHash = perceptualHashOf(prepared);
+        if (perceptualHash != null) {
+            AnalysisResult similar = nearDuplicateIndex.findSimilar(perceptualHash, cacheVariant());
+            // not put in the exact cache: a near match is a guess, and caching it under this image's
+            // SHA would keep serving it after the index has moved on
+            if (similar != null) {
+                return new Lookup(cacheKey, prepared, perceptualHash, similar);
+            }
+        }
+        return new Lookup(cacheKey, prepared, perceptualHash, null);
+    }
+
+    private AnalysisResult remember(Lookup lookup, AnalysisResult result) {
+        scanResultCache.put(lookup.cacheKey(), result);
+        if (lookup.perceptualHash() != null) {
+            nearDuplicateIndex.add(lookup.perceptualHash(), cacheVariant(), result);
+        }
+        return result;
+    }
+
+    private long[] perceptualHashOf(PreprocessedImage prepared) {
+        if (!nearDuplicateIndex.isEnabled()) {
+            return null;
+        }
+        try {
+            return prepared.image() != null
+                    ? PerceptualHash.of(prepared.image())
+                    : PerceptualHash.of(prepared.bytes(), imagePreprocessor.getMaxPixels());
+        } catch (IOException e) {
+            log.warn("Could not compute perceptual hash: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private AnalysisResult emitAll(AnalysisResult result, Consumer<IngredientInfo> onIngredient) {
+        if (onIngredient != null && result.getIngredients() != null) {
+            result.getIngredients().forEach(onIngredient);
+        }
+        return result;
+    }
+
+    private CompletableFuture<List<AnalysisResult>> callGeminiBatch(List<PreprocessedImage> images) {
+        if (images.size() == 1) {
+            CompletableFuture<AnalysisResult> call = callGemini(images.get(0).bytes(), images.get(0).mimeType());
+            return Futures.cancelling(call.thenApply(List::of), call);
+        }
+        return geminiMetrics.observeAsync("batch", null, call -> {
+            Map<String, Object> requestBody = geminiMetrics.stageAsync("gemini.request.build", call,
+                    () -> buildRequestBody(images, getBatchPrompt(images.size()),
+                            Math.min(MAX_BATCH_OUTPUT_TOKENS, scanOutputTokens() * images.size())));
+            CompletableFuture<String> answer = geminiCallGuard.execute(() -> geminiClient.generate(requestBody, call));
+            return Futures.cancelling(answer
+                    .thenApply(body -> geminiMetrics.stageAsync("gemini.response.parse", call,
+                            () -> parseBatchResponse(body, images.size(), call)))
+                    .thenCompose(results -> completeIngredients(results, call).thenApply(ignored -> results)), answer);
+        });
+    }
+
+    private CompletableFuture<AnalysisResult> callGemini(byte[] imageBytes, String mimeType) {
+        return geminiMetrics.observeAsync("scan", null, call -> {
+            Map<String, Object> requestBody = geminiMetrics.stageAsync("gemini.request.build", call,
+                    () -> buildRequestBody(imageBytes, mimeType));
+            CompletableFuture<String> answer = geminiCallGuard.execute(() -> geminiClient.generate(requestBody, call));
+            // cancelling the scan has to reach the HTTP exchange, not just the last stage
+            return Futures.cancelling(answer
+                    .thenApply(body -> geminiMetrics.stageAsync("gemini.response.parse", call,
+                            () -> parseResponse(body, call)))
+                    .thenCompose(result -> completeIngredients(List.of(result), call).thenApply(ignored -> result)), answer);
+        });
+    }
+
+    /**
+     * Calls streamGenerateContent with server-sent events. Each event carries the next fragment
+     * of the model's JSON text, which is fed to an {@link IncrementalIngredientParser}. The guard
+     * retries the call only up to the response headers, so a retry never replays emitted ingredients,
+     * but holds its slot until the stream is read, so a stream that stalls or breaks counts as a failure.
+     */
+    private AnalysisResult streamGemini(byte[] imageBytes, String mimeType,
+                                        Consumer<IngredientInfo> onIngredient) throws Exception {
+        return geminiMetrics.observe("scan_stream", null, call -> streamGemini(imageBytes, mimeType, onIngredient, call));
+    }
+
+    private AnalysisResult streamGemini(byte[] imageBytes, String mimeType, Consumer<IngredientInfo> onIngredient,
+                                        Observation call) throws Exception {
+        // known ingredients are enriched and emitted as they arrive, unknown ones once the model has described them
+        List<IngredientInfo> unknown = new ArrayList<>();
+        Consumer<IngredientInfo> emitter = !ingredientKnowledgeBase.isEnabled() ? onIngredient : ingredient -> {
+            if (ingredientKnowledgeBase.enrich(ingredient)) {
+                onIngredient.accept(ingredient);
+            } else {
+                unknown.add(ingredient);
+            }
+        };
+        IncrementalIngredientParser parser = new IncrementalIngredientParser(objectMapper, emitter);
+        Map<String, Object> requestBody = geminiMetrics.stage("gemini.request.build", call,
+                () -> buildRequestBody(imageBytes, mimeType));
+        GeminiCallGuard.HeldCall<InputStream> stream =
+                await(geminiCallGuard.executeHeld(() -> geminiClient.stream(requestBody, call)));
+        try (InputStream events = stream.value()) {
+            geminiMetrics.stage("gemini.stream.read", call, () -> {
+                readEventStream(events, parser, call);
+                return null;
+            });
+            stream.finish(null);
+        } catch (Exception e) {
+            // interrupted because every caller left, which says nothing about Gemini's health
+            stream.finish(Thread.currentThread().isInterrupted() ? new CancellationException() : e);
+            throw e;
+        }
+        AnalysisResult result = geminiMetrics.stage("gemini.response.parse", call, () -> parseAnalysis(parser.getText()));
+        if (ingredientKnowledgeBase.isEnabled()) {
+            await(describeIngredients(unknown, call));
+            unknown.forEach(onIngredient);
+            if (result.getIngredients() != null) {
+                result.getIngredients().forEach(ingredientKnowledgeBase::enrich);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fills in ingredient details from the knowledge base, asking Gemini in one text-only call
+     * about the ingredients it does not know yet
+     * @param results analyses holding extracted names; null entries are skipped
+     * @param call the scan's gemini.call, parent of the describe call
+     * @return completes once every ingredient is described
+     */
+    private CompletableFuture<Void> completeIngredients(List<AnalysisResult> results, Observation call) {
+        if (!ingredientKnowledgeBase.isEnabled()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<IngredientInfo> unknown = new ArrayList<>();
+        for (AnalysisResult result : results) {
+            if (result != null && result.getIngredients() != null) {
+                result.getIngredients().stream()
+                        .filter(ingredient -> !ingredientKnowledgeBase.enrich(ingredient))
+                        .forEach(unknown::add);
+            }
+        }
+        return describeIngredients(unknown, call);
+    }
+
+    /**
+     * Has Gemini describe ingredients the knowledge base lacks, then files and applies the answers
+     */
+    private CompletableFuture<Void> describeIngredients(List<IngredientInfo> unknown, Observation parent) {
+        if (unknown.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, IngredientInfo> distinct = new LinkedHashMap<>();
+        unknown.forEach(ingredient -> distinct.putIfAbsent(ingredientKnowledgeBase.keyOf(ingredient), ingredient));
+        List<IngredientInfo> ingredients = new ArrayList<>(distinct.values());
+        return geminiMetrics.observeAsync("describe", parent, call -> {
+            Map<String, Object> requestBody = geminiMetrics.stageAsync("gemini.request.build", call,
+                    () -> buildRequestBody(List.of(), getDescribePrompt(ingredients), MAX_OUTPUT_TOKENS));
+            return geminiCallGuard.execute(() -> geminiClient.generate(requestBody, call))
+                    .thenAccept(body -> {
+                        geminiMetrics.stageAsync("gemini.response.parse", call, () -> {
+                            JsonNode described = objectMapper.readTree(stripFences(extractText(body, call)))
+                                    .path("ingredients");
+                            int position = 0;
+                            for (JsonNode entry : described) {
+                                int index = entry.path("index").asInt(position);
+                                position++;
+                                if (entry instanceof ObjectNode object && index >= 0 && index < ingredients.size()) {
+                                    object.remove("index");
+                                    ingredientKnowledgeBase.learn(ingredients.get(index),
+                                            objectMapper.treeToValue(object, IngredientInfo.class));
+                                }
+                            }
+                            return null;
+                        });
+                        // described ingredients are in the base now; anything the model skipped keeps its name only
+                        unknown.forEach(ingredientKnowledgeBase::enrich);
+                    });
+        });
+    }
+
+    private void readEventStream(InputStream body, IncrementalIngredientParser parser, Observation call)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        long bytes = 0;
+        // each event repeats the running usage, so the last one holds the totals
+        JsonNode usage = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            bytes += line.length() + 1;
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            JsonNode chunk = objectMapper.readTree(line.substring(5).trim());
+            checkPromptFeedback(chunk);
+            if (chunk.has("usageMetadata")) {
+                usage = chunk.get("usageMetadata");
+            }
+            JsonNode candidate = chunk.path("candidates").path(0);
+            for (JsonNode part : candidate.path("content").path("parts")) {
+                parser.feed(part.path("text").asText(""));
+            }
+            String finishReason = candidate.path("finishReason").asText("");
+            if (!finishReason.isEmpty() && !"STOP".equals(finishReason)) {
+                log.warn("Gemini finish reason: {}", finishReason);
+            }
+        }
+        geminiMetrics.recordPayload(call, "response", bytes);
+        geminiMetrics.recordUsage(call, usage);
+    }
 
-        String base64Image = Base64.getEncoder().encodeToString(image.getBytes());
-        String mimeType = image.getContentType();
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof Exception exception ? exception : e;
+        }
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+    private Map<String, Object> buildRequestBody(byte[] imageBytes, String mimeType) {
+        return buildRequestBody(List.of(new PreprocessedImage(imageBytes, mimeType, null)), getScanPrompt(),
+                scanOutputTokens());
+    }
 
+    private Map<String, Object> buildRequestBody(List<PreprocessedImage> images, String prompt, int maxOutputTokens) {
         Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", "gemini-2.5-flash");
-
-        Map<String, Object> textPart = Map.of("text", getPrompt());
-        Map<String, Object> imagePart = Map.of(
-                "inline_data", Map.of(
-                        "mime_type", mimeType,
-                        "data", base64Image
-                )
-        );
+        requestBody.put("model", MODEL);
+
+        List<Map<String, Object>> parts = new ArrayList<>();
+        for (PreprocessedImage image : images) {
+            parts.add(Map.of(
+                    "inline_data", Map.of(
+                            "mime_type", image.mimeType(),
+                            "data", Base64.getEncoder().encodeToString(image.bytes())
+                    )
+            ));
+        }
+        parts.add(Map.of("text", prompt));
 
         Map<String, Object> content = Map.of(
-                "parts", new Object[]{imagePart, textPart}
+                "parts", parts
         );
 
         requestBody.put("contents", new Object[]{content});
 
         Map<String, Object> generationConfig = Map.of(
                 "temperature", 0.2,
-                "maxOutputTokens", 10000,
+                "maxOutputTokens", maxOutputTokens,
                 "responseMimeType", "application/json"
         );
         requestBody.put("generationConfig", generationConfig);
@@ -61,16 +481,23 @@ public class GeminiService {
                 "threshold", "BLOCK_LOW_AND_ABOVE"
         );
         requestBody.put("safetySettings", new Object[]{safetySettings});
+        return requestBody;
+    }
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-        ResponseEntity<String> response = restTemplate.exchange(
-                geminiConfig.getApiUrl() + "?key=" + geminiConfig.getApiKey(),
-                HttpMethod.POST,
-                entity,
-                String.class
-        );
+    private String cacheVariant() {
+        return MODEL + ":" + Integer.toHexString(getScanPrompt().hashCode());
+    }
 
-        return parseResponse(response.getBody());
+    /** Prompt sent with label images: extraction only when the knowledge base supplies the details */
+    private String getScanPrompt() {
+        return ingredientKnowledgeBase.isEnabled() ? getExtractionPrompt() : getPrompt();
+    }
+
+    private int scanOutputTokens() {
+        return ingredientKnowledgeBase.isEnabled() ? MAX_EXTRACTION_OUTPUT_TOKENS : MAX_OUTPUT_TOKENS;
+    }
+
+    private record Lookup(String cacheKey, PreprocessedImage prepared, long[] perceptualHash, AnalysisResult hit) {
     }
 
     private String getPrompt() {
@@ -109,16 +536,119 @@ public class GeminiService {
             """;
     }
 
-    private AnalysisResult parseResponse(String responseBody) throws Exception {
-        log.debug("Raw Gemini response: {}", responseBody);
+    private String getExtractionPrompt() {
+        return """
+            Read the ingredient list from this product image.
 
-        JsonNode root = objectMapper.readTree(responseBody);
+            Extract ALL ingredients in label order. For each one give only its standardized name and
+            its E-number if it has one. Do not describe the ingredients.
 
-        JsonNode promptFeedback = root.path("promptFeedback");
-        if (!promptFeedback.isMissingNode() && !promptFeedback.path("blockReason").isMissingNode()) {
-            String blockReason = promptFeedback.path("blockReason").asText();
-            throw new RuntimeException("Gemini blocked the prompt: " + blockReason);
+            IMPORTANT: Return ONLY valid JSON with this exact structure:
+            {
+              "scanId": "generate-a-random-uuid",
+              "ingredients": [
+                {"name": "ingredient name", "eNumber": "E100 or null"}
+              ],
+              "summary": "brief overall summary"
+            }
+
+            Be factual and objective. No medical claims.
+            """;
+    }
+
+    private String getDescribePrompt(List<IngredientInfo> ingredients) {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < ingredients.size(); i++) {
+            IngredientInfo ingredient = ingredients.get(i);
+            list.append(i).append(". ").append(ingredient.getName());
+            if (ingredient.getENumber() != null) {
+                list.append(" (").append(ingredient.getENumber()).append(')');
+            }
+            list.append('\n');
+        }
+        return """
+            Describe each of these food ingredients, numbered from 0:
+
+            %s
+            For each one provide:
+            1. Name (standardized name)
+            2. E-number if applicable
+            3. Category (Preservative, Color, Emulsifier, Sweetener, etc.)
+            4. Purpose (what it does in a product)
+            5. Simple description (what it is)
+            6. Alternative names (common aliases)
+            7. Origin (Natural, Synthetic, or Both)
+            8. General safety note (if known)
+
+            IMPORTANT: Return ONLY valid JSON with this exact structure, one entry per ingredient:
+            {
+              "ingredients": [
+                {
+                  "index": 0,
+                  "name": "ingredient name",
+                  "eNumber": "E100 or null",
+                  "category": "category",
+                  "purpose": "what it does",
+                  "description": "simple description",
+                  "alternativeNames": ["alias1", "alias2"],
+                  "origin": "Natural/Synthetic/Both",
+                  "safetyNote": "general information"
+                }
+              ]
+            }
+
+            Be factual and objective. No medical claims.
+            """.formatted(list);
+    }
+
+    private String getBatchPrompt(int imageCount) {
+        return """
+            You are given %d product images, numbered from 0 in the order they appear.
+            Analyze each image separately, following these instructions for every image:
+
+            %s
+            Wrap the per-image objects in a single JSON object with this exact structure, one entry
+            per image in image order:
+            {
+              "results": [
+                {"imageIndex": 0, "scanId": "...", "ingredients": [...], "summary": "..."}
+              ]
+            }
+            """.formatted(imageCount, getScanPrompt());
+    }
+
+    private AnalysisResult parseResponse(String responseBody, Observation call) throws Exception {
+        return parseAnalysis(extractText(responseBody, call));
+    }
+
+    /**
+     * Splits a multi-image response into per-image results
+     * @return results by image position; null where the model returned nothing for an image
+     */
+    private List<AnalysisResult> parseBatchResponse(String responseBody, int imageCount, Observation call)
+            throws Exception {
+        JsonNode root = objectMapper.readTree(stripFences(extractText(responseBody, call)));
+        JsonNode entries = root.isArray() ? root : root.path("results");
+        AnalysisResult[] results = new AnalysisResult[imageCount];
+        int position = 0;
+        for (JsonNode entry : entries) {
+            int index = entry.path("imageIndex").asInt(position);
+            position++;
+            if (!(entry instanceof ObjectNode object) || index < 0 || index >= imageCount || results[index] != null) {
+                continue;
+            }
+            object.remove("imageIndex");
+            results[index] = objectMapper.treeToValue(object, AnalysisResult.class);
         }
+        return Arrays.asList(results);
+    }
+
+    private String extractText(String responseBody, Observation call) throws Exception {
+        log.debug("Raw Gemini response: {}", responseBody);
+
+        JsonNode root = objectMapper.readTree(responseBody);
+        geminiMetrics.recordUsage(call, root.path("usageMetadata"));
+        checkPromptFeedback(root);
 
         JsonNode candidates = root.path("candidates");
         if (candidates.isMissingNode() || !candidates.isArray() || candidates.size() == 0) {
@@ -139,14 +669,25 @@ public class GeminiService {
             throw new RuntimeException("No content parts found in Gemini response");
         }
 
-        String jsonText = parts.get(0).path("text").asText();
+        return parts.get(0).path("text").asText();
+    }
+
+    private void checkPromptFeedback(JsonNode root) {
+        JsonNode promptFeedback = root.path("promptFeedback");
+        if (!promptFeedback.isMissingNode() && !promptFeedback.path("blockReason").isMissingNode()) {
+            String blockReason = promptFeedback.path("blockReason").asText();
+            throw new RuntimeException("Gemini blocked the prompt: " + blockReason);
+        }
+    }
 
+    private AnalysisResult parseAnalysis(String jsonText) throws Exception {
+        return objectMapper.readValue(stripFences(jsonText), AnalysisResult.class);
+    }
 
-        jsonText = jsonText
+    private static String stripFences(String jsonText) {
+        return jsonText
                 .replace("```json", "")
                 .replace("```", "")
                 .trim();
-
-        return objectMapper.readValue(jsonText, AnalysisResult.class);
     }
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package com.example.Labelspy.service;
+
+import lombok.Getter;
+
+/**
+ * Gemini call refused locally because the circuit is open or the concurrency limit is reached.
+ */
+@Getter
+public class GeminiUnavailableException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    public GeminiUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
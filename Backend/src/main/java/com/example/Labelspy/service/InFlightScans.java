@@ -0,0 +1,138 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of identical scans. While a scan for an image digest is in flight, later
+ * requests for the same digest wait on it instead of calling Gemini again. Each waiter gets its own
+ * future; cancelling it only detaches that waiter, and the upstream call is cancelled once every
+ * waiter has left.
+ */
+@Component
+public class InFlightScans {
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final Counter leaders;
+    private final Counter collapsed;
+    private final Counter abandoned;
+
+    public InFlightScans(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.leaders = meterRegistry.counter("scan.coalesce.requests", "role", "leader");
+        this.collapsed = meterRegistry.counter("scan.coalesce.requests", "role", "collapsed");
+        this.abandoned = meterRegistry.counter("scan.coalesce.abandoned");
+        Gauge.builder("scan.coalesce.in_flight", flights, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Joins the scan in flight for key, or starts one
+     * @param key image digest
+     * @param scan starts the scan; only called when no scan for key is in flight. Cancelling the future
+     *             it returns must stop the work behind it, see {@link com.example.Labelspy.util.Futures#cancelling}
+     * @return this caller's view of the shared result; collapsed callers get a copy with a fresh scanId
+     */
+    public CompletableFuture<AnalysisResult> execute(String key, Supplier<CompletableFuture<AnalysisResult>> scan) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight != null) {
+                CompletableFuture<AnalysisResult> waiter = flight.join(true);
+                if (waiter != null) {
+                    collapsed.increment();
+                    return waiter;
+                }
+                flights.remove(key, flight);
+                continue;
+            }
+
+            Flight created = new Flight();
+            if (flights.putIfAbsent(key, created) != null) {
+                continue;
+            }
+            leaders.increment();
+            CompletableFuture<AnalysisResult> waiter = created.join(false);
+            created.shared.whenComplete((result, error) -> flights.remove(key, created));
+            CompletableFuture<AnalysisResult> upstream;
+            try {
+                upstream = scan.get();
+            } catch (RuntimeException e) {
+                upstream = CompletableFuture.failedFuture(e);
+            }
+            created.start(upstream);
+            return waiter;
+        }
+    }
+
+    private AnalysisResult copyOf(AnalysisResult result) {
+        AnalysisResult copy = objectMapper.convertValue(result, AnalysisResult.class);
+        copy.setScanId(UUID.randomUUID().toString());
+        return copy;
+    }
+
+    private class Flight {
+
+        private final CompletableFuture<AnalysisResult> shared = new CompletableFuture<>();
+        private CompletableFuture<AnalysisResult> upstream;
+        private int waiters;
+        private boolean closed;
+
+        synchronized CompletableFuture<AnalysisResult> join(boolean follower) {
+            if (closed) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<AnalysisResult> waiter = new CompletableFuture<>();
+            shared.whenComplete((result, error) -> {
+                if (error != null) {
+                    waiter.completeExceptionally(error);
+                } else {
+                    waiter.complete(follower ? copyOf(result) : result);
+                }
+            });
+            waiter.whenComplete((result, error) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        synchronized void start(CompletableFuture<AnalysisResult> upstream) {
+            this.upstream = upstream;
+            if (closed) {
+                upstream.cancel(true);
+                return;
+            }
+            upstream.whenComplete((result, error) -> {
+                if (error != null) {
+                    shared.completeExceptionally(error);
+                } else {
+                    shared.complete(result);
+                }
+            });
+        }
+
+        private synchronized void leave() {
+            if (--waiters > 0 || shared.isDone()) {
+                return;
+            }
+            closed = true;
+            abandoned.increment();
+            shared.cancel(false);
+            if (upstream != null) {
+                upstream.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.IngredientInfo;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.Consumer;
+
+/**
+ * Scans the model's JSON text as it arrives and emits each element of the top-level
+ * "ingredients" array as soon as its closing brace is seen. The scanner only tracks nesting
+ * depth and string state, so it copes with fragments split anywhere, including inside strings
+ * and escape sequences. The complete text stays available for the final full parse.
+ */
+@Slf4j
+public class IncrementalIngredientParser {
+
+    private static final String INGREDIENTS_KEY = "ingredients";
+
+    private final ObjectMapper objectMapper;
+    private final Consumer<IngredientInfo> onIngredient;
+    private final StringBuilder text = new StringBuilder();
+
+    private int position;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    private int stringStart = -1;
+    private String lastString;
+    private boolean awaitingArray;
+    private int arrayDepth = -1;
+    private int objectStart = -1;
+    private int emitted;
+
+    public IncrementalIngredientParser(ObjectMapper objectMapper, Consumer<IngredientInfo> onIngredient) {
+        this.objectMapper = objectMapper;
+        this.onIngredient = onIngredient;
+    }
+
+    public void feed(String fragment) {
+        text.append(fragment);
+        for (; position < text.length(); position++) {
+            char c = text.charAt(position);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                    lastString = text.substring(stringStart + 1, position);
+                }
+                continue;
+            }
+            switch (c) {
+                case '"' -> {
+                    inString = true;
+                    stringStart = position;
+                }
+                case ':' -> awaitingArray = depth == 1 && INGREDIENTS_KEY.equals(lastString);
+                case '[' -> {
+                    depth++;
+                    if (awaitingArray) {
+                        arrayDepth = depth;
+                        awaitingArray = false;
+                    }
+                }
+                case '{' -> {
+                    depth++;
+                    if (arrayDepth != -1 && depth == arrayDepth + 1) {
+                        objectStart = position;
+                    }
+                }
+                case '}' -> {
+                    if (objectStart != -1 && depth == arrayDepth + 1) {
+                        emit(text.substring(objectStart, position + 1));
+                        objectStart = -1;
+                    }
+                    depth--;
+                }
+                case ']' -> {
+                    if (depth == arrayDepth) {
+                        arrayDepth = -1;
+                    }
+                    depth--;
+                }
+                default -> {
+                    if (!Character.isWhitespace(c)) {
+                        awaitingArray = false;
+                    }
+                }
+            }
+        }
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    public int getEmitted() {
+        return emitted;
+    }
+
+    private void emit(String json) {
+        try {
+            IngredientInfo ingredient = objectMapper.readValue(json, IngredientInfo.class);
+            emitted++;
+            onIngredient.accept(ingredient);
+        } catch (JsonProcessingException e) {
+            log.warn("Skipping malformed streamed ingredient: {}", e.getOriginalMessage());
+        }
+    }
+}
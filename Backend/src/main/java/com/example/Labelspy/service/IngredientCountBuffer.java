@@ -0,0 +1,377 @@
+package com.example.Labelspy.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind buffer for per-user ingredient counts. Deltas are summed in memory and written to
+ * the data store with {@link DataStore#incrementIngredientCounts(Map)} when the buffer holds
+ * flushThreshold pending entries or every flushInterval, whichever comes first, so a popular user
+ * costs one write per flush instead of one per scan. Each accepted delta is appended to a local
+ * journal before it is acknowledged, and the journal is replayed on startup. With
+ * journal-sync-interval-ms at 0 every append is fsynced before add() returns, so no crash loses an
+ * acknowledged delta. A positive interval fsyncs appends in groups at most that far apart: a process
+ * crash still loses nothing, as the lines are in the OS page cache, but losing the machine can lose
+ * the deltas of the last interval. Either way a crash between a commit and the journal rotation
+ * may apply a delta twice. Counts read back from the store lag by at most one flush interval.
+ */
+@Service
+@Slf4j
+public class IngredientCountBuffer {
+
+    private static final String JOURNAL_FILE = "counts.journal";
+    private static final String FLUSHING_FILE = "counts.flushing";
+    private static final TypeReference<Map<String, Object>> JOURNAL_ENTRY = new TypeReference<>() {};
+
+    private final DataStore dataStore;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int flushThreshold;
+    private final long flushIntervalMs;
+    private final String journalPath;
+    private final long journalSyncIntervalMs;
+    private final Timer flushTimer;
+    private final Counter flushFailures;
+    private final Counter journalSyncs;
+
+    /** add() holds the read lock while updating pending and the journal; flush() takes the write lock to swap both */
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicInteger pendingEntries = new AtomicInteger();
+    private volatile ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService journalSyncer;
+    private Path journalDirectory;
+    /** writes, forces and closes hold this monitor */
+    private FileChannel journal;
+    private boolean journalDirty;
+
+    public IngredientCountBuffer(DataStore dataStore,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${scan.counts.write-behind.enabled:true}") boolean enabled,
+                                 @Value("${scan.counts.write-behind.flush-threshold:1000}") int flushThreshold,
+                                 @Value("${scan.counts.write-behind.flush-interval-ms:5000}") long flushIntervalMs,
+                                 @Value("${scan.counts.write-behind.journal-path:}") String journalPath,
+                                 @Value("${scan.counts.write-behind.journal-sync-interval-ms:0}") long journalSyncIntervalMs) {
+        this.dataStore = dataStore;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.flushThreshold = flushThreshold;
+        this.flushIntervalMs = flushIntervalMs;
+        this.journalPath = journalPath;
+        this.journalSyncIntervalMs = journalSyncIntervalMs;
+        this.flushTimer = Timer.builder("scan.counts.flush").register(meterRegistry);
+        this.flushFailures = meterRegistry.counter("scan.counts.flush.failures");
+        this.journalSyncs = meterRegistry.counter("scan.counts.journal.syncs");
+        Gauge.builder("scan.counts.pending", pendingEntries, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("scan.counts.pending.users", this, buffer -> buffer.pending.size()).register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        if (journalPath != null && !journalPath.isBlank()) {
+            try {
+                journalDirectory = Files.createDirectories(Paths.get(journalPath));
+                replayJournal();
+                log.info("Ingredient count journal at {}", journalDirectory);
+            } catch (IOException e) {
+                log.warn("Ingredient count journal disabled, cannot use {}: {}", journalPath, e.getMessage());
+                journalDirectory = null;
+                journal = null;
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("ingredient-count-flush").daemon(true).factory());
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (journalDirectory != null && journalSyncIntervalMs > 0) {
+            // its own thread, so a slow flush cannot stretch the loss window
+            journalSyncer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                    .name("ingredient-count-journal-sync").daemon(true).factory());
+            journalSyncer.scheduleWithFixedDelay(this::syncJournal,
+                    journalSyncIntervalMs, journalSyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        if (journalSyncer != null) {
+            journalSyncer.shutdown();
+        }
+        try {
+            scheduler.awaitTermination(flushIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        closeJournal();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues count deltas for a user, or writes them through when the buffer is disabled
+     * @param userId user to update
+     * @param deltas amount to add per ingredient name
+     */
+    public void add(String userId, Map<String, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        if (!enabled) {
+            dataStore.incrementIngredientCounts(userId, deltas);
+            return;
+        }
+        swapLock.readLock().lock();
+        try {
+            appendToJournal(userId, deltas);
+            merge(userId, deltas);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        if (pendingEntries.get() >= flushThreshold && scheduler != null) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Writes all pending deltas to the data store. On failure the deltas of users that were not
+     * written are put back and retried on the next flush; those of users the store did commit are not.
+     * @return number of users written, or 0 when another flush was already running
+     */
+    public int flush() {
+        if (!flushLock.tryLock()) {
+            return 0;
+        }
+        try {
+            Map<String, ConcurrentHashMap<String, Integer>> snapshot;
+            swapLock.writeLock().lock();
+            try {
+                snapshot = pending;
+                pending = new ConcurrentHashMap<>();
+                pendingEntries.set(0);
+                rotateJournal();
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            if (snapshot.isEmpty()) {
+                deleteFlushingJournal();
+                return 0;
+            }
+
+            Timer.Sample sample = Timer.start();
+            try {
+                dataStore.incrementIngredientCounts(new HashMap<>(snapshot));
+            } catch (PartialCountUpdateException e) {
+                flushFailures.increment();
+                e.getFailedUserIds().forEach(userId -> add(userId, snapshot.get(userId)));
+                deleteFlushingJournal();
+                throw e;
+            } catch (RuntimeException e) {
+                flushFailures.increment();
+                snapshot.forEach(this::add);
+                deleteFlushingJournal();
+                throw e;
+            } finally {
+                sample.stop(flushTimer);
+            }
+            deleteFlushingJournal();
+            return snapshot.size();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            int users = flush();
+            if (users > 0) {
+                log.debug("Flushed ingredient counts for {} users", users);
+            }
+        } catch (Exception e) {
+            log.warn("Ingredient count flush failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    private void merge(String userId, Map<String, Integer> deltas) {
+        ConcurrentHashMap<String, Integer> counts = pending.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+        deltas.forEach((name, delta) -> counts.compute(name, (key, current) -> {
+            if (current == null) {
+                pendingEntries.incrementAndGet();
+                return delta;
+            }
+            return current + delta;
+        }));
+    }
+
+    private void appendToJournal(String userId, Map<String, Integer> deltas) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            ByteBuffer line = ByteBuffer.wrap((objectMapper.writeValueAsString(Map.of("u", userId, "d", deltas))
+                    + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            synchronized (this) {
+                while (line.hasRemaining()) {
+                    journal.write(line);
+                }
+                if (journalSyncIntervalMs > 0) {
+                    journalDirty = true;
+                } else {
+                    journal.force(false);
+                    journalSyncs.increment();
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to journal ingredient counts for user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    /** Group commit: one fsync covers every append since the last one */
+    private synchronized void syncJournal() {
+        if (journal == null || !journalDirty) {
+            return;
+        }
+        try {
+            journal.force(false);
+            journalDirty = false;
+            journalSyncs.increment();
+        } catch (IOException e) {
+            log.warn("Failed to sync ingredient count journal: {}", e.getMessage());
+        }
+    }
+
+    /** Called under the write lock: the current journal becomes the flushing journal and a fresh one is opened */
+    private void rotateJournal() {
+        if (journalDirectory == null) {
+            return;
+        }
+        try {
+            closeJournal();
+            Files.move(journalDirectory.resolve(JOURNAL_FILE), journalDirectory.resolve(FLUSHING_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException ignored) {
+            // nothing journaled since the last flush
+        } catch (IOException e) {
+            log.warn("Failed to rotate ingredient count journal: {}", e.getMessage());
+        }
+        openJournal();
+    }
+
+    private void deleteFlushingJournal() {
+        if (journalDirectory == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(journalDirectory.resolve(FLUSHING_FILE));
+        } catch (IOException e) {
+            log.warn("Failed to delete flushed ingredient count journal: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads deltas left by a previous run, from both the journal being flushed and the live one,
+     * then rewrites them as a single compacted journal
+     */
+    private void replayJournal() throws IOException {
+        int replayed = 0;
+        for (String file : List.of(FLUSHING_FILE, JOURNAL_FILE)) {
+            Path path = journalDirectory.resolve(file);
+            if (!Files.exists(path)) {
+                continue;
+            }
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    Map<String, Object> entry = objectMapper.readValue(line, JOURNAL_ENTRY);
+                    Map<String, Integer> deltas = new HashMap<>();
+                    ((Map<?, ?>) entry.get("d")).forEach((name, delta) ->
+                            deltas.put((String) name, ((Number) delta).intValue()));
+                    merge((String) entry.get("u"), deltas);
+                    replayed++;
+                } catch (Exception e) {
+                    // a torn last line from a crash mid-write
+                    log.warn("Skipping unreadable ingredient count journal entry: {}", e.getMessage());
+                }
+            }
+        }
+
+        Path compacted = Files.createTempFile(journalDirectory, JOURNAL_FILE, ".tmp");
+        try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.WRITE);
+             BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, ConcurrentHashMap<String, Integer>> entry : pending.entrySet()) {
+                writer.write(objectMapper.writeValueAsString(Map.of("u", entry.getKey(), "d", entry.getValue())));
+                writer.newLine();
+            }
+            writer.flush();
+            // durable before it replaces the journals it was compacted from
+            channel.force(false);
+        }
+        Files.move(compacted, journalDirectory.resolve(JOURNAL_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalDirectory.resolve(FLUSHING_FILE));
+        openJournal();
+        if (replayed > 0) {
+            log.info("Replayed {} journaled ingredient count updates for {} users", replayed, pending.size());
+        }
+    }
+
+    private synchronized void openJournal() {
+        try {
+            journal = FileChannel.open(journalDirectory.resolve(JOURNAL_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("Failed to open ingredient count journal, counts are buffered in memory only: {}", e.getMessage());
+            journal = null;
+        }
+    }
+
+    private synchronized void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        syncJournal();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Failed to close ingredient count journal: {}", e.getMessage());
+        }
+        journal = null;
+    }
+}
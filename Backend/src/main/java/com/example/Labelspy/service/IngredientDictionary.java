@@ -0,0 +1,276 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps ingredient names as Gemini writes them to stable ingredient IDs, so "Soy Lecithin",
+ * "soy lecithin" and "Lecithin (E322)" are counted once. An ID is the E-number when one is known
+ * (e322), from the eNumber field, the name or a dictionary alias, and otherwise the normalized
+ * name (soy-lecithin). Names are resolved through a hash index of normalized aliases loaded from
+ * ingredients/canonical.tsv. Nothing is learned at runtime: an ID and its display name depend only
+ * on the seed and the ingredient itself, so every node, and every restart, resolves and shows a
+ * name the same way whatever it scanned before. New aliases and display names go into the seed;
+ * other IDs are shown by rule (E433, Soy lecithin). Seeded IDs are interned, so stored counts and
+ * history share one instance per common ingredient.
+ */
+@Component
+@Slf4j
+public class IngredientDictionary {
+
+    private static final String SEED = "/ingredients/canonical.tsv";
+    private static final Pattern E_NUMBER_IN_NAME =
+            Pattern.compile("(?i)(?<![a-z0-9])e\\s?-?(\\d{3,4})([a-h])?(?:\\s?\\(?[ivx]{1,4}\\)?)?(?![a-z0-9])");
+    private static final Pattern E_NUMBER_FIELD = Pattern.compile("(?i)^\\s*(?:e|ins)?\\s*-?\\s*(\\d{3,4})([a-h])?");
+    private static final Pattern E_NUMBER_ID = Pattern.compile("e\\d{3,4}[a-h]?");
+    private static final Pattern SLUG = Pattern.compile("[a-z0-9]+(?:-[a-z0-9]+)*");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern PARENTHESES = Pattern.compile("\\([^)]*\\)|\\[[^]]*]");
+
+    /** normalized alias to ID, read-only after the seed is loaded, like the maps below */
+    private final Map<String, String> aliases = new HashMap<>();
+    /** canonical instance of every seeded ID */
+    private final Map<String, String> ids = new HashMap<>();
+    private final Map<String, String> displayNames = new HashMap<>();
+
+    public IngredientDictionary() {
+        loadSeed();
+    }
+
+    /**
+     * Resolves an ingredient to its ID. Its alternativeNames are only looked up in the seed, never
+     * taken as aliases, so one model answer cannot redirect how other ingredients resolve.
+     * @param ingredient ingredient as returned by Gemini
+     * @return the ingredient ID, or null when it has neither a usable name nor an E-number
+     */
+    public String canonicalId(IngredientInfo ingredient) {
+        String name = ingredient.getName();
+        String eNumber = eNumberOf(ingredient.getENumber(), E_NUMBER_FIELD);
+        if (eNumber == null && name != null) {
+            eNumber = eNumberOf(name, E_NUMBER_IN_NAME);
+        }
+        if (eNumber != null) {
+            return intern(eNumber);
+        }
+
+        String id = lookup(name);
+        if (id == null && ingredient.getAlternativeNames() != null) {
+            for (String alternative : ingredient.getAlternativeNames()) {
+                id = lookup(alternative);
+                if (id != null) {
+                    break;
+                }
+            }
+        }
+        if (id == null) {
+            String slug = normalize(name);
+            if (slug.isEmpty()) {
+                return null;
+            }
+            id = intern(slug);
+        }
+        return id;
+    }
+
+    /**
+     * Resolves a bare ingredient name, as stored by earlier versions
+     * @param name raw name
+     * @return the ingredient ID, or null for a blank name
+     */
+    public String canonicalId(String name) {
+        IngredientInfo ingredient = new IngredientInfo();
+        ingredient.setName(name);
+        return canonicalId(ingredient);
+    }
+
+    /**
+     * Resolves every ingredient of a scan, dropping duplicates and unnamed entries
+     * @param ingredients ingredients of one scan
+     * @return IDs in first-seen order
+     */
+    public List<String> canonicalIds(List<IngredientInfo> ingredients) {
+        return ingredients.stream()
+                .map(this::canonicalId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Counts each ingredient once per scan it appears in, keyed by ingredient ID
+     * @param results completed scans
+     * @return count per ingredient ID
+     */
+    public Map<String, Integer> ingredientDeltas(List<AnalysisResult> results) {
+        Map<String, Integer> deltas = new HashMap<>();
+        for (AnalysisResult result : results) {
+            if (result.getIngredients() != null) {
+                canonicalIds(result.getIngredients()).forEach(id -> deltas.merge(id, 1, Integer::sum));
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Re-keys counts by ingredient ID, summing raw names that resolve to the same ingredient
+     * @param counts count per raw name or ID
+     * @return count per ID
+     */
+    public Map<String, Integer> canonicalCounts(Map<String, Integer> counts) {
+        Map<String, Integer> canonical = new HashMap<>();
+        counts.forEach((name, count) -> {
+            String id = canonicalId(name);
+            if (id != null) {
+                canonical.merge(id, count, Integer::sum);
+            }
+        });
+        return canonical;
+    }
+
+    /**
+     * @param id ingredient ID, or a raw name stored before IDs were introduced
+     * @return the seeded name for it, or one derived from the ID
+     */
+    public String displayName(String id) {
+        String name = displayNames.get(id);
+        if (name != null) {
+            return name;
+        }
+        if (E_NUMBER_ID.matcher(id).matches()) {
+            return id.toUpperCase();
+        }
+        if (SLUG.matcher(id).matches()) {
+            String words = id.replace('-', ' ');
+            return Character.toUpperCase(words.charAt(0)) + words.substring(1);
+        }
+        return id;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Lowercases, strips accents and collapses everything but letters and digits to single hyphens
+     */
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                // rare: fold accents, keeping letters of other scripts
+                name = DIACRITICS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        StringBuilder slug = new StringBuilder(name.length());
+        boolean separator = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean keep;
+            if (c < 0x80) {
+                if (c >= 'A' && c <= 'Z') {
+                    c = (char) (c + ('a' - 'A'));
+                }
+                keep = c >= 'a' && c <= 'z' || c >= '0' && c <= '9';
+            } else {
+                c = Character.toLowerCase(c);
+                keep = Character.isLetterOrDigit(c);
+            }
+            if (!keep) {
+                separator = true;
+                continue;
+            }
+            if (separator && !slug.isEmpty()) {
+                slug.append('-');
+            }
+            slug.append(c);
+            separator = false;
+        }
+        return slug.toString();
+    }
+
+    private String lookup(String name) {
+        if (name == null) {
+            return null;
+        }
+        String id = aliases.get(normalize(name));
+        if (id == null && (name.indexOf('(') >= 0 || name.indexOf('[') >= 0)) {
+            // "Sugar (cane)" counts as sugar
+            id = aliases.get(normalize(PARENTHESES.matcher(name).replaceAll(" ")));
+        }
+        return id;
+    }
+
+    private String intern(String id) {
+        return ids.getOrDefault(id, id);
+    }
+
+    private static String eNumberOf(String text, Pattern pattern) {
+        if (text == null || !hasDigit(text)) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(text);
+        if (!matcher.find()) {
+            return null;
+        }
+        return "e" + matcher.group(1) + (matcher.group(2) != null ? matcher.group(2).toLowerCase() : "");
+    }
+
+    private static boolean hasDigit(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void loadSeed() {
+        InputStream in = IngredientDictionary.class.getResourceAsStream(SEED);
+        if (in == null) {
+            throw new IllegalStateException("Missing ingredient dictionary " + SEED);
+        }
+        Map<String, String> seeded = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                String id = ids.computeIfAbsent(columns[0].trim(), seededId -> seededId);
+                String display = columns.length > 1 ? columns[1].trim() : displayName(id);
+                displayNames.put(id, display);
+                seeded.put(normalize(display), id);
+                if (columns.length > 2) {
+                    for (String alias : columns[2].split("\\|")) {
+                        seeded.put(normalize(alias), id);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read ingredient dictionary " + SEED, e);
+        }
+        aliases.putAll(seeded);
+        log.info("Ingredient dictionary loaded: {} ingredients, {} aliases", ids.size(), aliases.size());
+    }
+}
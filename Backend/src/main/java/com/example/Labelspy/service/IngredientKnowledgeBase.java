@@ -0,0 +1,250 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.IngredientInfo;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Category, purpose, description, origin and safety note per ingredient ID, so scans only ask
+ * Gemini to read the label and enrich locally. Entries are "id\tjson" lines in an append-only
+ * file. At startup the file is memory-mapped and only an ID to offset index is built; an entry is
+ * decoded from the mapping when it is looked up, so the base costs page cache rather than heap.
+ * Entries learned while running are appended to the file and served from memory until restart.
+ * An empty base is seeded from the analyses stored in the scan result disk cache, if there is one.
+ */
+@Component
+@Slf4j
+public class IngredientKnowledgeBase {
+
+    private static final String FILE = "knowledge.tsv";
+
+    private final IngredientDictionary ingredientDictionary;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final String path;
+    private final String seedCachePath;
+    private final Counter hits;
+    private final Counter misses;
+
+    private final Map<String, Slot> mappedIndex = new ConcurrentHashMap<>();
+    private final Map<String, IngredientInfo> learned = new ConcurrentHashMap<>();
+    private MappedByteBuffer mapped;
+    private FileChannel appender;
+
+    public IngredientKnowledgeBase(IngredientDictionary ingredientDictionary,
+                                   ObjectMapper objectMapper,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${scan.knowledge-base.enabled:true}") boolean enabled,
+                                   @Value("${scan.knowledge-base.path:}") String path,
+                                   @Value("${scan.cache.disk-path:}") String seedCachePath) {
+        this.ingredientDictionary = ingredientDictionary;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.path = path;
+        this.seedCachePath = seedCachePath;
+        this.hits = meterRegistry.counter("scan.kb.lookups", "result", "hit");
+        this.misses = meterRegistry.counter("scan.kb.lookups", "result", "miss");
+        Gauge.builder("scan.kb.size", this, IngredientKnowledgeBase::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        if (!enabled || path == null || path.isBlank()) {
+            return;
+        }
+        try {
+            Path file = Files.createDirectories(Paths.get(path)).resolve(FILE);
+            if (Files.exists(file) && Files.size(file) > 0) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                indexMapped();
+            }
+            appender = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (mapped != null && mapped.get(mapped.limit() - 1) != '\n') {
+                // terminate a line torn by a crash so the next entry starts cleanly
+                appender.write(ByteBuffer.wrap(new byte[]{'\n'}));
+            }
+            log.info("Ingredient knowledge base at {}: {} entries", file, mappedIndex.size());
+        } catch (IOException e) {
+            log.warn("Ingredient knowledge base not persisted, cannot use {}: {}", path, e.getMessage());
+            appender = null;
+        }
+        if (mappedIndex.isEmpty()) {
+            seedFromScanCache();
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        if (appender != null) {
+            appender.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Fills in everything but the name and E-number from the base
+     * @param ingredient ingredient as read from the label
+     * @return true when the ingredient was known
+     */
+    public boolean enrich(IngredientInfo ingredient) {
+        String id = ingredientDictionary.canonicalId(ingredient);
+        IngredientInfo knowledge = id == null ? null : get(id);
+        if (knowledge == null) {
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+        if (ingredient.getENumber() == null) {
+            ingredient.setENumber(knowledge.getENumber());
+        }
+        ingredient.setCategory(knowledge.getCategory());
+        ingredient.setPurpose(knowledge.getPurpose());
+        ingredient.setDescription(knowledge.getDescription());
+        ingredient.setAlternativeNames(
+                knowledge.getAlternativeNames() != null ? new ArrayList<>(knowledge.getAlternativeNames()) : null);
+        ingredient.setOrigin(knowledge.getOrigin());
+        ingredient.setSafetyNote(knowledge.getSafetyNote());
+        return true;
+    }
+
+    /**
+     * Stores what the model said about an ingredient, unless the base already knows it
+     * @param ingredient ingredient the knowledge is filed under
+     * @param knowledge fully described ingredient
+     */
+    public void learn(IngredientInfo ingredient, IngredientInfo knowledge) {
+        if (!enabled || knowledge.getCategory() == null || knowledge.getDescription() == null) {
+            return;
+        }
+        String id = ingredientDictionary.canonicalId(ingredient);
+        if (id == null || mappedIndex.containsKey(id) || learned.putIfAbsent(id, copyOf(knowledge)) != null) {
+            return;
+        }
+        append(id, knowledge);
+    }
+
+    /**
+     * @return the key an ingredient is filed under, so callers can tell which ingredients are the same
+     */
+    public String keyOf(IngredientInfo ingredient) {
+        return String.valueOf(ingredientDictionary.canonicalId(ingredient));
+    }
+
+    public int size() {
+        return mappedIndex.size() + learned.size();
+    }
+
+    private IngredientInfo get(String id) {
+        IngredientInfo knowledge = learned.get(id);
+        if (knowledge != null) {
+            return knowledge;
+        }
+        Slot slot = mappedIndex.get(id);
+        if (slot == null) {
+            return null;
+        }
+        byte[] json = new byte[slot.length()];
+        mapped.get(slot.offset(), json);
+        try {
+            return objectMapper.readValue(json, IngredientInfo.class);
+        } catch (IOException e) {
+            log.warn("Unreadable knowledge base entry {}: {}", id, e.getMessage());
+            mappedIndex.remove(id);
+            return null;
+        }
+    }
+
+    /** Indexes "id\tjson\n" lines without decoding them; later lines for an ID replace earlier ones */
+    private void indexMapped() {
+        int lineStart = 0;
+        int tab = -1;
+        for (int i = 0; i < mapped.limit(); i++) {
+            byte b = mapped.get(i);
+            if (b == '\t' && tab < 0) {
+                tab = i;
+            } else if (b == '\n') {
+                if (tab > lineStart) {
+                    byte[] id = new byte[tab - lineStart];
+                    mapped.get(lineStart, id);
+                    mappedIndex.put(new String(id, StandardCharsets.UTF_8), new Slot(tab + 1, i - tab - 1));
+                }
+                lineStart = i + 1;
+                tab = -1;
+            }
+        }
+        // a torn last line from a crash mid-append has no newline and is ignored
+    }
+
+    private synchronized void append(String id, IngredientInfo knowledge) {
+        if (appender == null) {
+            return;
+        }
+        try {
+            String line = id + "\t" + objectMapper.writeValueAsString(knowledge) + "\n";
+            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                appender.write(buffer);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to persist knowledge base entry {}: {}", id, e.getMessage());
+        }
+    }
+
+    private void seedFromScanCache() {
+        if (seedCachePath == null || seedCachePath.isBlank() || !Files.isDirectory(Paths.get(seedCachePath))) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(Paths.get(seedCachePath))) {
+            for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".json"))::iterator) {
+                try {
+                    JsonNode ingredients = objectMapper.readTree(file.toFile()).path("result").path("ingredients");
+                    for (JsonNode node : ingredients) {
+                        IngredientInfo ingredient = objectMapper.treeToValue(node, IngredientInfo.class);
+                        learn(ingredient, ingredient);
+                    }
+                } catch (IOException e) {
+                    log.debug("Skipping unreadable cached scan {}: {}", file, e.getMessage());
+                }
+            }
+            log.info("Ingredient knowledge base seeded with {} entries from past scans", learned.size());
+        } catch (IOException e) {
+            log.warn("Could not seed ingredient knowledge base from {}: {}", seedCachePath, e.getMessage());
+        }
+    }
+
+    private IngredientInfo copyOf(IngredientInfo knowledge) {
+        IngredientInfo copy = objectMapper.convertValue(knowledge, IngredientInfo.class);
+        if (copy.getAlternativeNames() != null) {
+            copy.setAlternativeNames(new ArrayList<>(copy.getAlternativeNames()));
+        }
+        return copy;
+    }
+
+    private record Slot(int offset, int length) {
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory token buckets for this node. Each bucket is one {@link AtomicLong} holding the time
+ * it is next full, updated by compare-and-set, so requests never wait on a lock. Buckets that
+ * have refilled are dropped by a periodic sweep, and once maxBuckets keys are held, keys without
+ * a bucket share one overflow bucket per limit until the sweep frees room: a flood of new keys
+ * (one address per request, say) is limited as a group instead of growing memory.
+ */
+@Component
+@Slf4j
+public class LocalRateLimitStore implements RateLimitStore {
+
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final int maxBuckets;
+    private final long sweepIntervalMs;
+    private final Counter overflowed;
+    private ScheduledExecutorService scheduler;
+
+    public LocalRateLimitStore(MeterRegistry meterRegistry,
+                               @Value("${ratelimit.max-buckets:100000}") int maxBuckets,
+                               @Value("${ratelimit.sweep-interval-ms:60000}") long sweepIntervalMs) {
+        this.maxBuckets = maxBuckets;
+        this.sweepIntervalMs = sweepIntervalMs;
+        this.overflowed = meterRegistry.counter("ratelimit.buckets.overflow");
+        Gauge.builder("ratelimit.buckets", buckets, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        if (sweepIntervalMs <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("ratelimit-sweep").daemon(true).factory());
+        scheduler.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public long tryTake(String key, TokenBucket bucket, int tokens) {
+        String bucketKey = bucket.name() + "|" + key;
+        while (true) {
+            AtomicLong fullAt = buckets.get(bucketKey);
+            if (fullAt == null) {
+                if (buckets.size() >= maxBuckets) {
+                    overflowed.increment();
+                    bucketKey = bucket.name() + "|overflow";
+                }
+                fullAt = buckets.computeIfAbsent(bucketKey, ignored -> new AtomicLong(System.nanoTime()));
+            }
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            if (current == EVICTED) {
+                // swept between lookup and update; take from its replacement
+                buckets.remove(bucketKey, fullAt);
+                continue;
+            }
+            long next = bucket.take(current, now, tokens);
+            long wait = bucket.waitNanos(next, now);
+            if (wait > 0) {
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /** Drops buckets that are full again; a new bucket for the key would behave the same */
+    void sweep() {
+        long now = System.nanoTime();
+        int before = buckets.size();
+        buckets.forEach((key, fullAt) -> {
+            long value = fullAt.get();
+            // marking first means a take racing with the sweep either lands before it, keeping the bucket, or retries
+            if (value != EVICTED && value - now <= 0 && fullAt.compareAndSet(value, EVICTED)) {
+                buckets.remove(key, fullAt);
+            }
+        });
+        log.debug("Rate limit sweep dropped {} of {} buckets", before - buckets.size(), before);
+    }
+
+    int size() {
+        return buckets.size();
+    }
+}
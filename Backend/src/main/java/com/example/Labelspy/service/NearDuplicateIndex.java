@@ -0,0 +1,139 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.util.BkTree;
+import com.example.Labelspy.util.PerceptualHash;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of previously analyzed label images by perceptual hash, used to reuse a result when a
+ * new upload is a re-encoded or resized copy of an image we have already sent to Gemini. A global
+ * image hash cannot resolve label text: a second photo of one label and a same-layout label with
+ * different ingredients both land 30 to 65 bits away, so only copies within a few bits are safe
+ * to reuse, and dedup is off unless enabled.
+ */
+@Component
+@Slf4j
+public class NearDuplicateIndex {
+
+    private final ObjectMapper objectMapper;
+    private final Timer lookupTimer;
+    private final Counter matches;
+    private final Counter misses;
+
+    @Value("${scan.dedup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${scan.dedup.max-distance:4}")
+    private int maxDistance;
+
+    @Value("${scan.dedup.max-entries:5000}")
+    private int maxEntries;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, BkTree<long[], AnalysisResult>> trees = new HashMap<>();
+    private final Deque<Entry> insertionOrder = new ArrayDeque<>();
+
+    public NearDuplicateIndex(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.lookupTimer = Timer.builder("scan.dedup.lookup")
+                .description("Perceptual hash nearest-neighbour lookup latency")
+                .register(meterRegistry);
+        this.matches = meterRegistry.counter("scan.dedup.requests", "result", "match");
+        this.misses = meterRegistry.counter("scan.dedup.requests", "result", "miss");
+        Gauge.builder("scan.dedup.size", this, NearDuplicateIndex::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Finds a prior result for a visually near-identical image
+     * @param hash perceptual hash from {@link PerceptualHash}
+     * @param variant model and prompt identifier the result must have been produced with
+     * @return a copy of the matched result with a fresh scanId, or null when nothing is close enough
+     */
+    public AnalysisResult findSimilar(long[] hash, String variant) {
+        if (!enabled) {
+            return null;
+        }
+        BkTree.Match<long[], AnalysisResult> match = lookupTimer.record(() -> {
+            lock.readLock().lock();
+            try {
+                BkTree<long[], AnalysisResult> tree = trees.get(variant);
+                return tree == null ? null : tree.nearest(hash, maxDistance);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+        if (match == null) {
+            misses.increment();
+            return null;
+        }
+        matches.increment();
+        log.debug("Near-duplicate image found at distance {}", match.distance());
+        AnalysisResult copy = objectMapper.convertValue(match.value(), AnalysisResult.class);
+        copy.setScanId(UUID.randomUUID().toString());
+        return copy;
+    }
+
+    public void add(long[] hash, String variant, AnalysisResult result) {
+        if (!enabled || result == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            trees.computeIfAbsent(variant, v -> new BkTree<>(PerceptualHash::distance)).add(hash, result);
+            insertionOrder.addLast(new Entry(hash, variant, result));
+            if (insertionOrder.size() > maxEntries) {
+                evictOldestHalf();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return insertionOrder.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BK-trees do not support removal, so the oldest half is dropped by rebuilding from the rest.
+     */
+    private void evictOldestHalf() {
+        int drop = insertionOrder.size() / 2;
+        for (int i = 0; i < drop; i++) {
+            insertionOrder.removeFirst();
+        }
+        trees.clear();
+        for (Entry entry : insertionOrder) {
+            trees.computeIfAbsent(entry.variant(), v -> new BkTree<>(PerceptualHash::distance))
+                    .add(entry.hash(), entry.result());
+        }
+        log.debug("Near-duplicate index rebuilt with {} entries", insertionOrder.size());
+    }
+
+    private record Entry(long[] hash, String variant, AnalysisResult result) {
+    }
+}
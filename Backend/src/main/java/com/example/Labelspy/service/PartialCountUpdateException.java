@@ -0,0 +1,22 @@
+package com.example.Labelspy.service;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link DataStore#incrementIngredientCounts(Map)} applied the deltas of some users but not of
+ * failedUserIds, for stores that commit each user separately. Only the failed users' deltas may
+ * be retried; the others are already counted.
+ */
+@Getter
+public class PartialCountUpdateException extends RuntimeException {
+
+    private final Set<String> failedUserIds;
+
+    public PartialCountUpdateException(String message, Set<String> failedUserIds, Throwable cause) {
+        super(message, cause);
+        this.failedUserIds = failedUserIds;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.util.TokenBucket;
+
+/**
+ * Holds token buckets by key and takes tokens from them atomically.
+ */
+public interface RateLimitStore {
+
+    /**
+     * Takes tokens from a key's bucket if it has them; a key seen for the first time starts full
+     * @param key who is limited, e.g. user:uid or ip:address, combined with the bucket's name by the store
+     * @param bucket capacity and refill rate
+     * @param tokens tokens to take
+     * @return 0 if the tokens were taken, else milliseconds until they would be available; nothing is taken then
+     */
+    long tryTake(String key, TokenBucket bucket, int tokens);
+}
@@ -0,0 +1,31 @@
+package com.example.Labelspy.service;
+
+import com.google.cloud.Timestamp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in a user's scan history: the timestamp and id of the last scan on a page, matching the
+ * (timestamp, document id) ordering of the history query. Encoded as URL-safe base64 for clients.
+ */
+record ScanCursor(Timestamp timestamp, String scanId) {
+
+    String encode() {
+        String raw = timestamp.getSeconds() + ":" + timestamp.getNanos() + ":" + scanId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor was not produced by {@link #encode()}
+     */
+    static ScanCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+            return new ScanCursor(Timestamp.ofTimeSecondsAndNanos(Long.parseLong(parts[0]), Integer.parseInt(parts[1])),
+                    parts[2]);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid history cursor", e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.ScanSummary;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a user's scans, oldest first, as NDJSON or CSV. Scans are read one store page at a
+ * time and written straight to the response, so memory stays at one page however long the history
+ * is, and each page is flushed so clients start receiving before the export is done. Every row
+ * carries the cursor of its scan; a client that passes the last one back as since gets only the
+ * scans recorded after it.
+ */
+@Service
+@Slf4j
+public class ScanExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final String CSV_HEADER = "scanId,timestamp,ingredientIds,ingredientNames,cursor\n";
+
+    private final DataStore dataStore;
+    private final ObjectMapper objectMapper;
+    private final int pageSize;
+    private final Counter exportedScans;
+
+    public ScanExportService(DataStore dataStore,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${scan.export.page-size:500}") int pageSize) {
+        this.dataStore = dataStore;
+        this.objectMapper = objectMapper;
+        this.pageSize = pageSize;
+        this.exportedScans = meterRegistry.counter("scan.export.scans");
+    }
+
+    /**
+     * Reads the first page now, so a bad cursor or an unavailable store fails the request
+     * before any of the response is committed, and returns a body that streams the rest
+     * @param userId user to export
+     * @param format output format
+     * @param since cursor of the last scan the client already has, or null for the whole history
+     * @param gzip whether to gzip the body
+     * @return the response body
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public StreamingResponseBody export(String userId, Format format, String since, boolean gzip) {
+        List<ExportedScan> first = dataStore.getScansSince(userId, since, pageSize);
+        return outputStream -> {
+            OutputStream target = gzip ? new GZIPOutputStream(outputStream, 8192, true) : outputStream;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8));
+            JsonGenerator json = objectMapper.getFactory().createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            // rows are separated by newlines, not the default space between root values
+            json.setRootValueSeparator(null);
+            if (format == Format.CSV) {
+                writer.write(CSV_HEADER);
+            }
+
+            List<ExportedScan> page = first;
+            long written = 0;
+            while (!page.isEmpty()) {
+                for (ExportedScan exported : page) {
+                    if (format == Format.CSV) {
+                        writeCsv(writer, exported);
+                    } else {
+                        writeJson(json, writer, exported);
+                    }
+                }
+                written += page.size();
+                exportedScans.increment(page.size());
+                json.flush();
+                writer.flush();
+                if (page.size() < pageSize) {
+                    break;
+                }
+                page = dataStore.getScansSince(userId, page.get(page.size() - 1).cursor(), pageSize);
+            }
+            json.close();
+            writer.flush();
+            if (target instanceof GZIPOutputStream compressed) {
+                compressed.finish();
+            }
+            log.debug("Exported {} scans for user {}", written, userId);
+        };
+    }
+
+    private void writeJson(JsonGenerator json, Writer writer, ExportedScan exported) throws IOException {
+        ScanSummary scan = exported.scan();
+        json.writeStartObject();
+        json.writeStringField("scanId", scan.getScanId());
+        json.writeStringField("timestamp", scan.getTimestamp().toString());
+        writeArray(json, "ingredientIds", scan.getIngredientIds());
+        writeArray(json, "ingredientNames", scan.getIngredientNames());
+        json.writeStringField("cursor", exported.cursor());
+        json.writeEndObject();
+        json.flush();
+        writer.write('\n');
+    }
+
+    private static void writeArray(JsonGenerator json, String field, List<String> values) throws IOException {
+        if (values == null) {
+            json.writeNullField(field);
+            return;
+        }
+        json.writeArrayFieldStart(field);
+        for (String value : values) {
+            json.writeString(value);
+        }
+        json.writeEndArray();
+    }
+
+    private static void writeCsv(Writer writer, ExportedScan exported) throws IOException {
+        ScanSummary scan = exported.scan();
+        writer.write(csvField(scan.getScanId()));
+        writer.write(',');
+        writer.write(csvField(scan.getTimestamp().toString()));
+        writer.write(',');
+        writer.write(csvField(scan.getIngredientIds() == null ? "" : String.join(";", scan.getIngredientIds())));
+        writer.write(',');
+        writer.write(csvField(scan.getIngredientNames() == null ? "" : String.join(";", scan.getIngredientNames())));
+        writer.write(',');
+        writer.write(csvField(exported.cursor()));
+        writer.write('\n');
+    }
+
+    /** RFC 4180 quoting, only where the value needs it */
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.ScanSummary;
+
+import java.util.List;
+
+/**
+ * One page of scan history, newest first.
+ * @param nextCursor opaque cursor for the following page, or null on the last page
+ */
+public record ScanHistoryPage(List<ScanSummary> scans, String nextCursor) {
+}
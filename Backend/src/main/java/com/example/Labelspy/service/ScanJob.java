@@ -0,0 +1,140 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.dto.ScanJobStatus;
+import com.example.Labelspy.dto.ScanJobStatus.State;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A scan submitted to {@link ScanJobService}. Listeners receive every status change and, for
+ * streaming jobs, each ingredient as it is extracted. A listener added late is first replayed the
+ * ingredients seen so far; one added after the job finished gets the final status immediately.
+ */
+@Slf4j
+public class ScanJob {
+
+    @Getter
+    private final String id = UUID.randomUUID().toString();
+    @Getter
+    private final String userId;
+    @Getter
+    private final Instant createdAt = Instant.now();
+    @Getter
+    private final boolean streaming;
+    @Getter
+    private final ScanTiming timing;
+    @Getter
+    private final CompletableFuture<AnalysisResult> future = new CompletableFuture<>();
+
+    private final List<ScanJobListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<IngredientInfo> ingredients = new ArrayList<>();
+    private volatile State state = State.QUEUED;
+    private volatile Instant completedAt;
+    private volatile String error;
+    private volatile boolean abandoned;
+
+    ScanJob(String userId, boolean streaming, ScanTiming timing) {
+        this.userId = userId;
+        this.streaming = streaming;
+        this.timing = timing;
+    }
+
+    public boolean isFinished() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    /**
+     * Marks the job as no longer wanted by the caller that submitted it. A job still queued is
+     * then dropped instead of being analyzed; one already running finishes.
+     */
+    public void abandon() {
+        abandoned = true;
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    public Instant getCompletedAt() {
+        return completedAt;
+    }
+
+    public ScanJobStatus status() {
+        return ScanJobStatus.builder()
+                .jobId(id)
+                .status(state)
+                .result(state == State.COMPLETED ? future.getNow(null) : null)
+                .error(error)
+                .createdAt(createdAt)
+                .completedAt(completedAt)
+                .build();
+    }
+
+    public synchronized void addListener(ScanJobListener listener) {
+        ingredients.forEach(listener::onIngredient);
+        if (isFinished()) {
+            listener.onStatus(status());
+        } else {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(ScanJobListener listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized void markRunning() {
+        state = State.RUNNING;
+        notifyListeners();
+    }
+
+    synchronized void publishIngredient(IngredientInfo ingredient) {
+        ingredients.add(ingredient);
+        for (ScanJobListener listener : listeners) {
+            try {
+                listener.onIngredient(ingredient);
+            } catch (RuntimeException e) {
+                log.debug("Scan job listener failed: {}", e.getMessage());
+                listeners.remove(listener);
+            }
+        }
+    }
+
+    synchronized void complete(AnalysisResult result) {
+        completedAt = Instant.now();
+        future.complete(result);
+        state = State.COMPLETED;
+        notifyListeners();
+        listeners.clear();
+    }
+
+    synchronized void fail(Throwable cause) {
+        completedAt = Instant.now();
+        error = cause.getMessage();
+        future.completeExceptionally(cause);
+        state = State.FAILED;
+        notifyListeners();
+        listeners.clear();
+    }
+
+    private void notifyListeners() {
+        ScanJobStatus status = status();
+        for (ScanJobListener listener : listeners) {
+            try {
+                listener.onStatus(status);
+            } catch (RuntimeException e) {
+                log.debug("Scan job listener failed: {}", e.getMessage());
+                listeners.remove(listener);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.dto.ScanJobStatus;
+
+/**
+ * Receives updates for a {@link ScanJob}. Ingredients are only delivered for streaming jobs.
+ */
+@FunctionalInterface
+public interface ScanJobListener {
+
+    void onStatus(ScanJobStatus status);
+
+    default void onIngredient(IngredientInfo ingredient) {
+    }
+}
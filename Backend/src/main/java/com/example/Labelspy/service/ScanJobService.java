@@ -0,0 +1,274 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.util.PriorityAdmission;
+import com.example.Labelspy.util.QueueDelayShedder;
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs scans off the request thread. Jobs execute on virtual threads, at most maxConcurrent at a
+ * time, and are kept in memory for polling until retention expires. Signed-in users' jobs take
+ * freed slots ahead of anonymous ones, and reservedForUsers slots are never given to anonymous
+ * jobs, so anonymous traffic cannot crowd users out when capacity is tight. The store holds at most
+ * capacity jobs; when it is full of unfinished jobs new submissions are rejected. Uploads are only
+ * held until their job leaves the queue, and submissions are also rejected once the uploads waiting
+ * for a slot add up to maxQueuedBytes, so the queue's memory is bounded by bytes rather than by the
+ * job count times the largest upload. Jobs carry the
+ * submitting request's observation, so a job's scan.job span and everything under it join the
+ * request's trace; scan.jobs.queued times the wait for a slot by priority.
+ * <p>
+ * Queued jobs are shed CoDel-style: scan.queue.delay, measured from when the request reached the
+ * proxy if it is trusted to say so, is fed to a {@link QueueDelayShedder}. A job waits at most an interval for
+ * a slot, or only twice target while the delay stays above target, before failing with
+ * {@link ScanShedException}; slots still go to jobs in arrival order, which the shedder relies on.
+ * A job whose caller has gone, or whose deadline leaves less than minBudget, is dropped when it
+ * gets its slot instead of starting a Gemini call nobody will read.
+ */
+@Service
+@Slf4j
+public class ScanJobService {
+
+    private final ScanService scanService;
+    private final PriorityAdmission admission;
+    private final int capacity;
+    private final long maxQueuedBytes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Duration retention;
+    private final ObservationRegistry observationRegistry;
+    private final Timer userQueued;
+    private final Timer anonymousQueued;
+    private final QueueDelayShedder shedder;
+    private final long minBudgetNanos;
+    private final long retryAfterMillis;
+    private final Timer queueDelay;
+    private final Map<String, Counter> shed;
+    private final ExecutorService executor;
+    private final Map<String, ScanJob> jobs = new ConcurrentHashMap<>();
+
+    public ScanJobService(ScanService scanService,
+                          MeterRegistry meterRegistry,
+                          ObservationRegistry observationRegistry,
+                          @Value("${scan.jobs.max-concurrent:32}") int maxConcurrent,
+                          @Value("${scan.jobs.reserved-for-users:8}") int reservedForUsers,
+                          @Value("${scan.jobs.capacity:1000}") int capacity,
+                          @Value("${scan.jobs.max-queued-bytes:268435456}") long maxQueuedBytes,
+                          @Value("${scan.jobs.retention-minutes:15}") long retentionMinutes,
+                          @Value("${scan.shed.enabled:true}") boolean shedEnabled,
+                          @Value("${scan.shed.target-ms:500}") long shedTargetMs,
+                          @Value("${scan.shed.interval-ms:5000}") long shedIntervalMs,
+                          @Value("${scan.shed.min-budget-ms:1000}") long minBudgetMs) {
+        this.scanService = scanService;
+        this.admission = new PriorityAdmission(maxConcurrent, Math.min(reservedForUsers, maxConcurrent - 1));
+        this.capacity = capacity;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.retention = Duration.ofMinutes(retentionMinutes);
+        this.observationRegistry = observationRegistry;
+        this.userQueued = Timer.builder("scan.jobs.queued").tag("priority", "user").register(meterRegistry);
+        this.anonymousQueued = Timer.builder("scan.jobs.queued").tag("priority", "anonymous").register(meterRegistry);
+        this.shedder = shedEnabled ? new QueueDelayShedder(shedTargetMs, shedIntervalMs) : null;
+        this.minBudgetNanos = TimeUnit.MILLISECONDS.toNanos(minBudgetMs);
+        // overload is reassessed once an interval, so a shed caller retrying sooner would likely be shed again
+        this.retryAfterMillis = Math.max(1000, shedIntervalMs);
+        this.queueDelay = Timer.builder("scan.queue.delay").register(meterRegistry);
+        this.shed = Map.of(
+                "queue-delay", meterRegistry.counter("scan.shed", "reason", "queue-delay"),
+                "deadline", meterRegistry.counter("scan.shed", "reason", "deadline"),
+                "disconnected", meterRegistry.counter("scan.shed", "reason", "disconnected"));
+        if (shedder != null) {
+            Gauge.builder("scan.shed.overloaded", shedder, s -> s.isOverloaded() ? 1 : 0).register(meterRegistry);
+        }
+        ContextSnapshotFactory snapshots = ContextSnapshotFactory.builder().build();
+        this.executor = ContextExecutorService.wrap(Executors.newVirtualThreadPerTaskExecutor(), snapshots::captureAll);
+        Gauge.builder("scan.jobs.stored", jobs, Map::size).register(meterRegistry);
+        Gauge.builder("scan.jobs.queued.bytes", queuedBytes, AtomicLong::get).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("scan.jobs.waiting", admission, PriorityAdmission::getWaiting).register(meterRegistry);
+        Gauge.builder("scan.jobs.waiting.anonymous", admission, PriorityAdmission::getOthersWaiting).register(meterRegistry);
+        Gauge.builder("scan.jobs.running", admission, PriorityAdmission::getInUse).register(meterRegistry);
+    }
+
+    /**
+     * Queues a scan
+     * @param imageBytes uploaded image, already read from the request
+     * @param mimeType content type of the upload
+     * @param userId authenticated user, or null
+     * @param streaming whether to stream ingredients to job listeners as they are extracted
+     * @param timing when the request started queueing and its caller's deadline
+     * @return the queued job
+     * @throws RejectedExecutionException when the job store is full or the queued uploads are at maxQueuedBytes
+     */
+    public ScanJob submit(byte[] imageBytes, String mimeType, String userId, boolean streaming, ScanTiming timing) {
+        ScanJob job = new ScanJob(userId, streaming, timing);
+        synchronized (jobs) {
+            if (jobs.size() >= capacity) {
+                evictFinished();
+            }
+            if (jobs.size() >= capacity) {
+                throw new RejectedExecutionException("Scan queue is full");
+            }
+            // an empty queue takes any upload, so one larger than the cap is not refused forever
+            long queued = queuedBytes.get();
+            if (queued > 0 && queued + imageBytes.length > maxQueuedBytes) {
+                throw new RejectedExecutionException("Scan queue is full");
+            }
+            queuedBytes.addAndGet(imageBytes.length);
+            jobs.put(job.getId(), job);
+        }
+        // held apart from the job, so a job kept for polling never keeps its upload
+        AtomicReference<byte[]> upload = new AtomicReference<>(imageBytes);
+        try {
+            executor.execute(() -> run(job, upload, mimeType));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            queuedBytes.addAndGet(-imageBytes.length);
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Queues a scan for a caller that waits on its request for the result instead of polling. The
+     * job leaves the store as soon as it finishes; the caller abandons it if it stops waiting.
+     * @throws RejectedExecutionException when the job store is full
+     */
+    public ScanJob submitInline(byte[] imageBytes, String mimeType, String userId, ScanTiming timing) {
+        ScanJob job = submit(imageBytes, mimeType, userId, false, timing);
+        job.getFuture().whenComplete((result, error) -> jobs.remove(job.getId()));
+        return job;
+    }
+
+    public ScanJob getJob(String jobId) {
+        ScanJob job = jobs.get(jobId);
+        if (job != null && isExpired(job)) {
+            jobs.remove(jobId);
+            return null;
+        }
+        return job;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private void run(ScanJob job, AtomicReference<byte[]> upload, String mimeType) {
+        boolean priority = job.getUserId() != null;
+        long waitStart = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = admission.tryAcquire(priority, maxWaitNanos(job, waitStart));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dequeue(upload);
+            job.fail(e);
+            return;
+        }
+        // only a job that goes on to scan keeps its upload, and only until the scan returns
+        byte[] imageBytes = dequeue(upload);
+        long admittedAt = System.nanoTime();
+        (priority ? userQueued : anonymousQueued).record(admittedAt - waitStart, TimeUnit.NANOSECONDS);
+        long delay = admittedAt - job.getTiming().queuedSince();
+        queueDelay.record(delay, TimeUnit.NANOSECONDS);
+        if (shedder != null) {
+            shedder.record(delay);
+        }
+        if (!admitted) {
+            if (job.getTiming().remainingNanos(admittedAt) < minBudgetNanos) {
+                shed(job, "deadline", "Scan deadline passed before analysis could start");
+            } else {
+                shed(job, "queue-delay", "Too many scans in progress, please retry shortly");
+            }
+            return;
+        }
+        try {
+            if (job.isAbandoned()) {
+                shed(job, "disconnected", "Scan abandoned by its caller");
+                return;
+            }
+            if (job.getTiming().remainingNanos(admittedAt) < minBudgetNanos) {
+                shed(job, "deadline", "Scan deadline passed before analysis could start");
+                return;
+            }
+            Observation observation = Observation.createNotStarted("scan.job", observationRegistry)
+                    .lowCardinalityKeyValue("streaming", String.valueOf(job.isStreaming()))
+                    .start();
+            try (Observation.Scope ignored = observation.openScope()) {
+                job.markRunning();
+                job.complete(scanService.scan(imageBytes, mimeType, job.getUserId(),
+                        job.isStreaming() ? job::publishIngredient : null));
+            } catch (Exception e) {
+                log.error("Scan job {} failed: {}", job.getId(), e.getMessage(), e);
+                observation.error(e);
+                job.fail(e);
+            } finally {
+                observation.stop();
+            }
+        } finally {
+            admission.release(priority);
+        }
+    }
+
+    /** Takes the upload out of the queue's byte count and out of the job's reach */
+    private byte[] dequeue(AtomicReference<byte[]> upload) {
+        byte[] imageBytes = upload.getAndSet(null);
+        queuedBytes.addAndGet(-imageBytes.length);
+        return imageBytes;
+    }
+
+    /**
+     * How long a job may wait for a slot: the shedder's limit less the time already spent queued
+     * upstream, and no later than leaves minBudget before the caller's deadline
+     */
+    private long maxWaitNanos(ScanJob job, long now) {
+        long wait = Long.MAX_VALUE;
+        if (shedder != null) {
+            wait = shedder.maxWaitNanos() - (now - job.getTiming().queuedSince());
+        }
+        if (job.getTiming().hasDeadline()) {
+            wait = Math.min(wait, job.getTiming().remainingNanos(now) - minBudgetNanos);
+        }
+        return wait;
+    }
+
+    private void shed(ScanJob job, String reason, String message) {
+        shed.get(reason).increment();
+        log.debug("Shed scan job {}: {}", job.getId(), reason);
+        job.fail(new ScanShedException(message, reason, retryAfterMillis));
+    }
+
+    private void evictFinished() {
+        jobs.values().removeIf(this::isExpired);
+        if (jobs.size() < capacity) {
+            return;
+        }
+        jobs.values().stream()
+                .filter(ScanJob::isFinished)
+                .sorted(Comparator.comparing(ScanJob::getCompletedAt))
+                .limit(Math.max(1, capacity / 10))
+                .map(ScanJob::getId)
+                .toList()
+                .forEach(jobs::remove);
+    }
+
+    private boolean isExpired(ScanJob job) {
+        return job.isFinished() && job.getCompletedAt().plus(retention).isBefore(Instant.now());
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of Gemini analysis results.
+ * Entries are keyed by the SHA-256 of the image bytes and the model/prompt variant,
+ * held in a bounded LRU map and optionally mirrored to a directory on disk. The disk tier is
+ * bounded too, by file count and bytes, dropping the oldest files first; expired files are purged
+ * periodically rather than only at startup. Writes, evictions and purges run on one background
+ * thread, so a request never waits on disk I/O to store a result, and the index lock is only held
+ * to update the index.
+ */
+@Component
+@Slf4j
+public class ScanResultCache {
+
+    private final ObjectMapper objectMapper;
+    private final Counter hits;
+    private final Counter diskHits;
+    private final Counter misses;
+
+    @Value("${scan.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${scan.cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${scan.cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    @Value("${scan.cache.disk-path:}")
+    private String diskPath;
+
+    @Value("${scan.cache.disk-max-entries:10000}")
+    private int diskMaxEntries;
+
+    @Value("${scan.cache.disk-max-bytes:268435456}")
+    private long diskMaxBytes;
+
+    @Value("${scan.cache.disk-purge-interval-minutes:10}")
+    private long diskPurgeIntervalMinutes;
+
+    private Map<String, CachedResult> entries;
+    private Path diskDirectory;
+    /** files on disk, oldest write first; only the disk thread changes the directory */
+    private final LinkedHashMap<String, DiskEntry> diskFiles = new LinkedHashMap<>();
+    private long diskBytes;
+    private final AtomicInteger pendingDiskWrites = new AtomicInteger();
+    private final Counter diskEvictions;
+    private ScheduledExecutorService disk;
+
+    public ScanResultCache(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.hits = meterRegistry.counter("scan.cache.requests", "result", "hit");
+        this.diskHits = meterRegistry.counter("scan.cache.requests", "result", "disk_hit");
+        this.misses = meterRegistry.counter("scan.cache.requests", "result", "miss");
+        this.diskEvictions = meterRegistry.counter("scan.cache.disk.evictions");
+        Gauge.builder("scan.cache.size", this, ScanResultCache::size).register(meterRegistry);
+        Gauge.builder("scan.cache.disk.size", this, ScanResultCache::diskSize).register(meterRegistry);
+        Gauge.builder("scan.cache.disk.bytes", this, ScanResultCache::diskBytes).baseUnit("bytes").register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        if (diskPath != null && !diskPath.isBlank()) {
+            try {
+                diskDirectory = Files.createDirectories(Paths.get(diskPath));
+                loadDiskIndex();
+                log.info("Scan result disk cache enabled at {} with {} files", diskDirectory, diskSize());
+            } catch (IOException e) {
+                log.warn("Disk cache disabled, cannot use {}: {}", diskPath, e.getMessage());
+                diskDirectory = null;
+            }
+        }
+        if (diskDirectory != null) {
+            disk = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                    .name("scan-cache-disk").daemon(true).factory());
+            if (diskPurgeIntervalMinutes > 0) {
+                disk.scheduleWithFixedDelay(this::purgeExpiredFromDisk,
+                        diskPurgeIntervalMinutes, diskPurgeIntervalMinutes, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    /** Lets queued writes land; the periodic purge is dropped */
+    @PreDestroy
+    void shutdown() {
+        if (disk == null) {
+            return;
+        }
+        disk.shutdown();
+        try {
+            if (!disk.awaitTermination(5, TimeUnit.SECONDS)) {
+                disk.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            disk.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Builds the cache key for an image
+     * @param imageBytes raw image bytes
+     * @param variant model and prompt identifier, so prompt changes never serve stale results
+     * @return hex-encoded SHA-256 key
+     */
+    public String keyFor(byte[] imageBytes, String variant) {
+        MessageDigest digest = sha256();
+        digest.update(variant.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(imageBytes);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Looks up a cached result
+     * @param key key from {@link #keyFor}
+     * @return a copy of the cached result with a fresh scanId, or null on a miss
+     */
+    public AnalysisResult get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        CachedResult cached;
+        synchronized (this) {
+            cached = entries.get(key);
+            if (cached != null && cached.isExpired(ttl())) {
+                entries.remove(key);
+                cached = null;
+            }
+        }
+        if (cached != null) {
+            hits.increment();
+            return copyOf(cached.result());
+        }
+
+        cached = readFromDisk(key);
+        if (cached != null) {
+            synchronized (this) {
+                entries.put(key, cached);
+            }
+            diskHits.increment();
+            return copyOf(cached.result());
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, AnalysisResult result) {
+        if (!enabled || result == null) {
+            return;
+        }
+        CachedResult cached = new CachedResult(Instant.now(), result);
+        synchronized (this) {
+            entries.put(key, cached);
+        }
+        if (disk == null) {
+            return;
+        }
+        // a backlog past the memory tier's size means the disk is not keeping up; skip rather than queue
+        if (pendingDiskWrites.incrementAndGet() > maxEntries) {
+            pendingDiskWrites.decrementAndGet();
+            return;
+        }
+        try {
+            disk.execute(() -> {
+                pendingDiskWrites.decrementAndGet();
+                writeToDisk(key, cached);
+            });
+        } catch (RejectedExecutionException e) {
+            pendingDiskWrites.decrementAndGet();
+            log.debug("Disk cache is shut down, not writing {}", key);
+        }
+    }
+
+    public synchronized int size() {
+        return entries == null ? 0 : entries.size();
+    }
+
+    int diskSize() {
+        synchronized (diskFiles) {
+            return diskFiles.size();
+        }
+    }
+
+    long diskBytes() {
+        synchronized (diskFiles) {
+            return diskBytes;
+        }
+    }
+
+    /** Waits until the disk thread has run everything queued so far */
+    void awaitDisk() throws Exception {
+        if (disk != null) {
+            disk.submit(() -> { }).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private Duration ttl() {
+        return Duration.ofMinutes(ttlMinutes);
+    }
+
+    private AnalysisResult copyOf(AnalysisResult result) {
+        AnalysisResult copy = objectMapper.convertValue(result, AnalysisResult.class);
+        copy.setScanId(UUID.randomUUID().toString());
+        return copy;
+    }
+
+    private CachedResult readFromDisk(String key) {
+        if (diskDirectory == null) {
+            return null;
+        }
+        Path file = diskDirectory.resolve(key + ".json");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            CachedResult cached = objectMapper.readValue(file.toFile(), CachedResult.class);
+            if (cached.isExpired(ttl())) {
+                try {
+                    disk.execute(() -> deleteIfExpired(key));
+                } catch (RejectedExecutionException e) {
+                    log.debug("Disk cache is shut down, not deleting {}", key);
+                }
+                return null;
+            }
+            return cached;
+        } catch (IOException e) {
+            log.warn("Failed to read cached scan {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Runs on the disk thread */
+    private void writeToDisk(String key, CachedResult cached) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(diskDirectory, key, ".tmp");
+            objectMapper.writeValue(tmp.toFile(), cached);
+            long bytes = Files.size(tmp);
+            Files.move(tmp, diskDirectory.resolve(key + ".json"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            List<String> evicted;
+            synchronized (diskFiles) {
+                DiskEntry replaced = diskFiles.remove(key);
+                if (replaced != null) {
+                    diskBytes -= replaced.bytes();
+                }
+                diskFiles.put(key, new DiskEntry(cached.storedAt(), bytes));
+                diskBytes += bytes;
+                evicted = evictOverBound();
+            }
+            evicted.forEach(this::deleteFile);
+        } catch (IOException e) {
+            log.warn("Failed to write cached scan {}: {}", key, e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // the next startup clears leftover temp files
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the files a previous run left behind, oldest first, dropping leftover temp files,
+     * expired entries and whatever exceeds the current bounds
+     */
+    private void loadDiskIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(diskDirectory)) {
+            listing.forEach(files::add);
+        }
+        Instant cutoff = Instant.now().minus(ttl());
+        List<Map.Entry<Path, DiskEntry>> kept = new ArrayList<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                Instant modified = Files.getLastModifiedTime(file).toInstant();
+                if (!name.endsWith(".json") || modified.isBefore(cutoff)) {
+                    Files.deleteIfExists(file);
+                } else {
+                    kept.add(Map.entry(file, new DiskEntry(modified, Files.size(file))));
+                }
+            } catch (IOException e) {
+                log.debug("Could not index cache file {}", file);
+            }
+        }
+        kept.sort(Comparator.comparing(entry -> entry.getValue().storedAt()));
+        List<String> evicted;
+        synchronized (diskFiles) {
+            for (Map.Entry<Path, DiskEntry> entry : kept) {
+                String name = entry.getKey().getFileName().toString();
+                diskFiles.put(name.substring(0, name.length() - ".json".length()), entry.getValue());
+                diskBytes += entry.getValue().bytes();
+            }
+            evicted = evictOverBound();
+        }
+        evicted.forEach(this::deleteFile);
+    }
+
+    /**
+     * Deletes files past the TTL; the index is in write order, so they are all at its head.
+     * Runs on the disk thread.
+     */
+    void purgeExpiredFromDisk() {
+        Instant cutoff = Instant.now().minus(ttl());
+        List<String> purged = new ArrayList<>();
+        synchronized (diskFiles) {
+            Iterator<Map.Entry<String, DiskEntry>> eldest = diskFiles.entrySet().iterator();
+            while (eldest.hasNext()) {
+                Map.Entry<String, DiskEntry> entry = eldest.next();
+                if (!entry.getValue().storedAt().isBefore(cutoff)) {
+                    break;
+                }
+                eldest.remove();
+                diskBytes -= entry.getValue().bytes();
+                purged.add(entry.getKey());
+            }
+        }
+        purged.forEach(this::deleteFile);
+        if (!purged.isEmpty()) {
+            log.debug("Purged {} expired scan results from disk", purged.size());
+        }
+    }
+
+    /**
+     * Drops the oldest entries from the index until it is within both bounds; callers hold
+     * diskFiles and delete the returned files once they have released it
+     */
+    private List<String> evictOverBound() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, DiskEntry>> eldest = diskFiles.entrySet().iterator();
+        while ((diskFiles.size() > diskMaxEntries || diskBytes > diskMaxBytes) && eldest.hasNext()) {
+            Map.Entry<String, DiskEntry> entry = eldest.next();
+            eldest.remove();
+            diskBytes -= entry.getValue().bytes();
+            evicted.add(entry.getKey());
+            diskEvictions.increment();
+        }
+        return evicted;
+    }
+
+    /** Runs on the disk thread, so a rewrite queued since the expired read is not deleted with it */
+    private void deleteIfExpired(String key) {
+        synchronized (diskFiles) {
+            DiskEntry entry = diskFiles.get(key);
+            if (entry == null || !entry.storedAt().plus(ttl()).isBefore(Instant.now())) {
+                return;
+            }
+            diskFiles.remove(key);
+            diskBytes -= entry.bytes();
+        }
+        deleteFile(key);
+    }
+
+    private void deleteFile(String key) {
+        try {
+            Files.deleteIfExists(diskDirectory.resolve(key + ".json"));
+        } catch (IOException e) {
+            log.debug("Could not delete cache file for {}: {}", key, e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record DiskEntry(Instant storedAt, long bytes) {
+    }
+
+    record CachedResult(Instant storedAt, AnalysisResult result) {
+        boolean isExpired(Duration ttl) {
+            return storedAt.plus(ttl).isBefore(Instant.now());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.util.Futures;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ScanService {
+
+    private final GeminiService geminiService;
+    private final DataStore dataStore;
+    private final IngredientCountBuffer ingredientCountBuffer;
+    private final TrendingIngredients trendingIngredients;
+    private final IngredientDictionary ingredientDictionary;
+
+    /**
+     * Analyzes a label image and records it for the user
+     * @param imageBytes uploaded image
+     * @param mimeType content type of the upload
+     * @param userId authenticated user, or null for anonymous scans
+     * @return analysis result
+     */
+    public AnalysisResult scan(byte[] imageBytes, String mimeType, String userId) throws Exception {
+        return scan(imageBytes, mimeType, userId, null);
+    }
+
+    /**
+     * Same as {@link #scan(byte[], String, String)}, streaming ingredients to onIngredient as they are extracted
+     */
+    public AnalysisResult scan(byte[] imageBytes, String mimeType, String userId,
+                               Consumer<IngredientInfo> onIngredient) throws Exception {
+        AnalysisResult result = geminiService.analyzeImage(imageBytes, mimeType, onIngredient);
+        recordTrending(List.of(result));
+        recordForUser(userId, result);
+        return result;
+    }
+
+    /**
+     * Analyzes several label images and records every successful scan for the user in one write
+     * @param uploads images in upload order
+     * @param userId authenticated user, or null for anonymous scans
+     * @return one future per upload, in upload order, each completed once the batch has been recorded;
+     * cancelling one cancels that upload's analysis
+     */
+    public List<CompletableFuture<AnalysisResult>> scanBatch(List<ScanUpload> uploads, String userId) {
+        List<CompletableFuture<AnalysisResult>> results = geminiService.analyzeBatchAsync(uploads);
+        CompletableFuture<Void> recorded = CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .handle((ignored, error) -> {
+                    List<AnalysisResult> completed = results.stream()
+                            .filter(result -> !result.isCompletedExceptionally())
+                            .map(CompletableFuture::join)
+                            .toList();
+                    recordTrending(completed);
+                    recordBatchForUser(userId, completed);
+                    return null;
+                });
+        return results.stream()
+                .map(result -> Futures.cancelling(recorded.thenCompose(ignored -> result), result))
+                .toList();
+    }
+
+    private void recordBatchForUser(String userId, List<AnalysisResult> results) {
+        if (userId == null || results.isEmpty()) {
+            return;
+        }
+        try {
+            dataStore.recordScans(userId, results);
+            ingredientCountBuffer.add(userId, ingredientDictionary.ingredientDeltas(results));
+        } catch (Exception e) {
+            log.warn("Failed to record scans: {}", e.getMessage());
+        }
+    }
+
+    /** Every completed scan counts towards trending, signed in or not */
+    private void recordTrending(List<AnalysisResult> results) {
+        for (AnalysisResult result : results) {
+            if (result.getIngredients() != null) {
+                trendingIngredients.record(ingredientDictionary.canonicalIds(result.getIngredients()));
+            }
+        }
+    }
+
+    private void recordForUser(String userId, AnalysisResult result) {
+        recordBatchForUser(userId, List.of(result));
+    }
+}
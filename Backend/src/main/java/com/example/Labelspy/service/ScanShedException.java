@@ -0,0 +1,23 @@
+package com.example.Labelspy.service;
+
+import lombok.Getter;
+
+/**
+ * Scan dropped before its Gemini call was started: it waited too long while the queue was
+ * overloaded, its caller's deadline left too little time, or its caller went away.
+ */
+@Getter
+public class ScanShedException extends RuntimeException {
+
+    private final String reason;
+    private final long retryAfterMillis;
+
+    /**
+     * @param reason metric tag: queue-delay, deadline or disconnected
+     */
+    public ScanShedException(String message, String reason, long retryAfterMillis) {
+        super(message);
+        this.reason = reason;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.Labelspy.service;
+
+/**
+ * When a scan request started waiting and how long its caller will wait for it, on the
+ * {@link System#nanoTime()} clock. queuedSince may precede the request reaching this server when
+ * a proxy reports when it received it.
+ * @param queuedSince when the request started queueing
+ * @param budgetNanos how long after queuedSince the caller gives up, or {@link #NO_DEADLINE}
+ */
+public record ScanTiming(long queuedSince, long budgetNanos) {
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /** Timing for a request queued now without a deadline */
+    public static ScanTiming now() {
+        return new ScanTiming(System.nanoTime(), NO_DEADLINE);
+    }
+
+    public boolean hasDeadline() {
+        return budgetNanos != NO_DEADLINE;
+    }
+
+    /**
+     * @return nanoseconds left until the caller gives up, possibly negative, or Long.MAX_VALUE without a deadline
+     */
+    public long remainingNanos(long now) {
+        return hasDeadline() ? budgetNanos - (now - queuedSince) : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.Labelspy.service;
+
+/**
+ * One uploaded image, already read from the request.
+ */
+public record ScanUpload(byte[] bytes, String mimeType) {
+}
@@ -0,0 +1,10 @@
+package com.example.Labelspy.service;
+
+/**
+ * A {@link RateLimitStore} whose buckets every node sees, so a limit holds across the cluster
+ * rather than per node. Scan limits use it when a bean is present; other limits stay in memory.
+ * Implementations must update a bucket atomically across nodes, e.g. with a transaction or a
+ * server-side script, and should be fast enough to sit in front of every scan.
+ */
+public interface SharedRateLimitStore extends RateLimitStore {
+}
@@ -0,0 +1,327 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.TopIngredientDto;
+import com.example.Labelspy.util.CountMinSketch;
+import com.example.Labelspy.util.SpaceSaving;
+import com.example.Labelspy.util.TopK;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingredient frequencies across all scans, in hourly and daily (UTC) buckets. Each bucket holds a
+ * Count-Min sketch for the counts and a Space-Saving summary for the candidates, so its size is
+ * fixed whatever the number of distinct ingredients, and only the retained hours and days are
+ * kept. Every node snapshots its own buckets to the data store on an interval and reads back
+ * those of the other nodes, which are merged with its live buckets when a ranking is asked for;
+ * rankings therefore lag other nodes by at most one snapshot interval. A snapshot outlives the node that
+ * wrote it, so a restart loses at most the scans since its last snapshot.
+ */
+@Service
+@Slf4j
+public class TrendingIngredients {
+
+    public enum Granularity {
+        HOUR, DAY
+    }
+
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH");
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+
+    private final DataStore dataStore;
+    private final IngredientDictionary ingredientDictionary;
+    private final boolean enabled;
+    private final int sketchWidth;
+    private final int sketchDepth;
+    private final int heavyHitters;
+    private final int retainedHours;
+    private final int retainedDays;
+    private final long snapshotIntervalMs;
+    private final String nodeId;
+    private final Counter snapshotFailures;
+
+    private final Map<String, Summary> local = new ConcurrentHashMap<>();
+    /** merged summaries of the other nodes, replaced by every refresh */
+    private volatile Map<String, Summary> remote = Map.of();
+    private ScheduledExecutorService scheduler;
+
+    public TrendingIngredients(DataStore dataStore,
+                               IngredientDictionary ingredientDictionary,
+                               MeterRegistry meterRegistry,
+                               @Value("${trending.enabled:true}") boolean enabled,
+                               @Value("${trending.sketch.width:2048}") int sketchWidth,
+                               @Value("${trending.sketch.depth:4}") int sketchDepth,
+                               @Value("${trending.heavy-hitters:200}") int heavyHitters,
+                               @Value("${trending.retained-hours:48}") int retainedHours,
+                               @Value("${trending.retained-days:30}") int retainedDays,
+                               @Value("${trending.snapshot-interval-ms:60000}") long snapshotIntervalMs,
+                               @Value("${trending.node-id:}") String nodeId) {
+        this.dataStore = dataStore;
+        this.ingredientDictionary = ingredientDictionary;
+        this.enabled = enabled;
+        this.sketchWidth = sketchWidth;
+        this.sketchDepth = sketchDepth;
+        this.heavyHitters = heavyHitters;
+        this.retainedHours = retainedHours;
+        this.retainedDays = retainedDays;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+        // a fresh ID per process, so a restarted node never counts its predecessor's snapshot twice
+        this.nodeId = nodeId == null || nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.snapshotFailures = meterRegistry.counter("trending.snapshot.failures");
+        Gauge.builder("trending.buckets", local, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        if (!enabled || snapshotIntervalMs <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("trending-snapshot").daemon(true).factory());
+        scheduler.execute(this::refreshQuietly);
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMs, snapshotIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            snapshot();
+        } catch (Exception e) {
+            log.warn("Final trending snapshot failed: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getRetainedHours() {
+        return retainedHours;
+    }
+
+    public int getRetainedDays() {
+        return retainedDays;
+    }
+
+    public int getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    /**
+     * Counts the ingredients of one completed scan
+     * @param ingredientIds distinct ingredient IDs of the scan
+     */
+    public void record(List<String> ingredientIds) {
+        if (!enabled || ingredientIds.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        for (String bucket : List.of(hourKey(now), dayKey(now))) {
+            Summary summary = local.computeIfAbsent(bucket, key -> new Summary(sketchWidth, sketchDepth, heavyHitters));
+            synchronized (summary) {
+                ingredientIds.forEach(id -> {
+                    summary.sketch.add(id, 1);
+                    summary.heavy.offer(id, 1);
+                });
+                summary.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Ranks ingredients over the most recent buckets, including the current one, across all nodes
+     * @param granularity bucket size
+     * @param span number of buckets, at most the retained hours or days
+     * @param limit number of ingredients
+     * @return ingredients, most frequent first, with estimated counts
+     */
+    public List<TopIngredientDto> top(Granularity granularity, int span, int limit) {
+        int retained = granularity == Granularity.HOUR ? retainedHours : retainedDays;
+        if (span < 1 || span > retained) {
+            throw new IllegalArgumentException((granularity == Granularity.HOUR ? "hours" : "days")
+                    + " must be between 1 and " + retained);
+        }
+        Summary merged = new Summary(sketchWidth, sketchDepth, heavyHitters);
+        Map<String, Summary> others = remote;
+        for (String bucket : bucketKeys(granularity, span, LocalDateTime.now(ZoneOffset.UTC))) {
+            Summary mine = local.get(bucket);
+            if (mine != null) {
+                synchronized (mine) {
+                    merged.merge(mine);
+                }
+            }
+            Summary theirs = others.get(bucket);
+            if (theirs != null) {
+                merged.merge(theirs);
+            }
+        }
+
+        // the sketch never undercounts, and merge pads keys missing from a full summary with its
+        // smallest count, so both are upper bounds on the true count and the smaller is the tighter one
+        Map<String, Integer> estimates = new HashMap<>();
+        for (SpaceSaving.Entry entry : merged.heavy.entries()) {
+            estimates.put(entry.key(), (int) Math.min(entry.count(), merged.sketch.estimate(entry.key())));
+        }
+        return TopK.of(estimates, limit).stream()
+                .map(entry -> TopIngredientDto.builder()
+                        .ingredientId(entry.getKey())
+                        .ingredientName(ingredientDictionary.displayName(entry.getKey()))
+                        .count(entry.getValue())
+                        .build())
+                .toList();
+    }
+
+    /**
+     * Writes this node's changed buckets to the data store, drops buckets past retention and reloads the
+     * other nodes' summaries
+     */
+    public void snapshot() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        Set<String> retained = new HashSet<>(bucketKeys(Granularity.HOUR, retainedHours, now));
+        retained.addAll(bucketKeys(Granularity.DAY, retainedDays, now));
+        local.keySet().removeIf(bucket -> !retained.contains(bucket));
+
+        for (Map.Entry<String, Summary> entry : local.entrySet()) {
+            Summary summary = entry.getValue();
+            TrendingSnapshot snapshot;
+            synchronized (summary) {
+                if (!summary.dirty) {
+                    continue;
+                }
+                snapshot = toSnapshot(entry.getKey(), summary);
+                summary.dirty = false;
+            }
+            try {
+                dataStore.saveTrendingSnapshot(snapshot);
+            } catch (RuntimeException e) {
+                synchronized (summary) {
+                    summary.dirty = true;
+                }
+                throw e;
+            }
+        }
+        refresh(now);
+    }
+
+    /**
+     * Replaces the other nodes' summaries with what they last stored
+     */
+    void refresh(LocalDateTime now) {
+        Map<String, Summary> merged = new HashMap<>();
+        for (Granularity granularity : Granularity.values()) {
+            List<String> buckets = bucketKeys(granularity, granularity == Granularity.HOUR ? retainedHours : retainedDays, now);
+            for (TrendingSnapshot snapshot : dataStore.getTrendingSnapshots(
+                    buckets.get(buckets.size() - 1), buckets.get(0))) {
+                if (nodeId.equals(snapshot.node())) {
+                    continue;
+                }
+                try {
+                    Summary summary = fromSnapshot(snapshot);
+                    merged.computeIfAbsent(snapshot.bucket(),
+                            key -> new Summary(sketchWidth, sketchDepth, heavyHitters)).merge(summary);
+                } catch (RuntimeException e) {
+                    log.warn("Skipping unreadable trending snapshot {}@{}: {}",
+                            snapshot.bucket(), snapshot.node(), e.getMessage());
+                }
+            }
+        }
+        remote = merged;
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            snapshotFailures.increment();
+            log.warn("Trending snapshot failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh(LocalDateTime.now(ZoneOffset.UTC));
+        } catch (Exception e) {
+            log.warn("Could not load trending snapshots of other nodes: {}", e.getMessage());
+        }
+    }
+
+    private TrendingSnapshot toSnapshot(String bucket, Summary summary) {
+        return new TrendingSnapshot(bucket, nodeId, summary.sketch.width(), summary.sketch.depth(),
+                summary.sketch.total(), summary.sketch.toBytes(), summary.heavy.entries(), expiryOf(bucket));
+    }
+
+    private Summary fromSnapshot(TrendingSnapshot snapshot) {
+        Summary summary = new Summary(CountMinSketch.fromBytes(snapshot.width(), snapshot.depth(), snapshot.total(),
+                snapshot.sketch()), new SpaceSaving(heavyHitters));
+        snapshot.heavy().forEach(entry -> summary.heavy.restore(entry.key(), entry.count(), entry.error()));
+        return summary;
+    }
+
+    private Instant expiryOf(String bucket) {
+        if (bucket.startsWith("hour:")) {
+            return LocalDateTime.parse(bucket.substring(5) + ":00").plusHours(retainedHours + 1).toInstant(ZoneOffset.UTC);
+        }
+        return LocalDateTime.parse(bucket.substring(4) + "T00:00").plusDays(retainedDays + 1).toInstant(ZoneOffset.UTC);
+    }
+
+    /** Keys of the span most recent buckets, newest first; keys sort chronologically within a granularity */
+    private static List<String> bucketKeys(Granularity granularity, int span, LocalDateTime now) {
+        List<String> keys = new ArrayList<>(span);
+        for (int i = 0; i < span; i++) {
+            keys.add(granularity == Granularity.HOUR
+                    ? hourKey(now.minus(Duration.ofHours(i)))
+                    : dayKey(now.minus(i, ChronoUnit.DAYS)));
+        }
+        return keys;
+    }
+
+    private static String hourKey(LocalDateTime time) {
+        return "hour:" + HOUR_FORMAT.format(time);
+    }
+
+    private static String dayKey(LocalDateTime time) {
+        return "day:" + DAY_FORMAT.format(time);
+    }
+
+    private static final class Summary {
+        final CountMinSketch sketch;
+        final SpaceSaving heavy;
+        boolean dirty;
+
+        Summary(int width, int depth, int heavyHitters) {
+            this(new CountMinSketch(width, depth), new SpaceSaving(heavyHitters));
+        }
+
+        Summary(CountMinSketch sketch, SpaceSaving heavy) {
+            this.sketch = sketch;
+            this.heavy = heavy;
+        }
+
+        void merge(Summary other) {
+            sketch.merge(other.sketch);
+            heavy.merge(other.heavy);
+        }
+    }
+}
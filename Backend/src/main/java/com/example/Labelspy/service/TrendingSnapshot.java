@@ -0,0 +1,17 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.util.SpaceSaving;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One node's trending summary for one time bucket, as stored by {@link DataStore}.
+ * @param bucket bucket key, such as hour:2026-10-17T13
+ * @param sketch Count-Min counters as written by {@link com.example.Labelspy.util.CountMinSketch#toBytes()}
+ * @param heavy Space-Saving entries, largest count first
+ * @param expireAt when the snapshot may be deleted
+ */
+public record TrendingSnapshot(String bucket, String node, int width, int depth, long total, byte[] sketch,
+                               List<SpaceSaving.Entry> heavy, Instant expireAt) {
+}
@@ -0,0 +1,132 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.UserDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Read-through LRU cache of user profiles in front of Firestore. FirestoreService applies each of
+ * its own writes to the cached copy, so this node reads its writes; entries expire after ttl so
+ * writes made by other instances show up within that bound. A load that overlaps a write is
+ * returned but not stored, so a read that raced an update can never pin the older document.
+ */
+@Component
+public class UserProfileCache {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer loads;
+    private final Map<String, CachedUser> entries;
+    /** bumped by every write, so loads that started before it do not store what they read */
+    private long writeSequence;
+
+    public UserProfileCache(MeterRegistry meterRegistry,
+                            @Value("${user.cache.enabled:true}") boolean enabled,
+                            @Value("${user.cache.max-entries:10000}") int maxEntries,
+                            @Value("${user.cache.ttl-seconds:30}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.hits = meterRegistry.counter("user.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("user.cache.requests", "result", "miss");
+        this.loads = Timer.builder("user.cache.load").register(meterRegistry);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                return size() > UserProfileCache.this.maxEntries;
+            }
+        };
+        Gauge.builder("user.cache.size", this, UserProfileCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached profile, or loads and caches it
+     * @param userId user to read
+     * @param loader reads the profile from Firestore, returning null when the user does not exist
+     * @return a copy of the profile, or null when the user does not exist
+     */
+    public UserDto get(String userId, Supplier<UserDto> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        long sequence;
+        synchronized (this) {
+            CachedUser cached = entries.get(userId);
+            if (cached != null && !cached.isExpired(ttl)) {
+                hits.increment();
+                return copyOf(cached.user());
+            }
+            sequence = writeSequence;
+        }
+        misses.increment();
+        UserDto loaded = loads.record(loader);
+        if (loaded != null) {
+            synchronized (this) {
+                if (sequence == writeSequence) {
+                    entries.put(userId, new CachedUser(copyOf(loaded), System.nanoTime()));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Applies a committed write to the cached profile, if there is one
+     * @param userId user that was written
+     * @param change mutation matching the write
+     * @return a copy of the updated profile, or null when it was not cached
+     */
+    public synchronized UserDto update(String userId, Consumer<UserDto> change) {
+        writeSequence++;
+        CachedUser cached = entries.get(userId);
+        if (cached == null || cached.isExpired(ttl)) {
+            entries.remove(userId);
+            return null;
+        }
+        change.accept(cached.user());
+        return copyOf(cached.user());
+    }
+
+    /**
+     * Drops a user's cached profile
+     * @param userId user that was written or deleted
+     */
+    public synchronized void invalidate(String userId) {
+        writeSequence++;
+        entries.remove(userId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static UserDto copyOf(UserDto user) {
+        return UserDto.builder()
+                .uid(user.getUid())
+                .email(user.getEmail())
+                .displayName(user.getDisplayName())
+                .ingredientCounts(user.getIngredientCounts() != null ? new HashMap<>(user.getIngredientCounts()) : null)
+                .scanCount(user.getScanCount())
+                .build();
+    }
+
+    private record CachedUser(UserDto user, long loadedAtNanos) {
+        boolean isExpired(Duration ttl) {
+            return System.nanoTime() - loadedAtNanos > ttl.toNanos();
+        }
+    }
+}
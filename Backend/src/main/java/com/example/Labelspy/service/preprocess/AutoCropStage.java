@@ -0,0 +1,94 @@
+package com.example.Labelspy.service.preprocess;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Trims uniform borders (table, background, scanner margins) around the label. A row or column is
+ * border when every pixel is within tolerance of the top-left corner colour.
+ */
+@Component
+@Order(20)
+public class AutoCropStage implements ImageStage {
+
+    private final boolean enabled;
+    private final int tolerance;
+
+    public AutoCropStage(@Value("${scan.preprocess.autocrop:true}") boolean enabled,
+                         @Value("${scan.preprocess.autocrop-tolerance:24}") int tolerance) {
+        this.enabled = enabled;
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public String name() {
+        return "autocrop";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        int background = pixels[0];
+
+        int top = 0;
+        while (top < height - 1 && isUniformRow(pixels, width, top, background)) {
+            top++;
+        }
+        int bottom = height - 1;
+        while (bottom > top && isUniformRow(pixels, width, bottom, background)) {
+            bottom--;
+        }
+        int left = 0;
+        while (left < width - 1 && isUniformColumn(pixels, width, left, top, bottom, background)) {
+            left++;
+        }
+        int right = width - 1;
+        while (right > left && isUniformColumn(pixels, width, right, top, bottom, background)) {
+            right--;
+        }
+
+        int croppedWidth = right - left + 1;
+        int croppedHeight = bottom - top + 1;
+        // nothing meaningful left, or nothing to trim
+        if (croppedWidth < width / 4 || croppedHeight < height / 4
+                || (croppedWidth == width && croppedHeight == height)) {
+            return image;
+        }
+        return image.getSubimage(left, top, croppedWidth, croppedHeight);
+    }
+
+    private boolean isUniformRow(int[] pixels, int width, int y, int background) {
+        int offset = y * width;
+        for (int x = 0; x < width; x++) {
+            if (!isClose(pixels[offset + x], background)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isUniformColumn(int[] pixels, int width, int x, int top, int bottom, int background) {
+        for (int y = top; y <= bottom; y++) {
+            if (!isClose(pixels[y * width + x], background)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isClose(int rgb, int background) {
+        return Math.abs(((rgb >> 16) & 0xff) - ((background >> 16) & 0xff)) <= tolerance
+                && Math.abs(((rgb >> 8) & 0xff) - ((background >> 8) & 0xff)) <= tolerance
+                && Math.abs((rgb & 0xff) - (background & 0xff)) <= tolerance;
+    }
+}
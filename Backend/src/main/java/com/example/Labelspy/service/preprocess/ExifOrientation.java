@@ -0,0 +1,65 @@
+package com.example.Labelspy.service.preprocess;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the EXIF Orientation tag (0x0112) from a JPEG's APP1 segment. Phone cameras store
+ * sideways pixels plus this tag, so it has to be applied before metadata is stripped.
+ */
+final class ExifOrientation {
+
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * @return orientation value 1-8, or 1 when absent or unreadable
+     */
+    static int read(byte[] jpeg) {
+        try {
+            if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xFF || (jpeg[1] & 0xff) != 0xD8) {
+                return 1;
+            }
+            int offset = 2;
+            while (offset + 4 <= jpeg.length) {
+                if ((jpeg[offset] & 0xff) != 0xFF) {
+                    return 1;
+                }
+                int marker = jpeg[offset + 1] & 0xff;
+                int length = ((jpeg[offset + 2] & 0xff) << 8) | (jpeg[offset + 3] & 0xff);
+                if (marker == 0xDA) {
+                    return 1;
+                }
+                if (marker == 0xE1 && isExifHeader(jpeg, offset + 4)) {
+                    return readFromTiff(jpeg, offset + 10);
+                }
+                offset += 2 + length;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return 1;
+        }
+        return 1;
+    }
+
+    private static boolean isExifHeader(byte[] data, int offset) {
+        return data[offset] == 'E' && data[offset + 1] == 'x' && data[offset + 2] == 'i'
+                && data[offset + 3] == 'f' && data[offset + 4] == 0 && data[offset + 5] == 0;
+    }
+
+    private static int readFromTiff(byte[] data, int tiffStart) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.order(data[tiffStart] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int ifdOffset = tiffStart + buffer.getInt(tiffStart + 4);
+        int entries = buffer.getShort(ifdOffset) & 0xffff;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifdOffset + 2 + i * 12;
+            if ((buffer.getShort(entry) & 0xffff) == ORIENTATION_TAG) {
+                int value = buffer.getShort(entry + 8) & 0xffff;
+                return value >= 1 && value <= 8 ? value : 1;
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.Labelspy.service.preprocess;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Tells whether an upload carries metadata that must not be passed on: EXIF, XMP, IPTC and
+ * comment segments in a JPEG, text, EXIF and time chunks in a PNG. Any other format, or a file
+ * that cannot be walked, is assumed to carry some.
+ */
+final class ImageMetadata {
+
+    private static final Set<String> PNG_METADATA = Set.of("tEXt", "zTXt", "iTXt", "eXIf", "tIME");
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private ImageMetadata() {
+    }
+
+    static boolean present(byte[] image) {
+        try {
+            if (image.length >= 2 && (image[0] & 0xff) == 0xFF && (image[1] & 0xff) == 0xD8) {
+                return inJpeg(image);
+            }
+            if (image.length >= PNG_SIGNATURE.length && startsWith(image, PNG_SIGNATURE)) {
+                return inPng(image);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return true;
+        }
+        return true;
+    }
+
+    private static boolean inJpeg(byte[] jpeg) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length) {
+            if ((jpeg[offset] & 0xff) != 0xFF) {
+                return true;
+            }
+            int marker = jpeg[offset + 1] & 0xff;
+            if (marker == 0xDA) {
+                return false;
+            }
+            // APP0 is the JFIF header and APP14 Adobe's colour transform; the other APPn and COM carry metadata
+            if (marker == 0xFE || marker >= 0xE1 && marker <= 0xEF && marker != 0xEE) {
+                return true;
+            }
+            int length = ((jpeg[offset + 2] & 0xff) << 8) | (jpeg[offset + 3] & 0xff);
+            offset += 2 + length;
+        }
+        return true;
+    }
+
+    private static boolean inPng(byte[] png) {
+        int offset = PNG_SIGNATURE.length;
+        while (offset + 8 <= png.length) {
+            int length = ((png[offset] & 0xff) << 24) | ((png[offset + 1] & 0xff) << 16)
+                    | ((png[offset + 2] & 0xff) << 8) | (png[offset + 3] & 0xff);
+            String type = new String(png, offset + 4, 4, StandardCharsets.US_ASCII);
+            if (PNG_METADATA.contains(type)) {
+                return true;
+            }
+            if (type.equals("IEND")) {
+                return false;
+            }
+            if (length < 0) {
+                return true;
+            }
+            offset += 12 + length;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.Labelspy.service.preprocess;
+
+import com.example.Labelspy.util.BoundedImageReader;
+import com.example.Labelspy.util.ImageTooLargeException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Shrinks uploads before they are sent to Gemini: decode (honouring EXIF orientation), run the
+ * configured {@link ImageStage}s, and re-encode as JPEG. Re-encoding from pixels drops all
+ * EXIF/XMP metadata. If the result would not be smaller the original bytes are kept, but only when
+ * they carry no metadata. Uploads declaring more than maxPixels are refused before decoding.
+ */
+@Component
+@Slf4j
+public class ImagePreprocessor {
+
+    private static final String JPEG = "image/jpeg";
+
+    private final List<ImageStage> stages;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final float jpegQuality;
+    private final long maxPixels;
+    private final DistributionSummary inputBytes;
+    private final DistributionSummary outputBytes;
+
+    public ImagePreprocessor(List<ImageStage> stages,
+                             MeterRegistry meterRegistry,
+                             @Value("${scan.preprocess.enabled:true}") boolean enabled,
+                             @Value("${scan.preprocess.jpeg-quality:0.85}") float jpegQuality,
+                             @Value("${scan.preprocess.max-pixels:50000000}") long maxPixels) {
+        this.stages = stages;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.jpegQuality = jpegQuality;
+        this.maxPixels = maxPixels;
+        this.inputBytes = DistributionSummary.builder("scan.preprocess.bytes")
+                .tag("side", "input").baseUnit("bytes").register(meterRegistry);
+        this.outputBytes = DistributionSummary.builder("scan.preprocess.bytes")
+                .tag("side", "output").baseUnit("bytes").register(meterRegistry);
+    }
+
+    /**
+     * @throws ImageTooLargeException when the upload declares more than maxPixels
+     */
+    public PreprocessedImage process(byte[] original, String mimeType) {
+        if (!enabled) {
+            return new PreprocessedImage(original, mimeType, null);
+        }
+        inputBytes.record(original.length);
+        try {
+            BufferedImage image = timed("decode", () -> decode(original));
+            if (image == null) {
+                log.warn("Unsupported image format ({}), sending original", mimeType);
+                outputBytes.record(original.length);
+                return new PreprocessedImage(original, mimeType, null);
+            }
+
+            for (ImageStage stage : stages) {
+                if (stage.isEnabled()) {
+                    BufferedImage input = image;
+                    image = timed(stage.name(), () -> stage.apply(input));
+                }
+            }
+
+            BufferedImage finalImage = image;
+            byte[] encoded = timed("encode", () -> encodeJpeg(finalImage));
+            if (encoded.length >= original.length && !ImageMetadata.present(original)) {
+                outputBytes.record(original.length);
+                return new PreprocessedImage(original, mimeType, image);
+            }
+            log.debug("Preprocessed upload {} -> {} bytes", original.length, encoded.length);
+            outputBytes.record(encoded.length);
+            return new PreprocessedImage(encoded, JPEG, image);
+        } catch (ImageTooLargeException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Image preprocessing failed, sending original: {}", e.getMessage());
+            outputBytes.record(original.length);
+            return new PreprocessedImage(original, mimeType, null);
+        }
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    private BufferedImage decode(byte[] bytes) throws IOException {
+        BufferedImage image = BoundedImageReader.read(bytes, maxPixels);
+        if (image == null) {
+            return null;
+        }
+        return orient(toRgb(image), ExifOrientation.read(bytes));
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * JPEG cannot carry alpha, so transparent PNGs are flattened onto white.
+     */
+    private BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_BYTE_GRAY
+                || image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    private BufferedImage orient(BufferedImage image, int orientation) {
+        int quarterTurns = switch (orientation) {
+            case 3 -> 2;
+            case 6 -> 1;
+            case 8 -> 3;
+            default -> 0;
+        };
+        if (quarterTurns == 0) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean swap = quarterTurns % 2 == 1;
+        BufferedImage rotated = new BufferedImage(swap ? height : width, swap ? width : height, BufferedImage.TYPE_INT_RGB);
+        AffineTransform transform = new AffineTransform();
+        transform.translate(rotated.getWidth() / 2.0, rotated.getHeight() / 2.0);
+        transform.quadrantRotate(quarterTurns);
+        transform.translate(-width / 2.0, -height / 2.0);
+        Graphics2D g = rotated.createGraphics();
+        g.drawImage(image, transform, null);
+        g.dispose();
+        return rotated;
+    }
+
+    private <T> T timed(String stage, ImageTask<T> task) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return task.run();
+        } finally {
+            sample.stop(meterRegistry.timer("scan.preprocess.stage", "stage", stage));
+        }
+    }
+
+    @FunctionalInterface
+    private interface ImageTask<T> {
+        T run() throws IOException;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.Labelspy.service.preprocess;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * One step of the upload pre-processing pipeline. Stages are Spring beans and run in
+ * {@link org.springframework.core.annotation.Order} order; a disabled stage is skipped.
+ */
+public interface ImageStage {
+
+    String name();
+
+    boolean isEnabled();
+
+    BufferedImage apply(BufferedImage image);
+}
@@ -0,0 +1,10 @@
+package com.example.Labelspy.service.preprocess;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Payload to send to Gemini. image is the decoded pixels after all stages, or null when the
+ * original upload is passed through untouched.
+ */
+public record PreprocessedImage(byte[] bytes, String mimeType, BufferedImage image) {
+}
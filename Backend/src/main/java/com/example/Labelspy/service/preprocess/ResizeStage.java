@@ -0,0 +1,60 @@
+package com.example.Labelspy.service.preprocess;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Downsizes so the longest edge is at most maxEdge, halving step by step so text strokes
+ * are averaged rather than skipped.
+ */
+@Component
+@Order(10)
+public class ResizeStage implements ImageStage {
+
+    private final int maxEdge;
+
+    public ResizeStage(@Value("${scan.preprocess.max-edge:1600}") int maxEdge) {
+        this.maxEdge = maxEdge;
+    }
+
+    @Override
+    public String name() {
+        return "resize";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return maxEdge > 0;
+    }
+
+    @Override
+    public BufferedImage apply(BufferedImage image) {
+        int longest = Math.max(image.getWidth(), image.getHeight());
+        if (longest <= maxEdge) {
+            return image;
+        }
+        double scale = (double) maxEdge / longest;
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+}
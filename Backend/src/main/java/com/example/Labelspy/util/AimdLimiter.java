@@ -0,0 +1,78 @@
+package com.example.Labelspy.util;
+
+/**
+ * Adaptive concurrency limit using additive-increase / multiplicative-decrease. The limit grows by
+ * one for every successful call made while at least half of it was in use, and shrinks by
+ * backoffRatio whenever a call is dropped: timed out, throttled, or slower than the latency
+ * threshold. Thread-safe.
+ */
+public class AimdLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private double limit;
+    private int inFlight;
+
+    public AimdLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long latencyThresholdNanos) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limit bounds " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Takes a slot if the current limit allows it
+     * @return false when the limit is reached; the caller must not proceed
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= getLimit()) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Releases a slot after a call completed
+     * @param latencyNanos how long the call took; above the threshold it counts as a drop
+     */
+    public synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos > latencyThresholdNanos) {
+            onDropped();
+            return;
+        }
+        if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        inFlight--;
+    }
+
+    /**
+     * Releases a slot after an overload signal and shrinks the limit
+     */
+    public synchronized void onDropped() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+        inFlight--;
+    }
+
+    /**
+     * Releases a slot without adjusting the limit, for failures that say nothing about load
+     */
+    public synchronized void onIgnore() {
+        inFlight--;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.Labelspy.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Burkhard-Keller tree over a discrete metric. Nearest-neighbour queries use the triangle
+ * inequality to skip every subtree whose edge distance lies outside [d - radius, d + radius].
+ * Not thread-safe.
+ */
+public class BkTree<K, V> {
+
+    private final ToIntBiFunction<K, K> metric;
+    private Node<K, V> root;
+    private int size;
+
+    public BkTree(ToIntBiFunction<K, K> metric) {
+        this.metric = metric;
+    }
+
+    public void add(K key, V value) {
+        if (root == null) {
+            root = new Node<>(key, value);
+            size++;
+            return;
+        }
+        Node<K, V> node = root;
+        while (true) {
+            int distance = metric.applyAsInt(key, node.key);
+            if (distance == 0) {
+                node.value = value;
+                return;
+            }
+            Node<K, V> child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node<>(key, value));
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Finds the closest entry within a radius
+     * @param key query key
+     * @param radius maximum distance, inclusive
+     * @return closest match, or null when nothing is within the radius
+     */
+    public Match<K, V> nearest(K key, int radius) {
+        if (root == null) {
+            return null;
+        }
+        Match<K, V> best = null;
+        int bestDistance = radius;
+        Deque<Node<K, V>> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node<K, V> node = pending.pop();
+            int distance = metric.applyAsInt(key, node.key);
+            if (distance <= bestDistance) {
+                best = new Match<>(node.key, node.value, distance);
+                bestDistance = distance;
+                if (distance == 0) {
+                    break;
+                }
+            }
+            for (Map.Entry<Integer, Node<K, V>> child : node.children.entrySet()) {
+                int edge = child.getKey();
+                if (edge >= distance - bestDistance && edge <= distance + bestDistance) {
+                    pending.push(child.getValue());
+                }
+            }
+        }
+        return best;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public record Match<K, V>(K key, V value, int distance) {
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private V value;
+        private final Map<Integer, Node<K, V>> children = new HashMap<>(4);
+
+        private Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
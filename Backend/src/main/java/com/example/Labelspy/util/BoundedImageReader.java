@@ -0,0 +1,46 @@
+package com.example.Labelspy.util;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes untrusted image bytes only after reading their dimensions from the header. A few
+ * kilobytes of PNG or JPEG can declare a canvas of billions of pixels, which ImageIO.read would
+ * try to allocate in full.
+ */
+public final class BoundedImageReader {
+
+    private BoundedImageReader() {
+    }
+
+    /**
+     * @param maxPixels largest width x height that may be decoded
+     * @return the first image, or null when no reader supports the format
+     * @throws ImageTooLargeException when the image declares more than maxPixels
+     */
+    public static BufferedImage read(byte[] bytes, long maxPixels) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new ImageTooLargeException(width, height, maxPixels);
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
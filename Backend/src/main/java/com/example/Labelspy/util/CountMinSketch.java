@@ -0,0 +1,118 @@
+package com.example.Labelspy.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size frequency sketch: depth rows of width counters, each key incremented in one counter
+ * per row. An estimate is the smallest of its counters, so it never undercounts and overcounts by
+ * at most e/width of the total with probability 1 - e^-depth, whatever the number of distinct
+ * keys. Rows are hashed from String.hashCode, so sketches built on different nodes with the same
+ * dimensions can be merged by adding counters. Not thread safe.
+ */
+public class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final int[] counters;
+    private long total;
+
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("width and depth must be positive");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new int[width * depth];
+    }
+
+    /**
+     * @param key item seen
+     * @param count number of times it was seen
+     */
+    public void add(String key, int count) {
+        int hash = key.hashCode();
+        for (int row = 0; row < depth; row++) {
+            int slot = row * width + index(hash, row);
+            counters[slot] = saturatedAdd(counters[slot], count);
+        }
+        total += count;
+    }
+
+    /**
+     * @return an upper bound on how often key was added
+     */
+    public int estimate(String key) {
+        int hash = key.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + index(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds another sketch's counters to this one
+     * @param other sketch with the same width and depth
+     */
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge a " + other.width + "x" + other.depth
+                    + " sketch into a " + width + "x" + depth + " sketch");
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = saturatedAdd(counters[i], other.counters[i]);
+        }
+        total += other.total;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @return the counters, row by row, as big-endian ints
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(counters.length * Integer.BYTES);
+        buffer.asIntBuffer().put(counters);
+        return buffer.array();
+    }
+
+    /**
+     * Rebuilds a sketch written by {@link #toBytes()}
+     */
+    public static CountMinSketch fromBytes(int width, int depth, long total, byte[] bytes) {
+        CountMinSketch sketch = new CountMinSketch(width, depth);
+        if (bytes.length != sketch.counters.length * Integer.BYTES) {
+            throw new IllegalArgumentException("Expected " + sketch.counters.length * Integer.BYTES
+                    + " bytes for a " + width + "x" + depth + " sketch, got " + bytes.length);
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().get(sketch.counters);
+        sketch.total = total;
+        return sketch;
+    }
+
+    private int index(int hash, int row) {
+        // a different odd multiplier per row, then murmur3's finalizer
+        int h = hash * (0x9E3779B9 + 2 * row * 0x632BE5AB + 2);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, width);
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        long sum = (long) a + b;
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+}
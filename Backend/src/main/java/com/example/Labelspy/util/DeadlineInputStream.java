@@ -0,0 +1,142 @@
+package com.example.Labelspy.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream that gives up on a peer that stops sending. Reads fail with {@link HttpTimeoutException}
+ * once nothing has arrived for idleTimeout, or once totalTimeout has passed since the stream was
+ * opened. A read blocked at that moment is aborted too: a watchdog closes the underlying stream and
+ * interrupts the reading thread, since closing alone does not wake every blocking stream.
+ */
+public class DeadlineInputStream extends FilterInputStream {
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("read-deadline").daemon(true).factory());
+
+    private final long idleNanos;
+    private final long totalNanos;
+    private final long deadline;
+    private volatile long lastRead;
+    /** guarded by this */
+    private Thread reader;
+    private String expired;
+    private boolean closed;
+    private ScheduledFuture<?> check;
+
+    public DeadlineInputStream(InputStream in, Duration idleTimeout, Duration totalTimeout) {
+        super(in);
+        this.idleNanos = idleTimeout.toNanos();
+        this.totalNanos = totalTimeout.toNanos();
+        this.lastRead = System.nanoTime();
+        this.deadline = lastRead + totalNanos;
+        schedule(Math.min(idleNanos, totalNanos));
+    }
+
+    @Override
+    public int read() throws IOException {
+        enter();
+        try {
+            return progress(in.read());
+        } catch (IOException e) {
+            throw failure(e);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        enter();
+        try {
+            return progress(in.read(b, off, len));
+        } catch (IOException e) {
+            throw failure(e);
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (check != null) {
+                check.cancel(false);
+            }
+        }
+        super.close();
+    }
+
+    private synchronized void schedule(long delayNanos) {
+        if (!closed) {
+            check = WATCHDOG.schedule(this::check, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        long idleUntil = lastRead + idleNanos;
+        long wait = Math.min(idleUntil, deadline) - now;
+        if (wait > 0) {
+            schedule(wait);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            expired = now - idleUntil >= 0
+                    ? "No data for " + TimeUnit.NANOSECONDS.toMillis(idleNanos) + " ms"
+                    : "Response not complete within " + TimeUnit.NANOSECONDS.toMillis(totalNanos) + " ms";
+            if (reader != null) {
+                reader.interrupt();
+            }
+        }
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // the reader fails with the timeout either way
+        }
+    }
+
+    private synchronized void enter() throws IOException {
+        if (expired != null) {
+            throw new HttpTimeoutException(expired);
+        }
+        reader = Thread.currentThread();
+    }
+
+    /** A read that returns after the watchdog closed the stream may have been cut short */
+    private synchronized int progress(int result) throws IOException {
+        if (expired != null) {
+            throw new HttpTimeoutException(expired);
+        }
+        lastRead = System.nanoTime();
+        return result;
+    }
+
+    private synchronized void exit() {
+        reader = null;
+        if (expired != null) {
+            // clears the interrupt that aborted the read; the timeout is reported instead
+            Thread.interrupted();
+        }
+    }
+
+    private synchronized IOException failure(IOException e) {
+        if (expired == null || e instanceof HttpTimeoutException) {
+            return e;
+        }
+        HttpTimeoutException timeout = new HttpTimeoutException(expired);
+        timeout.initCause(e);
+        return timeout;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.Labelspy.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+public class Futures {
+
+    /**
+     * Makes cancelling a dependent stage cancel the future it was derived from. CompletableFuture
+     * does not do this itself: cancelling a thenApply or whenComplete stage only completes that
+     * stage, and the work behind the source, such as an HTTP exchange, carries on.
+     * @param derived stage built on source
+     * @param source future whose work should stop when derived is cancelled
+     * @return derived
+     */
+    public static <T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, Future<?> source) {
+        derived.whenComplete((value, error) -> {
+            if (derived.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return derived;
+    }
+}
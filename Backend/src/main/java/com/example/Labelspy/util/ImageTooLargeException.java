@@ -0,0 +1,21 @@
+package com.example.Labelspy.util;
+
+import lombok.Getter;
+
+/**
+ * Upload whose header declares more pixels than may be decoded
+ */
+@Getter
+public class ImageTooLargeException extends RuntimeException {
+
+    private final int width;
+    private final int height;
+    private final long maxPixels;
+
+    public ImageTooLargeException(int width, int height, long maxPixels) {
+        super("Image is " + width + "x" + height + ", more than the " + maxPixels + " pixels allowed");
+        this.width = width;
+        this.height = height;
+        this.maxPixels = maxPixels;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.Labelspy.util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * DCT-based perceptual hash (pHash) of an image: the image is reduced to a SAMPLE x SAMPLE grayscale
+ * grid, transformed with a 2D DCT, and each bit records whether one of the lowest SIZE x SIZE frequency
+ * coefficients is above their median. Low frequencies describe the overall layout of the label, so
+ * re-encoded, slightly cropped or slightly rotated photos of the same package land within a small
+ * Hamming distance.
+ */
+public class PerceptualHash {
+
+    public static final int SIZE = 16;
+    public static final int BITS = SIZE * SIZE;
+
+    private static final int SAMPLE = 32;
+    private static final int WORDS = BITS / Long.SIZE;
+    private static final double[][] DCT = dctMatrix(SAMPLE);
+
+    /**
+     * @param maxPixels largest image that may be decoded, see {@link BoundedImageReader}
+     * @throws ImageTooLargeException when the image declares more than maxPixels
+     */
+    public static long[] of(byte[] imageBytes, long maxPixels) throws IOException {
+        BufferedImage image = BoundedImageReader.read(imageBytes, maxPixels);
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return of(image);
+    }
+
+    public static long[] of(BufferedImage image) {
+        double[][] grid = grayscaleGrid(shrink(image, SAMPLE * 4, SAMPLE * 4), SAMPLE, SAMPLE);
+        double[][] coefficients = dct2d(grid);
+
+        double[] lowFrequencies = new double[BITS];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                lowFrequencies[y * SIZE + x] = coefficients[y][x];
+            }
+        }
+        // the DC term only reflects overall brightness, so it is left out of the median
+        double[] sorted = Arrays.copyOfRange(lowFrequencies, 1, BITS);
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length / 2];
+
+        long[] hash = new long[WORDS];
+        for (int bit = 1; bit < BITS; bit++) {
+            if (lowFrequencies[bit] > median) {
+                hash[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    private static double[][] dct2d(double[][] input) {
+        int n = input.length;
+        double[][] rows = new double[n][n];
+        for (int y = 0; y < n; y++) {
+            for (int u = 0; u < SIZE; u++) {
+                double sum = 0;
+                for (int x = 0; x < n; x++) {
+                    sum += DCT[u][x] * input[y][x];
+                }
+                rows[y][u] = sum;
+            }
+        }
+        double[][] out = new double[SIZE][SIZE];
+        for (int v = 0; v < SIZE; v++) {
+            for (int u = 0; u < SIZE; u++) {
+                double sum = 0;
+                for (int y = 0; y < n; y++) {
+                    sum += DCT[v][y] * rows[y][u];
+                }
+                out[v][u] = sum;
+            }
+        }
+        return out;
+    }
+
+    private static double[][] dctMatrix(int n) {
+        double[][] matrix = new double[n][n];
+        for (int k = 0; k < n; k++) {
+            double scale = k == 0 ? Math.sqrt(1.0 / n) : Math.sqrt(2.0 / n);
+            for (int i = 0; i < n; i++) {
+                matrix[k][i] = scale * Math.cos(Math.PI * (2 * i + 1) * k / (2.0 * n));
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Halves the image repeatedly until it is close to the target size, which keeps
+     * bilinear filtering from skipping most source pixels on large photos.
+     */
+    private static BufferedImage shrink(BufferedImage image, int minWidth, int minHeight) {
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        while (width / 2 >= minWidth && height / 2 >= minHeight) {
+            width /= 2;
+            height /= 2;
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        }
+        return current;
+    }
+
+    private static double[][] grayscaleGrid(BufferedImage image, int columns, int rows) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        double[][] sums = new double[rows][columns];
+        int[][] counts = new int[rows][columns];
+        for (int y = 0; y < height; y++) {
+            int row = Math.min(rows - 1, y * rows / height);
+            for (int x = 0; x < width; x++) {
+                int column = Math.min(columns - 1, x * columns / width);
+                int rgb = pixels[y * width + x];
+                double luma = 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+                sums[row][column] += luma;
+                counts[row][column]++;
+            }
+        }
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                sums[y][x] = counts[y][x] == 0 ? 0 : sums[y][x] / counts[y][x];
+            }
+        }
+        return sums;
+    }
+}
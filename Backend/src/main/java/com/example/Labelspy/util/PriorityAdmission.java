@@ -0,0 +1,149 @@
+package com.example.Labelspy.util;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A counting semaphore with two classes of waiter. A freed slot goes to a priority waiter before
+ * any other, and other callers may never hold more than maxOthers slots, so some capacity is
+ * always left for priority callers even while the rest is saturated.
+ */
+public class PriorityAdmission {
+
+    private final int slots;
+    private final int maxOthers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition priorityTurn = lock.newCondition();
+    private final Condition otherTurn = lock.newCondition();
+    private int inUse;
+    private int othersInUse;
+    private int priorityWaiting;
+    private int othersWaiting;
+
+    /**
+     * @param slots callers admitted at once
+     * @param reservedForPriority slots other callers may not take
+     */
+    public PriorityAdmission(int slots, int reservedForPriority) {
+        if (slots < 1 || reservedForPriority < 0 || reservedForPriority >= slots) {
+            throw new IllegalArgumentException("Invalid admission of " + slots + " slots with "
+                    + reservedForPriority + " reserved");
+        }
+        this.slots = slots;
+        this.maxOthers = slots - reservedForPriority;
+    }
+
+    /**
+     * Waits for a slot
+     * @param priority whether the caller goes ahead of non-priority waiters
+     */
+    public void acquire(boolean priority) throws InterruptedException {
+        tryAcquire(priority, Long.MAX_VALUE);
+    }
+
+    /**
+     * Waits for a slot, giving up after timeoutNanos
+     * @param priority whether the caller goes ahead of non-priority waiters
+     * @param timeoutNanos longest wait; zero or less only takes a slot that is free now
+     * @return whether a slot was taken
+     */
+    public boolean tryAcquire(boolean priority, long timeoutNanos) throws InterruptedException {
+        long remaining = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            // a newcomer queues behind earlier waiters instead of taking the slot one was signalled for,
+            // so slots go out in arrival order within each class
+            if (priority) {
+                boolean mustWait = inUse >= slots || priorityWaiting > 0;
+                priorityWaiting++;
+                try {
+                    while (mustWait) {
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        remaining = priorityTurn.awaitNanos(remaining);
+                        mustWait = inUse >= slots;
+                    }
+                } finally {
+                    priorityWaiting--;
+                }
+            } else {
+                boolean mustWait = inUse >= slots || othersInUse >= maxOthers || priorityWaiting > 0 || othersWaiting > 0;
+                othersWaiting++;
+                try {
+                    while (mustWait) {
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        remaining = otherTurn.awaitNanos(remaining);
+                        mustWait = inUse >= slots || othersInUse >= maxOthers || priorityWaiting > 0;
+                    }
+                } finally {
+                    othersWaiting--;
+                }
+                othersInUse++;
+            }
+            inUse++;
+            return true;
+        } finally {
+            // passes the turn on if slots remain, including when this waiter was signalled but gave up
+            signalNext();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a slot taken by {@link #acquire}
+     * @param priority the value passed to acquire
+     */
+    public void release(boolean priority) {
+        lock.lock();
+        try {
+            inUse--;
+            if (!priority) {
+                othersInUse--;
+            }
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInUse() {
+        lock.lock();
+        try {
+            return inUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return priorityWaiting + othersWaiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getOthersWaiting() {
+        lock.lock();
+        try {
+            return othersWaiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalNext() {
+        if (inUse >= slots) {
+            return;
+        }
+        if (priorityWaiting > 0) {
+            priorityTurn.signal();
+        } else if (othersWaiting > 0 && othersInUse < maxOthers) {
+            otherTurn.signal();
+        }
+    }
+}
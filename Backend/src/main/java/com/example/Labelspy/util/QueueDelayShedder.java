@@ -0,0 +1,61 @@
+package com.example.Labelspy.util;
+
+/**
+ * CoDel-style overload detection for a FIFO queue, after folly's CoDel. Callers report how long
+ * each item waited. When even the shortest wait over an interval is above target, the queue is
+ * standing rather than absorbing a burst, and until an interval ends with some wait at or under
+ * target, items should be shed once they have waited twice target; otherwise they may wait a
+ * whole interval. Shedding above target, not at it, keeps the waits of the items still served
+ * above target for as long as the queue stands. Thread-safe.
+ */
+public class QueueDelayShedder {
+
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    private boolean started;
+    private long intervalStart;
+    private long minDelay = Long.MAX_VALUE;
+    private boolean overloaded;
+
+    /**
+     * @param targetMillis queue delay tolerated as standing
+     * @param intervalMillis how long the delay must stay above target to count as overload, and
+     *                       the longest wait allowed otherwise
+     */
+    public QueueDelayShedder(long targetMillis, long intervalMillis) {
+        this.targetNanos = targetMillis * 1_000_000;
+        this.intervalNanos = Math.max(2 * targetMillis, intervalMillis) * 1_000_000;
+    }
+
+    /**
+     * Reports an item's time in the queue, whether it was served or shed
+     */
+    public void record(long delayNanos) {
+        record(delayNanos, System.nanoTime());
+    }
+
+    synchronized void record(long delayNanos, long now) {
+        if (!started) {
+            started = true;
+            intervalStart = now;
+        }
+        minDelay = Math.min(minDelay, delayNanos);
+        if (now - intervalStart >= intervalNanos) {
+            overloaded = minDelay > targetNanos;
+            minDelay = Long.MAX_VALUE;
+            intervalStart = now;
+        }
+    }
+
+    public synchronized boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * @return how long an item may wait in the queue before it is shed
+     */
+    public synchronized long maxWaitNanos() {
+        return overloaded ? 2 * targetNanos : intervalNanos;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.Labelspy.util;
+
+import java.util.*;
+
+/**
+ * Space-Saving heavy hitters (Metwally et al.): tracks at most capacity keys. When a new key
+ * arrives and the summary is full, it replaces the key with the smallest count and inherits that
+ * count as its error, so every key seen more than total/capacity times is guaranteed to be kept
+ * and a key's true count lies between count - error and count. Summaries merge as in Agarwal et al.,
+ * "Mergeable Summaries": a key missing from a full summary may have been evicted from it with up
+ * to that summary's smallest count, so that count is added to both its count and its error before
+ * the capacity largest are kept. Merged counts stay upper bounds. Not thread safe.
+ */
+public class SpaceSaving {
+
+    private static final Comparator<Map.Entry<String, Counter>> ASCENDING =
+            Comparator.<Map.Entry<String, Counter>>comparingLong(entry -> entry.getValue().count)
+                    .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * @param key item seen
+     * @param count number of times it was seen
+     */
+    public void offer(String key, long count) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count += count;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(count, 0));
+            return;
+        }
+        // linear in capacity, which stays small; evictions stop once the heavy hitters are in
+        Map.Entry<String, Counter> smallest = Collections.min(counters.entrySet(), ASCENDING);
+        counters.remove(smallest.getKey());
+        long floor = smallest.getValue().count;
+        counters.put(key, new Counter(floor + count, floor));
+    }
+
+    /**
+     * Adds another summary into this one, keeping the capacity largest counts
+     */
+    public void merge(SpaceSaving other) {
+        long myFloor = floor();
+        long theirFloor = other.floor();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter theirs = other.counters.get(entry.getKey());
+            Counter mine = entry.getValue();
+            entry.setValue(theirs != null
+                    ? new Counter(mine.count + theirs.count, mine.error + theirs.error)
+                    : new Counter(mine.count + theirFloor, mine.error + theirFloor));
+        }
+        other.counters.forEach((key, theirs) -> {
+            if (!counters.containsKey(key)) {
+                counters.put(key, new Counter(theirs.count + myFloor, theirs.error + myFloor));
+            }
+        });
+        if (counters.size() > capacity) {
+            List<Map.Entry<String, Counter>> ranked = new ArrayList<>(counters.entrySet());
+            ranked.sort(ASCENDING);
+            ranked.subList(0, ranked.size() - capacity).forEach(entry -> counters.remove(entry.getKey()));
+        }
+    }
+
+    /**
+     * @return tracked keys with their counts and errors, largest count first
+     */
+    public List<Entry> entries() {
+        List<Map.Entry<String, Counter>> ranked = new ArrayList<>(counters.entrySet());
+        ranked.sort(ASCENDING.reversed());
+        return ranked.stream()
+                .map(entry -> new Entry(entry.getKey(), entry.getValue().count, entry.getValue().error))
+                .toList();
+    }
+
+    /**
+     * Restores a key exactly as {@link #entries()} reported it, for rebuilding a stored summary
+     */
+    public void restore(String key, long count, long error) {
+        counters.put(key, new Counter(count, error));
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * @return the most a key not tracked here can have been seen: the smallest count once full, 0 before
+     */
+    private long floor() {
+        return counters.size() < capacity ? 0 : Collections.min(counters.entrySet(), ASCENDING).getValue().count;
+    }
+
+    public record Entry(String key, long count, long error) {
+    }
+
+    private static final class Counter {
+        long count;
+        final long error;
+
+        Counter(long count, long error) {
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
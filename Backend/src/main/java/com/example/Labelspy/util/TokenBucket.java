@@ -0,0 +1,47 @@
+package com.example.Labelspy.util;
+
+/**
+ * Token bucket limits kept as a single number per key. Instead of a token count and a refill
+ * time, a bucket is stored as the time at which it would next be full (the generic cell rate
+ * algorithm): taking n tokens moves that time n refill intervals later, and a request fits while
+ * the time stays within capacity intervals of now. One long per key can be updated with a single
+ * compare-and-set, and any stored time at or before now is simply a full bucket, so idle buckets
+ * can be forgotten without changing any decision. Times are in nanoseconds on whatever clock the
+ * caller uses consistently.
+ */
+public record TokenBucket(String name, int capacity, double refillPerMinute) {
+
+    public TokenBucket {
+        if (capacity < 1 || refillPerMinute <= 0) {
+            throw new IllegalArgumentException("Invalid bucket " + name + ": capacity " + capacity
+                    + ", refill " + refillPerMinute + "/min");
+        }
+    }
+
+    /** Nanoseconds to refill one token */
+    public long refillNanos() {
+        return (long) (60_000_000_000L / refillPerMinute);
+    }
+
+    /**
+     * Where the bucket's full time moves if tokens are taken
+     * @param fullAt stored full time; anything at or before now is a full bucket
+     * @param tokens tokens wanted
+     */
+    public long take(long fullAt, long now, int tokens) {
+        return Math.max(fullAt, now) + tokens * refillNanos();
+    }
+
+    /**
+     * @param fullAt full time after {@link #take}
+     * @return 0 if the tokens were available, else nanoseconds until they would be
+     */
+    public long waitNanos(long fullAt, long now) {
+        return Math.max(0, fullAt - now - capacity * refillNanos());
+    }
+
+    /** Tokens left once the full time is fullAt */
+    public int remaining(long fullAt, long now) {
+        return (int) Math.max(0, capacity - Math.ceilDiv(Math.max(0, fullAt - now), refillNanos()));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.Labelspy.util;
+
+import java.util.*;
+
+/**
+ * Selects the k highest counts with a bounded min-heap, in O(n log k) instead of sorting every
+ * entry. Ties are broken by name so the ranking is stable between calls.
+ */
+public class TopK {
+
+    private static final Comparator<Map.Entry<String, Integer>> ASCENDING =
+            Map.Entry.<String, Integer>comparingByValue()
+                    .thenComparing(Map.Entry.<String, Integer>comparingByKey().reversed());
+
+    /**
+     * @param counts count per name
+     * @param k number of entries to keep
+     * @return at most k entries, highest count first
+     */
+    public static List<Map.Entry<String, Integer>> of(Map<String, Integer> counts, int k) {
+        if (k <= 0) {
+            return List.of();
+        }
+        PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(Math.min(k, counts.size()) + 1, ASCENDING);
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (heap.size() < k) {
+                heap.add(Map.entry(entry.getKey(), entry.getValue()));
+            } else if (ASCENDING.compare(entry, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        List<Map.Entry<String, Integer>> top = new ArrayList<>(heap);
+        top.sort(ASCENDING.reversed());
+        return top;
+    }
+}
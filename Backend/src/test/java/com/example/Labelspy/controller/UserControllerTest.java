@@ -0,0 +1,243 @@
+package com.example.Labelspy.controller;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.dto.ScanJobStatus;
+import com.example.Labelspy.service.DataStore;
+import com.example.Labelspy.service.ScanExportService;
+import com.example.Labelspy.service.ScanJob;
+import com.example.Labelspy.service.ScanJobService;
+import com.example.Labelspy.service.ScanService;
+import com.example.Labelspy.service.ScanTiming;
+import com.example.Labelspy.service.TrendingIngredients;
+import com.example.Labelspy.util.ImageTooLargeException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Drives the scan endpoints through MockMvc over a real {@link ScanJobService} with one job slot,
+ * whose scans stream one ingredient and then block until released.
+ */
+class UserControllerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ScanService scanService = mock(ScanService.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ScanJobService scanJobService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(scanService.scan(any(), any(), any(), any())).thenAnswer(invocation -> {
+            Consumer<IngredientInfo> onIngredient = invocation.getArgument(3);
+            if (onIngredient != null) {
+                IngredientInfo ingredient = new IngredientInfo();
+                ingredient.setName("Oats");
+                onIngredient.accept(ingredient);
+            }
+            release.await(10, TimeUnit.SECONDS);
+            return new AnalysisResult();
+        });
+        scanJobService = new ScanJobService(scanService, registry, ObservationRegistry.NOOP,
+                1, 0, 10, 1 << 20, 15, false, 500, 5000, 1000);
+        UserController controller = new UserController(scanJobService, scanService, mock(DataStore.class),
+                mock(TrendingIngredients.class), mock(ScanExportService.class), registry);
+        ReflectionTestUtils.setField(controller, "sseTimeoutMs", 60_000L);
+        ReflectionTestUtils.setField(controller, "maxBatchFiles", 8);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    void requestStartIsOnlyReadFromATrustedProxy() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(UserController.REQUEST_START_HEADER, "t=" + (System.currentTimeMillis() - 30_000));
+
+        long now = System.nanoTime();
+        ScanTiming untrusted = UserController.scanTiming(request, false);
+        ScanTiming trusted = UserController.scanTiming(request, true);
+
+        assertTrue(untrusted.queuedSince() >= now, "a client cannot backdate its own request");
+        assertTrue(now - trusted.queuedSince() >= TimeUnit.SECONDS.toNanos(29));
+    }
+
+    @Test
+    void blockingScanIsAbandonedWhenTheRequestTimesOut() throws Exception {
+        ScanJob running = scanJobService.submit(new byte[]{1}, "image/jpeg", null, false, ScanTiming.now());
+        awaitState(running, ScanJobStatus.State.RUNNING);
+
+        MvcResult result = mockMvc.perform(multipart("/api/scan").file(image()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockAsyncContext context = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : context.getListeners()) {
+            listener.onTimeout(new AsyncEvent(context));
+        }
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isGatewayTimeout());
+
+        release.countDown();
+        running.getFuture().join();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.counter("scan.shed", "reason", "disconnected").count() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, registry.counter("scan.shed", "reason", "disconnected").count());
+        verify(scanService, times(1)).scan(any(), any(), any(), any());
+    }
+
+    @Test
+    void pollShowsAJobOnlyToTheUserWhoSubmittedIt() throws Exception {
+        ScanJob job = scanJobService.submit(new byte[]{1}, "image/jpeg", "user-1", false, ScanTiming.now());
+        awaitState(job, ScanJobStatus.State.RUNNING);
+
+        mockMvc.perform(get("/api/scan/" + job.getId()).requestAttr("userId", "user-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.jobId").value(job.getId()))
+                .andExpect(jsonPath("$.status").value("RUNNING"));
+        mockMvc.perform(get("/api/scan/" + job.getId()).requestAttr("userId", "user-2"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/scan/" + job.getId())).andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/scan/no-such-job")).andExpect(status().isNotFound());
+
+        release.countDown();
+        job.getFuture().join();
+        mockMvc.perform(get("/api/scan/" + job.getId()).requestAttr("userId", "user-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("COMPLETED"))
+                .andExpect(jsonPath("$.result").exists());
+    }
+
+    @Test
+    void eventsReplayStreamedIngredientsAndEndWithTheFinalStatus() throws Exception {
+        ScanJob job = scanJobService.submit(new byte[]{1}, "image/jpeg", null, true, ScanTiming.now());
+        awaitState(job, ScanJobStatus.State.RUNNING);
+
+        MvcResult result = mockMvc.perform(get("/api/scan/" + job.getId() + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        release.countDown();
+        job.getFuture().join();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+        String events = result.getResponse().getContentAsString();
+        assertTrue(events.indexOf("event:status") < events.indexOf("event:ingredient"), events);
+        assertTrue(events.contains("\"name\":\"Oats\""), events);
+        assertTrue(events.lastIndexOf("event:status") > events.indexOf("event:ingredient"), events);
+        assertTrue(events.contains("\"status\":\"COMPLETED\""), events);
+
+        mockMvc.perform(get("/api/scan/no-such-job/events")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void losingAnEventsStreamDoesNotAbandonTheJob() throws Exception {
+        ScanJob running = scanJobService.submit(new byte[]{1}, "image/jpeg", null, false, ScanTiming.now());
+        awaitState(running, ScanJobStatus.State.RUNNING);
+        ScanJob queued = scanJobService.submit(new byte[]{1}, "image/jpeg", null, true, ScanTiming.now());
+
+        MvcResult result = mockMvc.perform(get("/api/scan/" + queued.getId() + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockAsyncContext context = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : context.getListeners()) {
+            listener.onTimeout(new AsyncEvent(context));
+        }
+
+        assertFalse(queued.isAbandoned(), "only the stream that submitted the job owns it");
+        release.countDown();
+        assertNotNull(queued.getFuture().join());
+    }
+
+    @Test
+    void batchAnswersOnceEveryItemHasAResultOrAnError() throws Exception {
+        AnalysisResult soda = new AnalysisResult();
+        soda.setSummary("soda");
+        CompletableFuture<AnalysisResult> first = new CompletableFuture<>();
+        when(scanService.scanBatch(any(), any())).thenReturn(List.of(first,
+                CompletableFuture.failedFuture(new ImageTooLargeException(9000, 9000, 50_000_000))));
+
+        MvcResult result = mockMvc.perform(multipart("/api/scan/batch")
+                        .file(image("files", "soda.jpg")).file(image("files", "huge.jpg"))
+                        .file(new MockMultipartFile("files", "notes.txt", "text/plain", new byte[]{1})))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        first.complete(soda);
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].result.summary").value("soda"))
+                .andExpect(jsonPath("$[1].error").value(containsString("9000x9000")))
+                .andExpect(jsonPath("$[2].error").value("Only JPEG and PNG images are allowed"));
+    }
+
+    @Test
+    void batchReportsUnfinishedItemsAtTheDeadlineAndCancelsThem() throws Exception {
+        AnalysisResult soda = new AnalysisResult();
+        soda.setSummary("soda");
+        CompletableFuture<AnalysisResult> stalled = new CompletableFuture<>();
+        when(scanService.scanBatch(any(), any())).thenReturn(List.of(CompletableFuture.completedFuture(soda), stalled));
+
+        MvcResult result = mockMvc.perform(multipart("/api/scan/batch")
+                        .file(image("files", "soda.jpg")).file(image("files", "stalled.jpg")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockAsyncContext context = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : context.getListeners()) {
+            listener.onTimeout(new AsyncEvent(context));
+        }
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].result.summary").value("soda"))
+                .andExpect(jsonPath("$[1].error").value("Analysis did not finish before the request deadline"));
+        assertTrue(stalled.isCancelled());
+    }
+
+    private static void awaitState(ScanJob job, ScanJobStatus.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (job.status().getStatus() != state && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(state, job.status().getStatus());
+    }
+
+    private static MockMultipartFile image() {
+        return image("file", "label.jpg");
+    }
+
+    private static MockMultipartFile image(String name, String fileName) {
+        return new MockMultipartFile(name, fileName, "image/jpeg", new byte[]{1, 2, 3});
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.dto.ScanSummary;
+import com.example.Labelspy.dto.TopIngredientDto;
+import com.example.Labelspy.dto.UserDto;
+import com.example.Labelspy.util.SpaceSaving;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every {@link DataStore} must share, run against each implementation by a subclass.
+ * Every test uses fresh user IDs, so implementations backed by a shared database need no cleanup.
+ */
+abstract class DataStoreConformanceTest {
+
+    private DataStore store;
+    private String userId;
+
+    protected abstract DataStore createStore() throws Exception;
+
+    @BeforeEach
+    void setUpStore() throws Exception {
+        store = createStore();
+        userId = "user-" + UUID.randomUUID();
+    }
+
+    @Test
+    void profileUpdatesKeepCountsAndDeleteRemovesEverything() {
+        assertNull(store.getUserById(userId));
+
+        UserDto created = store.createOrUpdateUser(UserDto.builder().uid(userId).email("a@example.com").displayName("a").build());
+        assertEquals("a@example.com", created.getEmail());
+        assertEquals(0L, created.getScanCount());
+        assertEquals(Map.of(), created.getIngredientCounts());
+
+        store.recordScans(userId, List.of(scan("s1", "Sugar")));
+        store.incrementIngredientCounts(userId, Map.of("sugar", 1));
+        UserDto renamed = store.createOrUpdateUser(UserDto.builder().uid(userId).email("a@example.com").displayName("b").build());
+        assertEquals("b", renamed.getDisplayName());
+        assertEquals(1L, renamed.getScanCount());
+        assertEquals(Map.of("sugar", 1), renamed.getIngredientCounts());
+
+        store.deleteUser(userId);
+        assertNull(store.getUserById(userId));
+        assertEquals(List.of(), store.getScansSince(userId, null, 10));
+        assertEquals(List.of(), store.getTopIngredients(userId, 10, null));
+    }
+
+    @Test
+    void historyPagesNewestFirstAndExportsOldestFirst() {
+        store.recordScans(userId, List.of(scan("a1", "Sugar", "Salt"), scan("a2", "Water")));
+        store.recordScans(userId, List.of(scan("b1", "E330"), scan("b2", "Sugar"), scan("b3", "Salt")));
+        assertEquals(5L, store.getUserById(userId).getScanCount());
+
+        List<String> newestFirst = new ArrayList<>();
+        String cursor = null;
+        do {
+            ScanHistoryPage page = store.getScanHistory(userId, 2, cursor, null, null);
+            assertTrue(page.scans().size() <= 2);
+            page.scans().forEach(scan -> newestFirst.add(scan.getScanId()));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        assertEquals(List.of("b3", "b2", "b1", "a2", "a1"), newestFirst);
+
+        List<ExportedScan> first = store.getScansSince(userId, null, 3);
+        assertEquals(List.of("a1", "a2", "b1"), first.stream().map(exported -> exported.scan().getScanId()).toList());
+        ScanSummary a1 = first.get(0).scan();
+        assertEquals(List.of("sugar", "salt"), a1.getIngredientIds());
+        assertEquals(List.of("Sugar", "Salt"), a1.getIngredientNames());
+        assertNotNull(a1.getTimestamp());
+
+        List<ExportedScan> rest = store.getScansSince(userId, first.get(2).cursor(), 3);
+        assertEquals(List.of("b2", "b3"), rest.stream().map(exported -> exported.scan().getScanId()).toList());
+        assertEquals(List.of(), store.getScansSince(userId, rest.get(1).cursor(), 3));
+
+        assertThrows(IllegalArgumentException.class, () -> store.getScansSince(userId, "not a cursor", 3));
+        assertThrows(IllegalArgumentException.class, () -> store.getScanHistory(userId, 3, "not a cursor", null, null));
+    }
+
+    @Test
+    void countsAreKeyedByIdAndRanked() {
+        String other = userId + "-other";
+        store.incrementIngredientCounts(Map.of(
+                userId, Map.of("Sugar", 2, "salt", 3, "E330", 1),
+                other, Map.of("water", 7)));
+        // raw names from old journals resolve to the same IDs
+        store.incrementIngredientCounts(userId, Map.of("sugar ", 2, "Citric acid", 1));
+
+        assertEquals(Map.of("sugar", 4, "salt", 3, "e330", 2), store.getUserById(userId).getIngredientCounts());
+        assertEquals(Map.of("water", 7), store.getUserById(other).getIngredientCounts());
+
+        List<TopIngredientDto> allTime = store.getTopIngredients(userId, 2, null);
+        assertEquals(List.of("sugar", "salt"), allTime.stream().map(TopIngredientDto::getIngredientId).toList());
+        assertEquals(List.of(4, 3), allTime.stream().map(TopIngredientDto::getCount).toList());
+        assertEquals("Sugar", allTime.get(0).getIngredientName());
+
+        List<TopIngredientDto> today = store.getTopIngredients(userId, 10, 1);
+        assertEquals(List.of("sugar", "salt", "e330"), today.stream().map(TopIngredientDto::getIngredientId).toList());
+
+        assertThrows(IllegalArgumentException.class, () -> store.getTopIngredients(userId, 10, DataStore.MAX_WINDOW_DAYS + 1));
+    }
+
+    @Test
+    void trendingSnapshotsAreReplacedPerBucketAndNode() {
+        String node = "node-" + UUID.randomUUID();
+        Instant expireAt = Instant.now().plusSeconds(3600).truncatedTo(java.time.temporal.ChronoUnit.SECONDS);
+        store.saveTrendingSnapshot(snapshot("hour:2026-10-17T10", node, 1, expireAt));
+        store.saveTrendingSnapshot(snapshot("hour:2026-10-17T11", node, 1, expireAt));
+        store.saveTrendingSnapshot(snapshot("hour:2026-10-17T11", node, 5, expireAt));
+        store.saveTrendingSnapshot(snapshot("hour:2026-10-17T12", node, 1, expireAt));
+
+        List<TrendingSnapshot> stored = store.getTrendingSnapshots("hour:2026-10-17T10", "hour:2026-10-17T11").stream()
+                .filter(snapshot -> snapshot.node().equals(node))
+                .sorted(Comparator.comparing(TrendingSnapshot::bucket))
+                .toList();
+        assertEquals(List.of("hour:2026-10-17T10", "hour:2026-10-17T11"), stored.stream().map(TrendingSnapshot::bucket).toList());
+        TrendingSnapshot replaced = stored.get(1);
+        assertEquals(5, replaced.total());
+        assertArrayEquals(new byte[]{0, 0, 0, 5, 0, 0, 0, 5}, replaced.sketch());
+        assertEquals(List.of(new SpaceSaving.Entry("sugar", 5, 0)), replaced.heavy());
+        assertEquals(expireAt, replaced.expireAt());
+    }
+
+    private static TrendingSnapshot snapshot(String bucket, String node, int count, Instant expireAt) {
+        return new TrendingSnapshot(bucket, node, 1, 2, count, new byte[]{0, 0, 0, (byte) count, 0, 0, 0, (byte) count},
+                List.of(new SpaceSaving.Entry("sugar", count, 0)), expireAt);
+    }
+
+    private static AnalysisResult scan(String scanId, String... names) {
+        AnalysisResult result = new AnalysisResult();
+        result.setScanId(scanId);
+        result.setIngredients(Arrays.stream(names).map(name -> {
+            IngredientInfo ingredient = new IngredientInfo();
+            ingredient.setName(name);
+            return ingredient;
+        }).toList());
+        return result;
+    }
+}
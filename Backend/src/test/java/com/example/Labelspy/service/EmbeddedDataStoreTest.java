@@ -0,0 +1,26 @@
+package com.example.Labelspy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+class EmbeddedDataStoreTest extends DataStoreConformanceTest {
+
+    @TempDir
+    Path storeDir;
+
+    private EmbeddedDataStore store;
+
+    @Override
+    protected DataStore createStore() {
+        store = new EmbeddedDataStore(new IngredientDictionary(), new ObjectMapper(), storeDir.toString(), 4, 50);
+        return store;
+    }
+
+    @AfterEach
+    void closeStore() {
+        store.close();
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.Labelspy.service;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FirebaseAuthServiceTest {
+
+    private final FirebaseAuth firebaseAuth = mock(FirebaseAuth.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FirebaseAuthService service = new FirebaseAuthService(firebaseAuth, registry, true, 100);
+
+    @Test
+    void verifiesEachTokenOnceWhileItIsValid() throws Exception {
+        FirebaseToken token = token("uid-1", Instant.now().plusSeconds(3600));
+        when(firebaseAuth.verifyIdToken("token-1")).thenReturn(token);
+
+        assertEquals("uid-1", service.getUserId("token-1"));
+        assertEquals("uid-1@example.com", service.getUserEmail("token-1"));
+        assertEquals("uid-1", service.authenticate("token-1").uid());
+
+        verify(firebaseAuth, times(1)).verifyIdToken("token-1");
+        assertEquals(2.0, registry.counter("auth.token.cache.requests", "result", "hit").count());
+    }
+
+    @Test
+    void doesNotCacheTokensAboutToExpire() throws Exception {
+        FirebaseToken token = token("uid-2", Instant.now().plusSeconds(5));
+        when(firebaseAuth.verifyIdToken("token-2")).thenReturn(token);
+
+        service.authenticate("token-2");
+        service.authenticate("token-2");
+
+        verify(firebaseAuth, times(2)).verifyIdToken("token-2");
+    }
+
+    @Test
+    void doesNotCacheRejectedTokens() throws Exception {
+        FirebaseAuthException invalid = mock(FirebaseAuthException.class);
+        when(firebaseAuth.verifyIdToken("bad")).thenThrow(invalid);
+
+        assertThrows(FirebaseAuthException.class, () -> service.authenticate("bad"));
+        assertThrows(FirebaseAuthException.class, () -> service.authenticate("bad"));
+
+        verify(firebaseAuth, times(2)).verifyIdToken("bad");
+    }
+
+    private static FirebaseToken token(String uid, Instant expiresAt) {
+        FirebaseToken token = mock(FirebaseToken.class);
+        when(token.getUid()).thenReturn(uid);
+        when(token.getEmail()).thenReturn(uid + "@example.com");
+        when(token.getClaims()).thenReturn(Map.of("exp", expiresAt.getEpochSecond()));
+        return token;
+    }
+}
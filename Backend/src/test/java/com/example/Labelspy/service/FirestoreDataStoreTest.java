@@ -0,0 +1,23 @@
+package com.example.Labelspy.service;
+
+import com.google.cloud.firestore.FirestoreOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+/**
+ * Runs the conformance suite against the Firestore emulator, e.g.
+ * gcloud emulators firestore start --host-port=localhost:8081 and FIRESTORE_EMULATOR_HOST=localhost:8081.
+ */
+@EnabledIfEnvironmentVariable(named = "FIRESTORE_EMULATOR_HOST", matches = ".+")
+class FirestoreDataStoreTest extends DataStoreConformanceTest {
+
+    @Override
+    protected DataStore createStore() {
+        FirestoreOptions options = FirestoreOptions.newBuilder()
+                .setProjectId("labelspy-test")
+                .setEmulatorHost(System.getenv("FIRESTORE_EMULATOR_HOST"))
+                .build();
+        return new FirestoreService(options.getService(), new UserProfileCache(new SimpleMeterRegistry(), true, 100, 60),
+                new IngredientDictionary());
+    }
+}
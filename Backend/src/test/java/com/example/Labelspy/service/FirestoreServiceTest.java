@@ -0,0 +1,150 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.dto.UserDto;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class FirestoreServiceTest {
+
+    private final Firestore firestore = mock(Firestore.class);
+    private final DocumentReference userRef = mock(DocumentReference.class);
+    private final CollectionReference scans = mock(CollectionReference.class);
+    private final WriteBatch batch = mock(WriteBatch.class);
+    private final FirestoreService firestoreService =
+            new FirestoreService(firestore, new UserProfileCache(new SimpleMeterRegistry(), true, 100, 60),
+                    new IngredientDictionary());
+
+    @BeforeEach
+    void stubFirestore() {
+        CollectionReference users = mock(CollectionReference.class);
+        when(firestore.collection("users")).thenReturn(users);
+        when(users.document("uid")).thenReturn(userRef);
+        when(userRef.collection("scans")).thenReturn(scans);
+        when(scans.document(anyString())).thenAnswer(invocation -> {
+            DocumentReference scanRef = mock(DocumentReference.class);
+            when(scanRef.getId()).thenReturn(invocation.getArgument(0));
+            return scanRef;
+        });
+        when(firestore.batch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void recordsScansInOneBlindCommit() {
+        firestoreService.recordScans("uid", List.of(scan("s1", "Sugar", "Salt"), scan("s2", "Sugar")));
+
+        ArgumentCaptor<Map<String, Object>> userUpdate = ArgumentCaptor.forClass(Map.class);
+        verify(batch).set(eq(userRef), userUpdate.capture(), eq(SetOptions.merge()));
+        verify(batch, times(2)).set(argThat(ref -> ref != userRef), anyMap());
+        verify(batch, times(1)).commit();
+        verify(userRef, never()).get();
+        verify(firestore, never()).runTransaction(any());
+
+        assertEquals(Map.of("scanCount", FieldValue.increment(2)), userUpdate.getValue());
+        assertEquals(Map.of("sugar", 2, "salt", 1),
+                new IngredientDictionary().ingredientDeltas(List.of(scan("s1", "Sugar", "Salt"), scan("s2", "sugar "))));
+    }
+
+    @Test
+    void servesProfileFromCacheAndAppliesOwnWrites() {
+        DocumentSnapshot profile = mock(DocumentSnapshot.class);
+        when(profile.exists()).thenReturn(true);
+        when(profile.getData()).thenReturn(Map.of("email", "user@example.com", "scanCount", 3L,
+                "ingredientCounts", Map.of("Sugar", 3)));
+        when(userRef.get()).thenReturn(ApiFutures.immediateFuture(profile));
+
+        assertEquals(3L, firestoreService.getUserById("uid").getScanCount());
+        firestoreService.recordScans("uid", List.of(scan("s1", "Sugar", "Salt")));
+        UserDto user = firestoreService.getUserById("uid");
+
+        verify(userRef, times(1)).get();
+        assertEquals(4L, user.getScanCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reranksTopIngredientsFromStoredTopAndChangedCountsOnly() throws Exception {
+        ReflectionTestUtils.setField(firestoreService, "maxTopIngredients", 2);
+        Transaction transaction = mock(Transaction.class);
+        when(firestore.runTransaction(any())).thenAnswer(invocation ->
+                ApiFutures.immediateFuture(invocation.<Transaction.Function<?>>getArgument(0).updateCallback(transaction)));
+        DocumentSnapshot masked = mock(DocumentSnapshot.class);
+        when(masked.get("topIngredients")).thenReturn(List.of(
+                Map.of("name", "sugar", "count", 5L), Map.of("name", "salt", "count", 3L)));
+        when(masked.get("countsVersion")).thenReturn(2L);
+        when(masked.get(FieldPath.of("ingredientCounts", "salt"))).thenReturn(3L);
+        when(transaction.getAll(any(DocumentReference[].class), any(FieldMask.class)))
+                .thenReturn(ApiFutures.immediateFuture(List.of(masked)));
+        when(scans.document(anyString())).thenReturn(mock(DocumentReference.class));
+        when(userRef.collection("dailyCounts")).thenReturn(scans);
+
+        firestoreService.incrementIngredientCounts("uid", Map.of("salt", 4, "pepper", 1));
+
+        ArgumentCaptor<Map<String, Object>> userUpdate = ArgumentCaptor.forClass(Map.class);
+        verify(transaction).set(eq(userRef), userUpdate.capture(), eq(SetOptions.merge()));
+        verify(transaction, never()).get(any(DocumentReference.class));
+        assertEquals(List.of(Map.of("name", "salt", "count", 7), Map.of("name", "sugar", "count", 5)),
+                userUpdate.getValue().get("topIngredients"));
+        assertEquals(Map.of("salt", FieldValue.increment(4), "pepper", FieldValue.increment(1)),
+                userUpdate.getValue().get("ingredientCounts"));
+    }
+
+    @Test
+    void reportsOnlyTheUsersWhoseTransactionFailed() throws Exception {
+        DocumentReference otherRef = mock(DocumentReference.class);
+        when(firestore.collection("users").document("other")).thenReturn(otherRef);
+        Transaction transaction = mock(Transaction.class);
+        when(firestore.runTransaction(any())).thenAnswer(invocation -> {
+            try {
+                return ApiFutures.immediateFuture(invocation.<Transaction.Function<?>>getArgument(0).updateCallback(transaction));
+            } catch (Exception e) {
+                return ApiFutures.immediateFailedFuture(e);
+            }
+        });
+        DocumentSnapshot masked = mock(DocumentSnapshot.class);
+        when(masked.get("topIngredients")).thenReturn(List.of());
+        when(masked.get("countsVersion")).thenReturn(2L);
+        when(transaction.getAll(any(DocumentReference[].class), any(FieldMask.class))).thenAnswer(invocation ->
+                invocation.<DocumentReference[]>getArgument(0)[0] == otherRef
+                        ? ApiFutures.immediateFailedFuture(new IllegalStateException("contention"))
+                        : ApiFutures.immediateFuture(List.of(masked)));
+        when(userRef.collection("dailyCounts")).thenReturn(scans);
+        when(otherRef.collection("dailyCounts")).thenReturn(scans);
+
+        PartialCountUpdateException failure = assertThrows(PartialCountUpdateException.class, () ->
+                firestoreService.incrementIngredientCounts(Map.of("uid", Map.of("salt", 1), "other", Map.of("salt", 1))));
+
+        assertEquals(java.util.Set.of("other"), failure.getFailedUserIds());
+        verify(transaction).set(eq(userRef), anyMap(), eq(SetOptions.merge()));
+        verify(transaction, never()).set(eq(otherRef), anyMap(), any(SetOptions.class));
+    }
+
+    private static AnalysisResult scan(String scanId, String... names) {
+        AnalysisResult result = new AnalysisResult();
+        result.setScanId(scanId);
+        result.setIngredients(Arrays.stream(names).map(name -> {
+            IngredientInfo ingredient = new IngredientInfo();
+            ingredient.setName(name);
+            return ingredient;
+        }).toList());
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.config.GeminiConfig;
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.service.preprocess.ImagePreprocessor;
+import com.example.Labelspy.support.SyntheticLabels;
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import com.example.Labelspy.util.ImageTooLargeException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.ObservationView;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sends a batch through a stub that answers each multi-image request with one result per image,
+ * listed in reverse order so the split has to follow imageIndex. Uploads that are not images pass
+ * the pre-processor untouched, so the stub reads each label back as text.
+ */
+class GeminiBatchTest {
+
+    private static final long MAX_PIXELS = 100_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Integer> imagesPerCall = new CopyOnWriteArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    /** "child < parent" for every observation started */
+    private final List<String> observed = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private GeminiService geminiService;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1beta/models/stub:generateContent", exchange -> {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            List<String> images = new ArrayList<>();
+            for (JsonNode part : request.path("contents").path(0).path("parts")) {
+                if (part.has("inline_data")) {
+                    images.add(new String(Base64.getDecoder().decode(part.path("inline_data").path("data").asText()),
+                            StandardCharsets.UTF_8));
+                }
+            }
+            imagesPerCall.add(images.size());
+
+            String text;
+            if (images.size() == 1) {
+                text = objectMapper.writeValueAsString(analysis(images.get(0)));
+            } else {
+                List<Map<String, Object>> results = new ArrayList<>();
+                for (int i = images.size() - 1; i >= 0; i--) {
+                    Map<String, Object> entry = new LinkedHashMap<>(analysis(images.get(i)));
+                    entry.put("imageIndex", i);
+                    results.add(entry);
+                }
+                text = objectMapper.writeValueAsString(Map.of("results", results));
+            }
+            byte[] body = objectMapper.writeValueAsBytes(Map.of("candidates", List.of(Map.of(
+                    "content", Map.of("parts", List.of(Map.of("text", text))), "finishReason", "STOP")),
+                    "usageMetadata", Map.of("promptTokenCount", 300 * images.size(), "candidatesTokenCount", 40)));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        GeminiConfig config = new GeminiConfig();
+        config.setApiKey("test");
+        config.setRequestTimeoutMs(10_000);
+        config.setApiUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/stub:generateContent");
+        GeminiCallGuard guard = new GeminiCallGuard(new AimdLimiter(4, 1, 4, 0.75, Long.MAX_VALUE),
+                new CircuitBreaker(10, 10, 0.5, 1000, 1), registry, 1, 0, 0);
+        ScanResultCache cache = new ScanResultCache(objectMapper, registry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "ttlMinutes", 60L);
+        cache.init();
+        ObservationRegistry observations = ObservationRegistry.create();
+        observations.observationConfig()
+                .observationHandler(new DefaultMeterObservationHandler(registry))
+                .observationHandler(new ObservationHandler<>() {
+                    @Override
+                    public void onStart(Observation.Context context) {
+                        ObservationView parent = context.getParentObservation();
+                        observed.add(context.getName() + " < " + (parent == null ? "none" : parent.getContextView().getName()));
+                    }
+
+                    @Override
+                    public boolean supportsContext(Observation.Context context) {
+                        return true;
+                    }
+                });
+        GeminiMetrics metrics = new GeminiMetrics(registry, observations);
+        geminiService = new GeminiService(new GeminiClient(HttpClient.newHttpClient(), config, objectMapper, metrics), guard,
+                objectMapper, cache, new NearDuplicateIndex(objectMapper, registry),
+                new ImagePreprocessor(List.of(), registry, true, 0.85f, MAX_PIXELS), new InFlightScans(objectMapper, registry),
+                new IngredientKnowledgeBase(new IngredientDictionary(), objectMapper, registry, false, "", ""), metrics);
+        ReflectionTestUtils.setField(geminiService, "imagesPerRequest", 2);
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void splitsBatchIntoBoundedRequestsAndBackIntoPerImageResults() {
+        List<ScanUpload> uploads = List.of(upload("soda"), upload("crisps"), upload("bread"));
+
+        List<CompletableFuture<AnalysisResult>> results = geminiService.analyzeBatchAsync(uploads);
+
+        assertEquals(List.of("soda", "crisps", "bread"),
+                results.stream().map(result -> result.join().getSummary()).toList());
+        assertEquals(List.of(2, 1), imagesPerCall.stream().sorted(Comparator.reverseOrder()).toList());
+
+        geminiService.analyzeBatchAsync(List.of(upload("crisps"))).get(0).join();
+        assertEquals(2, imagesPerCall.size(), "batch results are cached per image");
+    }
+
+    @Test
+    void recordsTokensStagesAndPayloadsPerOperation() {
+        geminiService.analyzeBatchAsync(List.of(upload("soda"), upload("crisps"), upload("bread")))
+                .forEach(CompletableFuture::join);
+
+        assertEquals(600, registry.counter("gemini.tokens", "operation", "batch", "type", "prompt").count());
+        assertEquals(300, registry.counter("gemini.tokens", "operation", "scan", "type", "prompt").count());
+        assertEquals(80, registry.find("gemini.tokens").tag("type", "output").counters().stream()
+                .mapToDouble(counter -> counter.count()).sum());
+        assertEquals(1, registry.get("gemini.call").tags("operation", "batch", "error", "none").timer().count());
+        assertEquals(2, registry.get("gemini.http").tag("status", "200").timers().stream()
+                .mapToLong(timer -> timer.count()).sum());
+        assertEquals(2, registry.get("gemini.payload").tag("direction", "request").summaries().size());
+
+        assertTrue(observed.containsAll(List.of("gemini.request.build < gemini.call", "gemini.http < gemini.call",
+                "gemini.response.parse < gemini.call")), observed.toString());
+    }
+
+    @Test
+    void anUploadThatCannotBePreprocessedFailsOnlyItself() {
+        byte[] oversized = SyntheticLabels.png(SyntheticLabels.label(1, 400, 300));
+        List<ScanUpload> uploads = List.of(upload("soda"), new ScanUpload(oversized, "image/png"), upload("bread"));
+
+        List<CompletableFuture<AnalysisResult>> results = geminiService.analyzeBatchAsync(uploads);
+
+        assertEquals("soda", results.get(0).join().getSummary());
+        CompletionException error = assertThrows(CompletionException.class, () -> results.get(1).join());
+        assertInstanceOf(ImageTooLargeException.class, error.getCause());
+        assertEquals("bread", results.get(2).join().getSummary());
+        assertEquals(List.of(2), imagesPerCall, "the other two still share one request");
+    }
+
+    private static ScanUpload upload(String label) {
+        return new ScanUpload(label.getBytes(StandardCharsets.UTF_8), "image/jpeg");
+    }
+
+    private static Map<String, Object> analysis(String label) {
+        return Map.of("scanId", "scan-" + label, "ingredients", List.of(Map.of("name", label + " base")),
+                "summary", label);
+    }
+}
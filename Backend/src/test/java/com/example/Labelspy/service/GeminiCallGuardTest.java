@@ -0,0 +1,145 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.config.GeminiConfig;
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the guard against a local stub that answers each request with the next scripted status
+ * code, falling back to 200 once the script is exhausted.
+ */
+class GeminiCallGuardTest {
+
+    private final Queue<Integer> script = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private HttpServer server;
+    private GeminiClient client;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            hits.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Integer status = script.poll();
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status == null ? 200 : status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        GeminiConfig config = new GeminiConfig();
+        config.setApiKey("test");
+        config.setRequestTimeoutMs(10_000);
+        config.setApiUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/stub:generateContent");
+        client = new GeminiClient(HttpClient.newHttpClient(), config, new ObjectMapper(),
+                new GeminiMetrics(registry, ObservationRegistry.NOOP));
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void retriesTransientFailures() throws Exception {
+        script.addAll(List.of(503, 429));
+        GeminiCallGuard guard = guard(new AimdLimiter(8, 1, 8, 0.5, Long.MAX_VALUE),
+                new CircuitBreaker(10, 10, 0.5, 60_000, 1), 3);
+
+        assertEquals("{}", guard.execute(() -> client.generate(Map.of())).get(5, TimeUnit.SECONDS));
+        assertEquals(3, hits.get());
+        assertEquals(2.0, registry.counter("gemini.calls.retries").count());
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        script.add(400);
+        GeminiCallGuard guard = guard(new AimdLimiter(8, 1, 8, 0.5, Long.MAX_VALUE),
+                new CircuitBreaker(10, 10, 0.5, 60_000, 1), 3);
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> guard.execute(() -> client.generate(Map.of())).get(5, TimeUnit.SECONDS));
+        assertEquals(400, ((GeminiHttpException) error.getCause()).getStatusCode());
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    void opensCircuitAndRecoversAfterTrialCall() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            script.add(500);
+        }
+        CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, 200, 1);
+        GeminiCallGuard guard = guard(new AimdLimiter(8, 1, 8, 0.5, Long.MAX_VALUE), breaker, 1);
+
+        for (int i = 0; i < 4; i++) {
+            ExecutionException error = assertThrows(ExecutionException.class,
+                    () -> guard.execute(() -> client.generate(Map.of())).get(5, TimeUnit.SECONDS));
+            assertInstanceOf(GeminiHttpException.class, error.getCause());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        ExecutionException rejected = assertThrows(ExecutionException.class,
+                () -> guard.execute(() -> client.generate(Map.of())).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(GeminiUnavailableException.class, rejected.getCause());
+        assertEquals(4, hits.get(), "an open circuit must not reach the upstream");
+
+        Thread.sleep(250);
+        assertEquals("{}", guard.execute(() -> client.generate(Map.of())).get(5, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void rejectsBeyondLimitAndBacksOffOnThrottling() throws Exception {
+        AimdLimiter limiter = new AimdLimiter(2, 1, 8, 0.5, Long.MAX_VALUE);
+        GeminiCallGuard guard = guard(limiter, new CircuitBreaker(10, 10, 0.5, 60_000, 1), 1);
+        release = new CountDownLatch(1);
+        script.addAll(List.of(429, 429));
+
+        CompletableFuture<String> first = guard.execute(() -> client.generate(Map.of()));
+        CompletableFuture<String> second = guard.execute(() -> client.generate(Map.of()));
+        ExecutionException rejected = assertThrows(ExecutionException.class,
+                () -> guard.execute(() -> client.generate(Map.of())).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(GeminiUnavailableException.class, rejected.getCause());
+        assertEquals(1.0, registry.counter("gemini.calls.rejected", "reason", "limit").count());
+
+        release.countDown();
+        assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private GeminiCallGuard guard(AimdLimiter limiter, CircuitBreaker breaker, int maxAttempts) {
+        return new GeminiCallGuard(limiter, breaker, registry, maxAttempts, 10, 50);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.config.GeminiConfig;
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.service.preprocess.ImagePreprocessor;
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Cancels scans through the real GeminiService, guard and client against a stub that holds the
+ * first request open and answers later ones with 503.
+ */
+class GeminiCancellationTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<CompletableFuture<?>> exchanges = new CopyOnWriteArrayList<>();
+    private final CountDownLatch received = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AimdLimiter limiter = new AimdLimiter(4, 1, 4, 0.75, Long.MAX_VALUE);
+    // two recorded calls with one failure would open it
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 2, 0.5, 60_000, 1);
+    private HttpServer server;
+    private HttpClient realClient;
+    private GeminiService geminiService;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1beta/models/stub:generateContent", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (requests.incrementAndGet() == 1) {
+                received.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+
+        GeminiConfig config = new GeminiConfig();
+        config.setApiKey("test");
+        config.setRequestTimeoutMs(10_000);
+        config.setApiUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/stub:generateContent");
+        realClient = HttpClient.newHttpClient();
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(invocation -> {
+            CompletableFuture<?> exchange = realClient.sendAsync(invocation.<HttpRequest>getArgument(0),
+                    invocation.<HttpResponse.BodyHandler<?>>getArgument(1));
+            exchanges.add(exchange);
+            return exchange;
+        }).when(httpClient).sendAsync(any(), any());
+
+        GeminiCallGuard guard = new GeminiCallGuard(limiter, circuitBreaker, registry, 1, 0, 0);
+        ScanResultCache cache = new ScanResultCache(objectMapper, registry);
+        GeminiMetrics metrics = new GeminiMetrics(registry, ObservationRegistry.create());
+        geminiService = new GeminiService(new GeminiClient(httpClient, config, objectMapper, metrics), guard,
+                objectMapper, cache, new NearDuplicateIndex(objectMapper, registry),
+                new ImagePreprocessor(List.of(), registry, false, 0.85f, 50_000_000), new InFlightScans(objectMapper, registry),
+                new IngredientKnowledgeBase(new IngredientDictionary(), objectMapper, registry, false, "", ""), metrics);
+        ReflectionTestUtils.setField(cache, "enabled", false);
+    }
+
+    @AfterEach
+    void stopStub() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void httpExchangeIsCancelledOnlyWhenEveryWaiterLeaves() throws Exception {
+        byte[] image = "soda".getBytes(StandardCharsets.UTF_8);
+        CompletableFuture<AnalysisResult> first = geminiService.analyzeImageAsync(image, "image/jpeg");
+        CompletableFuture<AnalysisResult> second = geminiService.analyzeImageAsync(image, "image/jpeg");
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals(1, exchanges.size());
+        CompletableFuture<?> exchange = exchanges.get(0);
+
+        first.cancel(true);
+        assertFalse(exchange.isDone(), "the other waiter still wants the answer");
+        assertEquals(1, limiter.getInFlight());
+
+        second.cancel(true);
+        assertAborted(exchange);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, registry.counter("scan.coalesce.abandoned").count());
+    }
+
+    /** HttpClient may fail the exchange with its own "Request cancelled" before the cancel call marks it */
+    private static void assertAborted(CompletableFuture<?> exchange) {
+        Throwable error = exchange.handle((value, e) -> e).getNow(null);
+        assertInstanceOf(CancellationException.class,
+                error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+    }
+
+    @Test
+    void cancelledCallIsNotRecordedAsSuccess() throws Exception {
+        CompletableFuture<AnalysisResult> abandoned =
+                geminiService.analyzeImageAsync("soda".getBytes(StandardCharsets.UTF_8), "image/jpeg");
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        abandoned.cancel(true);
+
+        CompletableFuture<AnalysisResult> failed =
+                geminiService.analyzeImageAsync("crisps".getBytes(StandardCharsets.UTF_8), "image/jpeg");
+        CompletionException error = assertThrows(CompletionException.class, failed::join);
+        assertInstanceOf(GeminiHttpException.class, error.getCause());
+
+        // had the cancelled call counted as a success, one failure in two calls would have opened it
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.config.GeminiConfig;
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.service.preprocess.ImagePreprocessor;
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs scans against a stub that only lists names for label images and describes ingredients in
+ * text-only requests, so the knowledge base has to supply everything else.
+ */
+class GeminiEnrichmentTest {
+
+    private static final Pattern LISTED = Pattern.compile("(?m)^(\\d+)\\. (.+)$");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private GeminiService geminiService;
+
+    @TempDir
+    Path knowledgeDir;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1beta/models/stub:generateContent", exchange -> {
+            JsonNode parts = objectMapper.readTree(exchange.getRequestBody()).path("contents").path(0).path("parts");
+            Map<String, Object> answer;
+            if (parts.path(0).has("inline_data")) {
+                calls.add("extract");
+                String label = new String(Base64.getDecoder().decode(parts.path(0).path("inline_data").path("data").asText()),
+                        StandardCharsets.UTF_8);
+                answer = Map.of("scanId", "scan", "summary", label, "ingredients",
+                        Arrays.stream(label.split(",")).map(name -> Map.of("name", name)).toList());
+            } else {
+                calls.add("describe");
+                List<Map<String, Object>> described = new ArrayList<>();
+                Matcher listed = LISTED.matcher(parts.path(0).path("text").asText());
+                while (listed.find()) {
+                    described.add(Map.of("index", Integer.parseInt(listed.group(1)), "name", listed.group(2),
+                            "category", "Staple", "description", "about " + listed.group(2).toLowerCase()));
+                }
+                answer = Map.of("ingredients", described);
+            }
+            byte[] body = objectMapper.writeValueAsBytes(Map.of("candidates", List.of(Map.of(
+                    "content", Map.of("parts", List.of(Map.of("text", objectMapper.writeValueAsString(answer)))),
+                    "finishReason", "STOP"))));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        GeminiConfig config = new GeminiConfig();
+        config.setApiKey("test");
+        config.setRequestTimeoutMs(10_000);
+        config.setApiUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/stub:generateContent");
+        GeminiCallGuard guard = new GeminiCallGuard(new AimdLimiter(4, 1, 4, 0.75, Long.MAX_VALUE),
+                new CircuitBreaker(10, 10, 0.5, 1000, 1), registry, 1, 0, 0);
+        GeminiMetrics metrics = new GeminiMetrics(registry, ObservationRegistry.NOOP);
+        geminiService = new GeminiService(new GeminiClient(HttpClient.newHttpClient(), config, objectMapper, metrics), guard,
+                objectMapper, new ScanResultCache(objectMapper, registry), new NearDuplicateIndex(objectMapper, registry),
+                new ImagePreprocessor(List.of(), registry, false, 0.85f, 50_000_000), new InFlightScans(objectMapper, registry),
+                knowledgeBase(), metrics);
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void onlyUnknownIngredientsAreSentForDescription() throws Exception {
+        AnalysisResult first = geminiService.analyzeImage(label("Sugar,Salt"), "image/jpeg");
+        assertEquals(List.of("extract", "describe"), calls);
+        assertEquals("about sugar", first.getIngredients().get(0).getDescription());
+
+        AnalysisResult second = geminiService.analyzeImage(label("salt,SUGAR,Water"), "image/jpeg");
+        assertEquals(List.of("extract", "describe", "extract", "describe"), calls);
+        assertEquals(List.of("about salt", "about sugar", "about water"),
+                second.getIngredients().stream().map(IngredientInfo::getDescription).toList());
+        assertEquals("SUGAR", second.getIngredients().get(1).getName(), "the label's own spelling is kept");
+
+        IngredientInfo water = new IngredientInfo();
+        water.setName("water");
+        assertTrue(knowledgeBase().enrich(water), "learned entries survive a restart");
+        assertEquals("about water", water.getDescription());
+    }
+
+    private IngredientKnowledgeBase knowledgeBase() {
+        IngredientKnowledgeBase knowledgeBase = new IngredientKnowledgeBase(new IngredientDictionary(), objectMapper,
+                registry, true, knowledgeDir.toString(), "");
+        knowledgeBase.init();
+        return knowledgeBase;
+    }
+
+    private static byte[] label(String names) {
+        return names.getBytes(StandardCharsets.UTF_8);
+    }
+}
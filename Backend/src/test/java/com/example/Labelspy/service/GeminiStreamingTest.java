@@ -0,0 +1,197 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.config.GeminiConfig;
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.IngredientInfo;
+import com.example.Labelspy.service.preprocess.ImagePreprocessor;
+import com.example.Labelspy.util.AimdLimiter;
+import com.example.Labelspy.util.CircuitBreaker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replays a chunked streamGenerateContent response from a local stub. The stub holds back the
+ * rest of the response until the client has emitted the first ingredient, so the test only passes
+ * if ingredients are delivered before the model output is complete. A second stub stops sending
+ * halfway through, which the read deadline has to catch, or every caller waiting on it leaves.
+ */
+class GeminiStreamingTest {
+
+    private static final List<String> FRAGMENTS = List.of(
+            "```json\n{\"scanId\": \"s1\", \"ingredients\": [{\"name\": \"Sugar\", \"cat",
+            "egory\": \"Sweetener\"}, {\"name\": \"E33",
+            "0 Citric acid\", \"eNumber\": \"E330\"}], \"summary\": \"two\"}\n```");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CountDownLatch firstIngredient = new CountDownLatch(1);
+    private final AtomicBoolean emittedBeforeRest = new AtomicBoolean();
+    private final CountDownLatch stallReleased = new CountDownLatch(1);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AimdLimiter limiter = new AimdLimiter(4, 1, 4, 0.75, Long.MAX_VALUE);
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(10, 1, 0.5, 1000, 1);
+    private HttpServer server;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1beta/models/stub:streamGenerateContent", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                writeEvent(out, FRAGMENTS.get(0), null);
+                writeEvent(out, FRAGMENTS.get(1), null);
+                emittedBeforeRest.set(firstIngredient.await(5, TimeUnit.SECONDS));
+                writeEvent(out, FRAGMENTS.get(2), "STOP");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.createContext("/v1beta/models/stall:streamGenerateContent", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                writeEvent(out, FRAGMENTS.get(0), null);
+                stallReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (java.io.IOException ignored) {
+                // the client gave up on the stream
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stallReleased.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void streamsIngredientsBeforeResponseCompletes() throws Exception {
+        GeminiService geminiService = service("stub", 10_000);
+        List<IngredientInfo> streamed = new CopyOnWriteArrayList<>();
+
+        AnalysisResult result = geminiService.analyzeImage(new byte[]{1, 2, 3}, "image/jpeg", ingredient -> {
+            streamed.add(ingredient);
+            firstIngredient.countDown();
+        });
+
+        assertTrue(emittedBeforeRest.get(), "first ingredient should arrive before the final chunk");
+        assertEquals(List.of("Sugar", "E330 Citric acid"), streamed.stream().map(IngredientInfo::getName).toList());
+        assertEquals("s1", result.getScanId());
+        assertEquals(2, result.getIngredients().size());
+        assertEquals("two", result.getSummary());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void aStreamThatStopsSendingFailsAndCountsAgainstTheGuard() {
+        GeminiService geminiService = service("stall", 300);
+
+        long start = System.nanoTime();
+        Exception error = assertThrows(Exception.class,
+                () -> geminiService.analyzeImage(new byte[]{1, 2, 3}, "image/jpeg", ingredient -> { }));
+
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5, "the idle deadline ends the read");
+        Throwable cause = error;
+        while (cause != null && !(cause instanceof HttpTimeoutException)) {
+            cause = cause.getCause();
+        }
+        assertNotNull(cause, "fails with a read timeout, not " + error);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(3, limiter.getLimit(), "the stall is a dropped call");
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    void aSharedStreamIsCancelledOnlyWhenEveryCallerLeaves() throws Exception {
+        GeminiService geminiService = service("stall", 10_000);
+        byte[] image = {1, 2, 3};
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        Thread leader = caller(geminiService, image, errors);
+        awaitTrue(() -> limiter.getInFlight() == 1);
+        Thread follower = caller(geminiService, image, errors);
+        awaitTrue(() -> registry.counter("scan.coalesce.requests", "role", "collapsed").count() == 1);
+
+        leader.interrupt();
+        leader.join(5_000);
+        Thread.sleep(100);
+        assertEquals(1, limiter.getInFlight(), "the follower still wants the stream");
+
+        follower.interrupt();
+        follower.join(5_000);
+        awaitTrue(() -> limiter.getInFlight() == 0);
+        assertEquals(2, errors.stream().filter(InterruptedException.class::isInstance).count(), errors.toString());
+        assertEquals(1, registry.counter("scan.coalesce.abandoned").count());
+        assertEquals(4, limiter.getLimit(), "leaving is not a dropped call");
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    private static Thread caller(GeminiService geminiService, byte[] image, List<Throwable> errors) {
+        return Thread.ofPlatform().start(() -> {
+            try {
+                geminiService.analyzeImage(image, "image/jpeg", ingredient -> { });
+            } catch (Exception e) {
+                errors.add(e);
+            }
+        });
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private GeminiService service(String model, long streamIdleTimeoutMs) {
+        GeminiConfig config = new GeminiConfig();
+        config.setApiKey("test");
+        config.setRequestTimeoutMs(10_000);
+        config.setStreamIdleTimeoutMs(streamIdleTimeoutMs);
+        config.setApiUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/" + model + ":generateContent");
+        GeminiMetrics metrics = new GeminiMetrics(registry, ObservationRegistry.NOOP);
+        GeminiClient client = new GeminiClient(HttpClient.newHttpClient(), config, objectMapper, metrics);
+        GeminiCallGuard guard = new GeminiCallGuard(limiter, circuitBreaker, registry, 1, 0, 0);
+        return new GeminiService(client, guard, objectMapper,
+                new ScanResultCache(objectMapper, registry),
+                new NearDuplicateIndex(objectMapper, registry),
+                new ImagePreprocessor(List.of(), registry, false, 0.85f, 50_000_000),
+                new InFlightScans(objectMapper, registry),
+                new IngredientKnowledgeBase(new IngredientDictionary(), objectMapper, registry, false, "", ""), metrics);
+    }
+
+    private void writeEvent(OutputStream out, String text, String finishReason) throws java.io.IOException {
+        Map<String, Object> candidate = finishReason == null
+                ? Map.of("content", Map.of("parts", List.of(Map.of("text", text))))
+                : Map.of("content", Map.of("parts", List.of(Map.of("text", text))), "finishReason", finishReason);
+        String event = "data: " + objectMapper.writeValueAsString(Map.of("candidates", List.of(candidate))) + "\r\n\r\n";
+        out.write(event.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
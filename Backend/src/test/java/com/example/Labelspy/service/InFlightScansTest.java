@@ -0,0 +1,71 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightScansTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final InFlightScans inFlightScans = new InFlightScans(new ObjectMapper(), registry);
+
+    @Test
+    void concurrentIdenticalScansShareOneCall() {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<AnalysisResult> upstream = new CompletableFuture<>();
+
+        CompletableFuture<AnalysisResult> first = inFlightScans.execute("key", () -> {
+            calls.incrementAndGet();
+            return upstream;
+        });
+        CompletableFuture<AnalysisResult> second = inFlightScans.execute("key", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        upstream.complete(result("s1"));
+
+        assertEquals(1, calls.get());
+        assertEquals("s1", first.join().getScanId());
+        assertEquals("ok", second.join().getSummary());
+        assertNotEquals("s1", second.join().getScanId(), "collapsed callers get their own scanId");
+        assertEquals(1.0, registry.counter("scan.coalesce.requests", "role", "collapsed").count());
+
+        inFlightScans.execute("key", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertEquals(2, calls.get(), "a finished flight is not joined");
+    }
+
+    @Test
+    void upstreamIsCancelledOnlyWhenEveryWaiterLeaves() {
+        CompletableFuture<AnalysisResult> upstream = new CompletableFuture<>();
+        CompletableFuture<AnalysisResult> first = inFlightScans.execute("key", () -> upstream);
+        CompletableFuture<AnalysisResult> second = inFlightScans.execute("key", CompletableFuture::new);
+
+        first.cancel(true);
+        assertFalse(upstream.isCancelled());
+
+        second.cancel(true);
+        assertTrue(upstream.isCancelled());
+
+        CompletableFuture<AnalysisResult> fresh = new CompletableFuture<>();
+        assertFalse(inFlightScans.execute("key", () -> fresh).isDone());
+        fresh.complete(result("s2"));
+    }
+
+    private static AnalysisResult result(String scanId) {
+        AnalysisResult result = new AnalysisResult();
+        result.setScanId(scanId);
+        result.setIngredients(List.of());
+        result.setSummary("ok");
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.IngredientInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IncrementalIngredientParserTest {
+
+    private static final String RESPONSE = """
+            ```json
+            {
+              "scanId": "abc",
+              "notes": {"ingredients": [{"name": "not me"}]},
+              "ingredients": [
+                {"name": "Sugar", "eNumber": null, "alternativeNames": ["sucrose", "cane {sugar}"]},
+                {"name": "Soy \\"Lecithin\\"", "eNumber": "E322", "category": "Emulsifier"},
+                {"name": "Citric acid", "description": "acid ] with [ brackets }"}
+              ],
+              "summary": "three ingredients"
+            }
+            ```""";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void emitsTopLevelIngredientsOnly() {
+        List<IngredientInfo> emitted = new ArrayList<>();
+        IncrementalIngredientParser parser = new IncrementalIngredientParser(objectMapper, emitted::add);
+
+        parser.feed(RESPONSE);
+
+        assertEquals(List.of("Sugar", "Soy \"Lecithin\"", "Citric acid"),
+                emitted.stream().map(IngredientInfo::getName).toList());
+        assertEquals("E322", emitted.get(1).getENumber());
+    }
+
+    @Test
+    void handlesFragmentsSplitAtEveryPosition() {
+        for (int split = 1; split < RESPONSE.length(); split++) {
+            List<String> names = new ArrayList<>();
+            IncrementalIngredientParser parser =
+                    new IncrementalIngredientParser(objectMapper, ingredient -> names.add(ingredient.getName()));
+
+            parser.feed(RESPONSE.substring(0, split));
+            parser.feed(RESPONSE.substring(split));
+
+            assertEquals(3, names.size(), "split at " + split);
+            assertEquals(RESPONSE, parser.getText());
+        }
+    }
+
+    @Test
+    void emitsEachIngredientAsSoonAsItCloses() {
+        List<String> names = new ArrayList<>();
+        IncrementalIngredientParser parser =
+                new IncrementalIngredientParser(objectMapper, ingredient -> names.add(ingredient.getName()));
+
+        parser.feed("{\"ingredients\": [{\"name\": \"Salt\"}, {\"name\": \"Wa");
+        assertEquals(List.of("Salt"), names);
+
+        parser.feed("ter\"}");
+        assertEquals(List.of("Salt", "Water"), names);
+    }
+}
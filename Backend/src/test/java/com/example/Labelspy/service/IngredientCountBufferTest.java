@@ -0,0 +1,102 @@
+package com.example.Labelspy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+class IngredientCountBufferTest {
+
+    private final DataStore dataStore = mock(DataStore.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path journalDir;
+
+    @Test
+    void sumsDeltasAndWritesOncePerFlush() {
+        IngredientCountBuffer buffer = buffer();
+
+        buffer.add("a", Map.of("Sugar", 1, "Salt", 1));
+        buffer.add("a", Map.of("Sugar", 2));
+        buffer.add("b", Map.of("Salt", 1));
+        assertEquals(2, buffer.flush());
+
+        verify(dataStore).incrementIngredientCounts(
+                Map.of("a", Map.of("Sugar", 3, "Salt", 1), "b", Map.of("Salt", 1)));
+        assertEquals(0, buffer.flush());
+        verify(dataStore, times(1)).incrementIngredientCounts(anyMap());
+    }
+
+    @Test
+    void failedFlushKeepsDeltasAndJournalSurvivesRestart() {
+        IngredientCountBuffer buffer = buffer();
+        doThrow(new RuntimeException("unavailable")).when(dataStore).incrementIngredientCounts(anyMap());
+
+        buffer.add("a", Map.of("Sugar", 1));
+        assertThrows(RuntimeException.class, buffer::flush);
+        buffer.add("a", Map.of("Sugar", 1));
+
+        // simulate a crash: the first buffer is never flushed or shut down
+        doNothing().when(dataStore).incrementIngredientCounts(anyMap());
+        IngredientCountBuffer restarted = buffer();
+        assertEquals(1, restarted.flush());
+        verify(dataStore, atLeastOnce()).incrementIngredientCounts(Map.of("a", Map.of("Sugar", 2)));
+    }
+
+    @Test
+    void partialFailureRetriesOnlyTheUsersThatFailed() {
+        IngredientCountBuffer buffer = buffer();
+        doThrow(new PartialCountUpdateException("unavailable", Set.of("b"), null))
+                .doNothing()
+                .when(dataStore).incrementIngredientCounts(anyMap());
+
+        buffer.add("a", Map.of("Sugar", 1));
+        buffer.add("b", Map.of("Salt", 2));
+        assertThrows(PartialCountUpdateException.class, buffer::flush);
+        assertEquals(1, buffer.flush());
+
+        verify(dataStore).incrementIngredientCounts(Map.of("a", Map.of("Sugar", 1), "b", Map.of("Salt", 2)));
+        verify(dataStore).incrementIngredientCounts(Map.of("b", Map.of("Salt", 2)));
+        verify(dataStore, times(2)).incrementIngredientCounts(anyMap());
+    }
+
+    @Test
+    void journalIsSyncedPerAppendOrInGroups() throws Exception {
+        IngredientCountBuffer perAppend = buffer();
+        perAppend.add("a", Map.of("Sugar", 1));
+        perAppend.add("b", Map.of("Salt", 1));
+        assertEquals(2, registry.counter("scan.counts.journal.syncs").count());
+
+        SimpleMeterRegistry grouped = new SimpleMeterRegistry();
+        IngredientCountBuffer buffer = new IngredientCountBuffer(dataStore, new ObjectMapper(),
+                grouped, true, 1000, 60_000, journalDir.resolve("grouped").toString(), 50);
+        buffer.init();
+        for (int i = 0; i < 20; i++) {
+            buffer.add("a", Map.of("Sugar", 1));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (grouped.counter("scan.counts.journal.syncs").count() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        double syncs = grouped.counter("scan.counts.journal.syncs").count();
+        assertTrue(syncs >= 1 && syncs < 20, "appends share an fsync, got " + syncs);
+        buffer.shutdown();
+    }
+
+    private IngredientCountBuffer buffer() {
+        IngredientCountBuffer buffer = new IngredientCountBuffer(dataStore, new ObjectMapper(),
+                registry, true, 1000, 60_000, journalDir.toString(), 0);
+        buffer.init();
+        return buffer;
+    }
+}
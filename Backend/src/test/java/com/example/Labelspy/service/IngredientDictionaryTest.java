@@ -0,0 +1,61 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.IngredientInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngredientDictionaryTest {
+
+    private final IngredientDictionary dictionary = new IngredientDictionary();
+
+    @Test
+    void spellingVariantsShareOneId() {
+        assertEquals("e322", dictionary.canonicalId("Soy Lecithin"));
+        assertEquals("e322", dictionary.canonicalId("soy  lecithin"));
+        assertEquals("e322", dictionary.canonicalId("Lecithin (E322)"));
+        assertEquals("e322", dictionary.canonicalId("Emulsifier: E-322"));
+        assertEquals("e500", dictionary.canonicalId("E500ii"));
+        assertEquals("sugar", dictionary.canonicalId("Sugar (cane)"));
+        assertEquals("creme-fraiche", dictionary.canonicalId("Crème Fraîche"));
+        assertNull(dictionary.canonicalId("  "));
+        assertSame(dictionary.canonicalId("Sugar"), dictionary.canonicalId("SUGAR"), "IDs are interned");
+    }
+
+    @Test
+    void resolvesFromTheSeedAndTheIngredientItself() {
+        IngredientInfo emulsifier = new IngredientInfo();
+        emulsifier.setName("Polysorbate 80");
+        emulsifier.setENumber("E433");
+        emulsifier.setAlternativeNames(List.of("Tween 80"));
+        IngredientInfo thickener = new IngredientInfo();
+        thickener.setName("Thickener");
+        thickener.setAlternativeNames(List.of("Xanthan gum"));
+
+        assertEquals("e433", dictionary.canonicalId(emulsifier));
+        assertEquals("e415", dictionary.canonicalId(thickener), "alternative names are looked up in the seed");
+        assertEquals("Lecithins", dictionary.displayName("e322"));
+        assertEquals("E433", dictionary.displayName("e433"), "an answer does not name an ingredient");
+        assertEquals("E476", dictionary.displayName(dictionary.canonicalId("E 476")));
+    }
+
+    @Test
+    void anAnswerCannotRedirectOtherNames() {
+        IngredientInfo mislabelled = new IngredientInfo();
+        mislabelled.setName("Sugar");
+        mislabelled.setENumber("E955");
+        mislabelled.setAlternativeNames(List.of("Salt", "Tween 80"));
+        IngredientDictionary fresh = new IngredientDictionary();
+
+        assertEquals("e955", dictionary.canonicalId(mislabelled));
+        for (String name : List.of("Sugar", "salt", "Tween 80")) {
+            assertEquals(fresh.canonicalId(name), dictionary.canonicalId(name), name + " resolves as on a fresh node");
+        }
+        assertEquals("sugar", dictionary.canonicalId("Sugar"));
+        assertEquals("tween-80", dictionary.canonicalId("Tween 80"));
+        assertEquals("Sugar", dictionary.displayName("sugar"));
+        assertEquals("Tween 80", dictionary.displayName("tween-80"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.util.TokenBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalRateLimitStoreTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void burstUpToCapacityThenWaitForRefill() {
+        LocalRateLimitStore store = new LocalRateLimitStore(registry, 100, 0);
+        TokenBucket bucket = new TokenBucket("scan.user", 3, 6);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, store.tryTake("user:a", bucket, 1));
+        }
+        long wait = store.tryTake("user:a", bucket, 1);
+        assertTrue(wait > 9_000 && wait <= 10_000, "one token refills every 10 s, waited " + wait);
+        assertEquals(0, store.tryTake("user:b", bucket, 3), "keys have their own buckets");
+        assertTrue(store.tryTake("user:b", bucket, 1) > 0);
+    }
+
+    @Test
+    void deniedTakeLeavesTheBucketUntouched() {
+        LocalRateLimitStore store = new LocalRateLimitStore(registry, 100, 0);
+        TokenBucket bucket = new TokenBucket("scan.user", 3, 6);
+
+        assertEquals(0, store.tryTake("user:a", bucket, 2));
+        assertTrue(store.tryTake("user:a", bucket, 2) > 0);
+        assertEquals(0, store.tryTake("user:a", bucket, 1), "the denied batch took nothing");
+    }
+
+    @Test
+    void sweepDropsRefilledBucketsOnly() {
+        LocalRateLimitStore store = new LocalRateLimitStore(registry, 100, 0);
+        TokenBucket fast = new TokenBucket("api.user", 10, 6e9);
+        TokenBucket slow = new TokenBucket("scan.user", 10, 1);
+
+        store.tryTake("user:a", fast, 1);
+        store.tryTake("user:a", slow, 1);
+        store.sweep();
+
+        assertEquals(1, store.size());
+        assertTrue(store.tryTake("user:a", slow, 10) > 0, "the swept bucket kept its state");
+    }
+
+    @Test
+    void newKeysShareAnOverflowBucketOnceFull() {
+        LocalRateLimitStore store = new LocalRateLimitStore(registry, 2, 0);
+        TokenBucket bucket = new TokenBucket("api.anonymous", 2, 1);
+
+        store.tryTake("ip:1", bucket, 1);
+        store.tryTake("ip:2", bucket, 1);
+        assertEquals(0, store.tryTake("ip:3", bucket, 1));
+        assertEquals(0, store.tryTake("ip:4", bucket, 1));
+        assertTrue(store.tryTake("ip:5", bucket, 1) > 0, "ip:3 to ip:5 draw from one bucket");
+        assertEquals(3, store.size());
+        assertEquals(3.0, registry.counter("ratelimit.buckets.overflow").count());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.support.SyntheticLabels;
+import com.example.Labelspy.util.PerceptualHash;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearDuplicateIndexTest {
+
+    private final NearDuplicateIndex index = new NearDuplicateIndex(new ObjectMapper(), new SimpleMeterRegistry());
+
+    @BeforeEach
+    void enable() {
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "maxDistance", 4);
+        ReflectionTestUtils.setField(index, "maxEntries", 100);
+    }
+
+    @Test
+    void reEncodedCopyMatches() throws Exception {
+        BufferedImage label = SyntheticLabels.label(1, 600, 800);
+        index.add(PerceptualHash.of(label), "v", result("s1", "first"));
+
+        AnalysisResult similar = index.findSimilar(PerceptualHash.of(SyntheticLabels.jpeg(label, 0.5f), 50_000_000), "v");
+
+        assertNotNull(similar);
+        assertEquals("first", similar.getSummary());
+        assertNotEquals("s1", similar.getScanId());
+    }
+
+    @Test
+    void sameLayoutWithDifferentIngredientTextDoesNotMatch() {
+        for (int layout = 0; layout < 10; layout++) {
+            index.add(PerceptualHash.of(SyntheticLabels.label(layout, layout, 600, 800)), "v",
+                    result("s" + layout, "label " + layout));
+        }
+        for (int layout = 0; layout < 10; layout++) {
+            long[] otherText = PerceptualHash.of(SyntheticLabels.label(layout, 500 + layout, 600, 800));
+            assertNull(index.findSimilar(otherText, "v"), "layout " + layout + " matched another product's label");
+        }
+    }
+
+    private static AnalysisResult result(String scanId, String summary) {
+        AnalysisResult result = new AnalysisResult();
+        result.setScanId(scanId);
+        result.setSummary(summary);
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.ScanSummary;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class ScanExportServiceTest {
+
+    private final DataStore dataStore = mock(DataStore.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScanExportService exportService =
+            new ScanExportService(dataStore, objectMapper, new SimpleMeterRegistry(), 2);
+
+    @Test
+    void pagesThroughHistoryAndResumesFromCursor() throws Exception {
+        when(dataStore.getScansSince("uid", null, 2)).thenReturn(List.of(scan("s1", "c1"), scan("s2", "c2")));
+        when(dataStore.getScansSince("uid", "c2", 2)).thenReturn(List.of(scan("s3", "c3")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.export("uid", ScanExportService.Format.NDJSON, null, false).writeTo(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        JsonNode last = objectMapper.readTree(lines[2]);
+        assertEquals("s3", last.get("scanId").asText());
+        assertEquals("c3", last.get("cursor").asText());
+        assertEquals("Sugar", last.get("ingredientNames").get(0).asText());
+        verify(dataStore, never()).getScansSince(eq("uid"), eq("c3"), anyInt());
+    }
+
+    @Test
+    void writesGzippedCsvWithQuotedFields() throws Exception {
+        when(dataStore.getScansSince(eq("uid"), isNull(), eq(2))).thenReturn(List.of(scan("s1", "c1")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.export("uid", ScanExportService.Format.CSV, null, true).writeTo(out);
+
+        String csv = new String(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertEquals("scanId,timestamp,ingredientIds,ingredientNames,cursor\n"
+                + "s1,2026-01-02T03:04:05,sugar;e330,\"Sugar;Citric acid, \"\"E330\"\"\",c1\n", csv);
+    }
+
+    private static ExportedScan scan(String scanId, String cursor) {
+        ScanSummary summary = new ScanSummary();
+        summary.setScanId(scanId);
+        summary.setTimestamp(LocalDateTime.of(2026, 1, 2, 3, 4, 5));
+        summary.setIngredientIds(List.of("sugar", "e330"));
+        summary.setIngredientNames(List.of("Sugar", "Citric acid, \"E330\""));
+        return new ExportedScan(summary, cursor);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.example.Labelspy.dto.ScanJobStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs a real {@link ScanJobService} with one job slot over scans that block until released.
+ */
+class ScanJobServiceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ScanService scanService = mock(ScanService.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AnalysisResult result = new AnalysisResult();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        result.setSummary("oat drink");
+        when(scanService.scan(any(), any(), any(), any())).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return result;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    void finishedJobsStayPollableUntilRetentionEnds() throws Exception {
+        ScanJobService kept = service(10, 1000, 15);
+        ScanJobService expiring = service(10, 1000, -1);
+        release.countDown();
+
+        ScanJob job = kept.submit(new byte[100], "image/jpeg", "user-1", false, ScanTiming.now());
+        ScanJob gone = expiring.submit(new byte[100], "image/jpeg", null, false, ScanTiming.now());
+        job.getFuture().join();
+        gone.getFuture().join();
+        awaitFinished(job);
+        awaitFinished(gone);
+
+        ScanJobStatus status = kept.getJob(job.getId()).status();
+        assertEquals(ScanJobStatus.State.COMPLETED, status.getStatus());
+        assertEquals("oat drink", status.getResult().getSummary());
+        assertNull(expiring.getJob(gone.getId()));
+        assertNull(kept.getJob("no-such-job"));
+    }
+
+    @Test
+    void queuedUploadsAreCappedByBytes() throws Exception {
+        ScanJobService service = service(10, 1000, 15);
+        ScanJob running = service.submit(new byte[900], "image/jpeg", null, false, ScanTiming.now());
+        awaitRunning(running);
+        assertEquals(0, queuedBytes(), "a running job's upload no longer counts as queued");
+
+        ScanJob queued = service.submit(new byte[600], "image/jpeg", null, false, ScanTiming.now());
+        assertEquals(600, queuedBytes());
+        assertThrows(RejectedExecutionException.class,
+                () -> service.submit(new byte[600], "image/jpeg", null, false, ScanTiming.now()));
+        ScanJob small = service.submit(new byte[400], "image/jpeg", null, false, ScanTiming.now());
+
+        release.countDown();
+        running.getFuture().join();
+        queued.getFuture().join();
+        small.getFuture().join();
+        assertEquals(0, queuedBytes());
+    }
+
+    @Test
+    void anUploadLargerThanTheCapIsTakenWhenNothingIsQueued() {
+        ScanJobService service = service(10, 1000, 15);
+        release.countDown();
+
+        ScanJob job = service.submit(new byte[2000], "image/jpeg", null, false, ScanTiming.now());
+
+        assertEquals(result, job.getFuture().join());
+        assertEquals(0, queuedBytes());
+    }
+
+    @Test
+    void shedJobsGiveBackTheirBytes() throws Exception {
+        ScanJobService service = service(10, 1000, 15);
+        ScanJob running = service.submit(new byte[100], "image/jpeg", null, false, ScanTiming.now());
+        awaitRunning(running);
+        ScanJob abandoned = service.submit(new byte[500], "image/jpeg", null, false, ScanTiming.now());
+        abandoned.abandon();
+
+        release.countDown();
+        CompletionException error = assertThrows(CompletionException.class, () -> abandoned.getFuture().join());
+        assertInstanceOf(ScanShedException.class, error.getCause());
+        assertEquals(0, queuedBytes());
+        assertEquals(1, registry.counter("scan.shed", "reason", "disconnected").count());
+        verify(scanService, times(1)).scan(any(), any(), any(), any());
+    }
+
+    @Test
+    void storeFullOfUnfinishedJobsRejectsUntilOneFinishes() throws Exception {
+        ScanJobService service = service(2, 1 << 20, 15);
+        ScanJob running = service.submit(new byte[1], "image/jpeg", null, false, ScanTiming.now());
+        awaitRunning(running);
+        ScanJob queued = service.submit(new byte[1], "image/jpeg", null, false, ScanTiming.now());
+
+        assertThrows(RejectedExecutionException.class,
+                () -> service.submit(new byte[1], "image/jpeg", null, false, ScanTiming.now()));
+
+        release.countDown();
+        running.getFuture().join();
+        queued.getFuture().join();
+        ScanJob next = service.submit(new byte[1], "image/jpeg", null, false, ScanTiming.now());
+        assertNotNull(service.getJob(next.getId()));
+        assertNull(service.getJob(running.getId()), "the oldest finished job makes room");
+    }
+
+    @Test
+    void inlineJobsLeaveTheStoreWhenTheyFinish() throws Exception {
+        ScanJobService service = service(10, 1000, 15);
+        release.countDown();
+
+        ScanJob job = service.submitInline(new byte[1], "image/jpeg", null, ScanTiming.now());
+        job.getFuture().join();
+
+        // removal is a dependent of the future, which may run after join returns
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.getJob(job.getId()) != null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNull(service.getJob(job.getId()));
+    }
+
+    private ScanJobService service(int capacity, long maxQueuedBytes, long retentionMinutes) {
+        return new ScanJobService(scanService, registry, ObservationRegistry.NOOP,
+                1, 0, capacity, maxQueuedBytes, retentionMinutes, false, 500, 5000, 0);
+    }
+
+    private double queuedBytes() {
+        return registry.get("scan.jobs.queued.bytes").gauge().value();
+    }
+
+    /** the state follows the future, so join can return a moment before the job reads as finished */
+    private static void awaitFinished(ScanJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!job.isFinished() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(job.isFinished());
+    }
+
+    private static void awaitRunning(ScanJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (job.status().getStatus() != ScanJobStatus.State.RUNNING && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(ScanJobStatus.State.RUNNING, job.status().getStatus());
+    }
+}
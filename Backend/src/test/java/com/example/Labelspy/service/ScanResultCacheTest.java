@@ -0,0 +1,173 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.AnalysisResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScanResultCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<ScanResultCache> caches = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void shutdown() {
+        caches.forEach(ScanResultCache::shutdown);
+    }
+
+    @Test
+    void hitsReturnACopyWithAFreshScanId() {
+        ScanResultCache cache = cache(10, Long.MAX_VALUE);
+        String key = cache.keyFor(new byte[]{1, 2, 3}, "model|prompt");
+        cache.put(key, result("Oat drink"));
+
+        AnalysisResult first = cache.get(key);
+        AnalysisResult second = cache.get(key);
+
+        assertEquals("Oat drink", first.getSummary());
+        assertNotEquals(first.getScanId(), second.getScanId());
+        assertNotEquals(key, cache.keyFor(new byte[]{1, 2, 3}, "model|other-prompt"));
+        assertNull(cache.get(cache.keyFor(new byte[]{4}, "model|prompt")));
+    }
+
+    @Test
+    void diskTierDropsTheOldestFilesPastTheEntryBound() throws Exception {
+        ScanResultCache cache = cache(2, Long.MAX_VALUE);
+        cache.put("a", result("A"));
+        cache.put("b", result("B"));
+        cache.put("c", result("C"));
+        cache.awaitDisk();
+
+        assertEquals(List.of("b.json", "c.json"), files());
+        assertEquals(2, cache.diskSize());
+        assertEquals(1, registry.counter("scan.cache.disk.evictions").count());
+
+        // a new node over the same directory only finds what survived
+        ScanResultCache restarted = cache(2, Long.MAX_VALUE);
+        assertNull(restarted.get("a"));
+        assertEquals("C", restarted.get("c").getSummary());
+    }
+
+    @Test
+    void diskTierStaysWithinTheByteBound() throws Exception {
+        ScanResultCache probe = cache(100, Long.MAX_VALUE);
+        probe.put("probe", result("X"));
+        probe.awaitDisk();
+        long fileBytes = probe.diskBytes();
+        Files.delete(directory.resolve("probe.json"));
+
+        ScanResultCache cache = cache(100, fileBytes * 3 - 1);
+        for (String key : List.of("a", "b", "c", "d")) {
+            cache.put(key, result(key.toUpperCase()));
+        }
+        cache.awaitDisk();
+
+        assertEquals(List.of("c.json", "d.json"), files());
+        assertTrue(cache.diskBytes() <= fileBytes * 3 - 1);
+        assertEquals(cache.diskBytes(), Files.size(directory.resolve("c.json")) + Files.size(directory.resolve("d.json")));
+    }
+
+    @Test
+    void rewritingAKeyDoesNotCountItTwice() throws Exception {
+        ScanResultCache cache = cache(2, Long.MAX_VALUE);
+        cache.put("a", result("A"));
+        cache.put("a", result("A2"));
+        cache.put("b", result("B"));
+        cache.awaitDisk();
+
+        assertEquals(2, cache.diskSize());
+        assertEquals(0, registry.counter("scan.cache.disk.evictions").count());
+    }
+
+    @Test
+    void periodicPurgeDeletesExpiredFiles() throws Exception {
+        ScanResultCache cache = cache(10, Long.MAX_VALUE);
+        cache.put("a", result("A"));
+        cache.put("b", result("B"));
+        cache.awaitDisk();
+
+        ReflectionTestUtils.setField(cache, "ttlMinutes", -1L);
+        cache.purgeExpiredFromDisk();
+
+        assertEquals(List.of(), files());
+        assertEquals(0, cache.diskSize());
+        assertEquals(0, cache.diskBytes());
+    }
+
+    @Test
+    void anExpiredFileFoundOnReadIsDeletedInTheBackground() throws Exception {
+        ScanResultCache cache = cache(10, Long.MAX_VALUE);
+        cache.put("a", result("A"));
+        cache.put("b", result("B"));
+        cache.awaitDisk();
+
+        ReflectionTestUtils.setField(cache, "ttlMinutes", -1L);
+        assertNull(cache.get("a"));
+        cache.awaitDisk();
+
+        assertEquals(List.of("b.json"), files());
+        assertEquals(1, cache.diskSize());
+    }
+
+    @Test
+    void startupClearsLeftoversAndTrimsToTheBounds() throws Exception {
+        ScanResultCache previous = cache(10, Long.MAX_VALUE);
+        for (String key : List.of("a", "b", "c")) {
+            previous.put(key, result(key.toUpperCase()));
+        }
+        previous.awaitDisk();
+        Files.writeString(directory.resolve("d123.tmp"), "{");
+        Files.setLastModifiedTime(directory.resolve("a.json"), Files.getLastModifiedTime(directory.resolve("c.json")));
+        Files.setLastModifiedTime(directory.resolve("b.json"),
+                FileTime.fromMillis(Files.getLastModifiedTime(directory.resolve("c.json")).toMillis() - 60_000));
+
+        ScanResultCache restarted = cache(2, Long.MAX_VALUE);
+
+        assertEquals(2, restarted.diskSize());
+        assertFalse(Files.exists(directory.resolve("d123.tmp")));
+        assertFalse(Files.exists(directory.resolve("b.json")), "the oldest file goes first");
+    }
+
+    private ScanResultCache cache(int diskMaxEntries, long diskMaxBytes) {
+        ScanResultCache cache = new ScanResultCache(objectMapper, registry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "ttlMinutes", 60L);
+        ReflectionTestUtils.setField(cache, "diskPath", directory.toString());
+        ReflectionTestUtils.setField(cache, "diskMaxEntries", diskMaxEntries);
+        ReflectionTestUtils.setField(cache, "diskMaxBytes", diskMaxBytes);
+        ReflectionTestUtils.setField(cache, "diskPurgeIntervalMinutes", 0L);
+        cache.init();
+        caches.add(cache);
+        return cache;
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> listing = Files.list(directory)) {
+            return listing.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static AnalysisResult result(String summary) {
+        AnalysisResult result = new AnalysisResult();
+        result.setSummary(summary);
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.Labelspy.service;
+
+import com.example.Labelspy.dto.TopIngredientDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class TrendingIngredientsTest {
+
+    @Test
+    void heavyHittersSurviveALongTailAndMergeAcrossNodes() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getTrendingSnapshots(anyString(), anyString())).thenReturn(List.of());
+        TrendingIngredients nodeA = node(dataStore, "a");
+        TrendingIngredients nodeB = node(dataStore, "b");
+
+        for (int i = 0; i < 5_000; i++) {
+            // far more distinct ingredients than the summary tracks
+            nodeA.record(List.of("e471", "tail-" + i));
+            if (i % 2 == 0) {
+                nodeA.record(List.of("sugar"));
+            }
+        }
+        for (int i = 0; i < 3_000; i++) {
+            nodeB.record(List.of("sugar", "b-tail-" + i));
+        }
+
+        List<TopIngredientDto> local = nodeA.top(TrendingIngredients.Granularity.HOUR, 1, 2);
+        assertEquals(List.of("e471", "sugar"), local.stream().map(TopIngredientDto::getIngredientId).toList());
+        assertEquals(5_000, local.get(0).getCount(), "heavy hitters are counted exactly here");
+
+        ArgumentCaptor<TrendingSnapshot> snapshots = ArgumentCaptor.forClass(TrendingSnapshot.class);
+        nodeA.snapshot();
+        verify(dataStore, times(2)).saveTrendingSnapshot(snapshots.capture());
+        List<TrendingSnapshot> stored = new ArrayList<>(snapshots.getAllValues());
+        assertTrue(stored.stream().allMatch(snapshot -> snapshot.node().equals("a")));
+        when(dataStore.getTrendingSnapshots(anyString(), anyString())).thenAnswer(query -> stored.stream()
+                .filter(snapshot -> snapshot.bucket().compareTo(query.getArgument(0)) >= 0
+                        && snapshot.bucket().compareTo(query.getArgument(1)) <= 0)
+                .toList());
+        nodeB.snapshot();
+
+        List<TopIngredientDto> global = nodeB.top(TrendingIngredients.Granularity.DAY, 1, 2);
+        assertEquals(List.of("sugar", "e471"), global.stream().map(TopIngredientDto::getIngredientId).toList());
+        int sugar = global.get(0).getCount();
+        assertTrue(sugar >= 5_500 && sugar <= 5_500 + 200, "estimate stays within the sketch bound: " + sugar);
+        assertEquals("Sugar", global.get(0).getIngredientName());
+
+        assertThrows(IllegalArgumentException.class, () -> nodeB.top(TrendingIngredients.Granularity.HOUR, 49, 2));
+    }
+
+    private static TrendingIngredients node(DataStore dataStore, String nodeId) {
+        return new TrendingIngredients(dataStore, new IngredientDictionary(), new SimpleMeterRegistry(),
+                true, 2048, 4, 50, 48, 30, 0, nodeId);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.Labelspy.service.preprocess;
+
+import com.example.Labelspy.support.SyntheticLabels;
+import com.example.Labelspy.util.ImageTooLargeException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImagePreprocessorTest {
+
+    private static final long MAX_PIXELS = 50_000_000;
+
+    @Test
+    void resizeHalvesDownToTheLongestEdge() {
+        ResizeStage resize = new ResizeStage(1600);
+
+        BufferedImage resized = resize.apply(new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB));
+        assertEquals(1600, resized.getWidth());
+        assertEquals(1200, resized.getHeight());
+
+        BufferedImage small = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        assertSame(small, resize.apply(small));
+    }
+
+    @Test
+    void autoCropTrimsUniformBordersButNotTheLabel() {
+        AutoCropStage crop = new AutoCropStage(true, 24);
+        BufferedImage framed = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = framed.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 400, 300);
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(100, 50, 200, 150);
+        g.dispose();
+
+        BufferedImage cropped = crop.apply(framed);
+        assertEquals(200, cropped.getWidth());
+        assertEquals(150, cropped.getHeight());
+
+        // a speck is too little to be the label, so the image is left alone
+        BufferedImage speck = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        speck.setRGB(200, 150, 0xffffff);
+        assertSame(speck, crop.apply(speck));
+    }
+
+    @Test
+    void grayscaleConvertsToOneChannel() {
+        BufferedImage gray = new GrayscaleStage(true).apply(SyntheticLabels.label(1, 300, 400));
+
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, gray.getType());
+        assertEquals(300, gray.getWidth());
+        assertEquals(400, gray.getHeight());
+    }
+
+    @Test
+    void shrinksLargeUploadsToJpeg() {
+        ImagePreprocessor preprocessor = preprocessor(MAX_PIXELS);
+        byte[] original = SyntheticLabels.png(SyntheticLabels.label(1, 2400, 3200));
+
+        PreprocessedImage prepared = preprocessor.process(original, "image/png");
+
+        assertEquals("image/jpeg", prepared.mimeType());
+        assertTrue(prepared.bytes().length < original.length);
+        assertTrue(Math.max(prepared.image().getWidth(), prepared.image().getHeight()) <= 1600);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, prepared.image().getType());
+    }
+
+    @Test
+    void keepsASmallerOriginalWithoutMetadata() {
+        byte[] original = SyntheticLabels.jpeg(SyntheticLabels.label(1, 300, 400), 0.05f);
+
+        PreprocessedImage prepared = preprocessor(MAX_PIXELS).process(original, "image/jpeg");
+
+        assertSame(original, prepared.bytes());
+        assertNotNull(prepared.image());
+    }
+
+    @Test
+    void neverPassesOnAnOriginalCarryingMetadata() {
+        byte[] original = withExif(SyntheticLabels.jpeg(SyntheticLabels.label(1, 300, 400), 0.05f));
+        assertTrue(ImageMetadata.present(original));
+
+        PreprocessedImage prepared = preprocessor(MAX_PIXELS).process(original, "image/jpeg");
+
+        assertNotSame(original, prepared.bytes());
+        assertEquals("image/jpeg", prepared.mimeType());
+        assertFalse(ImageMetadata.present(prepared.bytes()));
+    }
+
+    @Test
+    void detectsMetadataInPngTextChunks() {
+        byte[] png = SyntheticLabels.png(SyntheticLabels.label(1, 60, 80));
+        assertFalse(ImageMetadata.present(png));
+        assertTrue(ImageMetadata.present(withText(png)));
+        assertTrue(ImageMetadata.present("GIF89a".getBytes(StandardCharsets.US_ASCII)), "unknown formats are assumed to carry some");
+    }
+
+    @Test
+    void passesUnsupportedUploadsThrough() {
+        byte[] original = "not an image".getBytes(StandardCharsets.UTF_8);
+
+        PreprocessedImage prepared = preprocessor(MAX_PIXELS).process(original, "image/jpeg");
+
+        assertSame(original, prepared.bytes());
+        assertNull(prepared.image());
+    }
+
+    @Test
+    void refusesUploadsOverThePixelBudget() {
+        byte[] original = SyntheticLabels.png(SyntheticLabels.label(1, 300, 400));
+
+        assertThrows(ImageTooLargeException.class, () -> preprocessor(300 * 400 - 1).process(original, "image/png"));
+    }
+
+    @Test
+    void passesEverythingThroughWhenDisabled() {
+        byte[] original = SyntheticLabels.png(SyntheticLabels.label(1, 300, 400));
+
+        PreprocessedImage prepared = new ImagePreprocessor(List.of(), new SimpleMeterRegistry(), false, 0.85f, MAX_PIXELS)
+                .process(original, "image/png");
+
+        assertSame(original, prepared.bytes());
+        assertEquals("image/png", prepared.mimeType());
+    }
+
+    private static ImagePreprocessor preprocessor(long maxPixels) {
+        return new ImagePreprocessor(List.of(new ResizeStage(1600), new AutoCropStage(true, 24), new GrayscaleStage(true)),
+                new SimpleMeterRegistry(), true, 0.85f, maxPixels);
+    }
+
+    /** Inserts an APP1 segment with an empty EXIF directory after the JPEG's SOI marker */
+    private static byte[] withExif(byte[] jpeg) {
+        byte[] tiff = {'I', 'I', 42, 0, 8, 0, 0, 0, 0, 0};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xFF);
+        out.write(0xE1);
+        int length = 2 + 6 + tiff.length;
+        out.write(length >> 8);
+        out.write(length & 0xff);
+        out.writeBytes("Exif\0\0".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(tiff);
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    /** Inserts a tEXt chunk after the PNG's IHDR chunk */
+    private static byte[] withText(byte[] png) {
+        byte[] type = "tEXt".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = "Comment\0taken at home".getBytes(StandardCharsets.ISO_8859_1);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        int afterHeader = 8 + 12 + 13;
+        ByteBuffer chunk = ByteBuffer.allocate(12 + data.length)
+                .putInt(data.length).put(type).put(data).putInt((int) crc.getValue());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(png, 0, afterHeader);
+        out.writeBytes(chunk.array());
+        out.write(png, afterHeader, png.length - afterHeader);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.Labelspy.support;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * Generates label-like test images and perturbed re-photographs of them.
+ */
+public final class SyntheticLabels {
+
+    private static final String[] WORDS = {
+            "sugar", "wheat flour", "palm oil", "soy lecithin", "salt", "E322", "E471", "citric acid",
+            "natural flavouring", "cocoa butter", "milk powder", "E330", "glucose syrup", "E150d",
+            "sodium bicarbonate", "whey", "emulsifier", "E500", "vanillin", "maltodextrin"
+    };
+
+    private SyntheticLabels() {
+    }
+
+    public static BufferedImage label(long seed, int width, int height) {
+        Random random = new Random(seed);
+        return draw(random, random, width, height);
+    }
+
+    /**
+     * A label with the colours and shapes of layoutSeed's but the ingredient text of textSeed's,
+     * like two products of one brand
+     */
+    public static BufferedImage label(long layoutSeed, long textSeed, int width, int height) {
+        return draw(new Random(layoutSeed), new Random(textSeed), width, height);
+    }
+
+    private static BufferedImage draw(Random random, Random text, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(new Color(235 + random.nextInt(20), 235 + random.nextInt(20), 220 + random.nextInt(35)));
+        g.fillRect(0, 0, width, height);
+
+        g.setColor(new Color(random.nextInt(200), random.nextInt(200), random.nextInt(200)));
+        g.fillRect(0, 0, width, height / 6);
+        for (int i = 0; i < 4; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), width / 6, height / 8);
+        }
+
+        g.setColor(Color.DARK_GRAY);
+        int fontSize = Math.max(10, height / 28);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, fontSize));
+        int y = height / 6 + fontSize * 2;
+        while (y < height - fontSize) {
+            StringBuilder line = new StringBuilder();
+            int words = 2 + text.nextInt(4);
+            for (int i = 0; i < words; i++) {
+                line.append(WORDS[text.nextInt(WORDS.length)]).append(", ");
+            }
+            g.drawString(line.toString(), fontSize, y);
+            y += fontSize + fontSize / 2;
+        }
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Simulates a second photo of the same label: small crop, slight rotation,
+     * exposure change and a JPEG re-encode.
+     */
+    public static BufferedImage perturb(BufferedImage source, long seed) {
+        Random random = new Random(seed);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int cropX = (int) (width * random.nextDouble() * 0.04);
+        int cropY = (int) (height * random.nextDouble() * 0.04);
+        int cropW = width - cropX - (int) (width * random.nextDouble() * 0.04);
+        int cropH = height - cropY - (int) (height * random.nextDouble() * 0.04);
+
+        BufferedImage out = new BufferedImage(cropW, cropH, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setColor(new Color(source.getRGB(width - 1, height - 1)));
+        g.fillRect(0, 0, cropW, cropH);
+        double angle = Math.toRadians((random.nextDouble() - 0.5) * 4);
+        g.setTransform(AffineTransform.getRotateInstance(angle, cropW / 2.0, cropH / 2.0));
+        g.drawImage(source, -cropX, -cropY, null);
+        g.dispose();
+
+        float gain = 0.9f + random.nextFloat() * 0.2f;
+        for (int y = 0; y < cropH; y++) {
+            for (int x = 0; x < cropW; x++) {
+                int rgb = out.getRGB(x, y);
+                int r = Math.min(255, (int) (((rgb >> 16) & 0xff) * gain));
+                int gr = Math.min(255, (int) (((rgb >> 8) & 0xff) * gain));
+                int b = Math.min(255, (int) ((rgb & 0xff) * gain));
+                out.setRGB(x, y, (r << 16) | (gr << 8) | b);
+            }
+        }
+        return out;
+    }
+
+    public static byte[] jpeg(BufferedImage image, float quality) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    public static byte[] png(BufferedImage image) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.Labelspy.util;
+
+import com.example.Labelspy.support.SyntheticLabels;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerceptualHashTest {
+
+    private static final int THRESHOLD = 64;
+    private static final long MAX_PIXELS = 50_000_000;
+
+    @Test
+    void reEncodedImageHashesClose() throws Exception {
+        BufferedImage label = SyntheticLabels.label(1, 600, 800);
+        long[] png = PerceptualHash.of(SyntheticLabels.png(label), MAX_PIXELS);
+        long[] jpeg = PerceptualHash.of(SyntheticLabels.jpeg(label, 0.5f), MAX_PIXELS);
+
+        assertTrue(PerceptualHash.distance(png, jpeg) <= 16);
+    }
+
+    @Test
+    void refusesToDecodeImagesOverThePixelBudget() {
+        byte[] png = SyntheticLabels.png(SyntheticLabels.label(1, 600, 800));
+
+        ImageTooLargeException error = assertThrows(ImageTooLargeException.class, () -> PerceptualHash.of(png, 600 * 800 - 1));
+        assertEquals(600, error.getWidth());
+        assertEquals(800, error.getHeight());
+    }
+
+    @Test
+    void perturbedCopiesResolveToTheirOriginal() {
+        BkTree<long[], Integer> tree = new BkTree<>(PerceptualHash::distance);
+        BufferedImage[] labels = new BufferedImage[20];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = SyntheticLabels.label(i, 600, 800);
+            tree.add(PerceptualHash.of(labels[i]), i);
+        }
+
+        int matched = 0;
+        for (int i = 0; i < labels.length; i++) {
+            BufferedImage copy = SyntheticLabels.perturb(labels[i], 1000 + i);
+            BkTree.Match<long[], Integer> match = tree.nearest(PerceptualHash.of(copy), THRESHOLD);
+            if (match != null) {
+                assertEquals(i, match.value());
+                matched++;
+            }
+        }
+        assertTrue(matched >= labels.length * 3 / 4, "matched " + matched);
+    }
+
+    @Test
+    void distinctLabelsDoNotMatch() {
+        BkTree<long[], Integer> tree = new BkTree<>(PerceptualHash::distance);
+        for (int i = 0; i < 20; i++) {
+            tree.add(PerceptualHash.of(SyntheticLabels.label(i, 600, 800)), i);
+        }
+        for (int i = 100; i < 110; i++) {
+            assertNull(tree.nearest(PerceptualHash.of(SyntheticLabels.label(i, 600, 800)), THRESHOLD));
+        }
+    }
+
+    @Test
+    void bkTreeNearestMatchesLinearScan() {
+        java.util.Random random = new java.util.Random(7);
+        BkTree<long[], Integer> tree = new BkTree<>(PerceptualHash::distance);
+        long[][] keys = new long[500][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.longs(PerceptualHash.BITS / Long.SIZE).toArray();
+            tree.add(keys[i], i);
+        }
+        for (int q = 0; q < 50; q++) {
+            long[] query = keys[random.nextInt(keys.length)].clone();
+            for (int flip = 0; flip < 20; flip++) {
+                int bit = random.nextInt(PerceptualHash.BITS);
+                query[bit / Long.SIZE] ^= 1L << (bit % Long.SIZE);
+            }
+            int best = Integer.MAX_VALUE;
+            for (long[] key : keys) {
+                best = Math.min(best, PerceptualHash.distance(query, key));
+            }
+            BkTree.Match<long[], Integer> match = tree.nearest(query, 40);
+            assertNotNull(match);
+            assertEquals(best, match.distance());
+        }
+    }
+}
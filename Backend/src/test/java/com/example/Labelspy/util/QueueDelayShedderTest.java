@@ -0,0 +1,40 @@
+package com.example.Labelspy.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueueDelayShedderTest {
+
+    private static final long MS = 1_000_000;
+
+    private final QueueDelayShedder shedder = new QueueDelayShedder(100, 1000);
+
+    @Test
+    void burstWithinAnIntervalIsNotOverload() {
+        shedder.record(500 * MS, 0);
+        shedder.record(50 * MS, 400 * MS);
+        shedder.record(800 * MS, 1000 * MS);
+
+        assertFalse(shedder.isOverloaded(), "one short wait in the interval means the queue drained");
+        assertEquals(1000 * MS, shedder.maxWaitNanos());
+    }
+
+    @Test
+    void standingDelayForAnIntervalShedsAtTarget() {
+        shedder.record(300 * MS, 0);
+        shedder.record(200 * MS, 500 * MS);
+        shedder.record(400 * MS, 1000 * MS);
+
+        assertTrue(shedder.isOverloaded());
+        assertEquals(200 * MS, shedder.maxWaitNanos());
+
+        shedder.record(150 * MS, 1500 * MS);
+        shedder.record(180 * MS, 2000 * MS);
+        assertTrue(shedder.isOverloaded(), "waits between target and the shedding limit keep the queue standing");
+
+        shedder.record(20 * MS, 2500 * MS);
+        shedder.record(190 * MS, 3000 * MS);
+        assertFalse(shedder.isOverloaded(), "an interval with a wait under target ends the overload");
+    }
+}
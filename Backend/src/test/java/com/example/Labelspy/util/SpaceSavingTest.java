@@ -0,0 +1,61 @@
+package com.example.Labelspy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingTest {
+
+    @Test
+    void mergingFullSummariesWithDisjointTailsKeepsTheBounds() {
+        Map<String, Long> truth = new HashMap<>();
+        SpaceSaving nodeA = new SpaceSaving(4);
+        offer(nodeA, truth, "split", 20);
+        offer(nodeA, truth, "shared", 50);
+        for (int i = 0; i < 10; i++) {
+            offer(nodeA, truth, "a-" + i, 1);
+        }
+        SpaceSaving nodeB = new SpaceSaving(4);
+        offer(nodeB, truth, "split", 20);
+        offer(nodeB, truth, "shared", 50);
+        for (int i = 0; i < 3; i++) {
+            // the third evicts split, which node B no longer reports
+            offer(nodeB, truth, "b-" + i, 25);
+        }
+        assertTrue(nodeB.entries().stream().noneMatch(entry -> entry.key().equals("split")));
+
+        nodeA.merge(nodeB);
+
+        assertEquals(4, nodeA.size());
+        assertTrue(nodeA.entries().stream().anyMatch(entry -> entry.key().equals("split")));
+        for (SpaceSaving.Entry entry : nodeA.entries()) {
+            long seen = truth.get(entry.key());
+            assertTrue(entry.count() >= seen, entry + " undercounts " + seen);
+            assertTrue(entry.count() - entry.error() <= seen, entry + " overstates its lower bound " + seen);
+        }
+        assertEquals("shared", nodeA.entries().get(0).key());
+        assertEquals(100, nodeA.entries().get(0).count());
+    }
+
+    @Test
+    void mergingSummariesThatNeverEvictedIsExact() {
+        SpaceSaving nodeA = new SpaceSaving(4);
+        nodeA.offer("sugar", 3);
+        SpaceSaving nodeB = new SpaceSaving(4);
+        nodeB.offer("sugar", 2);
+        nodeB.offer("salt", 1);
+
+        nodeA.merge(nodeB);
+
+        assertEquals(new SpaceSaving.Entry("sugar", 5, 0), nodeA.entries().get(0));
+        assertEquals(new SpaceSaving.Entry("salt", 1, 0), nodeA.entries().get(1));
+    }
+
+    private static void offer(SpaceSaving summary, Map<String, Long> truth, String key, long count) {
+        summary.offer(key, count);
+        truth.merge(key, count, Long::sum);
+    }
+}
@@ -61,7 +61,7 @@ export default function DashboardPage() {
   };
 
   // Calculate stats
-  const totalScans = scanHistory.length;
+  const totalScans = profile?.scanCount ?? scanHistory.length;
   const thisWeekScans = scanHistory.filter((scan) => {
     const scanDate = new Date(scan.timestamp);
     const weekAgo = new Date();
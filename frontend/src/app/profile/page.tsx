@@ -255,7 +255,7 @@ export default function ProfilePage() {
                 </span>
                 {profile && (
                   <span className="px-2 py-0.5 bg-purple-500/20 text-purple-400 text-xs rounded-full">
-                    {profile.scanHistory?.length || 0} scans
+                    {profile.scanCount ?? 0} scans
                   </span>
                 )}
               </div>
@@ -38,7 +38,7 @@ export interface UserProfile {
   email: string;
   displayName: string;
   ingredientCounts: Record<string, number>;
-  scanHistory?: ScanSummary[];
+  scanCount?: number;
 }
 
 /**
@@ -209,18 +209,33 @@ export async function getTopIngredients(): Promise<TopIngredient[]> {
   return response.json();
 }
 
+// Largest page the backend serves (scan.history.max-page-size)
+const SCAN_HISTORY_PAGE_SIZE = 500;
+
 /**
- * Get user's scan history
+ * Get user's whole scan history, newest first, following X-Next-Cursor page by page
  */
 export async function getScanHistory(): Promise<ScanSummary[]> {
-  const response = await fetchWithRetry("/user/scan-history");
+  const scans: ScanSummary[] = [];
+  let cursor: string | null = null;
+  do {
+    const params = new URLSearchParams({ limit: String(SCAN_HISTORY_PAGE_SIZE) });
+    if (cursor) {
+      params.set("startAfter", cursor);
+    }
+    const response = await fetchWithRetry(`/user/scan-history?${params}`);
 
-  if (!response.ok) {
-    const error = await response.text();
-    throw new Error(error || "Failed to get scan history");
-  }
+    if (!response.ok) {
+      const error = await response.text();
+      throw new Error(error || "Failed to get scan history");
+    }
 
-  return response.json();
+    const page: ScanSummary[] = await response.json();
+    scans.push(...page);
+    cursor = response.headers.get("X-Next-Cursor");
+  } while (cursor);
+
+  return scans;
 }
 
 /**